@@ -10,9 +10,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Queue;
+import java.util.Random;
 import java.util.Set;
-import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
 
 import java_cup.runtime.ComplexSymbolFactory;
 import edu.cmu.ml.rtw.generic.data.annotation.nlp.TokenSpan;
@@ -34,6 +37,7 @@ import edu.cmu.ml.rtw.generic.task.classify.multi.MethodMultiClassification;
 import edu.cmu.ml.rtw.generic.task.classify.multi.TaskMultiClassification;
 import edu.cmu.ml.rtw.generic.util.FileUtil;
 import edu.cmu.ml.rtw.generic.util.Pair;
+import edu.cmu.ml.rtw.generic.util.ThreadMapper;
 
 /**
  * Context holds a set of named objects that have 
@@ -42,6 +46,22 @@ import edu.cmu.ml.rtw.generic.util.Pair;
  * These objects can refer to named tools stored in 
  * edu.cmu.ml.rtw.generic.data.DataTools. 
  * 
+ * If getContextThreads returns more than one thread, then
+ * the assignments in a script are evaluated concurrently
+ * wherever ContextAssignmentGraph finds that they are 
+ * independent.  Reference ids and objNameOrdering 
+ * are still the same as if the assignments were evaluated
+ * in order.  A script can set its own contextThreads value,
+ * in which case the assignments up to and including that 
+ * value are evaluated in order.  Each concurrently evaluated 
+ * assignment gets its own Random instance (see 
+ * DataTools.getAssignmentRandom), so random choices don't depend 
+ * on the order of evaluation.  Assignments evaluated in order use
+ * the global Random instance, as they did before assignments could
+ * be evaluated concurrently.
+ * If an assignment fails, the assignments that have already
+ * been evaluated are not rolled back.
+ * 
  * @author Bill McDowell
  *
  */
@@ -81,6 +101,274 @@ public class Context extends CtxParsableFunction {
 		}
 	}
 	
+	/**
+	 * StoredObject is an object stored by an assignment that is
+	 * evaluated concurrently with others.  Unnamed objects are
+	 * stored under temporary keys until all of the earlier 
+	 * assignments have finished, and then they are given their
+	 * reference ids.
+	 */
+	private static class StoredObject {
+		private String objectTypeStr; // Null if the object isn't in objNameOrdering
+		private String referenceName;
+		private String key;
+		private Map<String, Object> storageMap;
+		private boolean ordered;
+		
+		@SuppressWarnings("unchecked")
+		public StoredObject(String objectTypeStr, String referenceName, String key, Map<String, ?> storageMap) {
+			this.objectTypeStr = objectTypeStr;
+			this.referenceName = referenceName;
+			this.key = key;
+			this.storageMap = (Map<String, Object>)storageMap;
+			this.ordered = false;
+		}
+	}
+	
+	/**
+	 * AssignmentBlock holds the objects stored by an assignment
+	 * that is evaluated concurrently with others, in the order
+	 * in which they were stored
+	 */
+	private static class AssignmentBlock {
+		private int index;
+		private List<StoredObject> objects;
+		
+		public AssignmentBlock(int index) {
+			this.index = index;
+			this.objects = new ArrayList<StoredObject>();
+		}
+	}
+	
+	/**
+	 * AssignmentEvaluation evaluates the assignments of a script
+	 * on the pool shared by ThreadMappers (see ThreadMapper.getPool),
+	 * running at most maxThreads assignments at once, and starting 
+	 * each assignment once the assignments that it depends on have 
+	 * finished.  Objects are stored as soon as they're constructed so
+	 * that dependent assignments can use them, but their entries are
+	 * inserted into objNameOrdering at the positions they would have 
+	 * if the assignments were evaluated in order, and unnamed objects
+	 * get their reference ids in that order too.
+	 * 
+	 * If an assignment fails, then no more assignments are started,
+	 * but the assignments that have already been evaluated (including
+	 * ones that come after the failed assignment in the script) are 
+	 * not rolled back, so their objects remain in the context.
+	 */
+	private class AssignmentEvaluation {
+		private AssignmentList assignments;
+		private int scriptOffset; // Position of the first assignment in the script
+		private long scriptSeed;
+		private ContextAssignmentGraph graph;
+		private AssignmentBlock[] blocks; // Null until the assignment has finished
+		private int[] orderedCounts; // Entries in objNameOrdering for each assignment
+		private int[] remainingDependencies;
+		private int orderingOffset;
+		private int committed; // Assignments before this index have finished and have reference ids
+		private int maxThreads;
+		private int running;
+		private Queue<Integer> ready; // Assignments waiting for one of the maxThreads threads
+		private boolean cancelled;
+		private int failedIndex;
+		private Throwable failure;
+		
+		public AssignmentEvaluation(AssignmentList assignments, int scriptOffset, long scriptSeed) {
+			this.assignments = assignments;
+			this.scriptOffset = scriptOffset;
+			this.scriptSeed = scriptSeed;
+			this.graph = new ContextAssignmentGraph(assignments);
+			this.blocks = new AssignmentBlock[assignments.size()];
+			this.orderedCounts = new int[assignments.size()];
+			this.remainingDependencies = new int[assignments.size()];
+			for (int i = 0; i < this.remainingDependencies.length; i++)
+				this.remainingDependencies[i] = this.graph.getDependencies(i).length;
+			this.ready = new LinkedList<Integer>();
+			this.failedIndex = -1;
+		}
+		
+		public boolean run(int maxThreads) {
+			this.orderingOffset = Context.this.objNameOrdering.size();
+			this.maxThreads = maxThreads;
+			
+			synchronized (this) {
+				for (int i = 0; i < this.remainingDependencies.length; i++)
+					if (this.remainingDependencies[i] == 0)
+						submit(i);
+			}
+			
+			try {
+				// Lets the pool add a thread while this one waits if this
+				// is one of the pool's threads (e.g. evaluating a context)
+				ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+					@Override
+					public boolean block() throws InterruptedException {
+						synchronized (AssignmentEvaluation.this) {
+							// No more assignments are submitted once none are running
+							while (AssignmentEvaluation.this.running > 0)
+								AssignmentEvaluation.this.wait();
+						}
+						return true;
+					}
+
+					@Override
+					public boolean isReleasable() {
+						synchronized (AssignmentEvaluation.this) {
+							return AssignmentEvaluation.this.running == 0;
+						}
+					}
+				});
+			} catch (InterruptedException e) {
+				synchronized (this) {
+					this.cancelled = true;
+					this.ready.clear();
+				}
+				Thread.currentThread().interrupt();
+				return false;
+			}
+			
+			synchronized (this) {
+				// Assignments after a failure may have finished
+				for (int i = this.committed; i < this.blocks.length; i++)
+					if (this.blocks[i] != null)
+						commit(i);
+				
+				if (this.failure instanceof RuntimeException)
+					throw (RuntimeException)this.failure;
+				else if (this.failure instanceof Error)
+					throw (Error)this.failure;
+				
+				if (this.failedIndex >= 0) {
+					Context.this.dataTools.getOutputWriter().debugWriteln("ERROR: Failed to construct '" + this.assignments.get(this.failedIndex).getName() + "' from context parse."); 
+					return false;
+				}
+				
+				for (int i = 0; i < this.blocks.length; i++) {
+					if (this.blocks[i] == null) // Unreachable unless the graph has a cycle
+						return false;
+				}
+			}
+			
+			return true;
+		}
+		
+		private void submit(final int index) {
+			if (this.cancelled)
+				return;
+			
+			if (this.running >= this.maxThreads) {
+				this.ready.add(index);
+				return;
+			}
+			
+			this.running++;
+			ThreadMapper.getPool().execute(new Runnable() {
+				@Override
+				public void run() {
+					evaluate(index);
+				}
+			});
+		}
+		
+		private void evaluate(int index) {
+			AssignmentBlock block = new AssignmentBlock(index);
+			
+			// A pool thread can start this while it waits inside of another
+			// assignment, so that assignment's block is restored afterward
+			AssignmentBlock enclosingBlock = Context.this.assignmentBlock.get();
+			Context.this.assignmentBlock.set(block);
+			boolean success = false;
+			Throwable failure = null;
+			try {
+				Assignment.AssignmentTyped assignment = (Assignment.AssignmentTyped)this.assignments.get(index);
+				success = fromParseAssignment(assignment, getAssignmentSeed(this.scriptSeed, this.scriptOffset + index));
+			} catch (RuntimeException | Error e) {
+				failure = e;
+			} finally {
+				if (enclosingBlock == null)
+					Context.this.assignmentBlock.remove();
+				else
+					Context.this.assignmentBlock.set(enclosingBlock);
+			}
+			
+			finish(block, success, failure);
+		}
+		
+		private synchronized void finish(AssignmentBlock block, boolean success, Throwable failure) {
+			this.running--;
+			
+			if (!success) {
+				if (this.failedIndex < 0 || block.index < this.failedIndex) {
+					this.failedIndex = block.index;
+					this.failure = failure;
+				}
+				
+				this.cancelled = true;
+				this.ready.clear();
+			} else {
+				this.blocks[block.index] = block;
+				for (StoredObject obj : block.objects)
+					if (obj.referenceName != null)
+						order(block, obj);
+				
+				while (this.committed < this.blocks.length && this.blocks[this.committed] != null) {
+					commit(this.committed);
+					this.committed++;
+				}
+				
+				for (Integer dependent : this.graph.getDependents(block.index)) {
+					this.remainingDependencies[dependent]--;
+					if (this.remainingDependencies[dependent] == 0)
+						submit(dependent);
+				}
+			}
+			
+			while (!this.cancelled && this.running < this.maxThreads && !this.ready.isEmpty())
+				submit(this.ready.poll());
+			
+			notifyAll();
+		}
+
+		/**
+		 * Gives reference ids to the unnamed objects stored by an assignment
+		 */
+		private void commit(int index) {
+			AssignmentBlock block = this.blocks[index];
+			for (StoredObject obj : block.objects) {
+				if (obj.referenceName != null)
+					continue;
+				
+				obj.referenceName = nextReferenceId();
+				obj.storageMap.put(obj.referenceName, obj.storageMap.get(obj.key));
+				order(block, obj);
+				obj.storageMap.remove(obj.key);
+			}
+		}
+		
+		/**
+		 * Inserts the objNameOrdering entry for an object after the entries 
+		 * for the objects stored before it by the same or earlier assignments
+		 */
+		private void order(AssignmentBlock block, StoredObject obj) {
+			obj.ordered = true;
+			if (obj.objectTypeStr == null)
+				return;
+			
+			int position = this.orderingOffset;
+			for (int i = 0; i < block.index; i++)
+				position += this.orderedCounts[i];
+			for (StoredObject blockObj : block.objects) {
+				if (blockObj == obj)
+					break;
+				if (blockObj.ordered && blockObj.objectTypeStr != null)
+					position++;
+			}
+			
+			Context.this.objNameOrdering.add(position, new Pair<String, String>(obj.objectTypeStr, obj.referenceName));
+			this.orderedCounts[block.index]++;
+		}
+	}
+	
 	private boolean initOverrideByName = false;
 	private String initScript;
 	private boolean initOnce = true;
@@ -107,6 +395,8 @@ public class Context extends CtxParsableFunction {
 	private Map<String, EvaluationMultiClassification<?>> multiClassifyEvals;
 	
 	protected int currentReferenceId;
+	private Object matchLock; // Held while matching or storing functions, rules, and searches (but not while constructing them)
+	private ThreadLocal<AssignmentBlock> assignmentBlock; // Set while evaluating assignments concurrently
 	
 	public Context(DataTools dataTools) {
 		this(dataTools, "Context", null);
@@ -114,7 +404,7 @@ public class Context extends CtxParsableFunction {
 	
 	public Context(DataTools dataTools, String genericName, Context parentContext) {
 		this.dataTools = dataTools;
-		this.objNameOrdering = new ArrayList<Pair<String, String>>();
+		this.objNameOrdering = new CopyOnWriteArrayList<Pair<String, String>>();
 		this.storageMaps = new ArrayList<Map<String, ?>>();
 		
 		this.contexts = new ConcurrentHashMap<String, Context>();
@@ -124,8 +414,8 @@ public class Context extends CtxParsableFunction {
 		this.structureFns = new ConcurrentHashMap<String, Fn<?, ?>>();
 		this.rules = new ConcurrentHashMap<String, Rule>();
 		this.ruleSets = new ConcurrentHashMap<String, RuleSet>();
-		this.arrays = new TreeMap<String, List<String>>();
-		this.values = new TreeMap<String, String>();
+		this.arrays = new ConcurrentSkipListMap<String, List<String>>();
+		this.values = new ConcurrentSkipListMap<String, String>();
 		this.searches = new ConcurrentHashMap<String, Search>();
 		this.multiClassifyMethods = new ConcurrentHashMap<String, MethodMultiClassification>();
 		this.multiClassifyTasks = new ConcurrentHashMap<String, TaskMultiClassification>();
@@ -146,6 +436,8 @@ public class Context extends CtxParsableFunction {
 		this.storageMaps.add(this.multiClassifyTasks);
 		
 		this.currentReferenceId = 0;
+		this.assignmentBlock = new ThreadLocal<AssignmentBlock>();
+		this.matchLock = new Object();
 		
 		this.genericName = genericName;
 		this.parentContext = parentContext;
@@ -219,17 +511,85 @@ public class Context extends CtxParsableFunction {
 			}
 		}
 		
+		// The script's own contextThreads value determines how the
+		// assignments after it are evaluated
+		int concurrentStart = 0;
 		for (int i = 0; i < internalAssignments.size(); i++) {
 			Assignment.AssignmentTyped assignment = (Assignment.AssignmentTyped)internalAssignments.get(i);
+			if (assignment.getType().equals(ObjectType.VALUE.toString()) && "contextThreads".equals(assignment.getName())) {
+				concurrentStart = i + 1;
+				break;
+			}
+		}
+		
+		if (!fromParseAssignments(internalAssignments, 0, concurrentStart))
+			return false;
+		
+		int contextThreads = getContextThreads();
+		if (contextThreads > 1 && internalAssignments.size() - concurrentStart > 1) {
+			// Scripts of contexts constructed by concurrently evaluated 
+			// assignments draw their seeds from the constructing assignment's
+			// Random instance
+			Random enclosingRandom = this.dataTools.assignmentRandom.get();
+			long scriptSeed = (enclosingRandom == null) ? 0 : enclosingRandom.nextLong();
+			
+			AssignmentList concurrentAssignments = new AssignmentList();
+			for (int i = concurrentStart; i < internalAssignments.size(); i++)
+				concurrentAssignments.add(internalAssignments.get(i));
+			return new AssignmentEvaluation(concurrentAssignments, concurrentStart, scriptSeed).run(contextThreads);
+		}
+		
+		return fromParseAssignments(internalAssignments, concurrentStart, internalAssignments.size());
+	}
+	
+	/**
+	 * Evaluates the assignments from start (inclusive) to end (exclusive)
+	 * in order.  These don't get Random instances of their own, so they
+	 * use the enclosing assignment's instance if there is one, and the 
+	 * global instance otherwise.
+	 */
+	private boolean fromParseAssignments(AssignmentList assignments, int start, int end) {
+		for (int i = start; i < end; i++) {
+			Assignment.AssignmentTyped assignment = (Assignment.AssignmentTyped)assignments.get(i);
 			if (!fromParseAssignment(assignment)) {
 				this.dataTools.getOutputWriter().debugWriteln("ERROR: Failed to construct '" + assignment.getName() + "' from context parse."); 
 				return false;
 			}
 		}
-
+		
 		return true;
 	}
 	
+	/**
+	 * @return the seed of the Random instance for the concurrently 
+	 * evaluated assignment at the given position in a script.  It only depends on the script seed, 
+	 * the position, and the current random seed (which can only be changed
+	 * by SetRandomSeed commands, which are evaluated after the assignments
+	 * before them and before the assignments after them).
+	 */
+	private long getAssignmentSeed(long scriptSeed, int index) {
+		return scriptSeed ^ (this.dataTools.getRandomSeed() * 0x5DEECE66DL) ^ ((index + 1) * 0x9E3779B97F4A7C15L);
+	}
+	
+	/**
+	 * Evaluates an assignment with its own Random instance, which is
+	 * returned by DataTools.getAssignmentRandom on the current thread
+	 * until the assignment finishes.  This is only used by 
+	 * AssignmentEvaluation.
+	 */
+	private boolean fromParseAssignment(Assignment.AssignmentTyped assignment, long seed) {
+		Random enclosingRandom = this.dataTools.assignmentRandom.get();
+		this.dataTools.assignmentRandom.set(this.dataTools.makeLocalRandom(seed));
+		try {
+			return fromParseAssignment(assignment);
+		} finally {
+			if (enclosingRandom == null)
+				this.dataTools.assignmentRandom.remove();
+			else
+				this.dataTools.assignmentRandom.set(enclosingRandom);
+		}
+	}
+	
 	protected boolean fromParseAssignment(Assignment.AssignmentTyped assignment) {
 		if (assignment.getType().equals(ObjectType.CONTEXT.toString())) {
 			if (runAssignmentCommandContext(assignment.getName(), (Obj.Function)assignment.getValue(), assignment.getModifiers()) == null) {
@@ -301,20 +661,41 @@ public class Context extends CtxParsableFunction {
 		if (result == null)
 			return null;
 
-		if (referenceName == null) {
-			// FIXME This works for now, but probably should disallow user-declared names that start with numbers to avoid conflicts
-			String currentReferenceIdStr = String.valueOf(this.currentReferenceId);
-			storageMap.put(currentReferenceIdStr, result);
-			this.objNameOrdering.add(new Pair<String, String>(objectTypeStr, currentReferenceIdStr));
-			this.currentReferenceId++;
-		} else {
-			storageMap.put(referenceName, result);
-			this.objNameOrdering.add(new Pair<String, String>(objectTypeStr, referenceName));
+		synchronized (this.matchLock) {
+			storeObject(objectTypeStr, referenceName, result, storageMap);
 		}
 		
 		return result;
 	}
 	
+	/**
+	 * Stores an object under its reference name, or under the next
+	 * reference id if it is unnamed, and adds it to objNameOrdering
+	 * unless objectTypeStr is null
+	 */
+	private <T> void storeObject(String objectTypeStr, String referenceName, T obj, Map<String, T> storageMap) {
+		AssignmentBlock block = this.assignmentBlock.get();
+		if (block != null) {
+			String key = (referenceName != null) ? referenceName : "#" + block.index + "_" + block.objects.size();
+			storageMap.put(key, obj);
+			block.objects.add(new StoredObject(objectTypeStr, referenceName, key, storageMap));
+			return;
+		}
+		
+		if (referenceName == null)
+			referenceName = nextReferenceId();
+		storageMap.put(referenceName, obj);
+		if (objectTypeStr != null)
+			this.objNameOrdering.add(new Pair<String, String>(objectTypeStr, referenceName));
+	}
+	
+	private synchronized String nextReferenceId() {
+		// FIXME This works for now, but probably should disallow user-declared names that start with numbers to avoid conflicts
+		String currentReferenceIdStr = String.valueOf(this.currentReferenceId);
+		this.currentReferenceId++;
+		return currentReferenceIdStr;
+	}
+	
 	public <T> List<T> getAssignedMatches(Obj obj) {
 		return getAssignedMatches(obj, null);
 	}
@@ -381,15 +762,37 @@ public class Context extends CtxParsableFunction {
 		return getMatchOrRunCommand(objectTypeStr, null, null, obj, storageMap);
 	}
 	
+	/**
+	 * Returns an object matching obj, or otherwise runs obj as a command
+	 * and stores the result.  The command runs outside of matchLock, so
+	 * if another thread stores a matching unnamed object in the meantime,
+	 * then that object is returned instead of the new one.
+	 */
 	protected <T extends CtxParsableFunction> T getMatchOrRunCommand(String objectTypeStr, List<String> modifiers, String referenceName, Obj obj, Map<String, T> storageMap) {
-		List<T> matches = getFunctionMatches(obj, storageMap);
-		if (matches.size() >= 1) {
-			return matches.get(0);
-		} else if (obj.getObjType() == Type.FUNCTION) {
-			return runAssignmentCommand(objectTypeStr, modifiers, referenceName, (Obj.Function)obj, storageMap);
-		} else {
+		synchronized (this.matchLock) {
+			List<T> matches = getFunctionMatches(obj, storageMap);
+			if (matches.size() >= 1)
+				return matches.get(0);
+		}
+		
+		if (obj.getObjType() != Type.FUNCTION)
+			return null;
+		
+		T result = runCommand(modifiers, referenceName, (Obj.Function)obj);
+		if (result == null)
 			return null;
+		
+		synchronized (this.matchLock) {
+			if (referenceName == null) {
+				List<T> matches = getFunctionMatches(obj, storageMap);
+				if (matches.size() >= 1)
+					return matches.get(0);
+			}
+			
+			storeObject(objectTypeStr, referenceName, result, storageMap);
 		}
+		
+		return result;
 	}
 	
 	/* Match and construct contexts */
@@ -427,167 +830,141 @@ public class Context extends CtxParsableFunction {
 	/* Match and construct token span fns */
 	
 	public Fn<TokenSpan, TokenSpan> getMatchTokenSpanFn(Obj obj) {
-		synchronized (this.tokenSpanFns) {
+		synchronized (this.matchLock) {
 			return getFunctionMatch(obj, this.tokenSpanFns);
 		}
 	}
 	
 	public List<Fn<TokenSpan, TokenSpan>> getMatchesTokenSpanFn(Obj obj) {
-		synchronized (this.tokenSpanFns) {
+		synchronized (this.matchLock) {
 			return getFunctionMatches(obj, this.tokenSpanFns);
 		}
 	}
 	
 	public Fn<TokenSpan, TokenSpan> getMatchOrRunCommandTokenSpanFn(String referenceName, Obj obj) {
-		synchronized (this.tokenSpanFns) {
-			return getMatchOrRunCommand(ObjectType.TOKEN_SPAN_FN.toString(), null, referenceName, obj, this.tokenSpanFns);
-		}
+		return getMatchOrRunCommand(ObjectType.TOKEN_SPAN_FN.toString(), null, referenceName, obj, this.tokenSpanFns);
 	}
 	
 	public Fn<TokenSpan, TokenSpan> getMatchOrRunCommandTokenSpanFn(Obj obj) {
-		synchronized (this.tokenSpanFns) {
-			return getMatchOrRunCommand(ObjectType.TOKEN_SPAN_FN.toString(), obj, this.tokenSpanFns);
-		}
+		return getMatchOrRunCommand(ObjectType.TOKEN_SPAN_FN.toString(), obj, this.tokenSpanFns);
 	}
 	
 	private Fn<TokenSpan, TokenSpan> runAssignmentCommandTokenSpanFn(String referenceName, Obj.Function obj, List<String> modifiers) {
-		synchronized (this.tokenSpanFns) {
-			return runAssignmentCommand(ObjectType.TOKEN_SPAN_FN.toString(), modifiers, referenceName, obj, this.tokenSpanFns);
-		}
+		return runAssignmentCommand(ObjectType.TOKEN_SPAN_FN.toString(), modifiers, referenceName, obj, this.tokenSpanFns);
 	}
 	
 	/* Match and construct str fns */
 	
 	public Fn<String, String> getMatchStrFn(Obj obj) {
-		synchronized (this.strFns) {
+		synchronized (this.matchLock) {
 			return getFunctionMatch(obj, this.strFns);
 		}
 	}
 	
 	public List<Fn<String, String>> getMatchesStrFn(Obj obj) {
-		synchronized (this.strFns) {
+		synchronized (this.matchLock) {
 			return getFunctionMatches(obj, this.strFns);
 		}
 	}
 
 	public Fn<String, String> getMatchOrRunCommandStrFn(String referenceName, Obj obj) {
-		synchronized (this.strFns) {
-			return getMatchOrRunCommand(ObjectType.STR_FN.toString(), null, referenceName, obj, this.strFns);
-		}
+		return getMatchOrRunCommand(ObjectType.STR_FN.toString(), null, referenceName, obj, this.strFns);
 	}
 	
 	public Fn<String, String> getMatchOrRunCommandStrFn(Obj obj) {
-		synchronized (this.strFns) {
-			return getMatchOrRunCommand(ObjectType.STR_FN.toString(), obj, this.strFns);
-		}
+		return getMatchOrRunCommand(ObjectType.STR_FN.toString(), obj, this.strFns);
 	}
 	
 	private Fn<String, String> runAssignmentCommandStrFn(String referenceName, Obj.Function obj, List<String> modifiers) {
-		synchronized (this.strFns) {
-			return runAssignmentCommand(ObjectType.STR_FN.toString(), modifiers, referenceName, obj, this.strFns);
-		}
+		return runAssignmentCommand(ObjectType.STR_FN.toString(), modifiers, referenceName, obj, this.strFns);
 	}
 	
 	/* Match and construct token span str fns */
 	
 	public Fn<TokenSpan, String> getMatchTokenSpanStrFn(Obj obj) {
-		synchronized (this.tokenSpanStrFns) {
+		synchronized (this.matchLock) {
 			return getFunctionMatch(obj, this.tokenSpanStrFns);
 		}
 	}
 	
 	public List<Fn<TokenSpan, String>> getMatchesTokenSpanStrFn(Obj obj) {
-		synchronized (this.tokenSpanStrFns) {
+		synchronized (this.matchLock) {
 			return getFunctionMatches(obj, this.tokenSpanStrFns);
 		}
 	}
 
 	public Fn<TokenSpan, String> getMatchOrRunCommandTokenSpanStrFn(String referenceName, Obj obj) {
-		synchronized (this.tokenSpanStrFns) {
-			return getMatchOrRunCommand(ObjectType.TOKEN_SPAN_STR_FN.toString(), null, referenceName, obj, this.tokenSpanStrFns);
-		}
+		return getMatchOrRunCommand(ObjectType.TOKEN_SPAN_STR_FN.toString(), null, referenceName, obj, this.tokenSpanStrFns);
 	}
 	
 	public Fn<TokenSpan, String> getMatchOrConstructTokenSpanStrFn(Obj obj) {
-		synchronized (this.tokenSpanStrFns) {
-			return getMatchOrRunCommand(ObjectType.TOKEN_SPAN_STR_FN.toString(), obj, this.tokenSpanStrFns);
-		}
+		return getMatchOrRunCommand(ObjectType.TOKEN_SPAN_STR_FN.toString(), obj, this.tokenSpanStrFns);
 	}
 	
 	private Fn<TokenSpan, String> runAssignmentCommandTokenSpanStrFn(String referenceName, Obj.Function obj, List<String> modifiers) {
-		synchronized (this.tokenSpanStrFns) {
-			return runAssignmentCommand(ObjectType.TOKEN_SPAN_STR_FN.toString(), modifiers, referenceName, obj, this.tokenSpanStrFns);
-		}
+		return runAssignmentCommand(ObjectType.TOKEN_SPAN_STR_FN.toString(), modifiers, referenceName, obj, this.tokenSpanStrFns);
 	}
 	
 	/* Match and construct structure fns */
 	
 	public Fn<?, ?> getMatchStructureFn(Obj obj) {
-		synchronized (this.structureFns) {
+		synchronized (this.matchLock) {
 			return getFunctionMatch(obj, this.structureFns);
 		}
 	}
 	
 	public List<Fn<?, ?>> getMatchesStructureFn(Obj obj) {
-		synchronized (this.structureFns) {
+		synchronized (this.matchLock) {
 			return getFunctionMatches(obj, this.structureFns);
 		}
 	}
 
 	public Fn<?, ?> getMatchOrRunCommandStructureFn(String referenceName, Obj obj) {
-		synchronized (this.structureFns) {
-			return getMatchOrRunCommand(ObjectType.STRUCTURE_FN.toString(), null, referenceName, obj, this.structureFns);
-		}
+		return getMatchOrRunCommand(ObjectType.STRUCTURE_FN.toString(), null, referenceName, obj, this.structureFns);
 	}
 	
 	public Fn<?, ?> getMatchOrConstructStructureFn(Obj obj) {
-		synchronized (this.structureFns) {
-			return getMatchOrRunCommand(ObjectType.STRUCTURE_FN.toString(), obj, this.structureFns);
-		}
+		return getMatchOrRunCommand(ObjectType.STRUCTURE_FN.toString(), obj, this.structureFns);
 	}
 	
 	private Fn<?, ?> runAssignmentCommandStructureFn(String referenceName, Obj.Function obj, List<String> modifiers) {
-		synchronized (this.structureFns) {
-			return runAssignmentCommand(ObjectType.STRUCTURE_FN.toString(), modifiers, referenceName, obj, this.structureFns);
-		}
+		return runAssignmentCommand(ObjectType.STRUCTURE_FN.toString(), modifiers, referenceName, obj, this.structureFns);
 	}
 	
 	/* Match and construct rules */
 	
 	public Rule getMatchRule(Obj obj) {
-		synchronized (this.rules) {
+		synchronized (this.matchLock) {
 			return getAssignedMatches(obj, this.rules).get(0);
 		}
 	}
 	
 	private Rule runAssignmentCommandRule(String referenceName, Obj.Rule obj, List<String> modifiers) {
-		synchronized (this.rules) {
-			Rule rule = new Rule();
-			if (!rule.fromParse(obj))
-				return null;
+		Rule rule = new Rule();
+		if (!rule.fromParse(obj))
+			return null;
+		synchronized (this.matchLock) {
 			this.rules.put(referenceName, rule);
-			return rule;
 		}
+		return rule;
 	}
 	
 	/* Match and construct rule sets */
 	
 	public RuleSet getMatchRuleSet(Obj obj) {
-		synchronized (this.ruleSets) {
+		synchronized (this.matchLock) {
 			return getFunctionMatch(obj, this.ruleSets);
 		}
 	}
 	
 	public List<RuleSet> getMatchesRuleSet(Obj obj) {
-		synchronized (this.ruleSets) {
+		synchronized (this.matchLock) {
 			return getFunctionMatches(obj, this.ruleSets);
 		}
 	}
 	
 	private RuleSet runAssignmentCommandRuleSet(String referenceName, Obj.Function obj, List<String> modifiers) {
-		synchronized (this.ruleSets) {
-			return runAssignmentCommand(ObjectType.RULE_SET.toString(), modifiers, referenceName, obj, this.ruleSets);
-		}
+		return runAssignmentCommand(ObjectType.RULE_SET.toString(), modifiers, referenceName, obj, this.ruleSets);
 	}
 	
 	/* Match and construct arrays */
@@ -625,12 +1002,7 @@ public class Context extends CtxParsableFunction {
 			return null;
 		}
 		
-		if (referenceName == null) {
-			this.arrays.put(String.valueOf(this.currentReferenceId), array);
-			this.currentReferenceId++;
-		} else {
-			this.arrays.put(referenceName, array);
-		}
+		storeObject(null, referenceName, array, this.arrays);
 
 		return array;
 	}
@@ -673,12 +1045,7 @@ public class Context extends CtxParsableFunction {
 			return null;
 		}
 		
-		if (referenceName == null) {
-			this.values.put(String.valueOf(this.currentReferenceId), value);
-			this.currentReferenceId++;
-		} else {
-			this.values.put(referenceName, value);
-		}
+		storeObject(null, referenceName, value, this.values);
 
 		return value;
 	}
@@ -686,21 +1053,19 @@ public class Context extends CtxParsableFunction {
 	/* Match and construct searches */
 	
 	public Search getMatchSearch(Obj obj) {
-		synchronized (this.searches) {
+		synchronized (this.matchLock) {
 			return getFunctionMatch(obj, this.searches);
 		}
 	}
 	
 	public List<Search> getMatchesSearch(Obj obj) {
-		synchronized (this.searches) {
+		synchronized (this.matchLock) {
 			return getFunctionMatches(obj, this.searches);
 		}
 	}
 	
 	private Search runAssignmentCommandSearch(String referenceName, Obj.Function obj, List<String> modifiers) {
-		synchronized (this.searches) {
-			return runAssignmentCommand(ObjectType.SEARCH.toString(), modifiers, referenceName, obj, this.searches);
-		}
+		return runAssignmentCommand(ObjectType.SEARCH.toString(), modifiers, referenceName, obj, this.searches);
 	}
 	
 	/* Match and construct multi-classify methods */
@@ -758,6 +1123,24 @@ public class Context extends CtxParsableFunction {
 		return 1;	
 	}
 	
+	/**
+	 * @return the number of threads on which the assignments of 
+	 * scripts are evaluated (1 if they're evaluated in order).  This
+	 * is given by the contextThreads value in this context or its 
+	 * ancestors, or by the contextThreads property.  A script's 
+	 * own contextThreads value only applies to the assignments 
+	 * after it.
+	 */
+	public int getContextThreads() {
+		String contextThreadsStr = getMatchValue(Obj.curlyBracedValue("contextThreads"));
+		if (contextThreadsStr != null)
+			return Integer.valueOf(contextThreadsStr);
+		
+		if (this.dataTools.getProperties() != null && this.dataTools.getProperties().getContextThreads() != null)
+			return this.dataTools.getProperties().getContextThreads();
+		return 1;	
+	}
+	
 	public int getRandomSeed() {
 		String randomSeedStr = getMatchValue(Obj.curlyBracedValue("randomSeed"));
 		if (randomSeedStr != null)
@@ -824,9 +1207,11 @@ public class Context extends CtxParsableFunction {
 	public Context only(String objectTypeStr) {
 		Context only = new Context(this.dataTools, this.genericName, this.parentContext);
 		
+		List<Pair<String, String>> onlyObjNameOrdering = new ArrayList<Pair<String, String>>();
 		for (Pair<String, String> objName : this.objNameOrdering)
 			if (objName.getFirst().equals(objectTypeStr))
-				only.objNameOrdering.add(objName);
+				onlyObjNameOrdering.add(objName);
+		only.objNameOrdering.addAll(onlyObjNameOrdering);
 		
 		return onlyHelper(only, objectTypeStr);
 	}
@@ -864,10 +1249,12 @@ public class Context extends CtxParsableFunction {
 	public Context except(String objectTypeStr) {
 		Context except = new Context(this.dataTools, this.genericName, this.parentContext);
 		
+		List<Pair<String, String>> exceptObjNameOrdering = new ArrayList<Pair<String, String>>();
 		for (Pair<String, String> objName : this.objNameOrdering) {
 			if (!objectTypeStr.equals(objName.getFirst()))
-				except.objNameOrdering.add(objName);
+				exceptObjNameOrdering.add(objName);
 		}
+		except.objNameOrdering.addAll(exceptObjNameOrdering);
 		
 		return exceptHelper(except, objectTypeStr);
 	}
@@ -0,0 +1,259 @@
+package edu.cmu.ml.rtw.generic.data;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import edu.cmu.ml.rtw.generic.parse.Assignment;
+import edu.cmu.ml.rtw.generic.parse.AssignmentList;
+import edu.cmu.ml.rtw.generic.parse.Obj;
+
+/**
+ * ContextAssignmentGraph is a dependency graph over the assignments
+ * of a ctx script.  An assignment depends on an earlier assignment
+ * if evaluating them in the opposite order (or at the same time)
+ * could change the result of the script, so Context can evaluate
+ * assignments concurrently once the assignments they depend on
+ * have been evaluated.
+ *
+ * An assignment depends on an earlier assignment if:
+ *
+ * - It refers to a name that the earlier assignment defines (through
+ * ${name} or ${name.rest}), or it redefines a name that the earlier
+ * assignment defines or refers to.
+ *
+ * - It is a command (a value or array assignment from a function) that
+ * refers to a name the earlier assignment refers to, or the earlier
+ * assignment is a command that refers to a name that it refers to.
+ * Commands can modify the objects they are given (e.g. by training a
+ * model), so they are ordered with respect to the other assignments
+ * that use those objects.
+ *
+ * - Either of them is a barrier.  Barriers are literal value and array
+ * assignments (which code can read by name, e.g. maxThreads), context
+ * assignments (whose scripts can refer to anything), and commands that
+ * don't refer to any names.
+ *
+ * - It contains a function that could be matched to an object that
+ * the earlier assignment constructs (see Context.getFunctionMatches),
+ * so that it uses the same object as it would if the assignments were
+ * evaluated in order.
+ *
+ * @author Bill McDowell
+ *
+ */
+class ContextAssignmentGraph {
+	private static final Pattern STRING_REFERENCE = Pattern.compile("\\$\\{([^}]+)\\}");
+
+	private int[][] dependencies;
+	private List<List<Integer>> dependents;
+
+	public ContextAssignmentGraph(AssignmentList assignments) {
+		int size = assignments.size();
+		this.dependencies = new int[size][];
+		this.dependents = new ArrayList<List<Integer>>(size);
+
+		List<List<Obj.Function>> constructedFunctions = new ArrayList<List<Obj.Function>>(size);
+		Map<String, Integer> writers = new HashMap<String, Integer>();
+		Map<String, List<Integer>> readers = new HashMap<String, List<Integer>>();
+		int barrier = -1;
+		for (int i = 0; i < size; i++) {
+			Assignment.AssignmentTyped assignment = (Assignment.AssignmentTyped)assignments.get(i);
+			Obj value = assignment.getValue();
+			String name = assignment.getName();
+			boolean valueOrArray = assignment.getType().equals(Context.ObjectType.VALUE.toString())
+								|| assignment.getType().equals(Context.ObjectType.ARRAY.toString());
+			boolean command = valueOrArray && value.getObjType() == Obj.Type.FUNCTION;
+
+			Set<String> references = new HashSet<String>();
+			List<Obj.Function> functions = new ArrayList<Obj.Function>();
+			if (value.getObjType() != Obj.Type.RULE) { // Rule variables aren't references
+				addReferences(value, references);
+				addFunctions(value, functions);
+			}
+
+			boolean isBarrier = (valueOrArray && !command)
+							|| (command && references.isEmpty())
+							|| assignment.getType().equals(Context.ObjectType.CONTEXT.toString());
+
+			Set<Integer> assignmentDependencies = new TreeSet<Integer>();
+			if (isBarrier) {
+				for (int j = Math.max(0, barrier); j < i; j++)
+					assignmentDependencies.add(j);
+			} else if (barrier >= 0) {
+				assignmentDependencies.add(barrier);
+			}
+
+			for (String reference : references) {
+				if (writers.containsKey(reference))
+					assignmentDependencies.add(writers.get(reference));
+				if (command && readers.containsKey(reference))
+					assignmentDependencies.addAll(readers.get(reference));
+			}
+
+			if (name != null) {
+				if (writers.containsKey(name))
+					assignmentDependencies.add(writers.get(name));
+				if (readers.containsKey(name))
+					assignmentDependencies.addAll(readers.get(name));
+			}
+
+			// The top-level function is always constructed, but nested
+			// functions can be matched to existing objects
+			int nestedStart = (value.getObjType() == Obj.Type.FUNCTION) ? 1 : 0;
+			for (int j = barrier + 1; j < i; j++) {
+				if (assignmentDependencies.contains(j))
+					continue;
+				for (int k = nestedStart; k < functions.size(); k++) {
+					if (mayMatchAny(functions.get(k), constructedFunctions.get(j))) {
+						assignmentDependencies.add(j);
+						break;
+					}
+				}
+			}
+
+			if (isBarrier) {
+				barrier = i;
+				writers.clear();
+				readers.clear();
+			}
+
+			for (String reference : references) {
+				if (command) {
+					writers.put(reference, i);
+					readers.remove(reference);
+				} else {
+					if (!readers.containsKey(reference))
+						readers.put(reference, new ArrayList<Integer>());
+					readers.get(reference).add(i);
+				}
+			}
+
+			if (name != null) {
+				writers.put(name, i);
+				readers.remove(name);
+			}
+
+			constructedFunctions.add(functions);
+			this.dependents.add(new ArrayList<Integer>());
+			this.dependencies[i] = new int[assignmentDependencies.size()];
+			int j = 0;
+			for (Integer dependency : assignmentDependencies) {
+				this.dependencies[i][j++] = dependency;
+				this.dependents.get(dependency).add(i);
+			}
+		}
+	}
+
+	public int size() {
+		return this.dependencies.length;
+	}
+
+	/**
+	 * @return indices of earlier assignments that must be evaluated
+	 * before the assignment at index
+	 */
+	public int[] getDependencies(int index) {
+		return this.dependencies[index];
+	}
+
+	/**
+	 * @return indices of later assignments that depend on the assignment
+	 * at index
+	 */
+	public List<Integer> getDependents(int index) {
+		return this.dependents.get(index);
+	}
+
+	private static void addReferences(Obj obj, Set<String> references) {
+		if (obj.getObjType() == Obj.Type.VALUE) {
+			Obj.Value value = (Obj.Value)obj;
+			if (value.getType() == Obj.Value.Type.CURLY_BRACED) {
+				references.add(value.getStr().split("\\.")[0]);
+			} else if (value.getType() == Obj.Value.Type.STRING) {
+				Matcher matcher = STRING_REFERENCE.matcher(value.getStr());
+				while (matcher.find())
+					references.add(matcher.group(1).split("\\.")[0]);
+			}
+		} else if (obj.getObjType() == Obj.Type.ARRAY) {
+			Obj.Array array = (Obj.Array)obj;
+			for (int i = 0; i < array.size(); i++)
+				addReferences(array.get(i), references);
+		} else if (obj.getObjType() == Obj.Type.FUNCTION) {
+			Obj.Function function = (Obj.Function)obj;
+			addReferences(function.getParameters(), references);
+			if (function.getInternalAssignments() != null)
+				addReferences(function.getInternalAssignments(), references);
+		} else if (obj.getObjType() == Obj.Type.ASSIGNMENT_LIST) {
+			for (Assignment assignment : (AssignmentList)obj)
+				addReferences(assignment.getValue(), references);
+		}
+	}
+
+	/**
+	 * Adds the function and its nested functions in pre-order
+	 */
+	private static void addFunctions(Obj obj, List<Obj.Function> functions) {
+		if (obj.getObjType() == Obj.Type.FUNCTION) {
+			Obj.Function function = (Obj.Function)obj;
+			functions.add(function);
+			for (Assignment assignment : function.getParameters())
+				addFunctions(assignment.getValue(), functions);
+		} else if (obj.getObjType() == Obj.Type.ASSIGNMENT_LIST) {
+			for (Assignment assignment : (AssignmentList)obj)
+				addFunctions(assignment.getValue(), functions);
+		}
+	}
+
+	private static boolean mayMatchAny(Obj.Function pattern, List<Obj.Function> functions) {
+		for (Obj.Function function : functions)
+			if (mayMatch(pattern, function))
+				return true;
+		return false;
+	}
+
+	/**
+	 * @return false if an object constructed from function can't match
+	 * pattern.  Objects can have parameters that aren't in the functions
+	 * they were constructed from (e.g. defaults), so only parameters in
+	 * both are compared.
+	 */
+	private static boolean mayMatch(Obj.Function pattern, Obj.Function function) {
+		if (pattern.getName() == null || !pattern.getName().equals(function.getName()))
+			return false;
+
+		AssignmentList parameters = function.getParameters();
+		if (!pattern.getParameters().hasNames() || !parameters.hasNames())
+			return true;
+
+		for (Assignment patternParameter : pattern.getParameters()) {
+			Assignment parameter = parameters.get(patternParameter.getName());
+			if (parameter != null && !mayMatch(patternParameter.getValue(), parameter.getValue()))
+				return false;
+		}
+
+		return true;
+	}
+
+	private static boolean mayMatch(Obj pattern, Obj obj) {
+		if (pattern.getObjType() == Obj.Type.VALUE && ((Obj.Value)pattern).getType() == Obj.Value.Type.SQUARE_BRACKETED)
+			return true;
+
+		Set<String> references = new HashSet<String>();
+		addReferences(pattern, references);
+		addReferences(obj, references);
+		if (!references.isEmpty())
+			return true;
+
+		if (pattern.getObjType() == Obj.Type.FUNCTION && obj.getObjType() == Obj.Type.FUNCTION)
+			return mayMatch((Obj.Function)pattern, (Obj.Function)obj);
+		else
+			return pattern.toString().equals(obj.toString());
+	}
+}
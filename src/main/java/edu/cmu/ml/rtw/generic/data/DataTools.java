@@ -18,6 +18,8 @@ import edu.cmu.ml.rtw.generic.parse.Obj;
 import edu.cmu.ml.rtw.generic.parse.Obj.Function;
 import edu.cmu.ml.rtw.generic.rule.RuleSet;
 import edu.cmu.ml.rtw.generic.str.StringTransform;
+import edu.cmu.ml.rtw.generic.str.StringTransformClean;
+import edu.cmu.ml.rtw.generic.str.StringTransformPipeline;
 import edu.cmu.ml.rtw.generic.str.StringTransformRemoveLongTokens;
 import edu.cmu.ml.rtw.generic.str.StringTransformRemoveSymbols;
 import edu.cmu.ml.rtw.generic.str.StringTransformReplaceNumbers;
@@ -157,6 +159,24 @@ public class DataTools {
 		double compute(String str1, String str2);
 	}
 	
+	/**
+	 * Interface for a StringPairMeasure that is computed from the Levenshtein
+	 * edit distance between two strings.  Gazetteers with an edit distance 
+	 * index use the lower bound to skip entries that cannot be closer to a 
+	 * string than the closest entry found so far.
+	 *
+	 */
+	public interface StringPairEditDistanceMeasure extends StringPairMeasure {
+		double compute(String str1, String str2, int editDistance);
+		
+		/**
+		 * @return a lower bound on the measure between str1 and any string
+		 * of length str2Length that is at least minEditDistance edits away 
+		 * from str1
+		 */
+		double lowerBound(String str1, int str2Length, int minEditDistance);
+	}
+	
 	/**
 	 * Interface for a function that maps a string to a collection of strings--
 	 * for example, to compute a collection of prefixes or suffixes for a string.
@@ -230,9 +250,10 @@ public class DataTools {
 	
 	protected long randomSeed = 1;
 	protected Random globalRandom;
+	protected ThreadLocal<Random> assignmentRandom; // Set while Context evaluates an assignment
 	protected OutputWriter outputWriter;
 	protected Timer timer;
-	protected WordNet wordNet;
+	protected volatile WordNet wordNet;
 	protected Word2Vec word2Vec;
 	
 	protected int incrementId = 0;
@@ -275,16 +296,7 @@ public class DataTools {
 		
 		this.outputWriter = outputWriter;
 		
-		this.addCleanFn(new StringTransform() {
-			public String toString() {
-				return "DefaultCleanFn";
-			}
-			
-			public String transform(String str) {
-				return StringUtil.clean(str);
-			}
-		});
-		
+		this.addCleanFn(new StringTransformClean());
 		this.addCleanFn(new StringTransformRemoveLongTokens());
 		this.addCleanFn(new StringTransformRemoveSymbols());
 		this.addCleanFn(new StringTransformReplaceNumbers());
@@ -310,6 +322,7 @@ public class DataTools {
 		this.stringClusterers.put("None", null);
 		this.tokenSpanClusterers.put("None", null);
 		this.globalRandom = new Random(this.randomSeed);
+		this.assignmentRandom = new ThreadLocal<Random>();
 		this.timer = new Timer();
 		
 		this.addAnnotationTypeNLP(AnnotationTypeNLP.ORIGINAL_TEXT);
@@ -475,7 +488,13 @@ public class DataTools {
 				String name = context.getMatchValue(fnObj.getParameters().get("name").getValue());
 				List<String> fns = context.getMatchArray(fnObj.getParameters().get("fns").getValue());
 				
+				// The fns are looked up by name when the chain is used, so 
+				// fns that are defined or replaced later are picked up.  The
+				// chain is fused from the fns it last looked up, and fused
+				// again when any of them has been replaced.
 				return String.valueOf(context.getDataTools().addCleanFn(new StringTransform() {
+					private volatile Pair<List<StringTransform>, StringTransform> fused;
+					
 					@Override
 					public String toString() {
 						return name;
@@ -483,11 +502,23 @@ public class DataTools {
 					
 					@Override
 					public String transform(String str) {
-						for (String fn : fns) {
-							str = context.getDataTools().getCleanFn(fn).transform(str);
+						Pair<List<StringTransform>, StringTransform> current = this.fused;
+						if (current == null || !isCurrent(current.getFirst())) {
+							List<StringTransform> transforms = new ArrayList<StringTransform>(fns.size());
+							for (String fn : fns)
+								transforms.add(context.getDataTools().getCleanFn(fn));
+							current = new Pair<List<StringTransform>, StringTransform>(transforms, StringTransformPipeline.compile(name, transforms));
+							this.fused = current;
 						}
 						
-						return str;
+						return current.getSecond().transform(str);
+					}
+					
+					private boolean isCurrent(List<StringTransform> transforms) {
+						for (int i = 0; i < transforms.size(); i++)
+							if (transforms.get(i) != context.getDataTools().getCleanFn(fns.get(i)))
+								return false;
+						return true;
 					}
 				}));
 			}
@@ -507,7 +538,15 @@ public class DataTools {
 				
 				StringTransform cleanFn = context.getDataTools().getCleanFn(context.getMatchValue(fnObj.getParameters().get("cleanFn").getValue()));
 				boolean hasWeights = Boolean.valueOf(context.getMatchValue(fnObj.getParameters().get("hasWeights").getValue()));
-				return String.valueOf(context.getDataTools().addGazetteer(new Gazetteer(name, reader, cleanFn, hasWeights)));
+				boolean editDistanceIndex = false;
+				if (fnObj.getParameters().contains("editDistanceIndex"))
+					editDistanceIndex = Boolean.valueOf(context.getMatchValue(fnObj.getParameters().get("editDistanceIndex").getValue()));
+				
+				Gazetteer gazetteer = new Gazetteer(name, reader, cleanFn, hasWeights);
+				if (editDistanceIndex && !gazetteer.buildEditDistanceIndex())
+					return String.valueOf(false);
+				
+				return String.valueOf(context.getDataTools().addGazetteer(gazetteer));
 			}
 		});
 		
@@ -792,6 +831,25 @@ public class DataTools {
 		return new Random(this.randomSeed); 
 	}
 	
+	/**
+	 * @return the Random instance of the concurrently evaluated context 
+	 * script assignment that the current thread is evaluating, or the 
+	 * global Random instance otherwise.  When Context evaluates assignments
+	 * concurrently, it gives each its own instance from makeLocalRandom, 
+	 * seeded by the assignment's position in its script, so the random 
+	 * numbers used by an assignment don't depend on the order in which 
+	 * the other assignments are evaluated.  Assignments evaluated in 
+	 * order use the global instance, so serial scripts draw the same 
+	 * random numbers as they always have.  Threads started by an 
+	 * assignment (e.g. through ThreadMapper) fall back to the global
+	 * instance, so they should be given Random instances by the 
+	 * assignment instead.
+	 */
+	public Random getAssignmentRandom() {
+		Random random = this.assignmentRandom.get();
+		return (random != null) ? random : getGlobalRandom();
+	}
+	
 	public long getRandomSeed() {
 		return this.randomSeed;
 	}
@@ -881,7 +939,7 @@ public class DataTools {
 	}
 	
 	public boolean addCleanFn(StringTransform cleanFn) {
-		this.cleanFns.put(cleanFn.toString(), cleanFn);
+		this.cleanFns.put(cleanFn.toString(), StringTransformPipeline.compile(cleanFn));
 		return true;
 	}
 	
@@ -951,7 +1009,7 @@ public class DataTools {
 			public Fn<String, String> run(Context context, List<String> modifiers, String referenceName, Function fnObj) {
 				List<Fn<String, String>> strFns = makeStrFns(strFn.getGenericName(), context);
 				for (Fn<String, String> strFn : strFns) {
-					if (strFn.fromParse(modifiers, referenceName, fnObj)) {
+					if (strFn.fromParse(context, modifiers, referenceName, fnObj)) {
 						return strFn;
 					}
 				}
@@ -971,7 +1029,7 @@ public class DataTools {
 			public Fn<TokenSpan, TokenSpan> run(Context context, List<String> modifiers, String referenceName, Function fnObj) {
 				List<Fn<TokenSpan, TokenSpan>> tokenSpanFns = makeTokenSpanFns(tokenSpanFn.getGenericName(), context);
 				for (Fn<TokenSpan, TokenSpan> tokenSpanFn : tokenSpanFns) {
-					if (tokenSpanFn.fromParse(modifiers, referenceName, fnObj)) {
+					if (tokenSpanFn.fromParse(context, modifiers, referenceName, fnObj)) {
 						return tokenSpanFn;
 					}
 				}
@@ -991,7 +1049,7 @@ public class DataTools {
 			public Fn<TokenSpan, String> run(Context context, List<String> modifiers, String referenceName, Function fnObj) {
 				List<Fn<TokenSpan, String>> tokenSpanStrFns = makeTokenSpanStrFns(tokenSpanStrFn.getGenericName(), context);
 				for (Fn<TokenSpan, String> tokenSpanStrFn : tokenSpanStrFns) {
-					if (tokenSpanStrFn.fromParse(modifiers, referenceName, fnObj)) {
+					if (tokenSpanStrFn.fromParse(context, modifiers, referenceName, fnObj)) {
 						return tokenSpanStrFn;
 					}
 				}
@@ -1010,7 +1068,7 @@ public class DataTools {
 			public Fn<?, ?> run(Context context, List<String> modifiers, String referenceName, Function fnObj) {
 				List<Fn<?, ?>> structureFns = makeStructureFns(structureFn.getGenericName(), context);
 				for (Fn<?, ?> structureFn : structureFns) {
-					if (structureFn.fromParse(modifiers, referenceName, fnObj)) {
+					if (structureFn.fromParse(context, modifiers, referenceName, fnObj)) {
 						return structureFn;
 					}
 				}
@@ -1141,10 +1199,18 @@ public class DataTools {
 		return this.properties;
 	}
 	
-	public synchronized WordNet getWordNet() {
-		if (this.wordNet == null)
-			this.wordNet = new WordNet();
-		return this.wordNet;
+	public WordNet getWordNet() {
+		WordNet wordNet = this.wordNet;
+		if (wordNet != null)
+			return wordNet;
+		
+		synchronized (this) {
+			if (this.wordNet == null) {
+				String snapshotPath = (this.properties == null) ? null : this.properties.getWordNetSnapshotPath();
+				this.wordNet = (snapshotPath == null) ? new WordNet() : new WordNet(new File(snapshotPath));
+			}
+			return this.wordNet;
+		}
 	}
 	
 	public synchronized Word2Vec getWord2Vec() {
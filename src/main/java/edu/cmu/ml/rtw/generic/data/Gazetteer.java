@@ -2,14 +2,19 @@ package edu.cmu.ml.rtw.generic.data;
 
 import java.io.BufferedReader;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.TreeMap;
 
 import edu.cmu.ml.rtw.generic.str.StringTransform;
+import edu.cmu.ml.rtw.generic.util.BKTree;
 import edu.cmu.ml.rtw.generic.util.FileUtil;
 import edu.cmu.ml.rtw.generic.util.Pair;
+import edu.cmu.ml.rtw.generic.util.StringUtil;
 
 /**
  * Gazetteer represents a deserialized dictionary of strings
@@ -27,6 +32,12 @@ import edu.cmu.ml.rtw.generic.util.Pair;
  * that each string should be assigned to the given ID, but
  * these are optional.
  * 
+ * Optionally, the gazetteer strings can be indexed by their 
+ * Levenshtein edit distances (see buildEditDistanceIndex) so that 
+ * min with a DataTools.StringPairEditDistanceMeasure and 
+ * getValuesWithinEditDistance do not need to scan every string 
+ * in the gazetteer.  Other measures always fall back to a scan.
+ * 
  * @authors Lingpeng Kong, Bill McDowell
  *
  */
@@ -34,6 +45,7 @@ public class Gazetteer {
 	private HashMap<String, List<Pair<String, Double>>> gazetteer;
 	private String name;
 	private StringTransform cleanFn;
+	private TreeMap<Integer, BKTree<String>> editDistanceIndex; // Maps string lengths to BK-trees over strings of that length
 	
 	public Gazetteer(String name, String sourceFilePath) {
 		this(name, sourceFilePath, null);
@@ -139,10 +151,72 @@ public class Gazetteer {
 			return null;
 	}
 	
+	/**
+	 * Builds BK-trees over the gazetteer strings under Levenshtein edit 
+	 * distance.  There is a separate tree for each string length, so that
+	 * strings whose lengths are too different from a query string can be 
+	 * skipped without computing any distances.  This should be called once 
+	 * after the gazetteer is loaded.
+	 * 
+	 * @return true if the index was built
+	 */
+	public boolean buildEditDistanceIndex() {
+		BKTree.Metric<String> levenshtein = new BKTree.Metric<String>() {
+			@Override
+			public int distance(String item1, String item2) {
+				return StringUtil.levenshteinDistance(item1, item2);
+			}
+		};
+		
+		TreeMap<Integer, BKTree<String>> editDistanceIndex = new TreeMap<Integer, BKTree<String>>();
+		for (String value : this.gazetteer.keySet()) {
+			if (!editDistanceIndex.containsKey(value.length()))
+				editDistanceIndex.put(value.length(), new BKTree<String>(levenshtein));
+			editDistanceIndex.get(value.length()).add(value);
+		}
+		
+		this.editDistanceIndex = editDistanceIndex;
+		return true;
+	}
+	
+	public boolean hasEditDistanceIndex() {
+		return this.editDistanceIndex != null;
+	}
+	
+	/**
+	 * @param str
+	 * @param maxDistance
+	 * @return gazetteer strings within maxDistance edits of the cleaned str
+	 */
+	public List<String> getValuesWithinEditDistance(String str, int maxDistance) {
+		String cleanStr = cleanString(str);
+		List<String> values = new ArrayList<String>();
+		
+		if (this.editDistanceIndex != null) {
+			// Strings with lengths that differ from cleanStr's by more than 
+			// maxDistance are more than maxDistance edits away
+			for (BKTree<String> lengthIndex : this.editDistanceIndex.subMap(cleanStr.length() - maxDistance, true, cleanStr.length() + maxDistance, true).values()) {
+				List<Pair<String, Integer>> withinDistance = lengthIndex.getWithinDistance(cleanStr, maxDistance);
+				for (Pair<String, Integer> value : withinDistance)
+					values.add(value.getFirst());
+			}
+		} else {
+			for (String value : this.gazetteer.keySet())
+				if (StringUtil.levenshteinDistance(cleanStr, value) <= maxDistance)
+					values.add(value);
+		}
+		
+		return values;
+	}
+	
 	public Pair<List<Pair<String,Double>>, Double> min(String str, DataTools.StringPairMeasure fn) {
 		double min = Double.POSITIVE_INFINITY;
 		List<Pair<String, Double>> minIds = null;
 		String cleanStr = cleanString(str);
+		
+		if (this.editDistanceIndex != null && fn instanceof DataTools.StringPairEditDistanceMeasure) 
+			return minByEditDistanceIndex(cleanStr, (DataTools.StringPairEditDistanceMeasure)fn);
+		
 		for (Entry<String, List<Pair<String, Double>>> entry : this.gazetteer.entrySet()) {
 			double curMin = fn.compute(cleanStr, entry.getKey());
 			if (curMin < min) {
@@ -153,6 +227,46 @@ public class Gazetteer {
 		return new Pair<List<Pair<String,Double>>, Double>(minIds, min);
 	}
 	
+	private Pair<List<Pair<String,Double>>, Double> minByEditDistanceIndex(final String cleanStr, final DataTools.StringPairEditDistanceMeasure fn) {
+		// Search the trees in order of increasing difference between
+		// their string lengths and the length of cleanStr, since 
+		// closer lengths are more likely to contain the minimum
+		List<Integer> lengths = new ArrayList<Integer>(this.editDistanceIndex.keySet());
+		Collections.sort(lengths, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer length1, Integer length2) {
+				return Integer.compare(Math.abs(length1 - cleanStr.length()), Math.abs(length2 - cleanStr.length()));
+			}
+		});
+		
+		double min = Double.POSITIVE_INFINITY;
+		String minValue = null;
+		for (final Integer length : lengths) {
+			if (fn.lowerBound(cleanStr, length, 0) >= min)
+				continue;
+			
+			Pair<String, Double> lengthMin = this.editDistanceIndex.get(length).min(cleanStr, new BKTree.Objective<String>() {
+				@Override
+				public double compute(String query, String item, int distance) {
+					return fn.compute(query, item, distance);
+				}
+
+				@Override
+				public double lowerBound(String query, int minDistance) {
+					return fn.lowerBound(query, length, minDistance);
+				}
+			}, min);
+			
+			if (lengthMin.getFirst() != null) {
+				min = lengthMin.getSecond();
+				minValue = lengthMin.getFirst();
+			}
+		}
+		
+		List<Pair<String, Double>> minIds = (minValue == null) ? null : this.gazetteer.get(minValue);
+		return new Pair<List<Pair<String,Double>>, Double>(minIds, min);
+	}
+	
 	public Pair<List<Pair<String,Double>>, Double> max(String str, DataTools.StringPairMeasure fn) {
 		double max = Double.NEGATIVE_INFINITY;
 		List<Pair<String, Double>> maxIds = null;
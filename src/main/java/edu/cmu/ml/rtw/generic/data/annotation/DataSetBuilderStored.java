@@ -67,7 +67,7 @@ public class DataSetBuilderStored<D extends Datum<L>, L> extends DataSetBuilder<
 				return true;
 			}
 			
-		}, this.context.getMaxThreads(), this.context.getDataTools().getGlobalRandom());
+		}, this.context.getMaxThreads(), this.context.getDataTools().getAssignmentRandom());
 		
 		return data;
 	}
@@ -468,7 +468,7 @@ public abstract class Datum<L> {
 					double[] distribution = new double[distributionStr.size()];
 					for (int i = 0; i < distribution.length; i++)
 						distribution[i] = Double.valueOf(distributionStr.get(i));
-					List<DataSet<D, L>> parts = data.makePartition(distribution, context.getDataTools().getGlobalRandom());
+					List<DataSet<D, L>> parts = data.makePartition(distribution, context.getDataTools().getAssignmentRandom());
 					
 					for (int i = 0; i < parts.size(); i++) {
 						datumContext.addDataSet(parts.get(i));
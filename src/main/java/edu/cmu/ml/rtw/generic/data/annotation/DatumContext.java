@@ -6,8 +6,8 @@ import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 import java_cup.runtime.ComplexSymbolFactory;
 import edu.cmu.ml.rtw.generic.data.Context;
@@ -98,18 +98,18 @@ public class DatumContext<D extends Datum<L>, L> extends Context {
 		
 		this.datumTools = datumTools;
 		
-		this.data = new TreeMap<String, DataSet<D, L>>();
-		this.models = new TreeMap<String, SupervisedModel<D, L>>();
-		this.features = new TreeMap<String, Feature<D, L>>();
-		this.gridSearches = new TreeMap<String, GridSearch<D, L>>();
-		this.evaluations = new TreeMap<String, SupervisedModelEvaluation<D, L>>();
-		this.ruleSets = new TreeMap<String, RuleSet<D, L>>();
-		this.featureSets = new TreeMap<String, FeatureSet<D, L>>();
-		this.dataFeatures = new TreeMap<String, DataFeatureMatrix<D, L>>();
-		this.classifyMethods = new TreeMap<String, MethodClassification<D, L>>();
-		this.classifyTasks = new TreeMap<String, TaskClassification<D, L>>();
-		this.classifyEvals = new TreeMap<String, EvaluationClassification<D, L, ?>>();
-		this.structurizers = new TreeMap<String, Structurizer<D, L, ?>>();
+		this.data = new ConcurrentSkipListMap<String, DataSet<D, L>>();
+		this.models = new ConcurrentSkipListMap<String, SupervisedModel<D, L>>();
+		this.features = new ConcurrentSkipListMap<String, Feature<D, L>>();
+		this.gridSearches = new ConcurrentSkipListMap<String, GridSearch<D, L>>();
+		this.evaluations = new ConcurrentSkipListMap<String, SupervisedModelEvaluation<D, L>>();
+		this.ruleSets = new ConcurrentSkipListMap<String, RuleSet<D, L>>();
+		this.featureSets = new ConcurrentSkipListMap<String, FeatureSet<D, L>>();
+		this.dataFeatures = new ConcurrentSkipListMap<String, DataFeatureMatrix<D, L>>();
+		this.classifyMethods = new ConcurrentSkipListMap<String, MethodClassification<D, L>>();
+		this.classifyTasks = new ConcurrentSkipListMap<String, TaskClassification<D, L>>();
+		this.classifyEvals = new ConcurrentSkipListMap<String, EvaluationClassification<D, L, ?>>();
+		this.structurizers = new ConcurrentSkipListMap<String, Structurizer<D, L, ?>>();
 		
 		this.storageMaps.add(this.data);
 		this.storageMaps.add(this.models);
@@ -590,9 +590,11 @@ public class DatumContext<D extends Datum<L>, L> extends Context {
 	public Context only(String objectTypeStr) {
 		DatumContext<D, L> only = new DatumContext<D, L>(this.datumTools, this.genericName, this.parentContext);
 		
+		List<Pair<String, String>> onlyObjNameOrdering = new ArrayList<Pair<String, String>>();
 		for (Pair<String, String> objName : this.objNameOrdering)
 			if (objName.getFirst().equals(objectTypeStr))
-				only.objNameOrdering.add(objName);
+				onlyObjNameOrdering.add(objName);
+		only.objNameOrdering.addAll(onlyObjNameOrdering);
 		
 		return onlyHelper(only, objectTypeStr);
 	}
@@ -647,10 +649,12 @@ public class DatumContext<D extends Datum<L>, L> extends Context {
 	public Context except(String objectTypeStr) {
 		DatumContext<D, L> except = new DatumContext<D, L>(this.datumTools, this.genericName, this.parentContext);
 		
+		List<Pair<String, String>> exceptObjNameOrdering = new ArrayList<Pair<String, String>>();
 		for (Pair<String, String> objName : this.objNameOrdering) {
 			if (!objectTypeStr.equals(objName.getFirst()))
-				except.objNameOrdering.add(objName);
+				exceptObjNameOrdering.add(objName);
 		}
+		except.objNameOrdering.addAll(exceptObjNameOrdering);
 		
 		return exceptHelper(except, objectTypeStr);
 	}
@@ -1,6 +1,8 @@
 package edu.cmu.ml.rtw.generic.data.annotation.nlp;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -30,6 +32,7 @@ public class ConstituencyParse implements StringSerializable {
 		private TokenSpan tokenSpan;
 		private Constituent[] children;
 		private String label;
+		private int index = -1; // Position in the parse's constituent index
 		
 		public Constituent(String label, Constituent[] children) {
 			this.tokenSpan = null;
@@ -150,9 +153,191 @@ public class ConstituencyParse implements StringSerializable {
 		}
 	}
 
+	/**
+	 * ConstituentIndex is a flattened representation of a parse tree
+	 * that answers structural queries without walking the tree.
+	 * Constituents are numbered in pre-order, and the index holds
+	 * the parent, depth, and token span of each constituent, along
+	 * with the leaf constituent at which each token starts.
+	 * 
+	 * Lowest common ancestors are found in constant time from a 
+	 * sparse table of minimum depth constituents over the Euler tour 
+	 * of the tree, so paths between constituents can be read off in 
+	 * time linear in their lengths.
+	 * 
+	 * @author Bill McDowell
+	 */
+	private class ConstituentIndex {
+		private Constituent[] constituents;
+		private int[] parents;
+		private int[] depths;
+		private int[] spanStarts; // -1 where the token span is undefined
+		private int[] spanEnds;
+		private int[] tokenLeaves; // Leaf starting at each token index, or -1
+		private int[] firstVisits; // Position of each constituent's first visit in the Euler tour
+		private int[][] tourMinima; // tourMinima[k][i] is the shallowest constituent at tour positions [i, i + 2^k)
+		
+		public ConstituentIndex(Constituent root) {
+			int size = 0;
+			Stack<Constituent> toVisit = new Stack<Constituent>();
+			toVisit.push(root);
+			while (!toVisit.isEmpty()) {
+				Constituent current = toVisit.pop();
+				size++;
+				if (!current.isLeaf())
+					for (Constituent child : current.getChildren())
+						toVisit.push(child);
+			}
+			
+			this.constituents = new Constituent[size];
+			this.parents = new int[size];
+			this.depths = new int[size];
+			this.spanStarts = new int[size];
+			this.spanEnds = new int[size];
+			this.firstVisits = new int[size];
+			int[] tour = new int[2 * size - 1];
+			int tourLength = 0;
+			int maxTokenIndex = -1;
+			
+			int[] stack = new int[size];
+			int[] nextChildren = new int[size];
+			int top = 0;
+			int count = 0;
+			
+			root.index = count;
+			this.constituents[count] = root;
+			this.parents[count] = -1;
+			this.firstVisits[count] = tourLength;
+			tour[tourLength++] = count;
+			stack[top] = count;
+			nextChildren[top] = 0;
+			top++;
+			count++;
+			
+			while (top > 0) {
+				int current = stack[top - 1];
+				Constituent constituent = this.constituents[current];
+				if (!constituent.isLeaf() && nextChildren[top - 1] < constituent.children.length) {
+					Constituent child = constituent.children[nextChildren[top - 1]++];
+					child.index = count;
+					this.constituents[count] = child;
+					this.parents[count] = current;
+					this.depths[count] = this.depths[current] + 1;
+					this.firstVisits[count] = tourLength;
+					tour[tourLength++] = count;
+					stack[top] = count;
+					nextChildren[top] = 0;
+					top++;
+					count++;
+					continue;
+				}
+				
+				top--;
+				if (!constituent.isLeaf()) {
+					this.spanStarts[current] = this.spanStarts[constituent.children[0].index];
+					this.spanEnds[current] = this.spanEnds[constituent.children[constituent.children.length - 1].index];
+				} else if (constituent.tokenSpan != null) {
+					this.spanStarts[current] = constituent.tokenSpan.getStartTokenIndex();
+					this.spanEnds[current] = constituent.tokenSpan.getEndTokenIndex();
+					maxTokenIndex = Math.max(maxTokenIndex, this.spanStarts[current]);
+				} else {
+					this.spanStarts[current] = -1;
+					this.spanEnds[current] = -1;
+				}
+				
+				if (top > 0)
+					tour[tourLength++] = stack[top - 1];
+			}
+			
+			// Later leaves take precedence, as in the right-to-left search
+			// this replaces
+			this.tokenLeaves = new int[maxTokenIndex + 1];
+			Arrays.fill(this.tokenLeaves, -1);
+			for (int i = 0; i < size; i++)
+				if (this.constituents[i].isLeaf() && this.spanStarts[i] >= 0)
+					this.tokenLeaves[this.spanStarts[i]] = i;
+			
+			int levels = 32 - Integer.numberOfLeadingZeros(tourLength);
+			this.tourMinima = new int[levels][];
+			this.tourMinima[0] = tour;
+			for (int k = 1; k < levels; k++) {
+				int width = 1 << (k - 1);
+				int[] previous = this.tourMinima[k - 1];
+				int[] minima = new int[tourLength - (1 << k) + 1];
+				for (int i = 0; i < minima.length; i++)
+					minima[i] = shallower(previous[i], previous[i + width]);
+				this.tourMinima[k] = minima;
+			}
+		}
+		
+		private int shallower(int constituent1, int constituent2) {
+			return (this.depths[constituent1] <= this.depths[constituent2]) ? constituent1 : constituent2;
+		}
+		
+		/**
+		 * @return the position of the constituent in the index, or -1 if
+		 * it is not part of the indexed tree
+		 */
+		public int getIndex(Constituent constituent) {
+			int index = constituent.index;
+			if (index < 0 || index >= this.constituents.length || this.constituents[index] != constituent)
+				return -1;
+			return index;
+		}
+		
+		public int getTokenLeaf(int tokenIndex) {
+			if (tokenIndex < 0 || tokenIndex >= this.tokenLeaves.length)
+				return -1;
+			return this.tokenLeaves[tokenIndex];
+		}
+		
+		public int getLowestCommonAncestor(int constituent1, int constituent2) {
+			int start = Math.min(this.firstVisits[constituent1], this.firstVisits[constituent2]);
+			int end = Math.max(this.firstVisits[constituent1], this.firstVisits[constituent2]);
+			int k = 31 - Integer.numberOfLeadingZeros(end - start + 1);
+			return shallower(this.tourMinima[k][start], this.tourMinima[k][end - (1 << k) + 1]);
+		}
+		
+		/**
+		 * @return the number of constituents on the path between the 
+		 * given constituents, excluding leaves if noLeaves is true
+		 */
+		public int getPathLength(int source, int target, boolean noLeaves) {
+			int ancestor = getLowestCommonAncestor(source, target);
+			int length = this.depths[source] + this.depths[target] - 2 * this.depths[ancestor] + 1;
+			if (noLeaves) {
+				if (this.constituents[source].isLeaf())
+					length--;
+				if (source != target && this.constituents[target].isLeaf())
+					length--;
+			}
+			return length;
+		}
+		
+		public ConstituentPath getPath(int source, int target, boolean noLeaves) {
+			int ancestor = getLowestCommonAncestor(source, target);
+			List<Constituent> path = new ArrayList<Constituent>(this.depths[source] + this.depths[target] - 2 * this.depths[ancestor] + 1);
+			for (int current = source; current != ancestor; current = this.parents[current])
+				if (!noLeaves || !this.constituents[current].isLeaf())
+					path.add(this.constituents[current]);
+			
+			int upLength = path.size();
+			for (int current = target; current != ancestor; current = this.parents[current])
+				if (!noLeaves || !this.constituents[current].isLeaf())
+					path.add(this.constituents[current]);
+			Collections.reverse(path.subList(upLength, path.size()));
+			
+			if (!noLeaves || !this.constituents[ancestor].isLeaf())
+				path.add(upLength, this.constituents[ancestor]);
+			
+			return new ConstituentPath(path);
+		}
+	}
+	
 	private DocumentNLP document;
 	private int sentenceIndex;
 	private Constituent root;
+	private volatile ConstituentIndex constituentIndex;
 	
 	public ConstituencyParse(DocumentNLP document, int sentenceIndex, Constituent root) {
 		this.document = document;
@@ -176,29 +361,27 @@ public class ConstituencyParse implements StringSerializable {
 		return this.root;
 	}
 	
+	private ConstituentIndex getConstituentIndex() {
+		ConstituentIndex constituentIndex = this.constituentIndex;
+		if (constituentIndex == null && this.root != null) {
+			constituentIndex = new ConstituentIndex(this.root);
+			this.constituentIndex = constituentIndex;
+		}
+		return constituentIndex;
+	}
+	
 	/**
 	 * @param tokenIndex
 	 * @return the constituent immediately containing the token
 	 * at tokenIndex
 	 */
 	public Constituent getTokenConstituent(int tokenIndex) {
-		Stack<Constituent> toVisit = new Stack<Constituent>();
-		toVisit.add(this.root);
-		while (!toVisit.isEmpty()) {
-			Constituent current = toVisit.pop();
-			if (current.isLeaf()) {
-				TokenSpan tokenSpan = current.getTokenSpan();
-				if (tokenSpan.getStartTokenIndex() == tokenIndex)
-					return current;
-			} else {
-				Constituent[] children = current.getChildren();
-				for (Constituent child : children)
-					toVisit.push(child);
-			}
-		}
-		
-		return null;
+		ConstituentIndex constituentIndex = getConstituentIndex();
+		if (constituentIndex == null)
+			return null;
 		
+		int leaf = constituentIndex.getTokenLeaf(tokenIndex);
+		return (leaf < 0) ? null : constituentIndex.constituents[leaf];
 	}
 	
 	public Relation getRelation(TokenSpan sourceSpan, TokenSpan targetSpan) {
@@ -225,8 +408,36 @@ public class ConstituencyParse implements StringSerializable {
 	}
 	
 	public boolean isDominating(int sourceTokenIndex, int targetTokenIndex) {
-		Constituent cons1 = getTokenConstituent(sourceTokenIndex).getParent();
-		return cons1 != null && cons1.getTokenSpan().containsToken(this.sentenceIndex, targetTokenIndex);
+		ConstituentIndex constituentIndex = getConstituentIndex();
+		if (constituentIndex == null)
+			return false;
+		
+		int leaf = constituentIndex.getTokenLeaf(sourceTokenIndex);
+		if (leaf < 0)
+			return false;
+		
+		int parent = constituentIndex.parents[leaf];
+		return parent >= 0 
+				&& constituentIndex.spanStarts[parent] <= targetTokenIndex 
+				&& constituentIndex.spanEnds[parent] > targetTokenIndex;
+	}
+	
+	/**
+	 * @return the number of constituents on the path between the leaves
+	 * containing the tokens (the same as getPath(...).getLength()), or -1
+	 * if there is no such path
+	 */
+	public int getPathLength(int sourceTokenIndex, int targetTokenIndex, boolean noLeaves) {
+		ConstituentIndex constituentIndex = getConstituentIndex();
+		if (constituentIndex == null)
+			return -1;
+		
+		int source = constituentIndex.getTokenLeaf(sourceTokenIndex);
+		int target = constituentIndex.getTokenLeaf(targetTokenIndex);
+		if (source < 0 || target < 0)
+			return -1;
+		
+		return constituentIndex.getPathLength(source, target, noLeaves);
 	}
 	
 	public ConstituentPath getPath(int sourceTokenIndex, int targetTokenIndex, boolean noLeaves) {
@@ -237,6 +448,15 @@ public class ConstituencyParse implements StringSerializable {
 		if (source == null || target == null)
 			return null;
 		
+		ConstituentIndex constituentIndex = getConstituentIndex();
+		if (constituentIndex != null) {
+			int sourceIndex = constituentIndex.getIndex(source);
+			int targetIndex = constituentIndex.getIndex(target);
+			if (sourceIndex >= 0 && targetIndex >= 0)
+				return constituentIndex.getPath(sourceIndex, targetIndex, noLeaves);
+		}
+		
+		// Constituents from outside of this parse's tree
 		Stack<Constituent> toVisit = new Stack<Constituent>();
 		toVisit.push(target);
 		Map<Constituent, Constituent> paths = new HashMap<Constituent, Constituent>();
@@ -281,6 +501,14 @@ public class ConstituencyParse implements StringSerializable {
 		if (source.equals(target))
 			return false;
 		
+		ConstituentIndex constituentIndex = getConstituentIndex();
+		if (constituentIndex != null) {
+			int sourceIndex = constituentIndex.getIndex(source);
+			int targetIndex = constituentIndex.getIndex(target);
+			if (sourceIndex >= 0 && targetIndex >= 0)
+				return constituentIndex.getLowestCommonAncestor(sourceIndex, targetIndex) == sourceIndex;
+		}
+		
 		ConstituentPath constituentPath = getPath(source, target, false);
 		if (constituentPath == null)
 			return false;
@@ -300,6 +528,14 @@ public class ConstituencyParse implements StringSerializable {
 		if (source.equals(target))
 			return false;
 		
+		ConstituentIndex constituentIndex = getConstituentIndex();
+		if (constituentIndex != null) {
+			int sourceIndex = constituentIndex.getIndex(source);
+			int targetIndex = constituentIndex.getIndex(target);
+			if (sourceIndex >= 0 && targetIndex >= 0)
+				return constituentIndex.getLowestCommonAncestor(sourceIndex, targetIndex) == targetIndex;
+		}
+		
 		ConstituentPath constituentPath = getPath(source, target, false);
 		if (constituentPath == null)
 			return false;
@@ -406,6 +642,8 @@ public class ConstituencyParse implements StringSerializable {
 			}
 		}
 		
+		this.constituentIndex = (this.root == null) ? null : new ConstituentIndex(this.root);
+		
 		return true;
 	}
 	
@@ -29,6 +29,12 @@ import edu.cmu.ml.rtw.generic.util.StringSerializable;
 public class DependencyParse implements StringSerializable {
 	private static Pattern dependencyPattern = Pattern.compile("(.+)\\((.+)\\-([0-9']+), (.+)\\-([0-9']+)\\)");
 	
+	/**
+	 * Number of source nodes whose breadth-first searches are cached
+	 * by each parse
+	 */
+	public static final int CACHED_SEARCH_COUNT = 8;
+	
 	public enum PathType {
 		GOVERNING,
 		GOVERNED_BY,
@@ -126,51 +132,44 @@ public class DependencyParse implements StringSerializable {
 	 *
 	 */
 	public class DependencyPath {
-		private List<Node> nodes;
+		private int[] tokenIndices;
 		
-		DependencyPath(List<Node> nodes) {
-			this.nodes = nodes;
+		DependencyPath(int[] tokenIndices) {
+			this.tokenIndices = tokenIndices;
 		}
 		
 		public int getTokenLength() {
-			return this.nodes.size();
+			return this.tokenIndices.length;
 		}
 		
 		public int getDependencyLength() {
-			return this.nodes.size() - 1;
+			return this.tokenIndices.length - 1;
 		}
 		
 		public int getTokenIndex(int index) {
-			return this.nodes.get(index).getTokenIndex();
+			return this.tokenIndices[index];
 		}
 		
 		public String getDependencyType(int dependencyIndex) {
-			int nodeIndex = this.nodes.get(dependencyIndex).getTokenIndex();
-			int nextNodeIndex = this.nodes.get(dependencyIndex + 1).getTokenIndex();
-			if (isDependencyGoverningNext(dependencyIndex))
-				return getDependency(nodeIndex, nextNodeIndex).getType();
-			else
-				return getDependency(nextNodeIndex, nodeIndex).getType();
+			return DependencyParse.this.getDependencyType(this.tokenIndices[dependencyIndex], this.tokenIndices[dependencyIndex + 1]);
 		}
 		
 		public boolean isGovernedByNext(int index) {
-			if (index == this.nodes.size() - 1)
+			if (index == this.tokenIndices.length - 1)
 				return false;
 			
-			for (int i = 0; i < this.nodes.get(index).getGovernors().length; i++)
-				if (this.nodes.get(index).getGovernors()[i].getGoverningTokenIndex() == this.nodes.get(index + 1).getTokenIndex())
+			Dependency[] governors = getNode(this.tokenIndices[index]).getGovernors();
+			for (int i = 0; i < governors.length; i++)
+				if (governors[i].getGoverningTokenIndex() == this.tokenIndices[index + 1])
 					return true;
 			return false;
 		}
 		
 		public boolean isGoverningNext(int index) {
-			if (index == this.nodes.size() - 1)
+			if (index == this.tokenIndices.length - 1)
 				return false;
 			
-			for (int i = 0; i < this.nodes.get(index).getDependents().length; i++)
-				if (this.nodes.get(index).getDependents()[i].getDependentTokenIndex() == this.nodes.get(index + 1).getTokenIndex())
-					return true;
-			return false;
+			return hasDependent(this.tokenIndices[index], this.tokenIndices[index + 1]);
 		}
 		
 		public boolean isDependencyGoverningNext(int dependencyIndex) {
@@ -205,17 +204,136 @@ public class DependencyParse implements StringSerializable {
 		}
 		
 		public String toString(boolean includeTypes) {
-			StringBuilder str = new StringBuilder();
-			for (int i = 0; i < getDependencyLength(); i++) {
-				if (includeTypes)
-					str = str.append(getDependencyType(i)).append("-");
-				str = str.append((isDependencyGoverningNext(i) ? "G" : "D")).append("/");
+			return pathToString(this.tokenIndices, includeTypes);
+		}
+	}
+	
+	/**
+	 * PathIndex finds shortest paths between nodes of a parse.  Nodes
+	 * are identified by their token indices plus one, so that the root
+	 * is node 0.  The index holds the adjacency lists of the nodes, and
+	 * answers a query by a breadth-first search from its source node
+	 * that visits governors before dependents.  The search gives the
+	 * distance to each target node and the node before the target on
+	 * the path from the source, so a path is read off by following
+	 * these back from its target in time linear in its length.
+	 * 
+	 * The searches from the last few sources are kept in a small
+	 * direct-mapped cache of CACHED_SEARCH_COUNT slots, because callers
+	 * usually query paths from one source token to each of several
+	 * target tokens.  The memory held by the index is linear in the 
+	 * size of the parse.
+	 */
+	private class PathIndex {
+		/**
+		 * Search holds the result of a breadth-first search from
+		 * a source node.  It is immutable once constructed, so
+		 * it can be shared between threads through the cache.
+		 */
+		private class Search {
+			private final int source;
+			private final int[] predecessors;
+			private final int[] distances;
+			
+			public Search(int source) {
+				this.source = source;
+				this.predecessors = new int[size];
+				this.distances = new int[size];
+				
+				int[] queue = new int[size];
+				Arrays.fill(this.distances, -1);
+				int head = 0;
+				int tail = 0;
+				queue[tail++] = source;
+				this.predecessors[source] = -1;
+				this.distances[source] = 0;
+				while (head < tail) {
+					int current = queue[head++];
+					for (int neighbor : neighbors[current]) {
+						if (this.distances[neighbor] >= 0)
+							continue;
+						this.distances[neighbor] = this.distances[current] + 1;
+						this.predecessors[neighbor] = current;
+						queue[tail++] = neighbor;
+					}
+				}
+			}
+		}
+		
+		private int size;
+		private int[][] neighbors; // Governors then dependents of each node
+		private Search[] searches; // Slot for each source is source % CACHED_SEARCH_COUNT
+		
+		public PathIndex() {
+			this.size = (tokenNodes == null) ? 0 : tokenNodes.length + 1;
+			this.neighbors = new int[this.size][];
+			for (int i = 0; i < this.size; i++) {
+				Node node = getNode(i - 1);
+				if (node == null) {
+					this.neighbors[i] = new int[0];
+					continue;
+				}
+				
+				int[] neighbors = new int[node.getGovernors().length + node.getDependents().length];
+				int count = 0;
+				for (Dependency governor : node.getGovernors()) {
+					int id = getNodeId(governor.getGoverningTokenIndex());
+					if (id >= 0)
+						neighbors[count++] = id;
+				}
+				for (Dependency dependent : node.getDependents()) {
+					int id = getNodeId(dependent.getDependentTokenIndex());
+					if (id >= 0)
+						neighbors[count++] = id;
+				}
+				this.neighbors[i] = (count == neighbors.length) ? neighbors : Arrays.copyOf(neighbors, count);
+			}
+			
+			this.searches = new Search[CACHED_SEARCH_COUNT];
+		}
+		
+		/**
+		 * Slots are read and written without locking.  A slot may be
+		 * overwritten by another thread at any time, but a Search
+		 * is fully constructed before it's visible through its final 
+		 * fields, so a stale or replaced slot only costs a new search.
+		 */
+		private Search getSearch(int source) {
+			int slot = source % CACHED_SEARCH_COUNT;
+			Search search = this.searches[slot];
+			if (search == null || search.source != source) {
+				search = new Search(source);
+				this.searches[slot] = search;
+			}
+			return search;
+		}
+		
+		/**
+		 * @return the number of dependencies on the shortest path between
+		 * the nodes, or -1 if there is no path
+		 */
+		public int getDistance(int source, int target) {
+			return getSearch(source).distances[target];
+		}
+		
+		/**
+		 * @return the token indices on the shortest path between the
+		 * nodes, or null if there is no path
+		 */
+		public int[] getPathTokenIndices(int source, int target) {
+			Search search = getSearch(source);
+			int distance = search.distances[target];
+			if (distance < 0)
+				return null;
+			
+			int[] tokenIndices = new int[distance + 1];
+			int current = target;
+			for (int i = distance; i >= 0; i--) {
+				tokenIndices[i] = current - 1;
+				current = search.predecessors[current];
 			}
-
-			if (str.length() > 0)
-				str = str.delete(str.length() - 1, str.length());
 			
-			return str.toString();
+			return tokenIndices;
 		}
 	}
 
@@ -225,6 +343,7 @@ public class DependencyParse implements StringSerializable {
 	private Node[] tokenNodes;
 	
 	private String sourceString;
+	private volatile PathIndex pathIndex;
 	
 	public DependencyParse(DocumentNLP document, int sentenceIndex, Node root, Node[] tokenNodes) {
 		this.document = document;
@@ -249,6 +368,56 @@ public class DependencyParse implements StringSerializable {
             }
 	}
 	
+	/**
+	 * @return the id of the node for the token index in the path
+	 * index, or -1 if there is no such node
+	 */
+	private int getNodeId(int tokenIndex) {
+		if (this.tokenNodes == null || tokenIndex >= this.tokenNodes.length)
+			return -1;
+		if (tokenIndex < 0 || this.tokenNodes.length == 0)
+			return 0;
+		return (this.tokenNodes[tokenIndex] == null) ? -1 : tokenIndex + 1;
+	}
+	
+	private PathIndex getPathIndex() {
+		PathIndex pathIndex = this.pathIndex;
+		if (pathIndex == null) {
+			pathIndex = new PathIndex();
+			this.pathIndex = pathIndex;
+		}
+		return pathIndex;
+	}
+	
+	private boolean hasDependent(int tokenIndex, int dependentTokenIndex) {
+		Dependency[] dependents = getNode(tokenIndex).getDependents();
+		for (int i = 0; i < dependents.length; i++)
+			if (dependents[i].getDependentTokenIndex() == dependentTokenIndex)
+				return true;
+		return false;
+	}
+	
+	private String getDependencyType(int tokenIndex, int nextTokenIndex) {
+		if (hasDependent(tokenIndex, nextTokenIndex))
+			return getDependency(tokenIndex, nextTokenIndex).getType();
+		else
+			return getDependency(nextTokenIndex, tokenIndex).getType();
+	}
+	
+	private String pathToString(int[] tokenIndices, boolean includeTypes) {
+		StringBuilder str = new StringBuilder();
+		for (int i = 0; i < tokenIndices.length - 1; i++) {
+			if (includeTypes)
+				str = str.append(getDependencyType(tokenIndices[i], tokenIndices[i + 1])).append("-");
+			str = str.append((hasDependent(tokenIndices[i], tokenIndices[i + 1]) ? "G" : "D")).append("/");
+		}
+
+		if (str.length() > 0)
+			str = str.delete(str.length() - 1, str.length());
+		
+		return str.toString();
+	}
+	
 	public DocumentNLP getDocument() {
 		return this.document;
 	}
@@ -272,63 +441,79 @@ public class DependencyParse implements StringSerializable {
 	}
 	
 	public boolean isDirectlyGoverning(int sourceTokenIndex, int targetTokenIndex) {
-		DependencyPath path = getPath(sourceTokenIndex, targetTokenIndex);
-		return path != null && path.getDependencyLength() == 1 && path.isAllGoverning();
+		return getPathLength(sourceTokenIndex, targetTokenIndex) == 1 && getPathType(sourceTokenIndex, targetTokenIndex) == PathType.GOVERNING;
 	}
 	
 	public boolean isGoverning(int sourceTokenIndex, int targetTokenIndex) {
-		DependencyPath path = getPath(sourceTokenIndex, targetTokenIndex);
-		return path != null && path.isAllGoverning();
+		return getPathType(sourceTokenIndex, targetTokenIndex) == PathType.GOVERNING;
 	}
 	
-	public DependencyPath getPath(int sourceTokenIndex, int targetTokenIndex) {
-		Node source = getNode(sourceTokenIndex);
-		Node target = getNode(targetTokenIndex);;
-		// this can happen when the ccompressed path compresses a node into an arc, and i'm trying to find the path to that node.
-		if (source == null || target == null)
+	/**
+	 * @return the number of dependencies on the shortest path from the
+	 * source token to the target token, or -1 if there is no path
+	 */
+	public int getPathLength(int sourceTokenIndex, int targetTokenIndex) {
+		int source = getNodeId(sourceTokenIndex);
+		int target = getNodeId(targetTokenIndex);
+		if (source < 0 || target < 0)
+			return -1;
+		return getPathIndex().getDistance(source, target);
+	}
+	
+	/**
+	 * @return the type of the shortest path from the source token to the
+	 * target token (the same as getPath(...).getType()), or null if there
+	 * is no path
+	 */
+	public PathType getPathType(int sourceTokenIndex, int targetTokenIndex) {
+		int[] tokenIndices = getPathTokenIndices(sourceTokenIndex, targetTokenIndex);
+		if (tokenIndices == null)
 			return null;
 		
-		Queue<Node> toVisit = new LinkedList<Node>();
-		Map<Node, Node> paths = new HashMap<Node, Node>();
-		
-		toVisit.add(source);
-		paths.put(source, null);
-		while (!toVisit.isEmpty()) {
-			Node current = toVisit.poll();
-		
-			if (current.equals(target)) {
-				List<Node> path = new ArrayList<Node>();
-				Node pathCurrent = current;
-				while (pathCurrent != null) {
-					path.add(pathCurrent);
-					pathCurrent = paths.get(pathCurrent);
-				}
-				
-				Collections.reverse(path);
-				
-				return new DependencyPath(path);
-			}
-			
-			Dependency[] governors = current.getGovernors();
-			for (Dependency governor : governors) {
-				Node governorNode = getNode(governor.getGoverningTokenIndex());
-				if (paths.containsKey(governorNode))
-					continue;
-				toVisit.add(governorNode);
-				paths.put(governorNode, current);
-			}
-			
-			Dependency[] dependents = current.getDependents();
-			for (Dependency dependent : dependents){
-				Node dependentNode = getNode(dependent.getDependentTokenIndex());
-				if (paths.containsKey(dependentNode))
-					continue;
-				toVisit.add(dependentNode);
-				paths.put(dependentNode, current);
-			}
+		boolean allGoverning = true;
+		boolean allGovernedBy = true;
+		for (int i = 0; i < tokenIndices.length - 1; i++) {
+			if (hasDependent(tokenIndices[i], tokenIndices[i + 1]))
+				allGovernedBy = false;
+			else
+				allGoverning = false;
 		}
 		
-		return null;
+		if (allGoverning)
+			return PathType.GOVERNING;
+		else if (allGovernedBy)
+			return PathType.GOVERNED_BY;
+		else
+			return PathType.NONE;
+	}
+	
+	/**
+	 * @return the string representation of the shortest path from the
+	 * source token to the target token (the same as 
+	 * getPath(...).toString(includeTypes)), or null if there is no path
+	 */
+	public String getPathString(int sourceTokenIndex, int targetTokenIndex, boolean includeTypes) {
+		int[] tokenIndices = getPathTokenIndices(sourceTokenIndex, targetTokenIndex);
+		if (tokenIndices == null)
+			return null;
+		return pathToString(tokenIndices, includeTypes);
+	}
+	
+	public DependencyPath getPath(int sourceTokenIndex, int targetTokenIndex) {
+		int[] tokenIndices = getPathTokenIndices(sourceTokenIndex, targetTokenIndex);
+		if (tokenIndices == null)
+			return null;
+		return new DependencyPath(tokenIndices);
+	}
+	
+	private int[] getPathTokenIndices(int sourceTokenIndex, int targetTokenIndex) {
+		int source = getNodeId(sourceTokenIndex);
+		int target = getNodeId(targetTokenIndex);
+		// this can happen when the ccompressed path compresses a node into an arc, and i'm trying to find the path to that node.
+		if (source < 0 || target < 0)
+			return null;
+		
+		return getPathIndex().getPathTokenIndices(source, target);
 	}
 	
 	public List<Dependency> getGoverningDependencies(int index) {
@@ -410,6 +595,7 @@ public class DependencyParse implements StringSerializable {
 		if (str.trim().length() == 0) {
 			this.root =  this.new Node(-1, new Dependency[0], new Dependency[0]);
 			this.tokenNodes = new Node[0];
+			this.pathIndex = null;
 			
 			return true;
 		}
@@ -449,6 +635,7 @@ public class DependencyParse implements StringSerializable {
 		this.root =  this.new Node(-1, new Dependency[0], nodesToDeps.get(-1).getSecond().toArray(new Dependency[0]));
 		this.tokenNodes = tokenNodes;
 		this.sourceString = str;
+		this.pathIndex = null;
 		
 		return true;
 	}
@@ -475,5 +662,6 @@ public class DependencyParse implements StringSerializable {
         public void setNodes(Node root, Node[] tokenNodes) {
 		this.root = (root != null) ? root : new Node(-1, new Dependency[0], new Dependency[0]);
 		this.tokenNodes = tokenNodes; 
+		this.pathIndex = null;
 	}
 }
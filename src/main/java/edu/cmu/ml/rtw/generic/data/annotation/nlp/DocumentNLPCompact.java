@@ -0,0 +1,998 @@
+package edu.cmu.ml.rtw.generic.data.annotation.nlp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+
+import edu.cmu.ml.rtw.generic.data.DataTools;
+import edu.cmu.ml.rtw.generic.data.annotation.AnnotationType;
+import edu.cmu.ml.rtw.generic.data.annotation.AnnotationType.SerializationType;
+import edu.cmu.ml.rtw.generic.data.annotation.nlp.AnnotationTypeNLP.Target;
+import edu.cmu.ml.rtw.generic.data.annotation.nlp.TokenSpan.Relation;
+import edu.cmu.ml.rtw.generic.data.store.StoreReference;
+import edu.cmu.ml.rtw.generic.util.Pair;
+import edu.cmu.ml.rtw.generic.util.Storable;
+import edu.cmu.ml.rtw.generic.util.Triple;
+
+/**
+ * DocumentNLPCompact represents a text document with various
+ * NLP annotations kept in memory, like DocumentNLPInMemory,
+ * but stores its per-token annotations in flat primitive
+ * arrays rather than as an object per token.  It is meant for
+ * holding very large numbers of documents in memory at once.
+ *
+ * In particular:
+ *
+ *  - Token strings are concatenated into a single string, with
+ *  int offsets into it and int character spans for each token.
+ *  Token objects are constructed when they are requested.
+ *
+ *  - Token annotations (including PoS tags and lemmas) are stored as
+ *  byte codes when they are enums, as ids into a table of interned strings
+ *  when they are strings, and as a flat object array otherwise.
+ *
+ *  - NER spans are stored as int arrays with labels as ids
+ *  into a table of interned strings.
+ *
+ *  - Confidences are stored as floats, and the arrays that hold
+ *  them are only allocated when an annotation has confidences.
+ *  Annotations without confidences are marked with NaN in these
+ *  arrays, so their confidences are null.
+ *
+ * Sentence, document, coreference and other token span annotations
+ * are stored in the same way as in DocumentNLPInMemory.
+ *
+ * @author Bill McDowell
+ *
+ */
+public class DocumentNLPCompact extends DocumentNLPMutable {
+	/**
+	 * TokenColumn holds one annotation for each token of a
+	 * document in flat arrays indexed by sentence offset plus
+	 * token index.
+	 */
+	protected static class TokenColumn {
+		private int[] sentenceOffsets; // Index of the first token of each sentence, followed by the total token count
+		private byte[] enumCodes; // Enum ordinals (or -1 for missing annotations)
+		private Object[] enumConstants;
+		private int[] stringIds; // Indices into strings (or -1 for missing annotations)
+		private String[] strings;
+		private Object[] objects;
+		private float[] confidences;
+
+		public TokenColumn(Pair<?, Double>[][] annotation, int[] sharedSentenceOffsets) {
+			this.sentenceOffsets = makeSentenceOffsets(annotation, sharedSentenceOffsets);
+			int tokenCount = this.sentenceOffsets[this.sentenceOffsets.length - 1];
+
+			Class<?> enumClass = null;
+			boolean allEnums = true;
+			boolean allStrings = true;
+			boolean hasConfidences = false;
+			for (int i = 0; i < annotation.length; i++) {
+				for (int j = 0; j < annotation[i].length; j++) {
+					if (annotation[i][j] == null)
+						continue;
+					if (annotation[i][j].getSecond() != null)
+						hasConfidences = true;
+					Object value = annotation[i][j].getFirst();
+					if (value == null)
+						continue;
+					allStrings = allStrings && (value instanceof String);
+					if (allEnums && value instanceof Enum) {
+						Class<?> valueClass = ((Enum<?>)value).getDeclaringClass();
+						allEnums = (enumClass == null || enumClass.equals(valueClass)) && valueClass.getEnumConstants().length <= Byte.MAX_VALUE;
+						enumClass = valueClass;
+					} else {
+						allEnums = false;
+					}
+				}
+			}
+
+			if (allEnums && enumClass != null) {
+				this.enumConstants = enumClass.getEnumConstants();
+				this.enumCodes = new byte[tokenCount];
+				Arrays.fill(this.enumCodes, (byte)-1);
+			} else if (allStrings) {
+				this.stringIds = new int[tokenCount];
+				Arrays.fill(this.stringIds, -1);
+			} else {
+				this.objects = new Object[tokenCount];
+			}
+
+			if (hasConfidences)
+				this.confidences = makeConfidences(tokenCount);
+
+			Map<String, Integer> stringTable = new HashMap<String, Integer>();
+			for (int i = 0; i < annotation.length; i++) {
+				for (int j = 0; j < annotation[i].length; j++) {
+					if (annotation[i][j] == null)
+						continue;
+					int index = this.sentenceOffsets[i] + j;
+					if (hasConfidences && annotation[i][j].getSecond() != null)
+						this.confidences[index] = annotation[i][j].getSecond().floatValue();
+
+					Object value = annotation[i][j].getFirst();
+					if (value == null)
+						continue;
+					else if (this.enumCodes != null)
+						this.enumCodes[index] = (byte)((Enum<?>)value).ordinal();
+					else if (this.stringIds != null)
+						this.stringIds[index] = getStringId(stringTable, (String)value);
+					else
+						this.objects[index] = value;
+				}
+			}
+
+			if (this.stringIds != null)
+				this.strings = makeStringArray(stringTable);
+		}
+
+		public int[] getSentenceOffsets() {
+			return this.sentenceOffsets;
+		}
+
+		public boolean contains(int sentenceIndex, int tokenIndex) {
+			return sentenceIndex >= 0
+					&& sentenceIndex < this.sentenceOffsets.length - 1
+					&& tokenIndex >= 0
+					&& this.sentenceOffsets[sentenceIndex] + tokenIndex < this.sentenceOffsets[sentenceIndex + 1];
+		}
+
+		public Object get(int sentenceIndex, int tokenIndex) {
+			int index = this.sentenceOffsets[sentenceIndex] + tokenIndex;
+			if (this.enumCodes != null)
+				return (this.enumCodes[index] < 0) ? null : this.enumConstants[this.enumCodes[index]];
+			else if (this.stringIds != null)
+				return (this.stringIds[index] < 0) ? null : this.strings[this.stringIds[index]];
+			else
+				return this.objects[index];
+		}
+
+		public boolean hasConfidence() {
+			return this.confidences != null;
+		}
+
+		public Double getConfidence(int sentenceIndex, int tokenIndex) {
+			if (this.confidences == null)
+				return null;
+			return DocumentNLPCompact.getConfidence(this.confidences, this.sentenceOffsets[sentenceIndex] + tokenIndex);
+		}
+	}
+
+	protected String languageAnnotatorName;
+	protected String originalTextAnnotatorName;
+	protected String tokenAnnotatorName;
+	protected String posAnnotatorName;
+	protected String dependencyParseAnnotatorName;
+	protected String constituencyParseAnnotatorName;
+	protected String nerAnnotatorName;
+	protected String corefAnnotatorName;
+	protected Map<AnnotationTypeNLP<?>, String> otherAnnotatorNames;
+
+	protected Double languageConf;
+	protected Double originalTextConf;
+	protected double[] dependencyParsesConf;
+	protected double[] constituencyParsesConf;
+
+	protected Language language;
+	protected String originalText;
+
+	protected int[] sentenceTokenOffsets; // Index of the first token of each sentence, followed by the total token count
+	protected String tokenStrs; // Token strings concatenated together
+	protected int[] tokenStrOffsets; // Offset of each token's string in tokenStrs, followed by the length of tokenStrs
+	protected int[] tokenCharSpans; // Start and end of each token's character span in the original text
+	protected float[] tokensConf;
+
+	protected TokenColumn posTags;
+	protected DependencyParse[] dependencyParses;
+	protected ConstituencyParse[] constituencyParses;
+
+	protected int[] nerSentenceOffsets; // Index of the first NER span of each sentence, followed by the total NER span count
+	protected int[] nerSpans; // Start and end token indices of each NER span
+	protected int[] nerLabelIds; // Indices into nerLabels
+	protected String[] nerLabels;
+	protected float[] nerConf;
+
+	protected Map<Integer, List<Triple<TokenSpan, TokenSpanCluster, Double>>> coref;
+
+	protected Map<AnnotationTypeNLP<?>, Pair<?, Double>> otherDocumentAnnotations;
+	protected Map<AnnotationTypeNLP<?>, Map<Integer, ?>> otherSentenceAnnotations;
+	protected Map<AnnotationTypeNLP<?>, Map<Integer, List<Triple<TokenSpan, ?, Double>>>> otherTokenSpanAnnotations;
+	protected Map<AnnotationTypeNLP<?>, TokenColumn> otherTokenAnnotations;
+
+	// Interval indices over token span annotations by type and sentence, built lazily
+	protected Map<AnnotationTypeNLP<?>, Map<Integer, TokenSpanIndex<?>>> tokenSpanIndices = new ConcurrentHashMap<AnnotationTypeNLP<?>, Map<Integer, TokenSpanIndex<?>>>();
+
+	public DocumentNLPCompact(DataTools dataTools) {
+		this(dataTools, null, null);
+	}
+
+	public DocumentNLPCompact(DataTools dataTools, String name) {
+		super(dataTools, name);
+	}
+
+	public DocumentNLPCompact(DataTools dataTools, String name, String storageName, String collectionName) {
+		super(dataTools, name, storageName, collectionName);
+	}
+
+	public DocumentNLPCompact(DataTools dataTools, String name, String originalText) {
+		this(dataTools, name, null, null, originalText);
+	}
+
+	public DocumentNLPCompact(DataTools dataTools, String name, String storageName, String collectionName, String originalText) {
+		super(dataTools, name, storageName, collectionName);
+		this.originalText = originalText;
+	}
+
+	@SuppressWarnings("unchecked")
+	public DocumentNLPCompact(DocumentNLP document) {
+		this(document.getDataTools(),
+			document.getName(),
+			(document.getStoreReference() != null) ? document.getStoreReference().getStorageName() : null,
+			(document.getStoreReference() != null) ? document.getStoreReference().getCollectionName() : null,
+			document.getOriginalText());
+
+		// Tokens are copied first so that sentence annotations can rely on them
+		List<AnnotationType<?>> annotationTypes = new ArrayList<AnnotationType<?>>(document.getAnnotationTypes());
+		if (annotationTypes.remove(AnnotationTypeNLP.TOKEN))
+			annotationTypes.add(0, AnnotationTypeNLP.TOKEN);
+
+		for (AnnotationType<?> annotationType : annotationTypes) {
+			AnnotationTypeNLP<?> annotationTypeNLP = (AnnotationTypeNLP<?>)annotationType;
+			if (annotationTypeNLP.getTarget() == Target.DOCUMENT) {
+				setDocumentAnnotation(document.getAnnotatorName(annotationTypeNLP),
+											annotationTypeNLP,
+											new Pair<Object, Double>(document.getDocumentAnnotation(annotationTypeNLP),
+																	document.getDocumentAnnotationConfidence(annotationTypeNLP)));
+			} else if (annotationTypeNLP.getTarget() == Target.SENTENCE) {
+				Map<Integer, Pair<?, Double>> annotation = new HashMap<Integer, Pair<?, Double>>();
+				int sentenceCount = document.getSentenceCount();
+				for (int i = 0; i < sentenceCount; i++) {
+					Object obj = document.getSentenceAnnotation(annotationTypeNLP, i);
+					if (obj != null)
+						annotation.put(i, new Pair<Object, Double>(obj, document.getSentenceAnnotationConfidence(annotationTypeNLP, i)));
+				}
+
+				setSentenceAnnotation(document.getAnnotatorName(annotationTypeNLP), annotationTypeNLP, annotation);
+			} else if (annotationTypeNLP.getTarget() == Target.TOKEN_SPAN) {
+				List<?> annotation = document.getTokenSpanAnnotationConfidences(annotationTypeNLP);
+				setTokenSpanAnnotation(document.getAnnotatorName(annotationTypeNLP),
+						annotationTypeNLP, (List<Triple<TokenSpan, ?, Double>>)annotation);
+			} else if (annotationTypeNLP.getTarget() == Target.TOKEN) {
+				Pair<?, Double>[][] annotation = new Pair[document.getSentenceCount()][];
+				int sentenceCount = document.getSentenceCount();
+				for (int i = 0; i < sentenceCount; i++) {
+					int sentenceTokenCount = document.getSentenceTokenCount(i);
+					annotation[i] = new Pair[sentenceTokenCount];
+					for (int j = 0; j < sentenceTokenCount; j++) {
+						annotation[i][j] = new Pair<Object, Double>(
+								document.getTokenAnnotation(annotationTypeNLP, i, j),
+								document.getTokenAnnotationConfidence(annotationTypeNLP, i, j)
+						);
+					}
+				}
+
+				setTokenAnnotation(document.getAnnotatorName(annotationTypeNLP),
+						annotationTypeNLP, annotation);
+			}
+		}
+	}
+
+	@Override
+	public int getSentenceCount() {
+		return this.sentenceTokenOffsets.length - 1;
+	}
+
+	@Override
+	public int getSentenceTokenCount(int sentenceIndex) {
+		return this.sentenceTokenOffsets[sentenceIndex + 1] - this.sentenceTokenOffsets[sentenceIndex];
+	}
+
+	@Override
+	public String getOriginalText() {
+		return this.originalText;
+	}
+
+	@Override
+	public String getText() {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < getSentenceCount(); i++)
+			text = text.append(getSentence(i)).append(" ");
+		return text.toString().trim();
+	}
+
+	@Override
+	public String getSentence(int sentenceIndex) {
+		StringBuilder sentenceStr = new StringBuilder();
+
+		for (int i = this.sentenceTokenOffsets[sentenceIndex]; i < this.sentenceTokenOffsets[sentenceIndex + 1]; i++) {
+			sentenceStr = sentenceStr.append(this.tokenStrs, this.tokenStrOffsets[i], this.tokenStrOffsets[i + 1]).append(" ");
+		}
+		return sentenceStr.toString().trim();
+	}
+
+	@Override
+	public String getTokenStr(int sentenceIndex, int tokenIndex) {
+		if (tokenIndex < 0)
+			return "ROOT";
+		int index = getTokenIndex(sentenceIndex, tokenIndex);
+		return this.tokenStrs.substring(this.tokenStrOffsets[index], this.tokenStrOffsets[index + 1]);
+	}
+
+	/**
+	 * @return a new Token constructed from the stored token string
+	 * and character span
+	 */
+	@Override
+	public Token getToken(int sentenceIndex, int tokenIndex) {
+		if (tokenIndex < 0)
+			return new Token(this, "ROOT");
+
+		int index = getTokenIndex(sentenceIndex, tokenIndex);
+		return new Token(this,
+				this.tokenStrs.substring(this.tokenStrOffsets[index], this.tokenStrOffsets[index + 1]),
+				this.tokenCharSpans[2*index],
+				this.tokenCharSpans[2*index + 1]);
+	}
+
+	@Override
+	public PoSTag getPoSTag(int sentenceIndex, int tokenIndex) {
+		return (PoSTag)this.posTags.get(sentenceIndex, tokenIndex);
+	}
+
+	@Override
+	public ConstituencyParse getConstituencyParse(int sentenceIndex) {
+		return this.constituencyParses[sentenceIndex];
+	}
+
+	@Override
+	public DependencyParse getDependencyParse(int sentenceIndex) {
+		return this.dependencyParses[sentenceIndex];
+	}
+
+	@Override
+	public Language getLanguage() {
+		return this.language;
+	}
+
+	@Override
+	public List<Pair<TokenSpan, String>> getNer(TokenSpan tokenSpan,
+			Relation[] relationToAnnotations) {
+		return new ArrayList<Pair<TokenSpan, String>>(getNerWithConfidence(tokenSpan, relationToAnnotations));
+	}
+
+	@Override
+	public List<Pair<TokenSpan, TokenSpanCluster>> getCoref(
+			TokenSpan tokenSpan, Relation[] relationToAnnotations) {
+		List<Pair<TokenSpan, TokenSpanCluster>> retCoref = new ArrayList<Pair<TokenSpan, TokenSpanCluster>>();
+		List<Triple<TokenSpan, TokenSpanCluster, Double>> sentenceCoref = getRelatedTokenSpans(AnnotationTypeNLP.COREF, this.coref, tokenSpan, relationToAnnotations);
+		if (sentenceCoref != null)
+			retCoref.addAll(sentenceCoref);
+
+		return retCoref;
+	}
+
+	@Override
+	public String getAnnotatorName(AnnotationType<?> annotationType) {
+		if (this.otherAnnotatorNames != null && this.otherAnnotatorNames.containsKey(annotationType))
+			return this.otherAnnotatorNames.get(annotationType);
+
+		if (annotationType.equals(AnnotationTypeNLP.ORIGINAL_TEXT))
+			return this.originalTextAnnotatorName;
+		else if (annotationType.equals(AnnotationTypeNLP.LANGUAGE))
+			return this.languageAnnotatorName;
+		else if (annotationType.equals(AnnotationTypeNLP.TOKEN))
+			return this.tokenAnnotatorName;
+		else if (annotationType.equals(AnnotationTypeNLP.SENTENCE))
+			return this.tokenAnnotatorName;
+		else if (annotationType.equals(AnnotationTypeNLP.POS))
+			return this.posAnnotatorName;
+		else if (annotationType.equals(AnnotationTypeNLP.DEPENDENCY_PARSE))
+			return this.dependencyParseAnnotatorName;
+		else if (annotationType.equals(AnnotationTypeNLP.CONSTITUENCY_PARSE))
+			return this.constituencyParseAnnotatorName;
+		else if (annotationType.equals(AnnotationTypeNLP.NER))
+			return this.nerAnnotatorName;
+		else if (annotationType.equals(AnnotationTypeNLP.COREF))
+			return this.corefAnnotatorName;
+
+		return null;
+	}
+
+	@Override
+	public boolean hasAnnotationType(AnnotationType<?> annotationType) {
+		return ((this.otherDocumentAnnotations != null) && this.otherDocumentAnnotations.containsKey(annotationType))
+				|| ((this.otherSentenceAnnotations != null) && this.otherSentenceAnnotations.containsKey(annotationType))
+				|| ((this.otherTokenSpanAnnotations != null) && this.otherTokenSpanAnnotations.containsKey(annotationType))
+				|| ((this.otherTokenAnnotations != null) && this.otherTokenAnnotations.containsKey(annotationType))
+				|| (annotationType.equals(AnnotationTypeNLP.ORIGINAL_TEXT) && this.originalText != null)
+				|| (annotationType.equals(AnnotationTypeNLP.LANGUAGE) && this.language != null)
+				|| (annotationType.equals(AnnotationTypeNLP.TOKEN) && this.sentenceTokenOffsets != null)
+				|| (annotationType.equals(AnnotationTypeNLP.SENTENCE) && this.sentenceTokenOffsets != null)
+				|| (annotationType.equals(AnnotationTypeNLP.POS) && this.posTags != null)
+				|| (annotationType.equals(AnnotationTypeNLP.DEPENDENCY_PARSE) && this.dependencyParses != null)
+				|| (annotationType.equals(AnnotationTypeNLP.CONSTITUENCY_PARSE) && this.constituencyParses != null)
+				|| (annotationType.equals(AnnotationTypeNLP.NER) && this.nerSpans != null)
+				|| (annotationType.equals(AnnotationTypeNLP.COREF) && this.coref != null);
+	}
+
+	@Override
+	public Collection<AnnotationType<?>> getAnnotationTypes() {
+		List<AnnotationType<?>> annotationTypes = new ArrayList<AnnotationType<?>>();
+
+		if (this.otherDocumentAnnotations != null)
+			annotationTypes.addAll(this.otherDocumentAnnotations.keySet());
+		if (this.otherSentenceAnnotations != null)
+			annotationTypes.addAll(this.otherSentenceAnnotations.keySet());
+		if (this.otherTokenSpanAnnotations != null)
+			annotationTypes.addAll(this.otherTokenSpanAnnotations.keySet());
+		if (this.otherTokenAnnotations != null)
+			annotationTypes.addAll(this.otherTokenAnnotations.keySet());
+
+		if (this.sentenceTokenOffsets != null) {
+			annotationTypes.add(AnnotationTypeNLP.TOKEN);
+			annotationTypes.add(AnnotationTypeNLP.SENTENCE);
+		}
+
+		if (this.originalText != null)
+			annotationTypes.add(AnnotationTypeNLP.ORIGINAL_TEXT);
+		if (this.language != null)
+			annotationTypes.add(AnnotationTypeNLP.LANGUAGE);
+		if (this.posTags != null)
+			annotationTypes.add(AnnotationTypeNLP.POS);
+		if (this.constituencyParses != null)
+			annotationTypes.add(AnnotationTypeNLP.CONSTITUENCY_PARSE);
+		if (this.dependencyParses != null)
+			annotationTypes.add(AnnotationTypeNLP.DEPENDENCY_PARSE);
+		if (this.nerSpans != null)
+			annotationTypes.add(AnnotationTypeNLP.NER);
+		if (this.coref != null)
+			annotationTypes.add(AnnotationTypeNLP.COREF);
+
+		return annotationTypes;
+	}
+
+	protected <T> T getAnnotation(AnnotationTypeNLP<T> annotationType, Object annoObj) {
+		if (annotationType.getSerializationType() == SerializationType.STORED) {
+			T anno = this.dataTools.getStoredItemSetManager().resolveStoreReference((StoreReference)annoObj, true);
+			return anno;
+		}
+		return annotationType.getAnnotationClass().cast(annoObj);
+	}
+
+	@Override
+	public <T> T getDocumentAnnotation(AnnotationTypeNLP<T> annotationType) {
+		T anno = super.getDocumentAnnotation(annotationType);
+		if (anno != null)
+			return anno;
+		return getAnnotation(annotationType, this.otherDocumentAnnotations.get(annotationType).getFirst());
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public <T> T getSentenceAnnotation(AnnotationTypeNLP<T> annotationType, int sentenceIndex) {
+		T anno = super.getSentenceAnnotation(annotationType, sentenceIndex);
+		if (anno != null)
+			return anno;
+
+		Map<Integer, ?> sentenceAnnotation = this.otherSentenceAnnotations.get(annotationType);
+		if (!sentenceAnnotation.containsKey(sentenceIndex))
+			return null;
+
+		return getAnnotation(annotationType, ((Pair)sentenceAnnotation.get(sentenceIndex)).getFirst());
+	}
+
+	@Override
+	public <T> List<Pair<TokenSpan, T>> getTokenSpanAnnotations(AnnotationTypeNLP<T> annotationType, TokenSpan tokenSpan, TokenSpan.Relation[] relationsToAnnotations) {
+		List<Pair<TokenSpan, T>> anno = super.getTokenSpanAnnotations(annotationType, tokenSpan, relationsToAnnotations);
+		if (anno != null)
+			return anno;
+		if (this.otherTokenSpanAnnotations != null && this.otherTokenSpanAnnotations.containsKey(annotationType)) {
+			List<Triple<TokenSpan, ?, Double>> tokenSpanAnnotation = getRelatedTokenSpans(annotationType, this.otherTokenSpanAnnotations.get(annotationType), tokenSpan, relationsToAnnotations);
+			if (tokenSpanAnnotation == null)
+				return Collections.emptyList();
+			anno = new ArrayList<Pair<TokenSpan, T>>();
+			for (Pair<TokenSpan, ?> span : tokenSpanAnnotation)
+				anno.add(new Pair<TokenSpan, T>(span.getFirst(), getAnnotation(annotationType, span.getSecond())));
+
+			return anno;
+		} else {
+			return Collections.emptyList();
+		}
+	}
+
+	@Override
+	public <T> T getTokenAnnotation(AnnotationTypeNLP<T> annotationType, int sentenceIndex, int tokenIndex) {
+		T anno = super.getTokenAnnotation(annotationType, sentenceIndex, tokenIndex);
+		if (anno != null)
+			return anno;
+		TokenColumn annos = this.otherTokenAnnotations.get(annotationType);
+		if (!annos.contains(sentenceIndex, tokenIndex)) {
+			throw new IndexOutOfBoundsException("Failed to get " + annotationType.getType() + " in " + this.getName() + " at (" + sentenceIndex + ", " + tokenIndex + ")");
+		}
+
+		return getAnnotation(annotationType, annos.get(sentenceIndex, tokenIndex));
+	}
+
+	@Override
+	public Double getDocumentAnnotationConfidence(AnnotationTypeNLP<?> annotationType) {
+		Double annoConf = super.getDocumentAnnotationConfidence(annotationType);
+		if (annoConf != null)
+			return annoConf;
+		if (this.otherDocumentAnnotations != null && this.otherDocumentAnnotations.containsKey(annotationType))
+			return this.otherDocumentAnnotations.get(annotationType).getSecond();
+		else
+			return null;
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public Double getSentenceAnnotationConfidence(AnnotationTypeNLP<?> annotationType, int sentenceIndex) {
+		Double annoConf = super.getSentenceAnnotationConfidence(annotationType, sentenceIndex);
+		if (annoConf != null)
+			return annoConf;
+
+		if (this.otherSentenceAnnotations != null && this.otherSentenceAnnotations.containsKey(annotationType)) {
+			Map<Integer, ?> sentenceAnnotation = this.otherSentenceAnnotations.get(annotationType);
+			if (!sentenceAnnotation.containsKey(sentenceIndex))
+				return null;
+
+			return (Double)(((Pair)sentenceAnnotation.get(sentenceIndex)).getSecond());
+		} else {
+			return null;
+		}
+	}
+
+	@Override
+	public <T> List<Triple<TokenSpan, T, Double>> getTokenSpanAnnotationConfidences(AnnotationTypeNLP<T> annotationType, TokenSpan tokenSpan, TokenSpan.Relation[] relationsToAnnotations) {
+		List<Triple<TokenSpan, T, Double>> anno = super.getTokenSpanAnnotationConfidences(annotationType, tokenSpan, relationsToAnnotations);
+		if (anno != null)
+			return anno;
+
+		if (this.otherTokenSpanAnnotations != null && this.otherTokenSpanAnnotations.containsKey(annotationType)) {
+			List<Triple<TokenSpan, ?, Double>> tokenSpanAnnotation = getRelatedTokenSpans(annotationType, this.otherTokenSpanAnnotations.get(annotationType), tokenSpan, relationsToAnnotations);
+			if (tokenSpanAnnotation == null)
+				return new ArrayList<Triple<TokenSpan, T, Double>>();
+
+			anno = new ArrayList<Triple<TokenSpan, T, Double>>();
+			for (Triple<TokenSpan, ?, Double> span : tokenSpanAnnotation)
+				anno.add(new Triple<TokenSpan, T, Double>(span.getFirst(), getAnnotation(annotationType, span.getSecond()), span.getThird()));
+			return anno;
+		} else {
+			return null;
+		}
+	}
+
+	@Override
+	public Double getTokenAnnotationConfidence(AnnotationTypeNLP<?> annotationType, int sentenceIndex, int tokenIndex) {
+		Double anno = super.getTokenAnnotationConfidence(annotationType, sentenceIndex, tokenIndex);
+		if (anno != null)
+			return anno;
+
+		if (this.otherTokenAnnotations != null && this.otherTokenAnnotations.containsKey(annotationType)) {
+			return this.otherTokenAnnotations.get(annotationType).getConfidence(sentenceIndex, tokenIndex);
+		} else {
+			return null;
+		}
+	}
+
+	@Override
+	public Double getOriginalTextConfidence() {
+		return this.originalTextConf;
+	}
+
+	@Override
+	public Double getLanguageConfidence() {
+		return this.languageConf;
+	}
+
+	@Override
+	public Double getSentenceConfidence(int sentenceIndex) {
+		return null;
+	}
+
+	@Override
+	public Double getTokenConfidence(int sentenceIndex, int tokenIndex) {
+		if (this.tokensConf == null)
+			return null;
+		return getConfidence(this.tokensConf, getTokenIndex(sentenceIndex, tokenIndex));
+	}
+
+	@Override
+	public Double getPoSTagConfidence(int sentenceIndex, int tokenIndex) {
+		if (this.posTags == null)
+			return null;
+		return this.posTags.getConfidence(sentenceIndex, tokenIndex);
+	}
+
+	@Override
+	public Double getConstituencyParseConfidence(int sentenceIndex) {
+		if (this.constituencyParsesConf == null || Double.isNaN(this.constituencyParsesConf[sentenceIndex]))
+			return null;
+		return this.constituencyParsesConf[sentenceIndex];
+	}
+
+	@Override
+	public Double getDependencyParseConfidence(int sentenceIndex) {
+		if (this.dependencyParsesConf == null || Double.isNaN(this.dependencyParsesConf[sentenceIndex]))
+			return null;
+		return this.dependencyParsesConf[sentenceIndex];
+	}
+
+	@Override
+	public List<Triple<TokenSpan, String, Double>> getNerWithConfidence(
+			TokenSpan tokenSpan, Relation[] relationsToAnnotations) {
+		List<Triple<TokenSpan, String, Double>> retNer = new ArrayList<Triple<TokenSpan, String, Double>>();
+		int sentenceIndex = tokenSpan.getSentenceIndex();
+		if (this.nerSpans == null || sentenceIndex < 0 || sentenceIndex >= this.nerSentenceOffsets.length - 1)
+			return retNer;
+
+		for (int i = this.nerSentenceOffsets[sentenceIndex]; i < this.nerSentenceOffsets[sentenceIndex + 1]; i++) {
+			TokenSpan span = new TokenSpan(this, sentenceIndex, this.nerSpans[2*i], this.nerSpans[2*i + 1]);
+			if (tokenSpan.hasRelationTo(span, relationsToAnnotations))
+				retNer.add(new Triple<TokenSpan, String, Double>(span, this.nerLabels[this.nerLabelIds[i]], (this.nerConf == null) ? null : getConfidence(this.nerConf, i)));
+		}
+
+		return retNer;
+	}
+
+	@Override
+	public List<Triple<TokenSpan, TokenSpanCluster, Double>> getCorefWithConfidence(
+			TokenSpan tokenSpan, Relation[] relationsToAnnotations) {
+		List<Triple<TokenSpan, TokenSpanCluster, Double>> retCoref = getRelatedTokenSpans(AnnotationTypeNLP.COREF, this.coref, tokenSpan, relationsToAnnotations);
+		if (retCoref == null)
+			return new ArrayList<Triple<TokenSpan, TokenSpanCluster, Double>>();
+
+		return retCoref;
+	}
+
+	@SuppressWarnings("unchecked")
+	private <S extends Pair<TokenSpan, ?>> List<S> getRelatedTokenSpans(AnnotationTypeNLP<?> annotationType, Map<Integer, List<S>> annotation, TokenSpan tokenSpan, Relation[] relationsToAnnotations) {
+		if (annotation == null || !annotation.containsKey(tokenSpan.getSentenceIndex()))
+			return null;
+
+		Map<Integer, TokenSpanIndex<?>> indices = this.tokenSpanIndices.get(annotationType);
+		if (indices == null) {
+			indices = new HashMap<Integer, TokenSpanIndex<?>>();
+			for (Entry<Integer, List<S>> entry : annotation.entrySet())
+				indices.put(entry.getKey(), new TokenSpanIndex<S>(entry.getValue()));
+			this.tokenSpanIndices.put(annotationType, indices);
+		}
+
+		return ((TokenSpanIndex<S>)indices.get(tokenSpan.getSentenceIndex())).getSpans(tokenSpan, relationsToAnnotations);
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public boolean hasConfidence(AnnotationType<?> annotationType) {
+		return (annotationType.equals(AnnotationTypeNLP.ORIGINAL_TEXT) && this.originalTextConf != null)
+			|| (annotationType.equals(AnnotationTypeNLP.LANGUAGE) && this.languageConf != null)
+			|| (annotationType.equals(AnnotationTypeNLP.TOKEN) && this.tokensConf != null)
+			|| (annotationType.equals(AnnotationTypeNLP.POS) && this.posTags != null && this.posTags.hasConfidence())
+			|| (annotationType.equals(AnnotationTypeNLP.DEPENDENCY_PARSE) && this.dependencyParsesConf != null)
+			|| (annotationType.equals(AnnotationTypeNLP.CONSTITUENCY_PARSE) && this.constituencyParsesConf != null)
+			|| (annotationType.equals(AnnotationTypeNLP.NER) && this.nerSpans != null && (this.nerLabelIds.length == 0 || this.nerConf != null))
+			|| (annotationType.equals(AnnotationTypeNLP.COREF) && this.coref != null && (this.coref.size() == 0 || this.coref.values().iterator().next().get(0).getThird() != null))
+			|| (this.otherDocumentAnnotations != null && this.otherDocumentAnnotations.containsKey(annotationType) && this.otherDocumentAnnotations.get(annotationType).getSecond() != null)
+			|| (this.otherSentenceAnnotations != null && this.otherSentenceAnnotations.containsKey(annotationType) && this.otherSentenceAnnotations.get(annotationType).size() > 0 && ((Pair)this.otherSentenceAnnotations.get(annotationType).values().iterator().next()).getSecond() != null)
+			|| (this.otherTokenSpanAnnotations != null && this.otherTokenSpanAnnotations.containsKey(annotationType) && this.otherTokenSpanAnnotations.get(annotationType).size() > 0 && this.otherTokenSpanAnnotations.get(annotationType).values().iterator().next().get(0).getThird() != null)
+			|| (this.otherTokenAnnotations != null && this.otherTokenAnnotations.containsKey(annotationType) && this.otherTokenAnnotations.get(annotationType).hasConfidence());
+	}
+
+	@Override
+	public DocumentNLPMutable makeInstance(String name) {
+		return new DocumentNLPCompact(this.dataTools, name);
+	}
+
+	@Override
+	public DocumentNLPMutable makeInstance(StoreReference storeReference) {
+		return new DocumentNLPCompact(this.dataTools,
+									   storeReference.getIndexValues().get(0).toString(),
+									   storeReference.getStorageName(),
+									   storeReference.getCollectionName()
+									   );
+	}
+
+	private Object getAnnotationToSet(AnnotationTypeNLP<?> annotationType, Object annotationObj) {
+		if (annotationType.getSerializationType() == SerializationType.STORED)
+			if (Storable.class.isAssignableFrom(annotationObj.getClass()))
+				return ((Storable)annotationObj).getStoreReference();
+			else
+				return (StoreReference)annotationObj;
+		else
+			return annotationObj;
+	}
+
+	@Override
+	public boolean setDocumentAnnotation(String annotator, AnnotationTypeNLP<?> annotationType, Pair<?, Double> annotation) {
+		if (annotationType.equals(AnnotationTypeNLP.LANGUAGE)) {
+			this.languageAnnotatorName = annotator;
+			this.language = (Language)annotation.getFirst();
+			this.languageConf = annotation.getSecond();
+		} else if (annotationType.equals(AnnotationTypeNLP.ORIGINAL_TEXT)) {
+			this.originalTextAnnotatorName = annotator;
+			this.originalText = annotation.getFirst().toString();
+			this.originalTextConf = annotation.getSecond();
+		} else {
+			if (this.otherAnnotatorNames == null)
+				this.otherAnnotatorNames = new HashMap<AnnotationTypeNLP<?>, String>();
+			this.otherAnnotatorNames.put(annotationType, annotator);
+			if (this.otherDocumentAnnotations == null)
+				this.otherDocumentAnnotations = new HashMap<AnnotationTypeNLP<?>, Pair<?, Double>>();
+
+			this.otherDocumentAnnotations.put(annotationType, new Pair<Object, Double>(getAnnotationToSet(annotationType, annotation.getFirst()), annotation.getSecond()));
+		}
+
+		return true;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public boolean setSentenceAnnotation(String annotator, AnnotationTypeNLP<?> annotationType, Map<Integer, ?> annotation) {
+		if (annotationType.equals(AnnotationTypeNLP.DEPENDENCY_PARSE)) {
+			int sentenceCount = getSentenceCount();
+			this.dependencyParseAnnotatorName = annotator;
+			this.dependencyParses = new DependencyParse[sentenceCount];
+			this.dependencyParsesConf = null;
+			for (int i = 0; i < sentenceCount; i++)
+				if (annotation.containsKey(i)) {
+					Pair<DependencyParse, Double> depAnno = (Pair<DependencyParse, Double>)annotation.get(i);
+					this.dependencyParses[i] = depAnno.getFirst();
+					if (depAnno.getSecond() != null) {
+						if (this.dependencyParsesConf == null)
+							this.dependencyParsesConf = makeParseConfidences(sentenceCount);
+						this.dependencyParsesConf[i] = depAnno.getSecond();
+					}
+				}
+		} else if (annotationType.equals(AnnotationTypeNLP.CONSTITUENCY_PARSE)) {
+			int sentenceCount = getSentenceCount();
+			this.constituencyParseAnnotatorName = annotator;
+			this.constituencyParses = new ConstituencyParse[sentenceCount];
+			this.constituencyParsesConf = null;
+			for (int i = 0; i < sentenceCount; i++)
+				if (annotation.containsKey(i)) {
+					Pair<ConstituencyParse, Double> conAnno = (Pair<ConstituencyParse, Double>)annotation.get(i);
+					this.constituencyParses[i] = conAnno.getFirst();
+					if (conAnno.getSecond() != null) {
+						if (this.constituencyParsesConf == null)
+							this.constituencyParsesConf = makeParseConfidences(sentenceCount);
+						this.constituencyParsesConf[i] = conAnno.getSecond();
+					}
+				}
+		} else if (!annotationType.equals(AnnotationTypeNLP.SENTENCE)) {
+			if (this.otherAnnotatorNames == null)
+				this.otherAnnotatorNames = new HashMap<AnnotationTypeNLP<?>, String>();
+			this.otherAnnotatorNames.put(annotationType, annotator);
+			if (this.otherSentenceAnnotations == null)
+				this.otherSentenceAnnotations = new HashMap<AnnotationTypeNLP<?>, Map<Integer, ?>>();
+
+			if (annotationType.getSerializationType() != SerializationType.STORED) {
+				this.otherSentenceAnnotations.put(annotationType, annotation);
+			} else {
+				Map<Integer, Pair<?, Double>> newAnno = new HashMap<Integer, Pair<?, Double>>();
+				for (Entry<Integer, ?> entry : annotation.entrySet()) {
+					Pair<?, Double> annoPair = (Pair<?, Double>)entry.getValue();
+					newAnno.put(entry.getKey(), new Pair<Object, Double>(getAnnotationToSet(annotationType, annoPair.getFirst()), annoPair.getSecond()));
+				}
+				this.otherSentenceAnnotations.put(annotationType,  newAnno);
+			}
+		}
+
+		return true;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public boolean setTokenSpanAnnotation(String annotator, AnnotationTypeNLP<?> annotationType, List<Triple<TokenSpan, ?, Double>> annotation) {
+		if (annotationType.equals(AnnotationTypeNLP.NER)) {
+			this.nerAnnotatorName = annotator;
+			setNer(annotation);
+		} else if (annotationType.equals(AnnotationTypeNLP.COREF)) {
+			this.corefAnnotatorName = annotator;
+			this.coref = new HashMap<Integer, List<Triple<TokenSpan, TokenSpanCluster, Double>>>();
+			for (Triple<TokenSpan, ?, Double> span : annotation) {
+				if (!this.coref.containsKey(span.getFirst().getSentenceIndex()))
+					this.coref.put(span.getFirst().getSentenceIndex(), new ArrayList<Triple<TokenSpan, TokenSpanCluster, Double>>());
+				this.coref.get(span.getFirst().getSentenceIndex()).add((Triple<TokenSpan, TokenSpanCluster, Double>)span);
+			}
+		} else {
+			if (this.otherAnnotatorNames == null)
+				this.otherAnnotatorNames = new HashMap<AnnotationTypeNLP<?>, String>();
+			this.otherAnnotatorNames.put(annotationType, annotator);
+
+			if (this.otherTokenSpanAnnotations == null)
+				this.otherTokenSpanAnnotations = new HashMap<AnnotationTypeNLP<?>, Map<Integer, List<Triple<TokenSpan, ?, Double>>>>();
+			Map<Integer, List<Triple<TokenSpan, ?, Double>>> annotationMap = new HashMap<Integer, List<Triple<TokenSpan, ?, Double>>>();
+			for (Triple<TokenSpan, ?, Double> span : annotation) {
+				if (!annotationMap.containsKey(span.getFirst().getSentenceIndex()))
+					annotationMap.put(span.getFirst().getSentenceIndex(), new ArrayList<Triple<TokenSpan, ?, Double>>());
+
+				if (annotationType.getSerializationType() == SerializationType.STORED)
+					span = new Triple<TokenSpan, Object, Double>(span.getFirst(), getAnnotationToSet(annotationType, span.getSecond()), span.getThird());
+
+				annotationMap.get(span.getFirst().getSentenceIndex()).add(span);
+			}
+			this.otherTokenSpanAnnotations.put(annotationType, annotationMap);
+		}
+
+		this.tokenSpanIndices.remove(annotationType);
+
+		return true;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public boolean setTokenAnnotation(String annotator, AnnotationTypeNLP<?> annotationType, Pair<?, Double>[][] annotation) {
+		if (annotationType.equals(AnnotationTypeNLP.TOKEN)) {
+			this.tokenAnnotatorName = annotator;
+			setTokens(annotation);
+		} else if (annotationType.equals(AnnotationTypeNLP.POS)) {
+			this.posAnnotatorName = annotator;
+			this.posTags = new TokenColumn(annotation, this.sentenceTokenOffsets);
+		} else {
+			if (this.otherAnnotatorNames == null)
+				this.otherAnnotatorNames = new HashMap<AnnotationTypeNLP<?>, String>();
+
+			this.otherAnnotatorNames.put(annotationType, annotator);
+
+			if (this.otherTokenAnnotations == null)
+				this.otherTokenAnnotations = new HashMap<AnnotationTypeNLP<?>, TokenColumn>();
+
+			if (annotationType.getSerializationType() == SerializationType.STORED) {
+				Pair<?, Double>[][] newAnnotation = new Pair[annotation.length][];
+				for (int i = 0; i < newAnnotation.length; i++) {
+					newAnnotation[i] = new Pair[annotation[i].length];
+					for (int j = 0; j < newAnnotation[i].length; j++) {
+						newAnnotation[i][j] = new Pair<Object, Double>(getAnnotationToSet(annotationType, annotation[i][j].getFirst()), annotation[i][j].getSecond());
+					}
+				}
+				annotation = newAnnotation;
+			}
+
+			this.otherTokenAnnotations.put(annotationType, new TokenColumn(annotation, this.sentenceTokenOffsets));
+		}
+
+		return true;
+	}
+
+	private void setTokens(Pair<?, Double>[][] annotation) {
+		this.sentenceTokenOffsets = makeSentenceOffsets(annotation, null);
+		int tokenCount = this.sentenceTokenOffsets[this.sentenceTokenOffsets.length - 1];
+
+		StringBuilder tokenStrs = new StringBuilder();
+		this.tokenStrOffsets = new int[tokenCount + 1];
+		this.tokenCharSpans = new int[2*tokenCount];
+		this.tokensConf = null;
+
+		int index = 0;
+		for (int i = 0; i < annotation.length; i++) {
+			for (int j = 0; j < annotation[i].length; j++) {
+				Token token = (Token)annotation[i][j].getFirst();
+				this.tokenStrOffsets[index] = tokenStrs.length();
+				tokenStrs.append(token.getStr());
+				this.tokenCharSpans[2*index] = token.getCharSpanStart();
+				this.tokenCharSpans[2*index + 1] = token.getCharSpanEnd();
+
+				if (annotation[i][j].getSecond() != null) {
+					if (this.tokensConf == null)
+						this.tokensConf = makeConfidences(tokenCount);
+					this.tokensConf[index] = annotation[i][j].getSecond().floatValue();
+				}
+
+				index++;
+			}
+		}
+
+		this.tokenStrOffsets[tokenCount] = tokenStrs.length();
+		this.tokenStrs = tokenStrs.toString();
+	}
+
+	private void setNer(List<Triple<TokenSpan, ?, Double>> annotation) {
+		// Sort the spans by sentence, keeping their order within each sentence
+		List<Triple<TokenSpan, ?, Double>> spans = new ArrayList<Triple<TokenSpan, ?, Double>>(annotation);
+		Collections.sort(spans, new Comparator<Triple<TokenSpan, ?, Double>>() {
+			@Override
+			public int compare(Triple<TokenSpan, ?, Double> s1, Triple<TokenSpan, ?, Double> s2) {
+				return Integer.compare(s1.getFirst().getSentenceIndex(), s2.getFirst().getSentenceIndex());
+			}
+		});
+
+		int sentenceCount = (spans.size() == 0) ? 0 : spans.get(spans.size() - 1).getFirst().getSentenceIndex() + 1;
+		this.nerSentenceOffsets = new int[sentenceCount + 1];
+		this.nerSpans = new int[2*spans.size()];
+		this.nerLabelIds = new int[spans.size()];
+		this.nerConf = null;
+
+		Map<String, Integer> labelTable = new HashMap<String, Integer>();
+		for (int i = 0; i < spans.size(); i++) {
+			Triple<TokenSpan, ?, Double> span = spans.get(i);
+			this.nerSentenceOffsets[span.getFirst().getSentenceIndex() + 1]++;
+			this.nerSpans[2*i] = span.getFirst().getStartTokenIndex();
+			this.nerSpans[2*i + 1] = span.getFirst().getEndTokenIndex();
+			this.nerLabelIds[i] = getStringId(labelTable, (String)span.getSecond());
+
+			if (span.getThird() != null) {
+				if (this.nerConf == null)
+					this.nerConf = makeConfidences(spans.size());
+				this.nerConf[i] = span.getThird().floatValue();
+			}
+		}
+
+		for (int i = 0; i < sentenceCount; i++)
+			this.nerSentenceOffsets[i + 1] += this.nerSentenceOffsets[i];
+		this.nerLabels = makeStringArray(labelTable);
+	}
+
+	private int getTokenIndex(int sentenceIndex, int tokenIndex) {
+		if (tokenIndex >= getSentenceTokenCount(sentenceIndex))
+			throw new IndexOutOfBoundsException("Failed to get token in " + this.getName() + " at (" + sentenceIndex + ", " + tokenIndex + ")");
+		return this.sentenceTokenOffsets[sentenceIndex] + tokenIndex;
+	}
+
+	/**
+	 * @return offsets of the first token of each sentence in the annotation,
+	 * followed by the total token count.  If the offsets are the same as
+	 * sharedSentenceOffsets, then sharedSentenceOffsets is returned so
+	 * that token columns can share a single offset array.
+	 */
+	private static int[] makeSentenceOffsets(Pair<?, Double>[][] annotation, int[] sharedSentenceOffsets) {
+		int[] sentenceOffsets = new int[annotation.length + 1];
+		for (int i = 0; i < annotation.length; i++)
+			sentenceOffsets[i + 1] = sentenceOffsets[i] + annotation[i].length;
+		if (Arrays.equals(sentenceOffsets, sharedSentenceOffsets))
+			return sharedSentenceOffsets;
+		return sentenceOffsets;
+	}
+
+	private static int getStringId(Map<String, Integer> stringTable, String str) {
+		Integer id = stringTable.get(str);
+		if (id == null) {
+			id = stringTable.size();
+			stringTable.put(str, id);
+		}
+		return id;
+	}
+
+	/**
+	 * @return the strings in the table ordered by their ids, interned
+	 * so that they are shared across documents
+	 */
+	private static String[] makeStringArray(Map<String, Integer> stringTable) {
+		String[] strings = new String[stringTable.size()];
+		for (Entry<String, Integer> entry : stringTable.entrySet())
+			strings[entry.getValue()] = (entry.getKey() == null) ? null : entry.getKey().intern();
+		return strings;
+	}
+
+	/**
+	 * @return a confidence array in which every annotation is marked
+	 * as having no confidence
+	 */
+	private static float[] makeConfidences(int size) {
+		float[] confidences = new float[size];
+		Arrays.fill(confidences, Float.NaN);
+		return confidences;
+	}
+
+	private static double[] makeParseConfidences(int size) {
+		double[] confidences = new double[size];
+		Arrays.fill(confidences, Double.NaN);
+		return confidences;
+	}
+
+	/**
+	 * @return the confidence at the index, or null if the annotation
+	 * at the index has no confidence
+	 */
+	private static Double getConfidence(float[] confidences, int index) {
+		float confidence = confidences[index];
+		return Float.isNaN(confidence) ? null : (double)confidence;
+	}
+}
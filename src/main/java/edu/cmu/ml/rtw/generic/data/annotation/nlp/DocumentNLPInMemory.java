@@ -1,13 +1,13 @@
 package edu.cmu.ml.rtw.generic.data.annotation.nlp;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 
 import edu.cmu.ml.rtw.generic.data.DataTools;
 import edu.cmu.ml.rtw.generic.data.annotation.AnnotationType;
@@ -64,6 +64,9 @@ public class DocumentNLPInMemory extends DocumentNLPMutable {
 	protected Map<AnnotationTypeNLP<?>, Map<Integer, List<Triple<TokenSpan, ?, Double>>>> otherTokenSpanAnnotations;
 	protected Map<AnnotationTypeNLP<?>, Pair<?, Double>[][]> otherTokenAnnotations;
 	
+	// Interval indices over token span annotations by type and sentence, built lazily
+	protected Map<AnnotationTypeNLP<?>, Map<Integer, TokenSpanIndex<?>>> tokenSpanIndices = new ConcurrentHashMap<AnnotationTypeNLP<?>, Map<Integer, TokenSpanIndex<?>>>();
+	
 	public DocumentNLPInMemory(DataTools dataTools) {
 		this(dataTools, null, null);
 	}
@@ -201,16 +204,10 @@ public class DocumentNLPInMemory extends DocumentNLPMutable {
 	@Override
 	public List<Pair<TokenSpan, String>> getNer(TokenSpan tokenSpan,
 			Relation[] relationToAnnotations) {
-		List<Triple<TokenSpan, String, Double>> sentenceNer = this.ner.get(tokenSpan.getSentenceIndex());
 		List<Pair<TokenSpan, String>> retNer = new ArrayList<Pair<TokenSpan, String>>();
-		if (sentenceNer == null)
-			return retNer;
-		List<Relation> rels = Arrays.asList(relationToAnnotations);
-		for (Pair<TokenSpan, String> span : sentenceNer) {
-			TokenSpan.Relation relation = tokenSpan.getRelationTo(span.getFirst());
-			if (rels.contains(relation))
-				retNer.add(span);
-		}
+		List<Triple<TokenSpan, String, Double>> sentenceNer = getRelatedTokenSpans(AnnotationTypeNLP.NER, this.ner, tokenSpan, relationToAnnotations);
+		if (sentenceNer != null)
+			retNer.addAll(sentenceNer);
 		
 		return retNer;
 	}
@@ -218,16 +215,10 @@ public class DocumentNLPInMemory extends DocumentNLPMutable {
 	@Override
 	public List<Pair<TokenSpan, TokenSpanCluster>> getCoref(
 			TokenSpan tokenSpan, Relation[] relationToAnnotations) {
-		List<Triple<TokenSpan, TokenSpanCluster, Double>> sentenceCoref = this.coref.get(tokenSpan.getSentenceIndex());
 		List<Pair<TokenSpan, TokenSpanCluster>> retCoref = new ArrayList<Pair<TokenSpan, TokenSpanCluster>>();
-		if (sentenceCoref == null)
-			return retCoref;
-		List<Relation> rels = Arrays.asList(relationToAnnotations);
-		for (Pair<TokenSpan, TokenSpanCluster> span : sentenceCoref) {
-			TokenSpan.Relation relation = tokenSpan.getRelationTo(span.getFirst());
-			if (rels.contains(relation))
-				retCoref.add(span);
-		}
+		List<Triple<TokenSpan, TokenSpanCluster, Double>> sentenceCoref = getRelatedTokenSpans(AnnotationTypeNLP.COREF, this.coref, tokenSpan, relationToAnnotations);
+		if (sentenceCoref != null)
+			retCoref.addAll(sentenceCoref);
 		
 		return retCoref;
 	}
@@ -348,14 +339,12 @@ public class DocumentNLPInMemory extends DocumentNLPMutable {
 		if (anno != null)
 			return anno;
 		if (this.otherTokenSpanAnnotations != null && this.otherTokenSpanAnnotations.containsKey(annotationType)) {
-			List<Triple<TokenSpan, ?, Double>> tokenSpanAnnotation = this.otherTokenSpanAnnotations.get(annotationType).get(tokenSpan.getSentenceIndex());
+			List<Triple<TokenSpan, ?, Double>> tokenSpanAnnotation = getRelatedTokenSpans(annotationType, this.otherTokenSpanAnnotations.get(annotationType), tokenSpan, relationsToAnnotations);
 			if (tokenSpanAnnotation == null) 
 				return Collections.emptyList();
 			anno = new ArrayList<Pair<TokenSpan, T>>();
-			for (Pair<TokenSpan, ?> span : tokenSpanAnnotation) {
-				if (tokenSpan.hasRelationTo(span.getFirst(), relationsToAnnotations))
-					anno.add(new Pair<TokenSpan, T>(span.getFirst(), getAnnotation(annotationType, span.getSecond())));
-			}
+			for (Pair<TokenSpan, ?> span : tokenSpanAnnotation)
+				anno.add(new Pair<TokenSpan, T>(span.getFirst(), getAnnotation(annotationType, span.getSecond())));
 				
 			return anno;
 		} else {
@@ -412,14 +401,13 @@ public class DocumentNLPInMemory extends DocumentNLPMutable {
 			return anno;
 		
 		if (this.otherTokenSpanAnnotations != null && this.otherTokenSpanAnnotations.containsKey(annotationType)) {
-			List<Triple<TokenSpan, ?, Double>> tokenSpanAnnotation = this.otherTokenSpanAnnotations.get(annotationType).get(tokenSpan.getSentenceIndex());
+			List<Triple<TokenSpan, ?, Double>> tokenSpanAnnotation = getRelatedTokenSpans(annotationType, this.otherTokenSpanAnnotations.get(annotationType), tokenSpan, relationsToAnnotations);
 			if (tokenSpanAnnotation == null)
 				return new ArrayList<Triple<TokenSpan, T, Double>>(); 
 			
 			anno = new ArrayList<Triple<TokenSpan, T, Double>>();
 			for (Triple<TokenSpan, ?, Double> span : tokenSpanAnnotation)
-				if (tokenSpan.hasRelationTo(span.getFirst(), relationsToAnnotations))
-					anno.add(new Triple<TokenSpan, T, Double>(span.getFirst(), getAnnotation(annotationType, span.getSecond()), span.getThird()));
+				anno.add(new Triple<TokenSpan, T, Double>(span.getFirst(), getAnnotation(annotationType, span.getSecond()), span.getThird()));
 			return anno;
 		} else {
 			return null;
@@ -485,16 +473,9 @@ public class DocumentNLPInMemory extends DocumentNLPMutable {
 	@Override
 	public List<Triple<TokenSpan, String, Double>> getNerWithConfidence(
 			TokenSpan tokenSpan, Relation[] relationsToAnnotations) {
-		List<Triple<TokenSpan, String, Double>> sentenceNer = this.ner.get(tokenSpan.getSentenceIndex());
-		List<Triple<TokenSpan, String, Double>> retNer = new ArrayList<Triple<TokenSpan, String, Double>>();
-		if (sentenceNer == null)
-			return retNer;
-		
-		for (Triple<TokenSpan, String, Double> span : sentenceNer) {
-			TokenSpan.Relation relation = tokenSpan.getRelationTo(span.getFirst());
-			if (Arrays.asList(relationsToAnnotations).contains(relation))
-				retNer.add(span);
-		}
+		List<Triple<TokenSpan, String, Double>> retNer = getRelatedTokenSpans(AnnotationTypeNLP.NER, this.ner, tokenSpan, relationsToAnnotations);
+		if (retNer == null)
+			return new ArrayList<Triple<TokenSpan, String, Double>>();
 		
 		return retNer;
 	}
@@ -502,18 +483,34 @@ public class DocumentNLPInMemory extends DocumentNLPMutable {
 	@Override
 	public List<Triple<TokenSpan, TokenSpanCluster, Double>> getCorefWithConfidence(
 			TokenSpan tokenSpan, Relation[] relationsToAnnotations) {
-		List<Triple<TokenSpan, TokenSpanCluster, Double>> sentenceCoref = this.coref.get(tokenSpan.getSentenceIndex());
-		List<Triple<TokenSpan, TokenSpanCluster, Double>> retCoref = new ArrayList<Triple<TokenSpan, TokenSpanCluster, Double>>();
-		if (sentenceCoref == null)
-			return retCoref;
+		List<Triple<TokenSpan, TokenSpanCluster, Double>> retCoref = getRelatedTokenSpans(AnnotationTypeNLP.COREF, this.coref, tokenSpan, relationsToAnnotations);
+		if (retCoref == null)
+			return new ArrayList<Triple<TokenSpan, TokenSpanCluster, Double>>();
+		
+		return retCoref;
+	}
+	
+	/**
+	 * @return annotations of the given type from tokenSpan's sentence whose token
+	 * spans have one of the given relations to tokenSpan, or null if there are no 
+	 * annotations for the sentence.  The annotations are looked up through a
+	 * TokenSpanIndex for the sentence, which is built the first time the 
+	 * annotation type is queried.
+	 */
+	@SuppressWarnings("unchecked")
+	private <S extends Pair<TokenSpan, ?>> List<S> getRelatedTokenSpans(AnnotationTypeNLP<?> annotationType, Map<Integer, List<S>> annotation, TokenSpan tokenSpan, Relation[] relationsToAnnotations) {
+		if (annotation == null || !annotation.containsKey(tokenSpan.getSentenceIndex()))
+			return null;
 		
-		for (Triple<TokenSpan, TokenSpanCluster, Double> span : sentenceCoref) {
-			TokenSpan.Relation relation = tokenSpan.getRelationTo(span.getFirst());
-			if (Arrays.asList(relationsToAnnotations).contains(relation))
-				retCoref.add(span);
+		Map<Integer, TokenSpanIndex<?>> indices = this.tokenSpanIndices.get(annotationType);
+		if (indices == null) {
+			indices = new HashMap<Integer, TokenSpanIndex<?>>();
+			for (Entry<Integer, List<S>> entry : annotation.entrySet())
+				indices.put(entry.getKey(), new TokenSpanIndex<S>(entry.getValue()));
+			this.tokenSpanIndices.put(annotationType, indices);
 		}
 		
-		return retCoref;
+		return ((TokenSpanIndex<S>)indices.get(tokenSpan.getSentenceIndex())).getSpans(tokenSpan, relationsToAnnotations);
 	}
 
 	@SuppressWarnings("rawtypes")
@@ -672,6 +669,8 @@ public class DocumentNLPInMemory extends DocumentNLPMutable {
 			this.otherTokenSpanAnnotations.put(annotationType, annotationMap);
 		}
 		
+		this.tokenSpanIndices.remove(annotationType);
+		
 		return true;
 	}
 
@@ -0,0 +1,141 @@
+package edu.cmu.ml.rtw.generic.data.annotation.nlp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.cmu.ml.rtw.generic.data.annotation.nlp.TokenSpan.Relation;
+import edu.cmu.ml.rtw.generic.util.Pair;
+
+/**
+ * TokenSpanIndex is an interval index over a list of token span
+ * annotations from a single sentence.  It returns the annotations
+ * whose token spans have a given TokenSpan.Relation to a query
+ * token span without scanning the whole list.
+ *
+ * The annotations are sorted by start token index, and treated
+ * as an implicit balanced binary tree in which each node holds the
+ * maximum end token index of its subtree (an augmented interval
+ * tree).  Queries for sharing relations (EQUAL, CONTAINS,
+ * CONTAINED_BY, OVERLAPS) only visit spans that share a boundary
+ * or tokens with the query span, so they take O(log n + k) time
+ * for k candidates.  Queries for other relations (SAME_SENTENCE,
+ * NONE) fall back to scanning the list.
+ *
+ * Annotations are returned in the order in which they occur in
+ * the indexed list.  The list must not be modified after the index
+ * is constructed.
+ *
+ * @author Bill McDowell
+ *
+ */
+public class TokenSpanIndex<S extends Pair<TokenSpan, ?>> {
+	/**
+	 * Lists shorter than this are scanned rather than indexed
+	 */
+	public static final int MIN_INDEXED_SIZE = 8;
+
+	private List<S> spans;
+	private int[] positions; // Positions in spans, sorted by start token index
+	private int[] starts;
+	private int[] ends;
+	private int[] maxEnds; // Maximum end in the implicit subtree rooted at each sorted position
+
+	public TokenSpanIndex(List<S> spans) {
+		this.spans = spans;
+		if (spans.size() < MIN_INDEXED_SIZE)
+			return;
+
+		int size = spans.size();
+		long[] keys = new long[size];
+		for (int i = 0; i < size; i++)
+			keys[i] = (((long)spans.get(i).getFirst().getStartTokenIndex()) << 32) | i;
+		Arrays.sort(keys);
+
+		this.positions = new int[size];
+		this.starts = new int[size];
+		this.ends = new int[size];
+		this.maxEnds = new int[size];
+		for (int i = 0; i < size; i++) {
+			this.positions[i] = (int)keys[i];
+			TokenSpan span = spans.get(this.positions[i]).getFirst();
+			this.starts[i] = span.getStartTokenIndex();
+			this.ends[i] = span.getEndTokenIndex();
+		}
+
+		buildMaxEnds(0, size);
+	}
+
+	/**
+	 * @return annotations whose token spans have one of the given relations
+	 * to tokenSpan (as determined by tokenSpan.hasRelationTo)
+	 */
+	public List<S> getSpans(TokenSpan tokenSpan, Relation[] relations) {
+		List<S> related = new ArrayList<S>();
+		if (this.positions == null || !hasOnlySharingRelations(relations)) {
+			for (S span : this.spans)
+				if (tokenSpan.hasRelationTo(span.getFirst(), relations))
+					related.add(span);
+			return related;
+		}
+
+		// Every span with a sharing relation to the query intersects
+		// the closed interval [start, end]
+		int[] candidates = new int[MIN_INDEXED_SIZE];
+		int candidateCount = 0;
+		int start = tokenSpan.getStartTokenIndex();
+		int end = tokenSpan.getEndTokenIndex();
+		int[] stack = new int[128];
+		int top = 0;
+		stack[top++] = 0;
+		stack[top++] = this.positions.length;
+		while (top > 0) {
+			int hi = stack[--top];
+			int lo = stack[--top];
+			if (lo >= hi)
+				continue;
+			int mid = (lo + hi) >>> 1;
+			if (this.maxEnds[mid] < start)
+				continue;
+
+			stack[top++] = lo;
+			stack[top++] = mid;
+			if (this.starts[mid] > end)
+				continue;
+
+			if (this.ends[mid] >= start) {
+				if (candidateCount == candidates.length)
+					candidates = Arrays.copyOf(candidates, candidates.length * 2);
+				candidates[candidateCount++] = this.positions[mid];
+			}
+
+			stack[top++] = mid + 1;
+			stack[top++] = hi;
+		}
+
+		Arrays.sort(candidates, 0, candidateCount);
+		for (int i = 0; i < candidateCount; i++) {
+			S span = this.spans.get(candidates[i]);
+			if (tokenSpan.hasRelationTo(span.getFirst(), relations))
+				related.add(span);
+		}
+
+		return related;
+	}
+
+	private int buildMaxEnds(int lo, int hi) {
+		if (lo >= hi)
+			return Integer.MIN_VALUE;
+		int mid = (lo + hi) >>> 1;
+		int maxEnd = Math.max(this.ends[mid], Math.max(buildMaxEnds(lo, mid), buildMaxEnds(mid + 1, hi)));
+		this.maxEnds[mid] = maxEnd;
+		return maxEnd;
+	}
+
+	private static boolean hasOnlySharingRelations(Relation[] relations) {
+		for (Relation relation : relations)
+			if (relation == Relation.SAME_SENTENCE || relation == Relation.NONE)
+				return false;
+		return true;
+	}
+}
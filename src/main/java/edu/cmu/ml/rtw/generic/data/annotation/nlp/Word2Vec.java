@@ -1,36 +1,487 @@
 package edu.cmu.ml.rtw.generic.data.annotation.nlp;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
-
-import org.deeplearning4j.models.embeddings.loader.WordVectorSerializer;
-import org.deeplearning4j.models.embeddings.wordvectors.WordVectors;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
 
 import edu.cmu.ml.rtw.generic.util.Properties;
 
+/**
+ * Word2Vec gives access to word embeddings that are stored in
+ * a memory-mapped file, so that they do not need to be loaded into
+ * the heap, and so that several JVMs on the same machine share a
+ * single copy of them through the page cache.
+ *
+ * The file has a fixed-stride float32 layout (see the convert
+ * method).  Google binary word2vec models are converted into it
+ * once, and the converted file is stored next to the model (with
+ * a ".mmap" suffix) and reused after that.  If the converted file
+ * can't be written next to the model (e.g. because its directory is
+ * read-only), the model is converted into a temporary file instead,
+ * which is deleted when the JVM exits.
+ *
+ * Words are looked up by binary search over their sorted characters
+ * directly in the mapped file, and vectors are read from the file
+ * into caller-provided arrays, so lookups don't allocate.  Dot
+ * products are accumulated in double precision.  Words that aren't
+ * in the vocabulary have zero vectors and a similarity of zero to
+ * every word.
+ *
+ * @author Bill McDowell
+ *
+ */
 public class Word2Vec {
-	private WordVectors vec;
-	
+	public static final String MAPPED_FILE_SUFFIX = ".mmap";
+
+	private static final int MAGIC = 0x57325631; // "W2V1"
+	private static final int VERSION = 1;
+	private static final int HEADER_BYTES = 32;
+	private static final int VECTOR_ALIGNMENT = 64;
+	private static final int CHUNK_BYTES = 1 << 30;
+
+	private int vectorSize;
+	private int wordCount;
+	private IntBuffer keyOffsets; // Offset of each word's first character in keyChars, followed by the total character count
+	private CharBuffer keyChars; // Words in sorted order
+	private FloatBuffer norms;
+	private FloatBuffer[] vectorChunks;
+	private int rowsPerChunk;
+
 	public Word2Vec(Properties properties) {
-		File gModel = properties.getWord2VecVectorFile();
-		
+		this(properties.getWord2VecVectorFile());
+	}
+
+	/**
+	 * @param file either a Google binary word2vec model or a file
+	 * produced by the convert method
+	 */
+	public Word2Vec(File file) {
 		try {
-			this.vec = WordVectorSerializer.loadGoogleModel(gModel, true);
+			File mappedFile = file;
+			if (!isMappedFile(file)) {
+				mappedFile = new File(file.getPath() + MAPPED_FILE_SUFFIX);
+				if (!mappedFile.exists() || mappedFile.lastModified() < file.lastModified() || !isMappedFile(mappedFile)) {
+					try {
+						convertFile(file, mappedFile);
+					} catch (IOException e) {
+						mappedFile = File.createTempFile("w2v-" + file.getName(), MAPPED_FILE_SUFFIX);
+						mappedFile.deleteOnExit();
+						convertFile(file, mappedFile);
+					}
+				}
+			}
+
+			map(mappedFile);
 		} catch (IOException e) {
-			throw new IllegalArgumentException("Failed to load vectors from file specified in properties");
+			throw new IllegalArgumentException("Failed to load vectors from " + file.getPath(), e);
 		}
-		
 	}
-	
+
+	public int getVectorSize() {
+		return this.vectorSize;
+	}
+
+	public int getWordCount() {
+		return this.wordCount;
+	}
+
+	/**
+	 * @return the row of str in the vector file, or -1 if str is not in
+	 * the vocabulary
+	 */
+	public int getIndex(String str) {
+		int low = 0;
+		int high = this.wordCount - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int cmp = compareKey(mid, str);
+			if (cmp < 0)
+				low = mid + 1;
+			else if (cmp > 0)
+				high = mid - 1;
+			else
+				return mid;
+		}
+		return -1;
+	}
+
 	public double computeSimilarity(String str1, String str2) {
-		return this.vec.similarity(str1, str2);
+		return computeSimilarity(getIndex(str1), getIndex(str2));
 	}
-	
+
+	/**
+	 * Computes the cosine similarities of str to each of strs, and
+	 * stores them in similarities.  str is looked up once, and then
+	 * compared to each of the others.  The similarities are the same as
+	 * those given by computeSimilarity.
+	 */
+	public void computeSimilarities(String str, String[] strs, double[] similarities) {
+		int index = getIndex(str);
+		for (int i = 0; i < strs.length; i++)
+			similarities[i] = computeSimilarity(index, getIndex(strs[i]));
+	}
+
+	/**
+	 * @return a new array containing the vector for str
+	 */
 	public double[] computeVector(String str) {
-		return this.vec.getWordVector(str);
+		double[] vector = new double[this.vectorSize];
+		addVector(str, 1.0, vector);
+		return vector;
 	}
-	
-	public int getVectorSize() {
-		return this.vec.getWordVector("").length;
+
+	/**
+	 * Adds scale times the vector for str to vector
+	 *
+	 * @return true if str is in the vocabulary
+	 */
+	public boolean addVector(String str, double scale, double[] vector) {
+		int index = getIndex(str);
+		if (index < 0)
+			return false;
+
+		FloatBuffer chunk = getChunk(index);
+		int offset = getRowOffset(index);
+		for (int i = 0; i < this.vectorSize; i++)
+			vector[i] += scale * chunk.get(offset + i);
+		return true;
+	}
+
+	private double computeSimilarity(int index1, int index2) {
+		if (index1 < 0 || index2 < 0)
+			return 0.0;
+		float norm1 = this.norms.get(index1);
+		float norm2 = this.norms.get(index2);
+		if (norm1 == 0f || norm2 == 0f)
+			return 0.0;
+
+		return dot(getChunk(index1), getRowOffset(index1), getChunk(index2), getRowOffset(index2)) / (norm1 * (double)norm2);
+	}
+
+	/**
+	 * Dot product accumulated in four independent double sums so
+	 * that the loop can be unrolled and pipelined by the JIT
+	 */
+	private double dot(FloatBuffer chunk1, int offset1, FloatBuffer chunk2, int offset2) {
+		double sum0 = 0.0, sum1 = 0.0, sum2 = 0.0, sum3 = 0.0;
+		int i = 0;
+		for (; i + 3 < this.vectorSize; i += 4) {
+			sum0 += chunk1.get(offset1 + i) * (double)chunk2.get(offset2 + i);
+			sum1 += chunk1.get(offset1 + i + 1) * (double)chunk2.get(offset2 + i + 1);
+			sum2 += chunk1.get(offset1 + i + 2) * (double)chunk2.get(offset2 + i + 2);
+			sum3 += chunk1.get(offset1 + i + 3) * (double)chunk2.get(offset2 + i + 3);
+		}
+		for (; i < this.vectorSize; i++)
+			sum0 += chunk1.get(offset1 + i) * (double)chunk2.get(offset2 + i);
+		return (sum0 + sum1) + (sum2 + sum3);
+	}
+
+	private FloatBuffer getChunk(int index) {
+		return this.vectorChunks[index / this.rowsPerChunk];
+	}
+
+	/**
+	 * @return the position of the row at index within its chunk
+	 */
+	private int getRowOffset(int index) {
+		return (index % this.rowsPerChunk) * this.vectorSize;
+	}
+
+	private int compareKey(int index, String str) {
+		int start = this.keyOffsets.get(index);
+		int length = this.keyOffsets.get(index + 1) - start;
+		int n = Math.min(length, str.length());
+		for (int i = 0; i < n; i++) {
+			char c1 = this.keyChars.get(start + i);
+			char c2 = str.charAt(i);
+			if (c1 != c2)
+				return c1 - c2;
+		}
+		return length - str.length();
+	}
+
+	private void map(File file) throws IOException {
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = randomAccessFile.getChannel();
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			header.getInt(); // Magic
+			header.getInt(); // Version
+			this.vectorSize = header.getInt();
+			this.wordCount = header.getInt();
+			long keyCharCount = header.getLong();
+			long vectorsPosition = header.getLong();
+
+			long keyOffsetsPosition = HEADER_BYTES;
+			long keyCharsPosition = keyOffsetsPosition + 4L*(this.wordCount + 1);
+			long normsPosition = align(keyCharsPosition + 2L*keyCharCount, 4);
+
+			this.keyOffsets = mapSection(channel, keyOffsetsPosition, 4L*(this.wordCount + 1)).asIntBuffer();
+			this.keyChars = mapSection(channel, keyCharsPosition, 2L*keyCharCount).asCharBuffer();
+			this.norms = mapSection(channel, normsPosition, 4L*this.wordCount).asFloatBuffer();
+
+			long rowBytes = 4L*this.vectorSize;
+			this.rowsPerChunk = (int)Math.max(1, CHUNK_BYTES / rowBytes);
+			this.vectorChunks = new FloatBuffer[(this.wordCount + this.rowsPerChunk - 1) / this.rowsPerChunk];
+			for (int i = 0; i < this.vectorChunks.length; i++) {
+				long rows = Math.min(this.rowsPerChunk, this.wordCount - (long)i*this.rowsPerChunk);
+				this.vectorChunks[i] = mapSection(channel, vectorsPosition + (long)i*this.rowsPerChunk*rowBytes, rows*rowBytes).asFloatBuffer();
+			}
+		} finally {
+			randomAccessFile.close();
+		}
+	}
+
+	private static ByteBuffer mapSection(FileChannel channel, long position, long size) throws IOException {
+		return channel.map(FileChannel.MapMode.READ_ONLY, position, size).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static boolean isMappedFile(File file) throws IOException {
+		if (!file.exists() || file.length() < HEADER_BYTES)
+			return false;
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+		try {
+			ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+			randomAccessFile.getChannel().read(header, 0);
+			header.flip();
+			return header.getInt() == MAGIC && header.getInt() == VERSION;
+		} finally {
+			randomAccessFile.close();
+		}
+	}
+
+	private static long align(long position, int alignment) {
+		return (position + alignment - 1) / alignment * alignment;
+	}
+
+	/**
+	 * Converts a Google binary word2vec model into a file that can be
+	 * memory-mapped by Word2Vec.  The output file consists of (all
+	 * little-endian):
+	 *
+	 *  - A header containing a magic number, a version, the vector size,
+	 *  the word count, the total number of characters in the words, and the
+	 *  position of the vectors.
+	 *  - The offset of each word's first character (int), in sorted word
+	 *  order, followed by the total number of characters.
+	 *  - The characters of the words (UTF-16 chars) in sorted order.
+	 *  - The L2 norm of each word's vector (float).
+	 *  - The vectors (floats), one fixed-stride row per word in sorted
+	 *  word order, starting at a 64-byte aligned position.
+	 *
+	 * If a word occurs more than once in the model, its first vector is kept.
+	 *
+	 * The output is written to a temporary file in the output file's
+	 * directory, and then moved over the output file, so concurrent
+	 * conversions never see or produce a partial file.
+	 *
+	 * @return true if the conversion succeeded
+	 */
+	public static boolean convert(File googleBinaryFile, File outputFile) {
+		try {
+			convertFile(googleBinaryFile, outputFile);
+			return true;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	private static void convertFile(File googleBinaryFile, File outputFile) throws IOException {
+		File outputDirectory = outputFile.getAbsoluteFile().getParentFile();
+		File vectorsFile = null;
+		File tmpOutputFile = null;
+		try {
+			vectorsFile = File.createTempFile("w2v-" + outputFile.getName(), ".vectors.tmp", outputDirectory);
+			tmpOutputFile = File.createTempFile("w2v-" + outputFile.getName(), ".tmp", outputDirectory);
+
+			// Copy the vectors into a temporary file in model order, and keep the words
+			List<String> words = new ArrayList<String>();
+			float[] norms;
+			int vectorSize;
+			InputStream fileStream = new FileInputStream(googleBinaryFile);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(fileStream, 1 << 16));
+			RandomAccessFile vectorsOut = new RandomAccessFile(vectorsFile, "rw");
+			try {
+				String[] header = readGoogleToken(in, '\n').trim().split("\\s+");
+				int modelWordCount = Integer.parseInt(header[0]);
+				vectorSize = Integer.parseInt(header[1]);
+				norms = new float[modelWordCount];
+
+				byte[] row = new byte[4*vectorSize];
+				ByteBuffer rowBuffer = ByteBuffer.wrap(row).order(ByteOrder.LITTLE_ENDIAN);
+				FileChannel vectorsChannel = vectorsOut.getChannel();
+				for (int i = 0; i < modelWordCount; i++) {
+					words.add(readGoogleToken(in, ' ').trim());
+					in.readFully(row);
+
+					double norm = 0.0;
+					for (int j = 0; j < vectorSize; j++) {
+						float value = rowBuffer.getFloat(4*j);
+						norm += value*value;
+					}
+					norms[i] = (float)Math.sqrt(norm);
+
+					rowBuffer.clear();
+					while (rowBuffer.hasRemaining())
+						vectorsChannel.write(rowBuffer);
+				}
+			} finally {
+				vectorsOut.close();
+				in.close();
+			}
+
+			// Sort the words, keeping the first occurrence of each
+			final List<String> modelWords = words;
+			Integer[] order = new Integer[modelWords.size()];
+			for (int i = 0; i < order.length; i++)
+				order[i] = i;
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer i1, Integer i2) {
+					int cmp = modelWords.get(i1).compareTo(modelWords.get(i2));
+					return (cmp != 0) ? cmp : Integer.compare(i1, i2);
+				}
+			});
+
+			int wordCount = 0;
+			long keyCharCount = 0;
+			for (int i = 0; i < order.length; i++) {
+				if (i > 0 && modelWords.get(order[i]).equals(modelWords.get(order[i - 1])))
+					continue;
+				order[wordCount++] = order[i];
+				keyCharCount += modelWords.get(order[i]).length();
+			}
+
+			long keyCharsPosition = HEADER_BYTES + 4L*(wordCount + 1);
+			long normsPosition = align(keyCharsPosition + 2L*keyCharCount, 4);
+			long vectorsPosition = align(normsPosition + 4L*wordCount, VECTOR_ALIGNMENT);
+
+			RandomAccessFile out = new RandomAccessFile(tmpOutputFile, "rw");
+			RandomAccessFile vectorsIn = new RandomAccessFile(vectorsFile, "r");
+			try {
+				out.setLength(0);
+				FileChannel outChannel = out.getChannel();
+				ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+
+				buffer.putInt(MAGIC).putInt(VERSION).putInt(vectorSize).putInt(wordCount).putLong(keyCharCount).putLong(vectorsPosition);
+
+				int keyOffset = 0;
+				for (int i = 0; i < wordCount; i++) {
+					buffer = ensureRemaining(outChannel, buffer, 4);
+					buffer.putInt(keyOffset);
+					keyOffset += modelWords.get(order[i]).length();
+				}
+				buffer = ensureRemaining(outChannel, buffer, 4);
+				buffer.putInt(keyOffset);
+
+				for (int i = 0; i < wordCount; i++) {
+					String word = modelWords.get(order[i]);
+					for (int j = 0; j < word.length(); j++) {
+						buffer = ensureRemaining(outChannel, buffer, 2);
+						buffer.putChar(word.charAt(j));
+					}
+				}
+
+				buffer = pad(outChannel, buffer, normsPosition);
+				for (int i = 0; i < wordCount; i++) {
+					buffer = ensureRemaining(outChannel, buffer, 4);
+					buffer.putFloat(norms[order[i]]);
+				}
+
+				buffer = pad(outChannel, buffer, vectorsPosition);
+				writeBuffer(outChannel, buffer);
+
+				FileChannel vectorsChannel = vectorsIn.getChannel();
+				ByteBuffer row = ByteBuffer.allocate(4*vectorSize);
+				for (int i = 0; i < wordCount; i++) {
+					row.clear();
+					long position = 4L*vectorSize*order[i];
+					while (row.hasRemaining()) {
+						if (vectorsChannel.read(row, position + row.position()) < 0)
+							throw new EOFException();
+					}
+					row.flip();
+					while (row.hasRemaining())
+						outChannel.write(row);
+				}
+			} finally {
+				out.close();
+				vectorsIn.close();
+			}
+
+			try {
+				Files.move(tmpOutputFile.toPath(), outputFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmpOutputFile.toPath(), outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			if (vectorsFile != null)
+				vectorsFile.delete();
+			if (tmpOutputFile != null)
+				tmpOutputFile.delete();
+		}
+	}
+
+	/**
+	 * @return the bytes up to (and not including) the delimiter, decoded as UTF-8,
+	 * skipping a leading newline (which separates vectors in some models)
+	 */
+	private static String readGoogleToken(DataInputStream in, char delimiter) throws IOException {
+		byte[] bytes = new byte[64];
+		int length = 0;
+		while (true) {
+			int b = in.read();
+			if (b < 0)
+				throw new EOFException();
+			if (b == delimiter)
+				break;
+			if (b == '\n' && length == 0)
+				continue;
+			if (length == bytes.length)
+				bytes = Arrays.copyOf(bytes, bytes.length * 2);
+			bytes[length++] = (byte)b;
+		}
+		return new String(bytes, 0, length, StandardCharsets.UTF_8);
+	}
+
+	private static ByteBuffer ensureRemaining(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+		if (buffer.remaining() < bytes)
+			writeBuffer(channel, buffer);
+		return buffer;
+	}
+
+	private static ByteBuffer pad(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (channel.position() + buffer.position() < position) {
+			buffer = ensureRemaining(channel, buffer, 1);
+			buffer.put((byte)0);
+		}
+		return buffer;
+	}
+
+	private static void writeBuffer(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
 	}
 }
@@ -1,9 +1,27 @@
 package edu.cmu.ml.rtw.generic.data.annotation.nlp;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import net.sf.extjwnl.JWNLException;
 import net.sf.extjwnl.data.IndexWord;
@@ -13,113 +31,390 @@ import net.sf.extjwnl.dictionary.Dictionary;
 
 /**
  * WordNet represents various aspects of English WordNet
- * (http://wordnet.princeton.edu/) or other non-English 
+ * (http://wordnet.princeton.edu/) or other non-English
  * WordNets (http://www.illc.uva.nl/EuroWordNet/).  The class
- * currently only works with the English WordNet, but might 
+ * currently only works with the English WordNet, but might
  * be extended further to work with the non-English one.
  *
+ * Lookups are safe to call from many threads at once without
+ * contending on a lock.  The lemma and immediate synset names of
+ * every WordNet index word are held in an immutable table.  When
+ * constructed with a snapshot file, the table is loaded from the
+ * snapshot if it exists, and otherwise computed from the dictionary
+ * and saved to the snapshot.  Without a snapshot file, the table is
+ * computed from the dictionary on the first lookup.  Words that are
+ * not in the table (e.g. inflected forms) are looked up in the
+ * dictionary and memoized in a bounded concurrent cache, so only
+ * cache misses take the dictionary lock.
+ *
  * @authors Bill McDowell
  */
 public class WordNet {
+	private static final int SNAPSHOT_MAGIC = 0x574E5331;
+	private static final int SNAPSHOT_VERSION = 1;
+	private static final int DEFAULT_MAX_CACHE_SIZE = 1 << 18;
+	private static final POS[] POSES = { POS.NOUN, POS.VERB, POS.ADJECTIVE, POS.ADVERB };
+	private static final String[] EMPTY_NAMES = new String[0];
+
+	/**
+	 * WordEntry holds the results of looking up a (word, POS) pair.
+	 * Entries are immutable, except for the lazily constructed
+	 * name set, which is safe to construct more than once.
+	 */
+	private static class WordEntry {
+		private final String lemma;
+		private final String[] synsetNames; // In sense order, without duplicates
+		private Set<String> synsetNameSet;
+
+		public WordEntry(String lemma, String[] synsetNames) {
+			this.lemma = lemma;
+			this.synsetNames = synsetNames;
+		}
+
+		public String getFirstSynsetName() {
+			return (this.synsetNames.length == 0) ? null : this.synsetNames[0];
+		}
+
+		public Set<String> getSynsetNameSet() {
+			Set<String> synsetNameSet = this.synsetNameSet;
+			if (synsetNameSet == null) {
+				synsetNameSet = Collections.unmodifiableSet(new LinkedHashSet<String>(Arrays.asList(this.synsetNames)));
+				this.synsetNameSet = synsetNameSet;
+			}
+			return synsetNameSet;
+		}
+	}
+
 	private Dictionary dictionary;
-	
+	private Object dictionaryLock = new Object();
+	private List<Map<String, WordEntry>> table; // Immutable map for each of POSES, or null if no table is kept
+	private volatile boolean tableLoaded; // Publishes the table to lookups
+	private Map<String, WordEntry>[] cache; // Memoized lookups of words that aren't in the table
+	private int maxCacheSize;
+
 	public WordNet() {
+		this(null);
+	}
+
+	/**
+	 * @param snapshotFile file from which to load the table of index
+	 * words, or to which the table is saved after it is computed.  If
+	 * null, the table is computed on the first lookup and not saved.
+	 */
+	public WordNet(File snapshotFile) {
+		this(snapshotFile, DEFAULT_MAX_CACHE_SIZE);
+	}
+
+	public WordNet(File snapshotFile, int maxCacheSize) {
+		this(snapshotFile, maxCacheSize, true);
+	}
+
+	/**
+	 * @param keepTable if false, no table is kept, the snapshot file
+	 * is ignored, and all lookups go through the cache
+	 */
+	@SuppressWarnings("unchecked")
+	public WordNet(File snapshotFile, int maxCacheSize, boolean keepTable) {
 		try {
 			this.dictionary = Dictionary.getDefaultResourceInstance();
 		} catch (JWNLException e) {
 			e.printStackTrace();
 		}
+
+		this.maxCacheSize = maxCacheSize;
+		this.cache = new Map[POSES.length];
+		for (int i = 0; i < POSES.length; i++)
+			this.cache[i] = new ConcurrentHashMap<String, WordEntry>();
+
+		if (!keepTable) {
+			this.tableLoaded = true;
+		} else if (snapshotFile != null) {
+			if (snapshotFile.exists())
+				this.table = loadSnapshot(snapshotFile);
+			boolean computed = (this.table == null);
+			if (computed)
+				this.table = computeTable();
+			this.tableLoaded = true;
+			if (computed && this.table != null && !saveSnapshot(snapshotFile))
+				System.err.println("Failed to save WordNet snapshot to " + snapshotFile.getAbsolutePath());
+		}
+	}
+
+	/**
+	 * @return the table of index words, computing it from the dictionary
+	 * if this is the first lookup, or null if no table is kept or it
+	 * could not be computed
+	 */
+	private List<Map<String, WordEntry>> getTable() {
+		if (!this.tableLoaded) {
+			synchronized (this.dictionaryLock) {
+				if (!this.tableLoaded) {
+					this.table = computeTable();
+					this.tableLoaded = true;
+				}
+			}
+		}
+		return this.table;
 	}
-	
-	private POS convertPoSTag(PoSTag tag) {
+
+	private int convertPoSTag(PoSTag tag) {
 		if (PoSTagClass.classContains(PoSTagClass.VB, tag))
-			return POS.VERB;
+			return 1;
 		else if (PoSTagClass.classContains(PoSTagClass.JJ, tag))
-			return POS.ADJECTIVE;
+			return 2;
 		else if (PoSTagClass.classContains(PoSTagClass.RB, tag))
-			return POS.ADVERB;
+			return 3;
 		else if (PoSTagClass.classContains(PoSTagClass.NN, tag) || PoSTagClass.classContains(PoSTagClass.NNP, tag))
-			return POS.NOUN;
+			return 0;
 		else
-			return null;
+			return -1;
 	}
-	
+
 	private String getSynsetName(Synset synset) {
 		return synset.getKey().toString().replaceAll("\\s+", "_");
 	}
-	
-	private Map<String, Synset> getImmediateSynsets(String word, PoSTag tag) {
+
+	/**
+	 * @return the entry for the word under the POS at the given index
+	 * in POSES, or null if the dictionary lookup failed
+	 */
+	private WordEntry getEntry(String word, int pos) {
+		List<Map<String, WordEntry>> table = getTable();
+		if (table != null) {
+			WordEntry entry = table.get(pos).get(word);
+			if (entry != null)
+				return entry;
+		}
+
+		Map<String, WordEntry> cache = this.cache[pos];
+		WordEntry entry = cache.get(word);
+		if (entry != null)
+			return entry;
+
 		try {
-			Map<String, Synset> synsets = new HashMap<String, Synset>();
-			POS pos = convertPoSTag(tag);
-			if (pos == null)
-				return synsets;
-			IndexWord iword = this.dictionary.lookupIndexWord(pos, word);
-			if (iword == null)
-				return synsets;
-			List<Synset> synsetArray = iword.getSenses();
-			if (synsetArray == null)
-				return synsets;
-			
-			for (Synset synset : synsetArray)
-				synsets.put(getSynsetName(synset), synset);
-			
-			return synsets;
-		} catch (Exception ex) { 
+			synchronized (this.dictionaryLock) {
+				IndexWord iword = this.dictionary.lookupIndexWord(POSES[pos], word);
+				entry = (iword == null) ? new WordEntry(word, EMPTY_NAMES) : makeEntry(iword, null);
+			}
+		} catch (Exception e) {
 			return null;
 		}
+
+		if (cache.size() >= this.maxCacheSize)
+			evict(cache);
+		cache.put(word, entry);
+
+		return entry;
 	}
-	
-	public synchronized boolean areSynonyms(String word1, PoSTag tag1, String word2, PoSTag tag2) {
-		Map<String, Synset> synsets1 = getImmediateSynsets(word1, tag1);
-		Map<String, Synset> synsets2 = getImmediateSynsets(word2, tag2);
-		for (String synset : synsets1.keySet())
-			if (synsets2.containsKey(synset))
-				return true;
-		return false;
+
+	private WordEntry makeEntry(IndexWord iword, Map<String, String> names) {
+		String lemma = iword.getLemma().trim().replace(' ', '_');
+		List<Synset> synsets = iword.getSenses();
+		if (synsets == null || synsets.size() == 0)
+			return new WordEntry(lemma, EMPTY_NAMES);
+
+		LinkedHashSet<String> synsetNames = new LinkedHashSet<String>();
+		for (Synset synset : synsets) {
+			String name = getSynsetName(synset);
+			if (names != null) {
+				String sharedName = names.get(name);
+				if (sharedName == null)
+					names.put(name, name);
+				else
+					name = sharedName;
+			}
+			synsetNames.add(name);
+		}
+
+		return new WordEntry(lemma, synsetNames.toArray(new String[synsetNames.size()]));
+	}
+
+	/**
+	 * Removes about a quarter of the entries from a full cache.  The
+	 * removed entries are whichever the map iterates first, which
+	 * is cheap and avoids keeping recency information on reads.
+	 */
+	private void evict(Map<String, WordEntry> cache) {
+		int toRemove = Math.max(1, this.maxCacheSize / 4);
+		Iterator<String> keys = cache.keySet().iterator();
+		while (keys.hasNext() && toRemove > 0) {
+			keys.next();
+			keys.remove();
+			toRemove--;
+		}
+	}
+
+	private List<Map<String, WordEntry>> computeTable() {
+		if (this.dictionary == null)
+			return null;
+
+		List<Map<String, WordEntry>> table = new ArrayList<Map<String, WordEntry>>(POSES.length);
+		Map<String, String> names = new HashMap<String, String>();
+		try {
+			synchronized (this.dictionaryLock) {
+				for (POS pos : POSES) {
+					Map<String, WordEntry> posTable = new HashMap<String, WordEntry>();
+					Iterator<IndexWord> iwords = this.dictionary.getIndexWordIterator(pos);
+					while (iwords.hasNext()) {
+						IndexWord iword = iwords.next();
+						posTable.put(iword.getLemma(), makeEntry(iword, names));
+					}
+					table.add(Collections.unmodifiableMap(posTable));
+				}
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			return null;
+		}
+
+		return table;
 	}
-	
-	public synchronized String getFirstImmediateSynsetName(String word, PoSTag tag) {
+
+	/**
+	 * Saves the table of index words to a binary file.  Synset names
+	 * are written once to a name table, and referenced by their
+	 * positions in it from each word entry.  The snapshot is written
+	 * to a temporary file in the same directory and then renamed over
+	 * the file, so that other processes never load a partial snapshot.
+	 */
+	public boolean saveSnapshot(File file) {
+		List<Map<String, WordEntry>> table = getTable();
+		if (table == null)
+			return false;
+
+		Map<String, Integer> nameIds = new HashMap<String, Integer>();
+		List<String> names = new ArrayList<String>();
+		for (Map<String, WordEntry> posTable : table) {
+			for (WordEntry entry : posTable.values()) {
+				for (String name : entry.synsetNames) {
+					if (!nameIds.containsKey(name)) {
+						nameIds.put(name, names.size());
+						names.add(name);
+					}
+				}
+			}
+		}
+
+		File tempFile = null;
 		try {
-			POS pos = convertPoSTag(tag);
-			if (pos == null)
-				return null;
-			
-			IndexWord iword = this.dictionary.lookupIndexWord(pos, word);
-			if (iword == null)
-				return null;
-			
-			List<Synset> synsetArray = iword.getSenses();
-			if (synsetArray == null)
+			tempFile = File.createTempFile("wn-" + file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+			writeSnapshot(tempFile, table, names, nameIds);
+			try {
+				Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			if (tempFile != null)
+				tempFile.delete();
+			return false;
+		}
+
+		return true;
+	}
+
+	private void writeSnapshot(File file, List<Map<String, WordEntry>> table, List<String> names, Map<String, Integer> nameIds) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			out.writeInt(SNAPSHOT_MAGIC);
+			out.writeInt(SNAPSHOT_VERSION);
+			out.writeInt(names.size());
+			for (String name : names)
+				out.writeUTF(name);
+
+			for (Map<String, WordEntry> posTable : table) {
+				out.writeInt(posTable.size());
+				for (Entry<String, WordEntry> entry : posTable.entrySet()) {
+					WordEntry wordEntry = entry.getValue();
+					out.writeUTF(entry.getKey());
+					out.writeUTF(wordEntry.lemma);
+					out.writeInt(wordEntry.synsetNames.length);
+					for (String name : wordEntry.synsetNames)
+						out.writeInt(nameIds.get(name));
+				}
+			}
+		}
+	}
+
+	private List<Map<String, WordEntry>> loadSnapshot(File file) {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION)
 				return null;
-			
-			Synset s = synsetArray.get(0);
-			return getSynsetName(s);
-		} catch (Exception ex) { 
+
+			String[] names = new String[in.readInt()];
+			for (int i = 0; i < names.length; i++)
+				names[i] = in.readUTF();
+
+			List<Map<String, WordEntry>> table = new ArrayList<Map<String, WordEntry>>(POSES.length);
+			for (int i = 0; i < POSES.length; i++) {
+				int size = in.readInt();
+				Map<String, WordEntry> posTable = new HashMap<String, WordEntry>(size * 4 / 3 + 1);
+				for (int j = 0; j < size; j++) {
+					String word = in.readUTF();
+					String lemma = in.readUTF();
+					String[] synsetNames = new String[in.readInt()];
+					for (int k = 0; k < synsetNames.length; k++)
+						synsetNames[k] = names[in.readInt()];
+					posTable.put(word, new WordEntry(lemma, (synsetNames.length == 0) ? EMPTY_NAMES : synsetNames));
+				}
+				table.add(Collections.unmodifiableMap(posTable));
+			}
+
+			return table;
+		} catch (IOException e) {
+			e.printStackTrace();
 			return null;
 		}
 	}
-	
-	public synchronized Set<String> getImmediateSynsetNames(String word, PoSTag tag) {
-		return getImmediateSynsets(word, tag).keySet();
+
+	public boolean areSynonyms(String word1, PoSTag tag1, String word2, PoSTag tag2) {
+		Set<String> synsets1 = getImmediateSynsetNames(word1, tag1);
+		Set<String> synsets2 = getImmediateSynsetNames(word2, tag2);
+		if (synsets1 == null || synsets2 == null)
+			return false;
+		for (String synset : synsets1)
+			if (synsets2.contains(synset))
+				return true;
+		return false;
+	}
+
+	public String getFirstImmediateSynsetName(String word, PoSTag tag) {
+		int pos = convertPoSTag(tag);
+		if (pos < 0)
+			return null;
+
+		WordEntry entry = getEntry(word, pos);
+		if (entry == null)
+			return null;
+		return entry.getFirstSynsetName();
+	}
+
+	/**
+	 * @return an unmodifiable set of the names of the immediate synsets
+	 * of the word, or null if the lookup failed
+	 */
+	public Set<String> getImmediateSynsetNames(String word, PoSTag tag) {
+		int pos = convertPoSTag(tag);
+		if (pos < 0)
+			return Collections.emptySet();
+
+		WordEntry entry = getEntry(word, pos);
+		if (entry == null)
+			return null;
+		return entry.getSynsetNameSet();
 	}
-	
-	public synchronized String getLemma(String word, PoSTag tag) {
+
+	public String getLemma(String word, PoSTag tag) {
 		if(word.indexOf('-') > -1 || word.indexOf('/') > -1)
 			return word;
-		
-		try {
-			POS pos = convertPoSTag(tag);
-			if (pos == null)
-				return word;
-			IndexWord iword = this.dictionary.lookupIndexWord(pos, word);
-			if (iword == null)
-				return word;
-			String lemma = iword.getLemma();
-			lemma = lemma.trim().replace(' ', '_');
-	        return lemma;
-		} catch (JWNLException e) {
+
+		int pos = convertPoSTag(tag);
+		if (pos < 0)
+			return word;
+
+		WordEntry entry = getEntry(word, pos);
+		if (entry == null)
 			return null;
-		}
+		return entry.lemma;
 	}
 }
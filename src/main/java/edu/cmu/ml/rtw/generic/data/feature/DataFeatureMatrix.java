@@ -1,9 +1,8 @@
 package edu.cmu.ml.rtw.generic.data.feature;
 
+import java.io.File;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.platanios.learn.math.matrix.Vector;
 
@@ -15,6 +14,7 @@ import edu.cmu.ml.rtw.generic.data.annotation.DatumContext;
 import edu.cmu.ml.rtw.generic.parse.AssignmentList;
 import edu.cmu.ml.rtw.generic.parse.CtxParsableFunction;
 import edu.cmu.ml.rtw.generic.parse.Obj;
+import edu.cmu.ml.rtw.generic.util.SparseVectorBuilder;
 import edu.cmu.ml.rtw.generic.util.ThreadMapper;
 
 public class DataFeatureMatrix<D extends Datum<L>, L> extends CtxParsableFunction implements Iterable<Vector> {
@@ -49,9 +49,11 @@ public class DataFeatureMatrix<D extends Datum<L>, L> extends CtxParsableFunctio
 	private FeatureSet<D, L> features;
 	private Obj dataRef;
 	private DataSet<D, L> data;
-	private String[] parameterNames = { "features", "data" };
+	private Obj cacheBytes;
+	private Obj cacheSpillDirectory;
+	private String[] parameterNames = { "features", "data", "cacheBytes", "cacheSpillDirectory" };
 	
-	private Map<Integer, Vector> featureVocabularyValues; // Map from datum ids to feature vectors
+	private VectorCache featureVocabularyValues; // Map from datum ids to feature vectors
 	private boolean precomputed;
 	
 	public DataFeatureMatrix(DatumContext<D, L> context) {
@@ -77,7 +79,38 @@ public class DataFeatureMatrix<D extends Datum<L>, L> extends CtxParsableFunctio
 	}
 	
 	private boolean clear() {
-		this.featureVocabularyValues = new ConcurrentHashMap<Integer, Vector>();
+		if (this.featureVocabularyValues != null)
+			this.featureVocabularyValues.close();
+		
+		if (this.cacheBytes == null) {
+			this.featureVocabularyValues = new VectorCache.InMemory();
+		} else {
+			long maxBytes = Long.valueOf(this.context.getMatchValue(this.cacheBytes));
+			File spillDirectory = (this.cacheSpillDirectory == null) ? null : new File(this.context.getMatchValue(this.cacheSpillDirectory));
+			this.featureVocabularyValues = new VectorCache.Bounded(maxBytes, spillDirectory);
+		}
+		
+		this.precomputed = false;
+		return true;
+	}
+	
+	/**
+	 * @return the cache of feature vectors, which gives access to
+	 * its hit, miss, and eviction counts
+	 */
+	public VectorCache getVectorCache() {
+		return this.featureVocabularyValues;
+	}
+	
+	/**
+	 * Replaces the cache of feature vectors.  Previously cached vectors
+	 * are discarded, and the previous cache is closed.
+	 */
+	public synchronized boolean setVectorCache(VectorCache vectorCache) {
+		if (this.featureVocabularyValues != null && this.featureVocabularyValues != vectorCache)
+			this.featureVocabularyValues.close();
+		this.featureVocabularyValues = vectorCache;
+		this.precomputed = false;
 		return true;
 	}
 	
@@ -113,6 +146,53 @@ public class DataFeatureMatrix<D extends Datum<L>, L> extends CtxParsableFunctio
 		return true;
 	}
 	
+	/**
+	 * Precomputes the feature vectors using a DataFeatureMatrixFile in the
+	 * given directory.  Vectors of datums that are already in the file are
+	 * read from it, and vectors of the remaining datums are computed and
+	 * appended to it.  If the file was written by a feature set with a 
+	 * different vocabulary, then it is replaced.
+	 * 
+	 * @param directory
+	 * @return true if the vectors have been precomputed
+	 */
+	public synchronized boolean precompute(File directory) {
+		final DataFeatureMatrixFile file = new DataFeatureMatrixFile(directory);
+		long fingerprint = this.features.getVocabularyFingerprint();
+		if (!file.open(fingerprint)) {
+			if (file.exists())
+				this.context.getDataTools().getOutputWriter().debugWriteln("Replacing stale feature matrix file " + directory.getAbsolutePath());
+			if (!file.create(fingerprint, this.features.getFeatureVocabularySize()) || !file.open(fingerprint))
+				return false;
+		}
+		
+		List<Boolean> threadResults = this.data.map(new ThreadMapper.Fn<D, Boolean>() {
+			@Override
+			public Boolean apply(D datum) {
+				if (file.getRow(datum.getId()) >= 0)
+					return true;
+				
+				Vector featureVector = features.getFeatureVocabularyValues(datum);
+				if (featureVector == null)
+					return false;
+				
+				return file.append(datum.getId(), (datum.getLabel() == null) ? null : datum.getLabel().toString(), featureVector);
+			}
+		}, this.context.getMaxThreads());
+		
+		for (boolean result : threadResults)
+			if (!result)
+				return false;
+		
+		if (!file.flush() || !file.open(fingerprint))
+			return false;
+		
+		this.featureVocabularyValues.close();
+		this.featureVocabularyValues = file.makeVectorCache();
+		this.precomputed = true;
+		return true;
+	}
+	
 	public FeatureSet<D, L> getFeatures() {
 		return this.features;
 	}
@@ -128,10 +208,11 @@ public class DataFeatureMatrix<D extends Datum<L>, L> extends CtxParsableFunctio
 	public Vector getFeatureVocabularyValues(D datum, boolean cacheValues) {
 		if (!this.data.contains(datum))
 			return null;
-		if (this.featureVocabularyValues.containsKey(datum.getId()))
-			return this.featureVocabularyValues.get(datum.getId());
+		Vector vector = this.featureVocabularyValues.get(datum.getId());
+		if (vector != null)
+			return vector;
 
-		Vector vector = this.features.getFeatureVocabularyValues(datum);
+		vector = this.features.getFeatureVocabularyValues(datum);
 		
 		if (cacheValues)
 			this.featureVocabularyValues.put(datum.getId(), vector);
@@ -139,6 +220,24 @@ public class DataFeatureMatrix<D extends Datum<L>, L> extends CtxParsableFunctio
 		return vector;
 	}
 	
+	/**
+	 * Writes the feature vector for a datum into a builder.  If the
+	 * vector is cached, then its entries are read into the builder,
+	 * and otherwise the vector is computed into the builder without 
+	 * being constructed or cached.
+	 * 
+	 * @return values, compacted, or null if the datum isn't in the matrix
+	 */
+	public SparseVectorBuilder computeFeatureVocabularyValues(D datum, SparseVectorBuilder values) {
+		if (!this.data.contains(datum))
+			return null;
+		Vector vector = this.featureVocabularyValues.get(datum.getId());
+		if (vector != null)
+			return values.setAll(vector).compact();
+		
+		return this.features.computeFeatureVocabularyValues(datum, values);
+	}
+	
 	public <T extends Datum<Boolean>> DataFeatureMatrix<T, Boolean> makeBinary(LabelIndicator<L> labelIndicator, DatumContext<T, Boolean> context) {
 		DataFeatureMatrix<T, Boolean> matrix = new DataFeatureMatrix<T, Boolean>(context);
 		if (!matrix.fromParse(getModifiers(), getReferenceName(), toParse()))
@@ -162,6 +261,10 @@ public class DataFeatureMatrix<D extends Datum<L>, L> extends CtxParsableFunctio
 			return this.dataRef;
 		else if (parameter.equals("features"))
 			return this.featuresRef;
+		else if (parameter.equals("cacheBytes"))
+			return this.cacheBytes;
+		else if (parameter.equals("cacheSpillDirectory"))
+			return this.cacheSpillDirectory;
 		else
 			return null;
 	}
@@ -174,6 +277,12 @@ public class DataFeatureMatrix<D extends Datum<L>, L> extends CtxParsableFunctio
 		} else if (parameter.equals("features")) {
 			this.featuresRef = parameterValue;
 			this.features = parameterValue == null ? null : this.context.getMatchFeatureSet(parameterValue);
+		} else if (parameter.equals("cacheBytes")) {
+			this.cacheBytes = parameterValue;
+			return clear();
+		} else if (parameter.equals("cacheSpillDirectory")) {
+			this.cacheSpillDirectory = parameterValue;
+			return clear();
 		} else
 			return false;
 		return true;
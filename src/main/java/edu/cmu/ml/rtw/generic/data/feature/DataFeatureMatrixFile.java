@@ -0,0 +1,537 @@
+package edu.cmu.ml.rtw.generic.data.feature;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.platanios.learn.math.matrix.SparseVector;
+import org.platanios.learn.math.matrix.Vector;
+import org.platanios.learn.math.matrix.Vector.VectorElement;
+
+/**
+ * DataFeatureMatrixFile stores the feature vectors of a DataFeatureMatrix
+ * on disk in compressed sparse row (CSR) format so that they can be
+ * loaded by later runs without recomputing the features.
+ *
+ * The file is a directory of binary columns:
+ *
+ *  header - format version, the vocabulary fingerprint and size of the
+ *  feature set that computed the vectors, the number of rows and
+ *  non-zero elements, and a dictionary of label strings
+ *
+ *  ids - the datum id of each row (int)
+ *
+ *  labels - the index into the label dictionary of each row's label, or -1
+ *  if the row has no label (int)
+ *
+ *  offsets - the position in the indices and values columns at which each
+ *  row starts, plus a final offset at which the last row ends (long)
+ *
+ *  indices - the feature indices of the non-zero elements of each row (int)
+ *
+ *  values - the values of the non-zero elements of each row (double)
+ *
+ * Rows are added through append, and only become visible once flush
+ * replaces the header.  The header is written to a temporary file and
+ * renamed over the old one, so readers never see a partial header.
+ * Once opened, the columns are read through memory-mapped buffers.
+ * getIndices and getValues give views of a row's columns without
+ * copying them, and makeVectorCache gives a VectorCache that a
+ * DataFeatureMatrix can use to train directly from the file.
+ * Opening the file fails if its vocabulary fingerprint does not match
+ * the one expected by the caller, so that vectors computed by stale
+ * feature sets are never used.
+ *
+ * @author Bill McDowell
+ *
+ */
+public class DataFeatureMatrixFile {
+	private static final int MAGIC = 0x44464D46; // "DFMF"
+	private static final int VERSION = 1;
+
+	/**
+	 * MappedColumn gives random access to a column of fixed-width
+	 * elements through memory-mapped chunks, so that columns can be
+	 * larger than the 2GB limit of a single mapped buffer.
+	 */
+	private static class MappedColumn {
+		private static final int CHUNK_BYTES = 1 << 30;
+
+		private MappedByteBuffer[] chunks;
+
+		public MappedColumn(File file) throws IOException {
+			RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+			try {
+				FileChannel channel = randomAccessFile.getChannel();
+				long size = channel.size();
+				this.chunks = new MappedByteBuffer[(int)((size + CHUNK_BYTES - 1) / CHUNK_BYTES)];
+				for (int i = 0; i < this.chunks.length; i++) {
+					long position = (long)i*CHUNK_BYTES;
+					this.chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(CHUNK_BYTES, size - position));
+				}
+			} finally {
+				randomAccessFile.close();
+			}
+		}
+
+		public int getInt(long i) {
+			long position = i*4;
+			return this.chunks[(int)(position / CHUNK_BYTES)].getInt((int)(position % CHUNK_BYTES));
+		}
+
+		public long getLong(long i) {
+			long position = i*8;
+			return this.chunks[(int)(position / CHUNK_BYTES)].getLong((int)(position % CHUNK_BYTES));
+		}
+
+		public double getDouble(long i) {
+			long position = i*8;
+			return this.chunks[(int)(position / CHUNK_BYTES)].getDouble((int)(position % CHUNK_BYTES));
+		}
+
+		public IntBuffer getInts(long start, int count) {
+			ByteBuffer view = getView(start*4, 4*count);
+			if (view != null)
+				return view.asIntBuffer();
+
+			int[] ints = new int[count];
+			for (int i = 0; i < count; i++)
+				ints[i] = getInt(start + i);
+			return IntBuffer.wrap(ints).asReadOnlyBuffer();
+		}
+
+		public DoubleBuffer getDoubles(long start, int count) {
+			ByteBuffer view = getView(start*8, 8*count);
+			if (view != null)
+				return view.asDoubleBuffer();
+
+			double[] doubles = new double[count];
+			for (int i = 0; i < count; i++)
+				doubles[i] = getDouble(start + i);
+			return DoubleBuffer.wrap(doubles).asReadOnlyBuffer();
+		}
+
+		/**
+		 * @return a view of the given bytes, or null if they span
+		 * more than one chunk
+		 */
+		private ByteBuffer getView(long position, int length) {
+			if (length == 0)
+				return ByteBuffer.allocate(0).asReadOnlyBuffer();
+
+			MappedByteBuffer chunk = this.chunks[(int)(position / CHUNK_BYTES)];
+			int offset = (int)(position % CHUNK_BYTES);
+			if (offset + (long)length > chunk.limit())
+				return null;
+
+			ByteBuffer view = chunk.duplicate();
+			view.position(offset);
+			view.limit(offset + length);
+			return view.slice();
+		}
+	}
+
+	private File directory;
+
+	private long fingerprint;
+	private int vocabularySize;
+	private long rowCount;
+	private long nonZeroCount;
+	private List<String> labelDictionary;
+	private Map<String, Integer> labelIndices;
+
+	private DataOutputStream idsOut;
+	private DataOutputStream labelsOut;
+	private DataOutputStream offsetsOut;
+	private DataOutputStream indicesOut;
+	private DataOutputStream valuesOut;
+	private long appendedRowCount;
+	private long appendedNonZeroCount;
+
+	private MappedColumn ids;
+	private MappedColumn labels;
+	private MappedColumn offsets;
+	private MappedColumn indices;
+	private MappedColumn values;
+	private Map<Integer, Integer> idRows;
+
+	public DataFeatureMatrixFile(File directory) {
+		this.directory = directory;
+	}
+
+	public boolean exists() {
+		return new File(this.directory, "header").exists();
+	}
+
+	/**
+	 * Creates an empty file for vectors computed by a feature set
+	 * with the given vocabulary fingerprint and size, replacing any
+	 * existing file
+	 */
+	public boolean create(long fingerprint, int vocabularySize) {
+		if (!this.directory.exists() && !this.directory.mkdirs())
+			return false;
+
+		// Invalidate the old file before its columns are truncated
+		File headerFile = new File(this.directory, "header");
+		if (headerFile.exists() && !headerFile.delete())
+			return false;
+
+		this.fingerprint = fingerprint;
+		this.vocabularySize = vocabularySize;
+		this.rowCount = 0;
+		this.nonZeroCount = 0;
+		this.labelDictionary = new ArrayList<String>();
+		this.labelIndices = new HashMap<String, Integer>();
+
+		try {
+			for (String column : new String[] { "ids", "labels", "offsets", "indices", "values" })
+				new FileOutputStream(new File(this.directory, column)).close();
+
+			DataOutputStream offsetsOut = new DataOutputStream(new FileOutputStream(new File(this.directory, "offsets")));
+			offsetsOut.writeLong(0);
+			offsetsOut.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+
+		return writeHeader();
+	}
+
+	/**
+	 * Opens the file for reading.
+	 *
+	 * @param expectedFingerprint
+	 * @return true if the file was opened, and false if it could not be read
+	 * or if its vocabulary fingerprint does not match expectedFingerprint
+	 */
+	public boolean open(long expectedFingerprint) {
+		if (!readHeader() || this.fingerprint != expectedFingerprint)
+			return false;
+
+		try {
+			this.ids = new MappedColumn(new File(this.directory, "ids"));
+			this.labels = new MappedColumn(new File(this.directory, "labels"));
+			this.offsets = new MappedColumn(new File(this.directory, "offsets"));
+			this.indices = new MappedColumn(new File(this.directory, "indices"));
+			this.values = new MappedColumn(new File(this.directory, "values"));
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+
+		this.idRows = null;
+		return true;
+	}
+
+	/**
+	 * Appends a row to the file.  The row is not visible to readers
+	 * until flush is called.
+	 *
+	 * @param datumId
+	 * @param label string form of the datum's label, or null
+	 * @param vector
+	 * @return true if the row has been appended
+	 */
+	public synchronized boolean append(int datumId, String label, Vector vector) {
+		if (this.idsOut == null && !startAppending())
+			return false;
+
+		try {
+			int labelIndex = -1;
+			if (label != null) {
+				if (!this.labelIndices.containsKey(label)) {
+					this.labelIndices.put(label, this.labelDictionary.size());
+					this.labelDictionary.add(label);
+				}
+				labelIndex = this.labelIndices.get(label);
+			}
+
+			this.idsOut.writeInt(datumId);
+			this.labelsOut.writeInt(labelIndex);
+			for (VectorElement element : vector) {
+				this.indicesOut.writeInt(element.index());
+				this.valuesOut.writeDouble(element.value());
+				this.appendedNonZeroCount++;
+			}
+			this.offsetsOut.writeLong(this.appendedNonZeroCount);
+			this.appendedRowCount++;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Writes appended rows to disk and makes them visible to readers
+	 * that open the file after the flush.
+	 */
+	public synchronized boolean flush() {
+		if (this.idsOut == null)
+			return true;
+
+		try {
+			this.idsOut.close();
+			this.labelsOut.close();
+			this.offsetsOut.close();
+			this.indicesOut.close();
+			this.valuesOut.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+
+		this.idsOut = null;
+		this.rowCount = this.appendedRowCount;
+		this.nonZeroCount = this.appendedNonZeroCount;
+
+		return writeHeader();
+	}
+
+	public long getFingerprint() {
+		return this.fingerprint;
+	}
+
+	public int getVocabularySize() {
+		return this.vocabularySize;
+	}
+
+	public int getRowCount() {
+		return (int)this.rowCount;
+	}
+
+	public int getDatumId(int row) {
+		return this.ids.getInt(row);
+	}
+
+	/**
+	 * @return the string form of the label of the row, or null if it
+	 * has no label
+	 */
+	public String getLabel(int row) {
+		int labelIndex = this.labels.getInt(row);
+		return (labelIndex < 0) ? null : this.labelDictionary.get(labelIndex);
+	}
+
+	public int getCardinality(int row) {
+		return (int)(this.offsets.getLong(row + 1) - this.offsets.getLong(row));
+	}
+
+	/**
+	 * @return a read-only view of the feature indices of the non-zero
+	 * elements of the row.  The view is backed by the mapped file unless
+	 * the row spans two mapped chunks.
+	 */
+	public IntBuffer getIndices(int row) {
+		return this.indices.getInts(this.offsets.getLong(row), getCardinality(row));
+	}
+
+	/**
+	 * @return a read-only view of the values of the non-zero elements
+	 * of the row, aligned with getIndices
+	 */
+	public DoubleBuffer getValues(int row) {
+		return this.values.getDoubles(this.offsets.getLong(row), getCardinality(row));
+	}
+
+	/**
+	 * @return the row as a vector.  SparseVector owns its arrays, so the
+	 * row is copied out of the views given by getIndices and getValues
+	 * in bulk.
+	 */
+	public Vector getVector(int row) {
+		IntBuffer indexView = getIndices(row);
+		DoubleBuffer valueView = getValues(row);
+		int[] rowIndices = new int[indexView.remaining()];
+		double[] rowValues = new double[valueView.remaining()];
+		indexView.get(rowIndices);
+		valueView.get(rowValues);
+
+		return new SparseVector(this.vocabularySize, rowIndices, rowValues);
+	}
+
+	/**
+	 * @return the row containing the datum with the given id, or -1
+	 * if there is no such row
+	 */
+	public int getRow(int datumId) {
+		Map<Integer, Integer> idRows = this.idRows;
+		if (idRows == null) {
+			synchronized (this) {
+				if (this.idRows == null) {
+					idRows = new HashMap<Integer, Integer>();
+					for (int i = 0; i < this.rowCount; i++)
+						idRows.put(this.ids.getInt(i), i);
+					this.idRows = idRows;
+				}
+				idRows = this.idRows;
+			}
+		}
+
+		Integer row = idRows.get(datumId);
+		return (row == null) ? -1 : row;
+	}
+
+	/**
+	 * @return a cache that reads the vectors of datums from the opened file,
+	 * and keeps vectors of datums that are not in the file in memory
+	 */
+	public VectorCache makeVectorCache() {
+		return new VectorCache() {
+			private VectorCache missing = new VectorCache.InMemory();
+
+			@Override
+			public Vector get(int id) {
+				int row = getRow(id);
+				if (row >= 0) {
+					this.hits.incrementAndGet();
+					return getVector(row);
+				}
+
+				Vector vector = this.missing.get(id);
+				if (vector == null)
+					this.misses.incrementAndGet();
+				else
+					this.hits.incrementAndGet();
+				return vector;
+			}
+
+			@Override
+			public void put(int id, Vector vector) {
+				if (getRow(id) < 0)
+					this.missing.put(id, vector);
+			}
+		};
+	}
+
+	private boolean startAppending() {
+		if (!readHeader())
+			return false;
+
+		try {
+			// Drop anything past the end of the last flushed row
+			truncate("ids", this.rowCount*4);
+			truncate("labels", this.rowCount*4);
+			truncate("offsets", (this.rowCount + 1)*8);
+			truncate("indices", this.nonZeroCount*4);
+			truncate("values", this.nonZeroCount*8);
+
+			this.idsOut = openColumnForAppend("ids");
+			this.labelsOut = openColumnForAppend("labels");
+			this.offsetsOut = openColumnForAppend("offsets");
+			this.indicesOut = openColumnForAppend("indices");
+			this.valuesOut = openColumnForAppend("values");
+		} catch (IOException e) {
+			e.printStackTrace();
+			this.idsOut = null;
+			return false;
+		}
+
+		this.appendedRowCount = this.rowCount;
+		this.appendedNonZeroCount = this.nonZeroCount;
+		return true;
+	}
+
+	private void truncate(String column, long size) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(new File(this.directory, column), "rw");
+		try {
+			file.setLength(size);
+		} finally {
+			file.close();
+		}
+	}
+
+	private DataOutputStream openColumnForAppend(String column) throws IOException {
+		return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(this.directory, column), true)));
+	}
+
+	private boolean readHeader() {
+		File headerFile = new File(this.directory, "header");
+		if (!headerFile.exists())
+			return false;
+
+		try {
+			DataInputStream header = new DataInputStream(new FileInputStream(headerFile));
+			try {
+				if (header.readInt() != MAGIC || header.readInt() != VERSION)
+					return false;
+
+				this.fingerprint = header.readLong();
+				this.vocabularySize = header.readInt();
+				this.rowCount = header.readLong();
+				this.nonZeroCount = header.readLong();
+
+				int labelCount = header.readInt();
+				this.labelDictionary = new ArrayList<String>(labelCount);
+				this.labelIndices = new HashMap<String, Integer>();
+				for (int i = 0; i < labelCount; i++) {
+					String label = header.readUTF();
+					this.labelIndices.put(label, i);
+					this.labelDictionary.add(label);
+				}
+			} finally {
+				header.close();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+
+		return true;
+	}
+
+	private boolean writeHeader() {
+		File tempHeaderFile = null;
+		try {
+			tempHeaderFile = File.createTempFile("header", ".tmp", this.directory);
+			DataOutputStream header = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempHeaderFile)));
+			try {
+				header.writeInt(MAGIC);
+				header.writeInt(VERSION);
+				header.writeLong(this.fingerprint);
+				header.writeInt(this.vocabularySize);
+				header.writeLong(this.rowCount);
+				header.writeLong(this.nonZeroCount);
+				header.writeInt(this.labelDictionary.size());
+				for (String label : this.labelDictionary)
+					header.writeUTF(label);
+			} finally {
+				header.close();
+			}
+
+			File headerFile = new File(this.directory, "header");
+			try {
+				Files.move(tempHeaderFile.toPath(), headerFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tempHeaderFile.toPath(), headerFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			if (tempHeaderFile != null)
+				tempHeaderFile.delete();
+			return false;
+		}
+
+		return true;
+	}
+}
@@ -14,6 +14,8 @@ import edu.cmu.ml.rtw.generic.parse.CtxParsableFunction;
 import edu.cmu.ml.rtw.generic.parse.Assignment;
 import edu.cmu.ml.rtw.generic.parse.AssignmentList;
 import edu.cmu.ml.rtw.generic.parse.Obj;
+import edu.cmu.ml.rtw.generic.util.HashedVocabulary;
+import edu.cmu.ml.rtw.generic.util.SparseVectorBuilder;
 
 /**
  * Feature represents an abstract feature type to be computed on data and
@@ -28,6 +30,14 @@ import edu.cmu.ml.rtw.generic.parse.Obj;
  * @param <L> datum label type
  */
 public abstract class Feature<D extends Datum<L>, L> extends CtxParsableFunction {
+	/**
+	 * The feature whose SparseVectorBuilder computeVector is currently
+	 * adapting its map-based computeVector on this thread.  If the map
+	 * version is then entered on the same feature, the feature overrides 
+	 * neither version, and computing it would otherwise recurse forever.
+	 */
+	private static final ThreadLocal<Feature<?, ?>> adaptingFeature = new ThreadLocal<Feature<?, ?>>();
+	
 	protected DatumContext<D, L> context;
 	
 	/**
@@ -36,12 +46,50 @@ public abstract class Feature<D extends Datum<L>, L> extends CtxParsableFunction
 	 */
 	public abstract boolean init(DataSet<D, L> dataSet);
 	
+	/**
+	 * Adds the values of the feature for the given datum to a primitive
+	 * sparse vector builder.  This is the main way that feature values
+	 * are computed, and all built-in features override it.  The default
+	 * implementation adapts the map-based computeVector below so that 
+	 * features which only override that method still work.  Subclasses 
+	 * must override at least one of the two, or computing the feature
+	 * throws an UnsupportedOperationException.
+	 * 
+	 * @param datum
+	 * @param offset amount to add to each of the feature's vector indices
+	 * @param vector builder to which the (index + offset, value) pairs of
+	 * the feature are added
+	 * @return vector
+	 */
+	public SparseVectorBuilder computeVector(D datum, int offset, SparseVectorBuilder vector) {
+		Feature<?, ?> outerFeature = adaptingFeature.get();
+		adaptingFeature.set(this);
+		try {
+			return vector.setAll(computeVector(datum, offset, new HashMap<Integer, Double>()));
+		} finally {
+			adaptingFeature.set(outerFeature);
+		}
+	}
+	
 	/**
 	 * @param datum
 	 * @return a sparse mapping from vector indices to values of the feature
-	 * for the given datum.
+	 * for the given datum.  By default, this adapts the SparseVectorBuilder 
+	 * version of computeVector.
 	 */
-	public abstract Map<Integer, Double> computeVector(D datum, int offset, Map<Integer, Double> vector);
+	public Map<Integer, Double> computeVector(D datum, int offset, Map<Integer, Double> vector) {
+		Feature<?, ?> outerFeature = adaptingFeature.get();
+		if (outerFeature == this)
+			throw new UnsupportedOperationException(getClass().getName() + " must override one of the computeVector methods.");
+		
+		// Features computed within this one are not being adapted
+		adaptingFeature.set(null);
+		try {
+			return computeVector(datum, offset, new SparseVectorBuilder()).toMap(vector);
+		} finally {
+			adaptingFeature.set(outerFeature);
+		}
+	}
 	
 	/**
 	 * @return the length of the vector computed by this feature for each
@@ -200,4 +248,61 @@ public abstract class Feature<D extends Datum<L>, L> extends CtxParsableFunction
 		
 		return (internalAssignments.size() == 0) ? null : internalAssignments;
 	}
+	
+	/**
+	 * Adds the sampled terms and document frequencies of a hashed 
+	 * vocabulary to the internal assignments of a feature that 
+	 * hashes its vocabulary (in place of the vocabulary itself, which
+	 * the feature doesn't store).  Both are serialized sparsely as
+	 * "index:value" strings.
+	 */
+	protected AssignmentList toParseHashedVocabulary(HashedVocabulary hashedVocabulary, AssignmentList internalAssignments) {
+		Obj.Array sample = Obj.array();
+		for (Map.Entry<Integer, String> entry : hashedVocabulary.getSample().entrySet())
+			sample.add(Obj.stringValue(entry.getKey() + ":" + entry.getValue()));
+		if (sample.size() > 0)
+			internalAssignments.add(Assignment.assignmentTyped(new ArrayList<String>(), Context.ObjectType.ARRAY.toString(), "hashedSample", sample));
+		
+		if (hashedVocabulary.hasDocumentFrequencies()) {
+			Obj.Array documentFrequencies = Obj.array();
+			for (int i = 0; i < hashedVocabulary.size(); i++) {
+				int documentFrequency = hashedVocabulary.getDocumentFrequency(i);
+				if (documentFrequency > 0)
+					documentFrequencies.add(Obj.stringValue(i + ":" + documentFrequency));
+			}
+			
+			internalAssignments.add(Assignment.assignmentTyped(null, Context.ObjectType.VALUE.toString(), "hashedDocumentCount", Obj.stringValue(String.valueOf(hashedVocabulary.getDocumentCount()))));
+			internalAssignments.add(Assignment.assignmentTyped(new ArrayList<String>(), Context.ObjectType.ARRAY.toString(), "hashedDocumentFrequencies", documentFrequencies));
+		}
+		
+		return internalAssignments;
+	}
+	
+	protected boolean fromParseHashedVocabulary(HashedVocabulary hashedVocabulary, AssignmentList internalAssignments) {
+		if (internalAssignments == null)
+			return true;
+		
+		if (internalAssignments.contains("hashedSample")) {
+			Obj.Array sample = (Obj.Array)internalAssignments.get("hashedSample").getValue();
+			for (int i = 0; i < sample.size(); i++) {
+				String entry = sample.getStr(i);
+				int separator = entry.indexOf(':');
+				hashedVocabulary.putSample(Integer.valueOf(entry.substring(0, separator)), entry.substring(separator + 1));
+			}
+		}
+		
+		if (internalAssignments.contains("hashedDocumentFrequencies")) {
+			int documentCount = Integer.valueOf(((Obj.Value)internalAssignments.get("hashedDocumentCount").getValue()).getStr());
+			hashedVocabulary.initDocumentFrequencies(documentCount);
+			
+			Obj.Array documentFrequencies = (Obj.Array)internalAssignments.get("hashedDocumentFrequencies").getValue();
+			for (int i = 0; i < documentFrequencies.size(); i++) {
+				String entry = documentFrequencies.getStr(i);
+				int separator = entry.indexOf(':');
+				hashedVocabulary.setDocumentFrequency(Integer.valueOf(entry.substring(0, separator)), Integer.valueOf(entry.substring(separator + 1)));
+			}
+		}
+		
+		return true;
+	}
 }
@@ -1,7 +1,5 @@
 package edu.cmu.ml.rtw.generic.data.feature;
 
-import java.util.Map;
-
 import edu.cmu.ml.rtw.generic.data.annotation.DataSet;
 import edu.cmu.ml.rtw.generic.data.annotation.Datum;
 import edu.cmu.ml.rtw.generic.data.annotation.Datum.Tools.LabelIndicator;
@@ -12,6 +10,7 @@ import edu.cmu.ml.rtw.generic.task.classify.MethodClassification;
 import edu.cmu.ml.rtw.generic.util.BidirectionalLookupTable;
 import edu.cmu.ml.rtw.generic.util.CounterTable;
 import edu.cmu.ml.rtw.generic.util.Pair;
+import edu.cmu.ml.rtw.generic.util.SparseVectorBuilder;
 import edu.cmu.ml.rtw.generic.util.ThreadMapper;
 
 public class FeatureClassificationMethod<D extends Datum<L>, L> extends Feature<D, L> {	
@@ -50,7 +49,7 @@ public class FeatureClassificationMethod<D extends Datum<L>, L> extends Feature<
 	}
 
 	@Override
-	public Map<Integer, Double> computeVector(D datum, int offset, Map<Integer, Double> vector) {
+	public SparseVectorBuilder computeVector(D datum, int offset, SparseVectorBuilder vector) {
 		Pair<L, Double> label = this.method.classifyWithScore(datum);
 		if (label == null)
 			return vector;
@@ -61,7 +60,7 @@ public class FeatureClassificationMethod<D extends Datum<L>, L> extends Feature<
 		
 		double score = label.getSecond() == null ? 1.0 : label.getSecond();
 		
-		vector.put(this.vocabulary.get(labelStr) + offset, score);
+		vector.set(this.vocabulary.get(labelStr) + offset, score);
 		
 		return vector;
 	}
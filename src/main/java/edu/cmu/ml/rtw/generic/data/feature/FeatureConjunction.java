@@ -15,6 +15,7 @@ import edu.cmu.ml.rtw.generic.parse.AssignmentList;
 import edu.cmu.ml.rtw.generic.parse.Obj;
 import edu.cmu.ml.rtw.generic.util.BidirectionalLookupTable;
 import edu.cmu.ml.rtw.generic.util.CounterTable;
+import edu.cmu.ml.rtw.generic.util.SparseVectorBuilder;
 import edu.cmu.ml.rtw.generic.util.ThreadMapper;
 
 /**
@@ -94,11 +95,11 @@ public class FeatureConjunction<D extends Datum<L>, L> extends Feature<D, L> {
 	}
 	
 	@Override
-	public Map<Integer, Double> computeVector(D datum, int offset, Map<Integer, Double> vector) {
+	public SparseVectorBuilder computeVector(D datum, int offset, SparseVectorBuilder vector) {
 		Map<String, Double> unfilteredConjunction = conjunctionForDatum(datum);
 		for (Entry<String, Double> entry : unfilteredConjunction.entrySet()) {
 			if (this.vocabulary.containsKey(entry.getKey()))
-				vector.put(this.vocabulary.get(entry.getKey()) + offset, entry.getValue());
+				vector.set(this.vocabulary.get(entry.getKey()) + offset, entry.getValue());
 		}
 		
 		return vector;
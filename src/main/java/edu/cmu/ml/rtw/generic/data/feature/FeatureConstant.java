@@ -1,13 +1,12 @@
 package edu.cmu.ml.rtw.generic.data.feature;
 
-import java.util.Map;
-
 import edu.cmu.ml.rtw.generic.data.annotation.DataSet;
 import edu.cmu.ml.rtw.generic.data.annotation.Datum;
 import edu.cmu.ml.rtw.generic.data.annotation.Datum.Tools.LabelIndicator;
 import edu.cmu.ml.rtw.generic.data.annotation.DatumContext;
 import edu.cmu.ml.rtw.generic.parse.AssignmentList;
 import edu.cmu.ml.rtw.generic.parse.Obj;
+import edu.cmu.ml.rtw.generic.util.SparseVectorBuilder;
 
 public class FeatureConstant<D extends Datum<L>, L> extends Feature<D, L> {	
 
@@ -28,8 +27,8 @@ public class FeatureConstant<D extends Datum<L>, L> extends Feature<D, L> {
 	}
 
 	@Override
-	public Map<Integer, Double> computeVector(D datum, int offset, Map<Integer, Double> vector) {
-		vector.put(offset, this.value);
+	public SparseVectorBuilder computeVector(D datum, int offset, SparseVectorBuilder vector) {
+		vector.set(offset, this.value);
 		return vector;
 	}
 
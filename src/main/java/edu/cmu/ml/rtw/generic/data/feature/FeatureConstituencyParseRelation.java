@@ -11,6 +11,7 @@ import edu.cmu.ml.rtw.generic.data.annotation.nlp.DocumentNLP;
 import edu.cmu.ml.rtw.generic.data.annotation.nlp.TokenSpan;
 import edu.cmu.ml.rtw.generic.parse.AssignmentList;
 import edu.cmu.ml.rtw.generic.parse.Obj;
+import edu.cmu.ml.rtw.generic.util.SparseVectorBuilder;
 
 public class FeatureConstituencyParseRelation<D extends Datum<L>, L> extends Feature<D, L> {
 	protected Datum.Tools.TokenSpanExtractor<D, L> sourceTokenExtractor;
@@ -31,7 +32,7 @@ public class FeatureConstituencyParseRelation<D extends Datum<L>, L> extends Fea
 	}
 	
 	@Override
-	public Map<Integer, Double> computeVector(D datum, int offset, Map<Integer, Double> vector) {
+	public SparseVectorBuilder computeVector(D datum, int offset, SparseVectorBuilder vector) {
 		TokenSpan[] sourceTokenSpans = this.sourceTokenExtractor.extract(datum);
 		TokenSpan[] targetTokenSpans = this.targetTokenExtractor.extract(datum);
 		
@@ -54,9 +55,9 @@ public class FeatureConstituencyParseRelation<D extends Datum<L>, L> extends Fea
 		}
 	
 		if (relation == ConstituencyParse.Relation.DOMINATING)
-			vector.put(offset, 1.0);
+			vector.set(offset, 1.0);
 		else if (relation == ConstituencyParse.Relation.DOMINATED)
-			vector.put(offset + 1, 1.0);
+			vector.set(offset + 1, 1.0);
 		
 		return vector;
 	}
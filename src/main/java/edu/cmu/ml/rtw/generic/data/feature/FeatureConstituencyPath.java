@@ -1,7 +1,6 @@
 package edu.cmu.ml.rtw.generic.data.feature;
 
 import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
 
 import edu.cmu.ml.rtw.generic.data.annotation.DataSet;
@@ -15,6 +14,7 @@ import edu.cmu.ml.rtw.generic.parse.AssignmentList;
 import edu.cmu.ml.rtw.generic.parse.Obj;
 import edu.cmu.ml.rtw.generic.util.BidirectionalLookupTable;
 import edu.cmu.ml.rtw.generic.util.CounterTable;
+import edu.cmu.ml.rtw.generic.util.SparseVectorBuilder;
 import edu.cmu.ml.rtw.generic.util.ThreadMapper;
 
 /**
@@ -110,28 +110,34 @@ public class FeatureConstituencyPath<D extends Datum<L>, L> extends Feature<D, L
 				|| sourceSpan.getSentenceIndex() != targetSpan.getSentenceIndex())
 			return null;
 		
-		ConstituentPath shortestPath = null;
+		int shortestSource = -1;
+		int shortestTarget = -1;
+		int shortestLength = Integer.MAX_VALUE;
 		int sentenceIndex = sourceSpan.getSentenceIndex();
 		ConstituencyParse parse = sourceSpan.getDocument().getConstituencyParse(sentenceIndex);
 		for (int i = sourceSpan.getStartTokenIndex(); i < sourceSpan.getEndTokenIndex(); i++){
 			for (int j = targetSpan.getStartTokenIndex(); j < targetSpan.getEndTokenIndex(); j++){
-				ConstituentPath path = parse.getPath(i, j, this.noLeaves);
-				
-				if (shortestPath == null || (path != null && path.getLength() < shortestPath.getLength()))
-					shortestPath = path;
+				int length = parse.getPathLength(i, j, this.noLeaves);
+				if (length >= 0 && length < shortestLength) {
+					shortestSource = i;
+					shortestTarget = j;
+					shortestLength = length;
+				}
 			}
 		}
 
-		return shortestPath;
+		if (shortestLength == Integer.MAX_VALUE)
+			return null;
+		return parse.getPath(shortestSource, shortestTarget, this.noLeaves);
 	}
 	
 	@Override
-	public Map<Integer, Double> computeVector(D datum, int offset, Map<Integer, Double> vector) {
+	public SparseVectorBuilder computeVector(D datum, int offset, SparseVectorBuilder vector) {
 		Set<String> pathsForDatum = getPathsForDatum(datum);
 		
 		for (String path : pathsForDatum) {
 			if (this.vocabulary.containsKey(path))
-				vector.put(this.vocabulary.get(path) + offset, 1.0);		
+				vector.set(this.vocabulary.get(path) + offset, 1.0);		
 		}
 
 		return vector;
@@ -7,13 +7,13 @@ import edu.cmu.ml.rtw.generic.data.annotation.Datum;
 import edu.cmu.ml.rtw.generic.data.annotation.Datum.Tools.LabelIndicator;
 import edu.cmu.ml.rtw.generic.data.annotation.DatumContext;
 import edu.cmu.ml.rtw.generic.data.annotation.nlp.DependencyParse;
-import edu.cmu.ml.rtw.generic.data.annotation.nlp.DependencyParse.Dependency;
 import edu.cmu.ml.rtw.generic.data.annotation.nlp.DependencyParse.DependencyPath;
 import edu.cmu.ml.rtw.generic.data.annotation.nlp.TokenSpan;
 import edu.cmu.ml.rtw.generic.parse.AssignmentList;
 import edu.cmu.ml.rtw.generic.parse.Obj;
 import edu.cmu.ml.rtw.generic.util.BidirectionalLookupTable;
 import edu.cmu.ml.rtw.generic.util.CounterTable;
+import edu.cmu.ml.rtw.generic.util.SparseVectorBuilder;
 import edu.cmu.ml.rtw.generic.util.ThreadMapper;
 
 /**
@@ -40,6 +40,17 @@ import edu.cmu.ml.rtw.generic.util.ThreadMapper;
  * 
  *  targetTokenExtractor - token span extractor used to extract the target token spans
  * 
+ *  assumeTree - determines whether paths are written in the "->"/"<-" notation 
+ *  used by the CAEVO temporal ordering system.  In either case, the path for a
+ *  pair of spans is the shortest path (in number of dependencies) between any of
+ *  their tokens, with ties going to the first pair of tokens.  Before paths were
+ *  looked up through DependencyParse's path index, assumeTree scored paths by 
+ *  counts of their "->" and "<-" pieces, which is one more than the length of
+ *  any non-empty path, but is also 2 for the empty path between overlapping 
+ *  spans.  So the only difference from older models is that the empty path 
+ *  now wins over a path of one dependency between an earlier pair of tokens,
+ *  where it used to tie with it and lose.
+ * 
  * @author Jesse Dodge, Bill McDowell
  *
  * @param <D> datum type
@@ -93,111 +104,90 @@ public class FeatureDependencyPath<D extends Datum<L>, L> extends Feature<D, L>
 		
 		for (TokenSpan sourceSpan : sourceTokenSpans) {
 			for (TokenSpan targetSpan : targetTokenSpans){
-				if (this.assumeTree) {
-					String pathStr = getShortestPathStringAssumeTree(sourceSpan, targetSpan);
-					if (pathStr != null)
-						paths.add(pathStr);
-				} else {
-					DependencyPath path = getShortestPath(sourceSpan, targetSpan);
-					if (path == null)
-						continue;
-					paths.add(path.toString(this.useRelationTypes));
-				}
+				String pathStr = (this.assumeTree) ? getShortestPathStringAssumeTree(sourceSpan, targetSpan) : getShortestPathString(sourceSpan, targetSpan);
+				if (pathStr != null)
+					paths.add(pathStr);
 			}
 		}
 		return paths;
 	}
 	
-	private DependencyPath getShortestPath(TokenSpan sourceSpan, TokenSpan targetSpan) {
-		if (sourceSpan.getSentenceIndex() < 0 
-				|| targetSpan.getSentenceIndex() < 0 
-				|| sourceSpan.getSentenceIndex() != targetSpan.getSentenceIndex())
-			return null;
-		
-		DependencyPath shortestPath = null;
-		int sentenceIndex = sourceSpan.getSentenceIndex();
-		DependencyParse parse = sourceSpan.getDocument().getDependencyParse(sentenceIndex);
+	/**
+	 * @return the token indices (source, target) between which the dependency
+	 * path is shortest out of all pairs of tokens from the source and target
+	 * spans, or null if there is no such path.  Ties are broken in favor of the 
+	 * first pair.
+	 */
+	private int[] getShortestPathTokenIndices(DependencyParse parse, TokenSpan sourceSpan, TokenSpan targetSpan) {
+		int[] shortest = null;
+		int shortestLength = Integer.MAX_VALUE;
 		for (int i = sourceSpan.getStartTokenIndex(); i < sourceSpan.getEndTokenIndex(); i++){
 			for (int j = targetSpan.getStartTokenIndex(); j < targetSpan.getEndTokenIndex(); j++){
-				DependencyPath path = parse.getPath(i, j);
-				if (shortestPath == null || (path != null && path.getTokenLength() < shortestPath.getTokenLength()))
-					shortestPath = path;
+				int length = parse.getPathLength(i, j);
+				if (length >= 0 && length < shortestLength) {
+					shortest = new int[] { i, j };
+					shortestLength = length;
+				}
 			}
 		}
 
-		return shortestPath;
+		return shortest;
 	}
 	
-	// Note: This is only used if "assumeTree" is true.  There is generally no reason to use this
-	// in place of the other shortest path method above.  It was just necessary when replicating
-	// the results of the CAEVO temporal ordering system.
-	private String getShortestPathStringAssumeTree(TokenSpan sourceSpan, TokenSpan targetSpan) {
+	private DependencyParse getParse(TokenSpan sourceSpan, TokenSpan targetSpan) {
 		if (sourceSpan.getSentenceIndex() < 0 
 				|| targetSpan.getSentenceIndex() < 0 
 				|| sourceSpan.getSentenceIndex() != targetSpan.getSentenceIndex())
 			return null;
 		
-		int sentenceIndex = sourceSpan.getSentenceIndex();
-		List<Dependency> deps = sourceSpan.getDocument().getDependencyParse(sentenceIndex).toList();
-		String shortestPath = null;
-		int minDist = Integer.MAX_VALUE;
-		for (int i = sourceSpan.getStartTokenIndex(); i < sourceSpan.getEndTokenIndex(); i++){
-			for (int j = targetSpan.getStartTokenIndex(); j < targetSpan.getEndTokenIndex(); j++){
-				List<String> pathStrs = getPaths(deps, i, j, null);
-				for (String pathStr : pathStrs) {
-					int count = pathStr.split("->").length + pathStr.split("<-").length;
-					if (count < minDist) {
-						minDist = count;
-						shortestPath = pathStr;
-					}
-				}
-			}
-		}
-
-		return shortestPath;
+		return sourceSpan.getDocument().getDependencyParse(sourceSpan.getSentenceIndex());
 	}
 	
-	private List<String> getPaths(List<Dependency> deps, int start, int end, Set<Integer> visited) {
-		List<String> paths = new ArrayList<String>();
+	private String getShortestPathString(TokenSpan sourceSpan, TokenSpan targetSpan) {
+		DependencyParse parse = getParse(sourceSpan, targetSpan);
+		if (parse == null)
+			return null;
 		
-		if(start == end) {
-			paths.add("");
-			return paths;
-		}
-
-		if(visited == null) 
-			visited = new HashSet<Integer>();
+		int[] shortest = getShortestPathTokenIndices(parse, sourceSpan, targetSpan);
+		if (shortest == null)
+			return null;
 		
-		visited.add(start);
-	    
-		for(Dependency dep : deps) {
-			if(dep != null) {
-				String type = (this.useRelationTypes) ? dep.getType() : "_";
-				if (dep.getGoverningTokenIndex() == start && !visited.contains(dep.getDependentTokenIndex())) {
-					List<String> newpaths = getPaths(deps, dep.getDependentTokenIndex(), end, visited);
-					for(String newpath : newpaths) {
-						paths.add(type + "->" + newpath);
-					}
-				}
+		return parse.getPathString(shortest[0], shortest[1], this.useRelationTypes);
+	}
+	
+	// Note: This is only used if "assumeTree" is true.  There is generally no reason to use this
+	// in place of the other shortest path method above.  It was just necessary when replicating
+	// the results of the CAEVO temporal ordering system.  Since the parse is assumed to be a 
+	// tree, the path between each pair of tokens is unique, and so it is taken from the parse's 
+	// path index rather than searching through all of the dependencies.  The pair of tokens is
+	// chosen by path length, which only differs from the old scoring for empty paths (see 
+	// assumeTree in the class comment).
+	private String getShortestPathStringAssumeTree(TokenSpan sourceSpan, TokenSpan targetSpan) {
+		DependencyParse parse = getParse(sourceSpan, targetSpan);
+		if (parse == null)
+			return null;
 		
-				if (dep.getDependentTokenIndex() == start && !visited.contains(dep.getGoverningTokenIndex())) {
-					List<String> newpaths = getPaths(deps, dep.getGoverningTokenIndex(), end, visited);
-					for(String newpath : newpaths)
-						paths.add(type + "<-" + newpath);
-				}
-			}
+		int[] shortest = getShortestPathTokenIndices(parse, sourceSpan, targetSpan);
+		if (shortest == null)
+			return null;
+		
+		DependencyPath path = parse.getPath(shortest[0], shortest[1]);
+		StringBuilder pathStr = new StringBuilder();
+		for (int i = 0; i < path.getDependencyLength(); i++) {
+			pathStr.append((this.useRelationTypes) ? path.getDependencyType(i) : "_");
+			pathStr.append((path.isDependencyGoverningNext(i)) ? "->" : "<-");
 		}
-
-	    return paths;
+		
+		return pathStr.toString();
 	}
 	
 	@Override
-	public Map<Integer, Double> computeVector(D datum, int offset, Map<Integer, Double> vector) {
+	public SparseVectorBuilder computeVector(D datum, int offset, SparseVectorBuilder vector) {
 		Set<String> pathsForDatum = getPathsForDatum(datum);
 		
 		for (String path : pathsForDatum) {
 			if (this.vocabulary.containsKey(path))
-				vector.put(this.vocabulary.get(path) + offset, 1.0);		
+				vector.set(this.vocabulary.get(path) + offset, 1.0);		
 		}
 
 		return vector;
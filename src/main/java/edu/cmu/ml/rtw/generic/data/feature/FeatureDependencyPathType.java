@@ -7,10 +7,10 @@ import edu.cmu.ml.rtw.generic.data.annotation.Datum;
 import edu.cmu.ml.rtw.generic.data.annotation.Datum.Tools.LabelIndicator;
 import edu.cmu.ml.rtw.generic.data.annotation.DatumContext;
 import edu.cmu.ml.rtw.generic.data.annotation.nlp.DependencyParse;
-import edu.cmu.ml.rtw.generic.data.annotation.nlp.DependencyParse.DependencyPath;
 import edu.cmu.ml.rtw.generic.data.annotation.nlp.TokenSpan;
 import edu.cmu.ml.rtw.generic.parse.AssignmentList;
 import edu.cmu.ml.rtw.generic.parse.Obj;
+import edu.cmu.ml.rtw.generic.util.SparseVectorBuilder;
 
 public class FeatureDependencyPathType<D extends Datum<L>, L> extends Feature<D, L> {
 	protected Datum.Tools.TokenSpanExtractor<D, L> sourceTokenExtractor;
@@ -30,28 +30,35 @@ public class FeatureDependencyPathType<D extends Datum<L>, L> extends Feature<D,
 		return true;
 	}
 	
-	private DependencyPath getShortestPath(TokenSpan sourceSpan, TokenSpan targetSpan){
+	private DependencyParse.PathType getShortestPathType(TokenSpan sourceSpan, TokenSpan targetSpan){
 		if (sourceSpan.getSentenceIndex() < 0 
 				|| targetSpan.getSentenceIndex() < 0 
 				|| sourceSpan.getSentenceIndex() != targetSpan.getSentenceIndex())
 			return null;
 		
-		DependencyPath shortestPath = null;
+		int shortestSource = -1;
+		int shortestTarget = -1;
+		int shortestLength = Integer.MAX_VALUE;
 		int sentenceIndex = sourceSpan.getSentenceIndex();
 		DependencyParse parse = sourceSpan.getDocument().getDependencyParse(sentenceIndex);
 		for (int i = sourceSpan.getStartTokenIndex(); i < sourceSpan.getEndTokenIndex(); i++){
 			for (int j = targetSpan.getStartTokenIndex(); j < targetSpan.getEndTokenIndex(); j++){
-				DependencyPath path = parse.getPath(i, j);
-				if (shortestPath == null || (path != null && path.getTokenLength() < shortestPath.getTokenLength()))
-					shortestPath = path;
+				int length = parse.getPathLength(i, j);
+				if (length >= 0 && length < shortestLength) {
+					shortestSource = i;
+					shortestTarget = j;
+					shortestLength = length;
+				}
 			}
 		}
 
-		return shortestPath;
+		if (shortestLength == Integer.MAX_VALUE)
+			return null;
+		return parse.getPathType(shortestSource, shortestTarget);
 	}
 	
 	@Override
-	public Map<Integer, Double> computeVector(D datum, int offset, Map<Integer, Double> vector) {
+	public SparseVectorBuilder computeVector(D datum, int offset, SparseVectorBuilder vector) {
 		TokenSpan[] sourceTokenSpans = this.sourceTokenExtractor.extract(datum);
 		TokenSpan[] targetTokenSpans = this.targetTokenExtractor.extract(datum);
 		
@@ -59,10 +66,9 @@ public class FeatureDependencyPathType<D extends Datum<L>, L> extends Feature<D,
 		
 		for (TokenSpan sourceSpan : sourceTokenSpans) {
 			for (TokenSpan targetSpan : targetTokenSpans){
-				DependencyPath path = getShortestPath(sourceSpan, targetSpan);
-				if (path == null)
+				DependencyParse.PathType currentType = getShortestPathType(sourceSpan, targetSpan);
+				if (currentType == null)
 					return vector;
-				DependencyParse.PathType currentType = path.getType();
 				if (currentType == DependencyParse.PathType.NONE
 						|| (pathType != null && pathType != currentType))
 					return vector;
@@ -71,9 +77,9 @@ public class FeatureDependencyPathType<D extends Datum<L>, L> extends Feature<D,
 		}
 	
 		if (pathType == DependencyParse.PathType.GOVERNING)
-			vector.put(offset, 1.0);
+			vector.set(offset, 1.0);
 		else if (pathType == DependencyParse.PathType.GOVERNED_BY)
-			vector.put(offset + 1, 1.0);
+			vector.set(offset + 1, 1.0);
 		
 		return vector;
 	}
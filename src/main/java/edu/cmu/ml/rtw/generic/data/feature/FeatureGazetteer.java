@@ -1,8 +1,6 @@
 package edu.cmu.ml.rtw.generic.data.feature;
 
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import edu.cmu.ml.rtw.generic.data.Gazetteer;
 import edu.cmu.ml.rtw.generic.data.annotation.DataSet;
@@ -14,6 +12,7 @@ import edu.cmu.ml.rtw.generic.parse.Obj;
 import edu.cmu.ml.rtw.generic.util.BidirectionalLookupTable;
 import edu.cmu.ml.rtw.generic.util.CounterTable;
 import edu.cmu.ml.rtw.generic.util.Pair;
+import edu.cmu.ml.rtw.generic.util.SparseVectorBuilder;
 import edu.cmu.ml.rtw.generic.util.ThreadMapper;
 
 /**
@@ -118,11 +117,11 @@ public abstract class FeatureGazetteer<D extends Datum<L>, L> extends Feature<D,
 	
 	
 	@Override
-	public Map<Integer, Double> computeVector(D datum, int offset, Map<Integer, Double> vector) {
+	public SparseVectorBuilder computeVector(D datum, int offset, SparseVectorBuilder vector) {
 		Pair<List<Pair<String,Double>>, Double> extremum = computeExtremum(datum);
 		if (this.includeIds) {
 			if (extremum.getFirst() == null) {
-				return new HashMap<Integer, Double>();
+				return vector;
 			}
 			
 			for (Pair<String, Double> id : extremum.getFirst()) {
@@ -130,14 +129,14 @@ public abstract class FeatureGazetteer<D extends Datum<L>, L> extends Feature<D,
 					continue;
 				int index = this.vocabulary.get(id.getFirst());
 				if (this.includeWeights && id.getSecond() >= this.weightThreshold) {
-					vector.put(index + offset, extremum.getSecond()*id.getSecond());
+					vector.set(index + offset, extremum.getSecond()*id.getSecond());
 				} else {
-					vector.put(index + offset, extremum.getSecond());
+					vector.set(index + offset, extremum.getSecond());
 				}
 			}
 			
 		} else {
-			vector.put(offset, extremum.getSecond());
+			vector.set(offset, extremum.getSecond());
 		}
 		
 		return vector;
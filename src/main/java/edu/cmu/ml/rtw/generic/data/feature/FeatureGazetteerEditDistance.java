@@ -52,9 +52,20 @@ public class FeatureGazetteerEditDistance<D extends Datum<L>, L> extends Feature
 		
 		this.extremumType = FeatureGazetteer.ExtremumType.Minimum;
 		
-		this.editDistanceMeasure = new DataTools.StringPairMeasure() {
+		this.editDistanceMeasure = new DataTools.StringPairEditDistanceMeasure() {
 			public double compute(String str1, String str2) {
-				return StringUtil.levenshteinDistance(str1, str2)/((double)(str1.length()+str2.length()));
+				return compute(str1, str2, StringUtil.levenshteinDistance(str1, str2));
+			}
+			
+			public double compute(String str1, String str2, int editDistance) {
+				return editDistance/((double)(str1.length()+str2.length()));
+			}
+			
+			public double lowerBound(String str1, int str2Length, int minEditDistance) {
+				// Strings of different lengths are at least the difference 
+				// in their lengths edits apart
+				int editDistance = Math.max(minEditDistance, Math.abs(str1.length() - str2Length));
+				return editDistance/((double)(str1.length()+str2Length));
 			}
 		};
 	}
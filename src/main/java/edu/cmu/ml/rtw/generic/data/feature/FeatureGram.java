@@ -10,6 +10,8 @@ import edu.cmu.ml.rtw.generic.parse.AssignmentList;
 import edu.cmu.ml.rtw.generic.parse.Obj;
 import edu.cmu.ml.rtw.generic.str.StringTransform;
 import edu.cmu.ml.rtw.generic.util.CounterTable;
+import edu.cmu.ml.rtw.generic.util.HashedVocabulary;
+import edu.cmu.ml.rtw.generic.util.SparseVectorBuilder;
 import edu.cmu.ml.rtw.generic.util.ThreadMapper;
 import edu.cmu.ml.rtw.generic.data.Context;
 import edu.cmu.ml.rtw.generic.data.annotation.DataSet;
@@ -33,6 +35,18 @@ import edu.cmu.ml.rtw.generic.util.BidirectionalLookupTable;
  *  tokenExtractor - extractor for token spans from data
  *	 
  *  scale - scaling method for components of the vector
+ *  
+ *  hashBits - if positive, the grams are hashed into a vocabulary of
+ *  2^hashBits components (see edu.cmu.ml.rtw.generic.util.HashedVocabulary) 
+ *  instead of being counted into a vocabulary during initialization.  In 
+ *  this mode, initialization only passes over the data to count hashed 
+ *  document frequencies for the NORMALIZED_TFIDF scale (and to sample
+ *  grams, see hashSample), and minFeatureOccurrence only applies to those 
+ *  counts.
+ *  
+ *  hashSample - the number of hashed components for which to remember
+ *  a gram (returned by getVocabularyTerm) during
+ *  initialization, for debugging
  *	 
  * @author Bill McDowell
  * 
@@ -66,7 +80,10 @@ public abstract class FeatureGram<D extends Datum<L>, L> extends Feature<D, L> {
 	protected StringTransform cleanFn;
 	protected Datum.Tools.TokenSpanExtractor<D, L> tokenExtractor;
 	protected Scale scale;
-	protected String[] parameterNames = {"minFeatureOccurrence", "cleanFn", "tokenExtractor", "scale"};
+	protected int hashBits;
+	protected int hashSample;
+	protected HashedVocabulary hashedVocabulary; // replaces vocabulary and idfs if hashBits > 0
+	protected String[] parameterNames = {"minFeatureOccurrence", "cleanFn", "tokenExtractor", "scale", "hashBits", "hashSample"};
 	
 	/**
 	 * @param datum
@@ -89,6 +106,9 @@ public abstract class FeatureGram<D extends Datum<L>, L> extends Feature<D, L> {
 	
 	@Override
 	public boolean init(DataSet<D, L> dataSet) {
+		if (this.hashedVocabulary != null)
+			return initHashed(dataSet);
+		
 		final CounterTable<String> counter = new CounterTable<String>();
 		dataSet.map(new ThreadMapper.Fn<D, Boolean>() {
 			@Override
@@ -113,50 +133,116 @@ public abstract class FeatureGram<D extends Datum<L>, L> extends Feature<D, L> {
 		
 		return true;
 	}
+	
+	private boolean initHashed(DataSet<D, L> dataSet) {
+		final boolean countDocuments = this.scale == Scale.NORMALIZED_TFIDF;
+		if (!countDocuments && this.hashedVocabulary.getSampleSize() <= 0)
+			return true;
+		
+		if (countDocuments)
+			this.hashedVocabulary.initDocumentFrequencies(dataSet.size());
+		dataSet.map(new ThreadMapper.Fn<D, Boolean>() {
+			@Override
+			public Boolean apply(D datum) {
+				Map<String, Integer> gramsForDatum = getGramsForDatum(datum);
+				int[] indices = new int[gramsForDatum.size()];
+				double[] values = new double[indices.length];
+				int i = 0;
+				for (String gram : gramsForDatum.keySet())
+					indices[i++] = hashedVocabulary.getIndex(hashedVocabulary.hashAndSample(gram));
+				if (!countDocuments)
+					return true;
+				
+				int count = HashedVocabulary.merge(indices, values, indices.length);
+				for (i = 0; i < count; i++)
+					hashedVocabulary.incrementDocumentFrequency(indices[i], 1);
+				return true;
+			}
+		}, this.context.getMaxThreads());
+		
+		return true;
+	}
+	
+	private SparseVectorBuilder computeVectorHashed(Map<String, Integer> gramsForDatum, int offset, SparseVectorBuilder vector) {
+		int[] indices = new int[gramsForDatum.size()];
+		double[] values = new double[indices.length];
+		int count = 0;
+		boolean filter = this.hashedVocabulary.hasDocumentFrequencies() && this.minFeatureOccurrence > 0;
+		for (Entry<String, Integer> entry : gramsForDatum.entrySet()) {
+			int hash = this.hashedVocabulary.hash(entry.getKey());
+			int index = this.hashedVocabulary.getIndex(hash);
+			if (filter && this.hashedVocabulary.getDocumentFrequency(index) < this.minFeatureOccurrence)
+				continue;
+			
+			double value = 1.0;
+			if (this.scale == Scale.NORMALIZED_LOG)
+				value = Math.log(entry.getValue() + 1.0);
+			else if (this.scale == Scale.NORMALIZED_TFIDF)
+				value = entry.getValue()*this.hashedVocabulary.getIdf(index);
+			
+			indices[count] = index;
+			values[count] = value*this.hashedVocabulary.getSign(hash);
+			count++;
+		}
+		
+		count = HashedVocabulary.merge(indices, values, count);
+		
+		double norm = 0.0;
+		int start = vector.size();
+		for (int i = 0; i < count; i++) {
+			if (values[i] == 0.0)
+				continue;
+			norm += values[i]*values[i];
+			vector.set(indices[i] + offset, values[i]);
+		}
+		
+		if (this.scale != Scale.INDICATOR)
+			vector.divideValues(start, Math.sqrt(norm));
+		
+		return vector;
+	}
 
 	@Override
-	public Map<Integer, Double> computeVector(D datum, int offset, Map<Integer, Double> vector) {
+	public SparseVectorBuilder computeVector(D datum, int offset, SparseVectorBuilder vector) {
 		Map<String, Integer> gramsForDatum = getGramsForDatum(datum);
+		if (this.hashedVocabulary != null)
+			return computeVectorHashed(gramsForDatum, offset, vector);
 		
 		if (this.scale == Scale.INDICATOR) {
 			for (String gram : gramsForDatum.keySet()) {
 				if (this.vocabulary.containsKey(gram))
-					vector.put(this.vocabulary.get(gram) + offset, 1.0);		
+					vector.set(this.vocabulary.get(gram) + offset, 1.0);		
 			}
 		} else if (this.scale == Scale.NORMALIZED_LOG) {
 			double norm = 0.0;
-			Map<Integer, Double> tempVector = new HashMap<Integer, Double>();
+			int start = vector.size();
 			for (Entry<String, Integer> entry : gramsForDatum.entrySet()) {
 				if (!this.vocabulary.containsKey(entry.getKey()))
 					continue;
 				int index = this.vocabulary.get(entry.getKey());
 				double value = Math.log(entry.getValue() + 1.0);
 				norm += value*value;
-				tempVector.put(index, value);
+				vector.set(index + offset, value);
 			}
 			
 			norm = Math.sqrt(norm);
 			
-			for (Entry<Integer, Double> entry : tempVector.entrySet()) {
-				vector.put(entry.getKey() + offset, entry.getValue()/norm);
-			}
+			vector.divideValues(start, norm);
 		} else if (this.scale == Scale.NORMALIZED_TFIDF) {
 			double norm = 0.0;
-			Map<Integer, Double> tempVector = new HashMap<Integer, Double>();
+			int start = vector.size();
 			for (Entry<String, Integer> entry : gramsForDatum.entrySet()) {
 				if (!this.vocabulary.containsKey(entry.getKey()))
 					continue;
 				int index = this.vocabulary.get(entry.getKey());
 				double value = entry.getValue()*this.idfs.get(index);//Math.log(entry.getValue() + 1.0);
 				norm += value*value;
-				tempVector.put(index, value);
+				vector.set(index + offset, value);
 			}
 			
 			norm = Math.sqrt(norm);
 			
-			for (Entry<Integer, Double> entry : tempVector.entrySet()) {
-				vector.put(entry.getKey() + offset, entry.getValue()/norm);
-			}
+			vector.divideValues(start, norm);
 		}
 
 		return vector;
@@ -164,17 +250,24 @@ public abstract class FeatureGram<D extends Datum<L>, L> extends Feature<D, L> {
 
 	@Override
 	public String getVocabularyTerm(int index) {
+		if (this.hashedVocabulary != null)
+			return this.hashedVocabulary.reverseGet(index);
 		return this.vocabulary.reverseGet(index);
 	}
 
 	@Override
 	protected boolean setVocabularyTerm(int index, String term) {
-		this.vocabulary.put(term, index);
+		if (this.hashedVocabulary != null)
+			this.hashedVocabulary.putSample(index, term);
+		else
+			this.vocabulary.put(term, index);
 		return true;
 	}
 
 	@Override
 	public int getVocabularySize() {
+		if (this.hashedVocabulary != null)
+			return this.hashedVocabulary.size();
 		return this.vocabulary.size();
 	}
 
@@ -193,6 +286,10 @@ public abstract class FeatureGram<D extends Datum<L>, L> extends Feature<D, L> {
 			return Obj.stringValue((this.tokenExtractor == null) ? "" : this.tokenExtractor.toString());
 		else if (parameter.equals("scale"))
 			return Obj.stringValue(this.scale.toString());
+		else if (parameter.equals("hashBits"))
+			return (this.hashBits <= 0) ? null : Obj.stringValue(String.valueOf(this.hashBits));
+		else if (parameter.equals("hashSample"))
+			return (this.hashBits <= 0) ? null : Obj.stringValue(String.valueOf(this.hashSample));
 		return null;
 	}
 
@@ -206,7 +303,14 @@ public abstract class FeatureGram<D extends Datum<L>, L> extends Feature<D, L> {
 			this.tokenExtractor = this.context.getDatumTools().getTokenSpanExtractor(this.context.getMatchValue(parameterValue));
 		else if (parameter.equals("scale"))
 			this.scale = Scale.valueOf(this.context.getMatchValue(parameterValue));
-		else
+		else if (parameter.equals("hashBits") || parameter.equals("hashSample")) {
+			int value = (parameterValue == null) ? 0 : Integer.valueOf(this.context.getMatchValue(parameterValue));
+			if (parameter.equals("hashBits"))
+				this.hashBits = value;
+			else
+				this.hashSample = value;
+			this.hashedVocabulary = (this.hashBits > 0) ? new HashedVocabulary(this.hashBits, this.hashSample) : null;
+		} else
 			return false;
 		return true;
 	}
@@ -219,6 +323,7 @@ public abstract class FeatureGram<D extends Datum<L>, L> extends Feature<D, L> {
 		
 		binaryFeatureGram.vocabulary = this.vocabulary;
 		binaryFeatureGram.idfs = this.idfs;
+		binaryFeatureGram.hashedVocabulary = this.hashedVocabulary;
 		
 		return binaryFeatureGram;
 	}
@@ -227,6 +332,8 @@ public abstract class FeatureGram<D extends Datum<L>, L> extends Feature<D, L> {
 	protected boolean fromParseInternalHelper(AssignmentList internalAssignments) {
 		if (internalAssignments == null)
 			return true;
+		if (this.hashedVocabulary != null)
+			return fromParseHashedVocabulary(this.hashedVocabulary, internalAssignments);
 		if (!internalAssignments.contains("idfs"))
 			return false;
 		
@@ -242,6 +349,8 @@ public abstract class FeatureGram<D extends Datum<L>, L> extends Feature<D, L> {
 	@Override
 	protected AssignmentList toParseInternalHelper(
 			AssignmentList internalAssignments) {
+		if (this.hashedVocabulary != null)
+			return toParseHashedVocabulary(this.hashedVocabulary, internalAssignments);
 		if (this.vocabulary.size() == 0)
 			return internalAssignments;
 		
@@ -263,6 +372,17 @@ public abstract class FeatureGram<D extends Datum<L>, L> extends Feature<D, L> {
 		FeatureGram<D, L> cloneGram = (FeatureGram<D, L>)clone;
 		cloneGram.vocabulary = this.vocabulary;
 		cloneGram.idfs = this.idfs;
+		cloneGram.hashedVocabulary = this.hashedVocabulary;
 		return true;
 	}
+	
+	@Override
+	protected AssignmentList toParseInternal() {
+		if (this.hashedVocabulary == null)
+			return super.toParseInternal();
+		
+		// The hashed vocabulary's components aren't serialized as a vocabulary
+		AssignmentList internalAssignments = toParseInternalHelper(new AssignmentList());
+		return (internalAssignments.size() == 0) ? null : internalAssignments;
+	}
 }
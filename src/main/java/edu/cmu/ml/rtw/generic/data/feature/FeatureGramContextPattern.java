@@ -69,6 +69,13 @@ import edu.cmu.ml.rtw.generic.parse.Obj;
  *
  *   <<~p:P1,P2,...,Pk> matches anything that does not have a token with part-of-speech in tag 
  *   class P1, P2,... or Pk, looking backward.
+ *
+ *  Patterns that don't use negations are compiled into automata over
+ *  tokens (see edu.cmu.ml.rtw.generic.data.feature.TokenPatternAutomaton),
+ *  which match the tokens of a sentence directly rather than matching the
+ *  regular expressions against a string representation of the sentence.
+ *  The regular expressions are still used for other patterns, and for
+ *  sentences whose string representation is ambiguous.
  * 
  * @author Bill McDowell
  *
@@ -94,6 +101,9 @@ public class FeatureGramContextPattern<D extends Datum<L>, L> extends FeatureGra
 	
 	protected Pattern convertedBeforePattern;
 	protected Pattern convertedAfterPattern;
+	
+	protected TokenPatternAutomaton beforeAutomaton;
+	protected TokenPatternAutomaton afterAutomaton;
 
 	public FeatureGramContextPattern() {
 		
@@ -136,12 +146,16 @@ public class FeatureGramContextPattern<D extends Datum<L>, L> extends FeatureGra
 			return true;
 		else if (parameter.equals("beforePattern")) {
 			String value = this.context.getMatchValue(parameterValue);
+			String convertedValue = convertPattern(value);
 			this.beforePattern = value;
-			this.convertedBeforePattern = Pattern.compile(convertPattern(value));
+			this.convertedBeforePattern = Pattern.compile(convertedValue);
+			this.beforeAutomaton = TokenPatternAutomaton.compile(convertedValue);
 		} else if (parameter.equals("afterPattern")) {
 			String value = this.context.getMatchValue(parameterValue);
+			String convertedValue = convertPattern(value);
 			this.afterPattern = value;
-			this.convertedAfterPattern = Pattern.compile(convertPattern(value));
+			this.convertedAfterPattern = Pattern.compile(convertedValue);
+			this.afterAutomaton = TokenPatternAutomaton.compile(convertedValue);
 		} else if (parameter.equals("captureGroup"))
 			this.captureGroup = Integer.valueOf(this.context.getMatchValue(parameterValue));
 		else if (parameter.equals("capturePart"))
@@ -156,40 +170,23 @@ public class FeatureGramContextPattern<D extends Datum<L>, L> extends FeatureGra
 	protected Map<String, Integer> getGramsForDatum(D datum) {
 		Map<String, Integer> grams = new HashMap<String, Integer>();
 		TokenSpan[] tokenSpans = this.tokenExtractor.extract(datum);
+		boolean useAutomata = canUseAutomata();
+		SentenceSymbols symbols = null;
 		for (TokenSpan tokenSpan : tokenSpans) {
-			boolean beforeMatches = true;
-			boolean afterMatches = true;
-			String capture = null;
-			
-			if (this.beforePattern.length() > 0) {
-				String beforeStr = buildContextString(tokenSpan, CapturePart.BEFORE);
-				if (beforeStr.length() == 0) {
-					beforeMatches = false;
-				} else {
-					Matcher beforeMatcher = this.convertedBeforePattern.matcher(beforeStr);
-					beforeMatches = beforeMatcher.matches();
-					if (beforeMatches && this.capturePart == CapturePart.BEFORE) {
-						capture = beforeMatcher.group(this.captureGroup);
-					}
-					
-				}
-			}
-			
-			if (this.afterPattern.length() > 0) {
-				String afterStr = buildContextString(tokenSpan, CapturePart.AFTER);
-				if (afterStr.length() == 0) {
-					afterMatches = false;
-				} else {
-					Matcher afterMatcher = this.convertedAfterPattern.matcher(afterStr);
-					afterMatches = afterMatcher.matches();
-					if (afterMatches && this.capturePart == CapturePart.AFTER) {
-						capture = afterMatcher.group(this.captureGroup);
-					}
-				}	
+			String gram = null;
+			if (useAutomata) {
+				if (symbols == null || !symbols.isForSentence(tokenSpan))
+					symbols = new SentenceSymbols(tokenSpan);
+				
+				if (symbols.isWellFormed(tokenSpan))
+					gram = computeGramByAutomata(tokenSpan, symbols);
+				else
+					gram = computeGramByPatterns(tokenSpan);
+			} else {
+				gram = computeGramByPatterns(tokenSpan);
 			}
 			
-			if (beforeMatches && afterMatches && capture != null) {
-				String gram = removePoSTags(capture);
+			if (gram != null) {
 				if (!grams.containsKey(gram))
 					grams.put(gram, 0);
 				grams.put(gram, grams.get(gram) + 1);
@@ -199,6 +196,152 @@ public class FeatureGramContextPattern<D extends Datum<L>, L> extends FeatureGra
 		return grams;
 	}
 	
+	private boolean canUseAutomata() {
+		if (this.beforePattern.length() > 0 
+				&& (this.beforeAutomaton == null || (this.capturePart == CapturePart.BEFORE && this.captureGroup > this.beforeAutomaton.getGroupCount())))
+			return false;
+		if (this.afterPattern.length() > 0 
+				&& (this.afterAutomaton == null || (this.capturePart == CapturePart.AFTER && this.captureGroup > this.afterAutomaton.getGroupCount())))
+			return false;
+		return true;
+	}
+	
+	/**
+	 * SentenceSymbols holds the cleaned tokens of a sentence, and their
+	 * symbols with respect to the before and after automata, so that they
+	 * can be shared by token spans in the same sentence
+	 */
+	private class SentenceSymbols {
+		private DocumentNLP document;
+		private int sentenceIndex;
+		private String[] tokens;
+		private int[] beforeSymbols;
+		private int[] afterSymbols;
+		private int[] malformedCounts; // number of malformed tokens before each index
+		
+		public SentenceSymbols(TokenSpan tokenSpan) {
+			this.document = tokenSpan.getDocument();
+			this.sentenceIndex = tokenSpan.getSentenceIndex();
+			
+			int tokenCount = this.document.getSentenceTokenCount(this.sentenceIndex);
+			this.tokens = new String[tokenCount];
+			this.beforeSymbols = new int[tokenCount];
+			this.afterSymbols = new int[tokenCount];
+			this.malformedCounts = new int[tokenCount + 1];
+			for (int i = 0; i < tokenCount; i++) {
+				String token = cleanFn.transform(this.document.getTokenStr(this.sentenceIndex, i));
+				String posTag = String.valueOf(this.document.getPoSTag(this.sentenceIndex, i));
+				this.tokens[i] = token;
+				if (beforeAutomaton != null)
+					this.beforeSymbols[i] = beforeAutomaton.getSymbol(token, posTag);
+				if (afterAutomaton != null)
+					this.afterSymbols[i] = afterAutomaton.getSymbol(token, posTag);
+				this.malformedCounts[i + 1] = this.malformedCounts[i] + (TokenPatternAutomaton.isWellFormed(token, posTag) ? 0 : 1);
+			}
+		}
+		
+		public boolean isForSentence(TokenSpan tokenSpan) {
+			return this.document == tokenSpan.getDocument() && this.sentenceIndex == tokenSpan.getSentenceIndex();
+		}
+		
+		public boolean isWellFormed(TokenSpan tokenSpan) {
+			if (beforePattern.length() > 0 && this.malformedCounts[tokenSpan.getStartTokenIndex()] > 0)
+				return false;
+			if (afterPattern.length() > 0 && this.malformedCounts[this.tokens.length] - this.malformedCounts[tokenSpan.getEndTokenIndex()] > 0)
+				return false;
+			return true;
+		}
+		
+		/**
+		 * @return the tokens in [start, end) joined in the same way as 
+		 * removePoSTags joins the tokens of a captured string
+		 */
+		public String getGram(int start, int end) {
+			StringBuilder gram = new StringBuilder();
+			for (int i = start; i < end; i++) {
+				if (i > start)
+					gram.append("_");
+				gram.append(this.tokens[i]);
+			}
+			return gram.toString();
+		}
+	}
+	
+	private String computeGramByAutomata(TokenSpan tokenSpan, SentenceSymbols symbols) {
+		String gram = null;
+		
+		if (this.beforePattern.length() > 0) {
+			int end = tokenSpan.getStartTokenIndex();
+			if (end == 0)
+				return null;
+			
+			if (this.capturePart == CapturePart.BEFORE) {
+				int[] capture = this.beforeAutomaton.match(symbols.beforeSymbols, 0, end, this.captureGroup);
+				if (capture == null)
+					return null;
+				gram = (capture[0] < 0) ? null : symbols.getGram(capture[0], capture[1]);
+			} else if (!this.beforeAutomaton.matches(symbols.beforeSymbols, 0, end)) {
+				return null;
+			}
+		}
+		
+		if (this.afterPattern.length() > 0) {
+			int start = tokenSpan.getEndTokenIndex();
+			int end = symbols.tokens.length;
+			if (start >= end)
+				return null;
+			
+			if (this.capturePart == CapturePart.AFTER) {
+				int[] capture = this.afterAutomaton.match(symbols.afterSymbols, start, end, this.captureGroup);
+				if (capture == null)
+					return null;
+				gram = (capture[0] < 0) ? null : symbols.getGram(capture[0], capture[1]);
+			} else if (!this.afterAutomaton.matches(symbols.afterSymbols, start, end)) {
+				return null;
+			}
+		}
+		
+		return gram;
+	}
+	
+	protected String computeGramByPatterns(TokenSpan tokenSpan) {
+		boolean beforeMatches = true;
+		boolean afterMatches = true;
+		String capture = null;
+		
+		if (this.beforePattern.length() > 0) {
+			String beforeStr = buildContextString(tokenSpan, CapturePart.BEFORE);
+			if (beforeStr.length() == 0) {
+				beforeMatches = false;
+			} else {
+				Matcher beforeMatcher = this.convertedBeforePattern.matcher(beforeStr);
+				beforeMatches = beforeMatcher.matches();
+				if (beforeMatches && this.capturePart == CapturePart.BEFORE) {
+					capture = beforeMatcher.group(this.captureGroup);
+				}
+				
+			}
+		}
+		
+		if (this.afterPattern.length() > 0) {
+			String afterStr = buildContextString(tokenSpan, CapturePart.AFTER);
+			if (afterStr.length() == 0) {
+				afterMatches = false;
+			} else {
+				Matcher afterMatcher = this.convertedAfterPattern.matcher(afterStr);
+				afterMatches = afterMatcher.matches();
+				if (afterMatches && this.capturePart == CapturePart.AFTER) {
+					capture = afterMatcher.group(this.captureGroup);
+				}
+			}	
+		}
+		
+		if (beforeMatches && afterMatches && capture != null)
+			return removePoSTags(capture);
+		else
+			return null;
+	}
+	
 	protected String buildContextString(TokenSpan tokenSpan, CapturePart capturePart) {
 		StringBuilder str = new StringBuilder();
 		DocumentNLP document = tokenSpan.getDocument();
@@ -1,7 +1,6 @@
 package edu.cmu.ml.rtw.generic.data.feature;
 
 import java.util.Iterator;
-import java.util.Map;
 
 import edu.cmu.ml.rtw.generic.data.annotation.DataSet;
 import edu.cmu.ml.rtw.generic.data.annotation.Datum;
@@ -9,6 +8,7 @@ import edu.cmu.ml.rtw.generic.data.annotation.Datum.Tools.LabelIndicator;
 import edu.cmu.ml.rtw.generic.data.annotation.DatumContext;
 import edu.cmu.ml.rtw.generic.parse.AssignmentList;
 import edu.cmu.ml.rtw.generic.parse.Obj;
+import edu.cmu.ml.rtw.generic.util.SparseVectorBuilder;
 
 /**
  * FeatureIdentity returns a vector D(d) for double
@@ -50,11 +50,11 @@ public class FeatureIdentity<D extends Datum<L>, L> extends Feature<D, L> {
 	}
 
 	@Override
-	public Map<Integer, Double> computeVector(D datum, int offset, Map<Integer, Double> vector) {
+	public SparseVectorBuilder computeVector(D datum, int offset, SparseVectorBuilder vector) {
 		double[] values = this.doubleExtractor.extract(datum);
 		for (int i = 0; i < this.vocabularySize; i++)
 			if (values[i] != 0)
-				vector.put(i + offset, values[i]);
+				vector.set(i + offset, values[i]);
 		return vector;
 	}
 
@@ -2,7 +2,6 @@ package edu.cmu.ml.rtw.generic.data.feature;
 
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 import edu.cmu.ml.rtw.generic.data.annotation.DataSet;
@@ -16,6 +15,7 @@ import edu.cmu.ml.rtw.generic.parse.Obj;
 import edu.cmu.ml.rtw.generic.util.BidirectionalLookupTable;
 import edu.cmu.ml.rtw.generic.util.CounterTable;
 import edu.cmu.ml.rtw.generic.util.Pair;
+import edu.cmu.ml.rtw.generic.util.SparseVectorBuilder;
 
 /**
  * FeatureNer computes a vector of indicators for 
@@ -100,15 +100,15 @@ public class FeatureNer<D extends Datum<L>, L> extends Feature<D, L> {
 	}
 	
 	@Override
-	public Map<Integer, Double> computeVector(D datum, int offset, Map<Integer, Double> vector) {
+	public SparseVectorBuilder computeVector(D datum, int offset, SparseVectorBuilder vector) {
 		if (this.useTypes) {
 			Set<String> typesForDatum = getTypesForDatum(datum);
 			for (String type : typesForDatum) {
 				if (this.vocabulary.containsKey(type))
-					vector.put(this.vocabulary.get(type) + offset, 1.0);		
+					vector.set(this.vocabulary.get(type) + offset, 1.0);		
 			}	
 		} else {
-			vector.put(offset, (datumHasType(datum))? 1.0 : 0.0);
+			vector.set(offset, (datumHasType(datum))? 1.0 : 0.0);
 		}
 
 		return vector;
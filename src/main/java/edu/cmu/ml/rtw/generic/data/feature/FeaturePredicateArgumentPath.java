@@ -3,7 +3,6 @@ package edu.cmu.ml.rtw.generic.data.feature;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
 
@@ -19,6 +18,7 @@ import edu.cmu.ml.rtw.generic.parse.Obj;
 import edu.cmu.ml.rtw.generic.util.BidirectionalLookupTable;
 import edu.cmu.ml.rtw.generic.util.CounterTable;
 import edu.cmu.ml.rtw.generic.util.Pair;
+import edu.cmu.ml.rtw.generic.util.SparseVectorBuilder;
 import edu.cmu.ml.rtw.generic.util.ThreadMapper;
 
 public class FeaturePredicateArgumentPath<D extends Datum<L>, L> extends Feature<D, L> {
@@ -157,12 +157,12 @@ public class FeaturePredicateArgumentPath<D extends Datum<L>, L> extends Feature
 	
 	
 	@Override
-	public Map<Integer, Double> computeVector(D datum, int offset, Map<Integer, Double> vector) {
+	public SparseVectorBuilder computeVector(D datum, int offset, SparseVectorBuilder vector) {
 		Set<String> pathsForDatum = getPathsForDatum(datum);
 		
 		for (String path : pathsForDatum) {
 			if (this.vocabulary.containsKey(path))
-				vector.put(this.vocabulary.get(path) + offset, 1.0);		
+				vector.set(this.vocabulary.get(path) + offset, 1.0);		
 		}
 
 		return vector;
@@ -8,7 +8,6 @@ import java.util.TreeMap;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
 
-import org.platanios.learn.math.matrix.SparseVector;
 import org.platanios.learn.math.matrix.Vector;
 
 import edu.cmu.ml.rtw.generic.data.Context;
@@ -21,6 +20,7 @@ import edu.cmu.ml.rtw.generic.parse.Assignment.AssignmentTyped;
 import edu.cmu.ml.rtw.generic.parse.AssignmentList;
 import edu.cmu.ml.rtw.generic.parse.CtxParsableFunction;
 import edu.cmu.ml.rtw.generic.parse.Obj;
+import edu.cmu.ml.rtw.generic.util.SparseVectorBuilder;
 
 public class FeatureSet<D extends Datum<L>, L> extends CtxParsableFunction {
 	private DatumContext<D, L> context;
@@ -223,6 +223,22 @@ public class FeatureSet<D extends Datum<L>, L> extends CtxParsableFunction {
 		return names;
 	}
 	
+	/**
+	 * @return a hash of the names of the features in the vocabulary (in
+	 * vocabulary order).  Vectors computed by feature sets with different
+	 * fingerprints should not be mixed.
+	 */
+	public long getVocabularyFingerprint() {
+		long fingerprint = 0xcbf29ce484222325L; // 64-bit FNV-1a
+		fingerprint = (fingerprint ^ this.featureVocabularySize) * 0x100000001b3L;
+		for (String name : getFeatureVocabularyNames()) {
+			for (int i = 0; i < name.length(); i++)
+				fingerprint = (fingerprint ^ name.charAt(i)) * 0x100000001b3L;
+			fingerprint = (fingerprint ^ 0xFF) * 0x100000001b3L;
+		}
+		return fingerprint;
+	}
+	
 	public List<String> getFeatureVocabularyNames() {
 		List<String> featureVocabularyNames = new ArrayList<String>(this.featureVocabularySize);
 		
@@ -234,37 +250,48 @@ public class FeatureSet<D extends Datum<L>, L> extends CtxParsableFunction {
 	}
 	
 	public Vector getFeatureVocabularyValues(D datum) {
-		Map<Integer, Double> values = new HashMap<Integer, Double>();
+		SparseVectorBuilder values = SparseVectorBuilder.acquire();
+		try {
+			return computeFeatureVocabularyValues(datum, values).toVector(getFeatureVocabularySize());
+		} finally {
+			values.release();
+		}
+	}
+	
+	/**
+	 * Computes the feature vector for a datum into a builder without
+	 * constructing a vector, so that a single datum can be scored 
+	 * using a builder from SparseVectorBuilder.acquire
+	 * 
+	 * @return values, compacted
+	 */
+	public SparseVectorBuilder computeFeatureVocabularyValues(D datum, SparseVectorBuilder values) {
 		for (Entry<Integer, Feature<D, L>> featureEntry : this.features.entrySet()) {
-			values = featureEntry.getValue().computeVector(datum, featureEntry.getKey(), values);
+			featureEntry.getValue().computeVector(datum, featureEntry.getKey(), values);
 		}
 		
-		return new SparseVector(getFeatureVocabularySize(), values);
+		return values.compact();
 	}
 	
 	public Vector computeFeatureVocabularyRange(D datum, int startIndex, int endIndex) {
-		Map<Integer, Double> values = new HashMap<Integer, Double>();
-		for (Entry<Integer, Feature<D, L>> featureEntry : this.features.entrySet()) {
-			if (featureEntry.getKey() + featureEntry.getValue().getVocabularySize() <= startIndex)
-				continue;
-			if (featureEntry.getKey() >= endIndex)
-				break;
-			
-			if (startIndex <= featureEntry.getKey() && endIndex >= featureEntry.getKey() + featureEntry.getValue().getVocabularySize()) {
-				values = featureEntry.getValue().computeVector(datum, featureEntry.getKey(), values);
-			} else {
-				Map<Integer, Double> featureValues = featureEntry.getValue().computeVector(datum);
-			
-				for (Entry<Integer, Double> featureValueEntry : featureValues.entrySet()) {
-					int index = featureValueEntry.getKey() + featureEntry.getKey();
-					if (index < startIndex || index >= endIndex)
-						continue;
-					values.put(index - startIndex, featureValueEntry.getValue());
-				}
+		SparseVectorBuilder values = SparseVectorBuilder.acquire();
+		try {
+			for (Entry<Integer, Feature<D, L>> featureEntry : this.features.entrySet()) {
+				if (featureEntry.getKey() + featureEntry.getValue().getVocabularySize() <= startIndex)
+					continue;
+				if (featureEntry.getKey() >= endIndex)
+					break;
+				
+				// Features write their values at their indices in the full 
+				// vocabulary, and toVector below keeps the values in the range
+				// and shifts all of their indices down by startIndex
+				featureEntry.getValue().computeVector(datum, featureEntry.getKey(), values);
 			}
+			
+			return values.toVector(startIndex, endIndex);
+		} finally {
+			values.release();
 		}
-		
-		return new SparseVector(endIndex - startIndex, values);
 	}
 	
 	public <T extends Datum<Boolean>> FeatureSet<T, Boolean> makeBinary(LabelIndicator<L> labelIndicator, DatumContext<T, Boolean> context) {
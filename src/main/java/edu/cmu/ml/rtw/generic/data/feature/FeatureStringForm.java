@@ -2,7 +2,6 @@ package edu.cmu.ml.rtw.generic.data.feature;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 import edu.cmu.ml.rtw.generic.data.annotation.DataSet;
 import edu.cmu.ml.rtw.generic.data.annotation.Datum;
@@ -12,6 +11,7 @@ import edu.cmu.ml.rtw.generic.parse.AssignmentList;
 import edu.cmu.ml.rtw.generic.parse.Obj;
 import edu.cmu.ml.rtw.generic.util.BidirectionalLookupTable;
 import edu.cmu.ml.rtw.generic.util.CounterTable;
+import edu.cmu.ml.rtw.generic.util.SparseVectorBuilder;
 import edu.cmu.ml.rtw.generic.util.ThreadMapper;
 
 /**
@@ -81,13 +81,13 @@ public class FeatureStringForm<D extends Datum<L>, L> extends Feature<D, L> {
 	
 	
 	@Override
-	public Map<Integer, Double> computeVector(D datum, int offset, Map<Integer, Double> vector) {
+	public SparseVectorBuilder computeVector(D datum, int offset, SparseVectorBuilder vector) {
 		List<String> forms = computeForms(datum);
 		
 		for (String form : forms) {
 			if (!this.vocabulary.containsKey(form))
 				continue;
-			vector.put(this.vocabulary.get(form) + offset, 1.0);
+			vector.set(this.vocabulary.get(form) + offset, 1.0);
 		}
 		
 		return vector;
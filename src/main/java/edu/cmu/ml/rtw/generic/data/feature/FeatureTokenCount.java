@@ -1,6 +1,5 @@
 package edu.cmu.ml.rtw.generic.data.feature;
 
-import java.util.Map;
 
 import edu.cmu.ml.rtw.generic.data.annotation.DataSet;
 import edu.cmu.ml.rtw.generic.data.annotation.Datum;
@@ -9,6 +8,7 @@ import edu.cmu.ml.rtw.generic.data.annotation.DatumContext;
 import edu.cmu.ml.rtw.generic.data.annotation.nlp.TokenSpan;
 import edu.cmu.ml.rtw.generic.parse.AssignmentList;
 import edu.cmu.ml.rtw.generic.parse.Obj;
+import edu.cmu.ml.rtw.generic.util.SparseVectorBuilder;
 
 /**
  * FeatureTokenCount computes an indicator of whether token
@@ -45,7 +45,7 @@ public class FeatureTokenCount<D extends Datum<L>, L> extends Feature<D, L> {
 	}
 
 	@Override
-	public Map<Integer, Double> computeVector(D datum, int offset, Map<Integer, Double> vector) {
+	public SparseVectorBuilder computeVector(D datum, int offset, SparseVectorBuilder vector) {
 		TokenSpan[] tokenSpans = this.tokenExtractor.extract(datum);
 		
 		for (TokenSpan tokenSpan : tokenSpans) {
@@ -53,7 +53,7 @@ public class FeatureTokenCount<D extends Datum<L>, L> extends Feature<D, L> {
 			if (tokenCount > this.maxCount)
 				tokenCount = this.maxCount;
 			
-			vector.put(tokenCount + offset, 1.0);
+			vector.set(tokenCount + offset, 1.0);
 		}
 
 		return vector;
@@ -14,6 +14,7 @@ import edu.cmu.ml.rtw.generic.data.feature.fn.Fn;
 import edu.cmu.ml.rtw.generic.parse.AssignmentList;
 import edu.cmu.ml.rtw.generic.parse.Obj;
 import edu.cmu.ml.rtw.generic.util.MathUtil;
+import edu.cmu.ml.rtw.generic.util.SparseVectorBuilder;
 
 public class FeatureTokenSpanFnComparison<D extends Datum<L>, L> extends Feature<D, L> {
 	public enum Mode {
@@ -85,7 +86,7 @@ public class FeatureTokenSpanFnComparison<D extends Datum<L>, L> extends Feature
 	}
 	
 	@Override
-	public Map<Integer, Double> computeVector(D datum, int offset, Map<Integer, Double> vector) {
+	public SparseVectorBuilder computeVector(D datum, int offset, SparseVectorBuilder vector) {
 		if (this.tokenExtractor != null) {
 			TokenSpan[] spans = this.tokenExtractor.extract(datum);
 	
@@ -106,7 +107,7 @@ public class FeatureTokenSpanFnComparison<D extends Datum<L>, L> extends Feature
 			}
 			
 			similarity /= count;
-			vector.put(offset, similarity);
+			vector.set(offset, similarity);
 		} else {
 			TokenSpan[] sourceSpans = this.sourceTokenExtractor.extract(datum);
 			TokenSpan[] targetSpans = this.sourceTokenExtractor.extract(datum);
@@ -140,7 +141,7 @@ public class FeatureTokenSpanFnComparison<D extends Datum<L>, L> extends Feature
 			
 			similarity /= sourceSpanStrVectors.size() + targetSpanStrVectors.size();
 			
-			vector.put(offset, similarity);
+			vector.set(offset, similarity);
 		}
 		
 		return vector;
@@ -2,6 +2,7 @@ package edu.cmu.ml.rtw.generic.data.feature;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -22,6 +23,8 @@ import edu.cmu.ml.rtw.generic.parse.AssignmentList;
 import edu.cmu.ml.rtw.generic.parse.Obj;
 import edu.cmu.ml.rtw.generic.util.BidirectionalLookupTable;
 import edu.cmu.ml.rtw.generic.util.CounterTable;
+import edu.cmu.ml.rtw.generic.util.HashedVocabulary;
+import edu.cmu.ml.rtw.generic.util.SparseVectorBuilder;
 import edu.cmu.ml.rtw.generic.util.ThreadMapper;
 
 /**
@@ -48,6 +51,18 @@ import edu.cmu.ml.rtw.generic.util.ThreadMapper;
  *  
  *  initMode - determines whether idf and minFeatureOccurrence 
  *  filter are computed wiht respect to datums or documents
+ *  
+ *  hashBits - if positive, the strings are hashed into a vocabulary of
+ *  2^hashBits components (see edu.cmu.ml.rtw.generic.util.HashedVocabulary) 
+ *  instead of being counted into a vocabulary during initialization.  In 
+ *  this mode, initialization only passes over the data to count hashed 
+ *  document frequencies for the NORMALIZED_TFIDF scale (and to sample
+ *  strings, see hashSample), and minFeatureOccurrence only applies to those 
+ *  counts.
+ *  
+ *  hashSample - the number of hashed components for which to remember
+ *  a string (returned by getVocabularyTerm) during
+ *  initialization, for debugging
  * 
  * @author Bill McDowell
  *
@@ -89,7 +104,10 @@ public class FeatureTokenSpanFnDataVocab<D extends Datum<L>, L> extends Feature<
 	protected Scale scale;
 	protected Fn<TokenSpan, String> fn;
 	protected InitMode initMode;
-	protected String[] parameterNames = {"minFeatureOccurrence", "tokenExtractor", "sourceTokenExtractor", "targetTokenExtractor", "scale", "fn", "initMode"};
+	protected int hashBits;
+	protected int hashSample;
+	protected HashedVocabulary hashedVocabulary; // replaces vocabulary and idfs if hashBits > 0
+	protected String[] parameterNames = {"minFeatureOccurrence", "tokenExtractor", "sourceTokenExtractor", "targetTokenExtractor", "scale", "fn", "initMode", "hashBits", "hashSample"};
 	
 	public FeatureTokenSpanFnDataVocab() {
 		
@@ -105,6 +123,9 @@ public class FeatureTokenSpanFnDataVocab<D extends Datum<L>, L> extends Feature<
 	
 	@Override
 	public boolean init(DataSet<D, L> dataSet) {
+		if (this.hashedVocabulary != null)
+			return initHashed(dataSet);
+		
 		final CounterTable<String> counter = new CounterTable<String>();
 		
 		if (FeatureTokenSpanFnDataVocab.this.initMode == InitMode.BY_DATUM) { 
@@ -153,6 +174,89 @@ public class FeatureTokenSpanFnDataVocab<D extends Datum<L>, L> extends Feature<
 		
 		return true;
 	}
+	
+	private boolean initHashed(DataSet<D, L> dataSet) {
+		final boolean countDocuments = this.scale == Scale.NORMALIZED_TFIDF;
+		if (!countDocuments && this.hashedVocabulary.getSampleSize() <= 0)
+			return true;
+		
+		if (countDocuments)
+			this.hashedVocabulary.initDocumentFrequencies(dataSet.size());
+		
+		// Pairs of components and document name hashes for BY_DOCUMENT
+		final Set<Long> componentDocuments = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+		dataSet.map(new ThreadMapper.Fn<D, Boolean>() {
+			@Override
+			public Boolean apply(D datum) {
+				Map<String, Integer> gramsForDatum = applyFnToDatum(datum);
+				int[] indices = new int[gramsForDatum.size()];
+				double[] values = new double[indices.length];
+				int i = 0;
+				for (String gram : gramsForDatum.keySet())
+					indices[i++] = hashedVocabulary.getIndex(hashedVocabulary.hashAndSample(gram));
+				if (!countDocuments)
+					return true;
+				
+				int count = HashedVocabulary.merge(indices, values, indices.length);
+				if (initMode == InitMode.BY_DATUM) {
+					for (i = 0; i < count; i++)
+						hashedVocabulary.incrementDocumentFrequency(indices[i], 1);
+				} else {
+					String documentName = tokenExtractor.extract(datum)[0].getDocument().getName();
+					long documentHash = HashedVocabulary.murmur3(documentName) & 0xFFFFFFFFL;
+					for (i = 0; i < count; i++)
+						componentDocuments.add((((long)indices[i]) << 32) | documentHash);
+				}
+				return true;
+			}
+		}, this.context.getMaxThreads());
+		
+		for (Long componentDocument : componentDocuments)
+			this.hashedVocabulary.incrementDocumentFrequency((int)(componentDocument >>> 32), 1);
+		
+		return true;
+	}
+	
+	private SparseVectorBuilder computeVectorHashed(Map<String, Integer> gramsForDatum, int offset, SparseVectorBuilder vector) {
+		int[] indices = new int[gramsForDatum.size()];
+		double[] values = new double[indices.length];
+		int count = 0;
+		boolean filter = this.hashedVocabulary.hasDocumentFrequencies() && this.minFeatureOccurrence > 0;
+		for (Entry<String, Integer> entry : gramsForDatum.entrySet()) {
+			int hash = this.hashedVocabulary.hash(entry.getKey());
+			int index = this.hashedVocabulary.getIndex(hash);
+			if (filter && this.hashedVocabulary.getDocumentFrequency(index) < this.minFeatureOccurrence)
+				continue;
+			
+			double value = 1.0;
+			if (this.scale == Scale.COUNT)
+				value = entry.getValue();
+			else if (this.scale == Scale.NORMALIZED_LOG)
+				value = Math.log(entry.getValue() + 1.0);
+			else if (this.scale == Scale.NORMALIZED_TFIDF)
+				value = entry.getValue()*this.hashedVocabulary.getIdf(index);
+			
+			indices[count] = index;
+			values[count] = value*this.hashedVocabulary.getSign(hash);
+			count++;
+		}
+		
+		count = HashedVocabulary.merge(indices, values, count);
+		
+		double norm = 0.0;
+		int start = vector.size();
+		for (int i = 0; i < count; i++) {
+			if (values[i] == 0.0)
+				continue;
+			norm += values[i]*values[i];
+			vector.set(indices[i] + offset, values[i]);
+		}
+		
+		if (this.scale == Scale.NORMALIZED_LOG || this.scale == Scale.NORMALIZED_TFIDF)
+			vector.divideValues(start, Math.sqrt(norm));
+		
+		return vector;
+	}
 
 	public Map<String, Integer> applyFnToDatum(D datum) {
 		Map<String, Integer> results = new HashMap<String, Integer>();
@@ -192,75 +296,82 @@ public class FeatureTokenSpanFnDataVocab<D extends Datum<L>, L> extends Feature<
 	}
 	
 	@Override
-	public Map<Integer, Double> computeVector(D datum, int offset, Map<Integer, Double> vector) {
+	public SparseVectorBuilder computeVector(D datum, int offset, SparseVectorBuilder vector) {
 		Map<String, Integer> gramsForDatum = applyFnToDatum(datum);
+		if (this.hashedVocabulary != null)
+			return computeVectorHashed(gramsForDatum, offset, vector);
 		
 		if (this.scale == Scale.INDICATOR) {
 			for (String gram : gramsForDatum.keySet()) {
 				if (this.vocabulary.containsKey(gram))
-					vector.put(this.vocabulary.get(gram) + offset, 1.0);		
+					vector.set(this.vocabulary.get(gram) + offset, 1.0);		
 			}
 		} else if (this.scale == Scale.COUNT) {
 			for (Entry<String, Integer> entry : gramsForDatum.entrySet()) {
 				if (this.vocabulary.containsKey(entry.getKey()))
-					vector.put(this.vocabulary.get(entry.getKey()) + offset, (double)entry.getValue().intValue());		
+					vector.set(this.vocabulary.get(entry.getKey()) + offset, (double)entry.getValue().intValue());		
 			}
 		} else if (this.scale == Scale.NORMALIZED_LOG) {
 			double norm = 0.0;
-			Map<Integer, Double> tempVector = new HashMap<Integer, Double>();
+			int start = vector.size();
 			for (Entry<String, Integer> entry : gramsForDatum.entrySet()) {
 				if (!this.vocabulary.containsKey(entry.getKey()))
 					continue;
 				int index = this.vocabulary.get(entry.getKey());
 				double value = Math.log(entry.getValue() + 1.0);
 				norm += value*value;
-				tempVector.put(index, value);
+				vector.set(index + offset, value);
 			}
 			
 			norm = Math.sqrt(norm);
 			
-			for (Entry<Integer, Double> entry : tempVector.entrySet()) {
-				vector.put(entry.getKey() + offset, entry.getValue()/norm);
-			}
+			vector.divideValues(start, norm);
 		} else if (this.scale == Scale.NORMALIZED_TFIDF) {
 			double norm = 0.0;
-			Map<Integer, Double> tempVector = new HashMap<Integer, Double>();
+			int start = vector.size();
 			for (Entry<String, Integer> entry : gramsForDatum.entrySet()) {
 				if (!this.vocabulary.containsKey(entry.getKey()))
 					continue;
 				int index = this.vocabulary.get(entry.getKey());
 				double value = entry.getValue()*this.idfs.get(index);//Math.log(entry.getValue() + 1.0);
 				norm += value*value;
-				tempVector.put(index, value);
+				vector.set(index + offset, value);
 			}
 			
 			norm = Math.sqrt(norm);
 			
-			for (Entry<Integer, Double> entry : tempVector.entrySet()) {
-				vector.put(entry.getKey() + offset, entry.getValue()/norm);
-			}
+			vector.divideValues(start, norm);
 		}
 
 		return vector;
 	}
 
 	public Integer getVocabularyIndex(String term) {
+		if (this.hashedVocabulary != null)
+			return this.hashedVocabulary.getIndex(HashedVocabulary.murmur3(term));
 		return this.vocabulary.get(term);
 	}
 	
 	@Override
 	public String getVocabularyTerm(int index) {
+		if (this.hashedVocabulary != null)
+			return this.hashedVocabulary.reverseGet(index);
 		return this.vocabulary.reverseGet(index);
 	}
 
 	@Override
 	protected boolean setVocabularyTerm(int index, String term) {
-		this.vocabulary.put(term, index);
+		if (this.hashedVocabulary != null)
+			this.hashedVocabulary.putSample(index, term);
+		else
+			this.vocabulary.put(term, index);
 		return true;
 	}
 
 	@Override
 	public int getVocabularySize() {
+		if (this.hashedVocabulary != null)
+			return this.hashedVocabulary.size();
 		return this.vocabulary.size();
 	}
 
@@ -285,6 +396,10 @@ public class FeatureTokenSpanFnDataVocab<D extends Datum<L>, L> extends Feature<
 			return Obj.stringValue(this.scale.toString());
 		else if (parameter.equals("initMode"))
 			return Obj.stringValue(this.initMode.toString());
+		else if (parameter.equals("hashBits"))
+			return (this.hashBits <= 0) ? null : Obj.stringValue(String.valueOf(this.hashBits));
+		else if (parameter.equals("hashSample"))
+			return (this.hashBits <= 0) ? null : Obj.stringValue(String.valueOf(this.hashSample));
 		return null;
 	}
 
@@ -304,7 +419,14 @@ public class FeatureTokenSpanFnDataVocab<D extends Datum<L>, L> extends Feature<
 			this.scale = Scale.valueOf(this.context.getMatchValue(parameterValue));
 		else if (parameter.equals("initMode"))
 			this.initMode = InitMode.valueOf(this.context.getMatchValue(parameterValue));
-		else
+		else if (parameter.equals("hashBits") || parameter.equals("hashSample")) {
+			int value = (parameterValue == null) ? 0 : Integer.valueOf(this.context.getMatchValue(parameterValue));
+			if (parameter.equals("hashBits"))
+				this.hashBits = value;
+			else
+				this.hashSample = value;
+			this.hashedVocabulary = (this.hashBits > 0) ? new HashedVocabulary(this.hashBits, this.hashSample) : null;
+		} else
 			return false;
 		return true;
 	}
@@ -317,12 +439,15 @@ public class FeatureTokenSpanFnDataVocab<D extends Datum<L>, L> extends Feature<
 		
 		binaryFeatureTokenSpanFnDataVocab.vocabulary = this.vocabulary;
 		binaryFeatureTokenSpanFnDataVocab.idfs = this.idfs;
+		binaryFeatureTokenSpanFnDataVocab.hashedVocabulary = this.hashedVocabulary;
 		
 		return binaryFeatureTokenSpanFnDataVocab;
 	}
 
 	@Override
 	protected boolean fromParseInternalHelper(AssignmentList internalAssignments) {
+		if (this.hashedVocabulary != null)
+			return fromParseHashedVocabulary(this.hashedVocabulary, internalAssignments);
 		if (internalAssignments == null || !internalAssignments.contains("idfs"))
 			return true;
 		
@@ -338,6 +463,8 @@ public class FeatureTokenSpanFnDataVocab<D extends Datum<L>, L> extends Feature<
 	@Override
 	protected AssignmentList toParseInternalHelper(
 			AssignmentList internalAssignments) {
+		if (this.hashedVocabulary != null)
+			return toParseHashedVocabulary(this.hashedVocabulary, internalAssignments);
 		if (this.vocabulary.size() == 0)
 			return internalAssignments;
 		
@@ -369,6 +496,17 @@ public class FeatureTokenSpanFnDataVocab<D extends Datum<L>, L> extends Feature<
 		FeatureTokenSpanFnDataVocab<D, L> cloneData = (FeatureTokenSpanFnDataVocab<D, L>)clone;
 		cloneData.vocabulary = this.vocabulary;
 		cloneData.idfs = this.idfs;
+		cloneData.hashedVocabulary = this.hashedVocabulary;
 		return true;
 	}
+	
+	@Override
+	protected AssignmentList toParseInternal() {
+		if (this.hashedVocabulary == null)
+			return super.toParseInternal();
+		
+		// The hashed vocabulary's components aren't serialized as a vocabulary
+		AssignmentList internalAssignments = toParseInternalHelper(new AssignmentList());
+		return (internalAssignments.size() == 0) ? null : internalAssignments;
+	}
 }
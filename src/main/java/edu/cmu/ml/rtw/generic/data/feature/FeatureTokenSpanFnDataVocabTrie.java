@@ -51,6 +51,11 @@ public class FeatureTokenSpanFnDataVocabTrie<D extends Datum<L>, L> extends Feat
 	
 	@Override
 	public boolean init(DataSet<D, L> dataSet) {
+		if (this.hashedVocabulary != null) {
+			this.context.getDataTools().getOutputWriter().debugWriteln("ERROR: Trie feature " + this.referenceName + " requires a vocabulary, and can't be hashed.");
+			return false;
+		}
+		
 		final CounterTable<String> counter = new CounterTable<String>();
 		if (FeatureTokenSpanFnDataVocabTrie.this.initMode == InitMode.BY_DATUM) { 
 			dataSet.map(new ThreadMapper.Fn<D, Boolean>() {
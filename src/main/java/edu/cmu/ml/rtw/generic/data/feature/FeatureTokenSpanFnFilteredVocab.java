@@ -19,6 +19,7 @@ import edu.cmu.ml.rtw.generic.parse.Assignment;
 import edu.cmu.ml.rtw.generic.parse.AssignmentList;
 import edu.cmu.ml.rtw.generic.parse.Obj;
 import edu.cmu.ml.rtw.generic.util.BidirectionalLookupTable;
+import edu.cmu.ml.rtw.generic.util.SparseVectorBuilder;
 
 /**
  * FeatureTokenSpanFnFilteredVocab computes a vector
@@ -215,11 +216,11 @@ public class FeatureTokenSpanFnFilteredVocab<D extends Datum<L>, L> extends Feat
 	}
 
 	@Override
-	public Map<Integer, Double> computeVector(D datum, int offset, Map<Integer, Double> vector) {
+	public SparseVectorBuilder computeVector(D datum, int offset, SparseVectorBuilder vector) {
 		return computeVector(datum, offset, this.indexRangeStarts.first(), this.indexRangeEnds.last(), vector);
 	}
 	
-	public Map<Integer, Double> computeVector(D datum, int offset, int minIndex, int maxIndex, Map<Integer, Double> vector) {
+	public SparseVectorBuilder computeVector(D datum, int offset, int minIndex, int maxIndex, SparseVectorBuilder vector) {
 		// This ends the range immediately before the target (minIndex, maxIndex) range
 		Integer endPointBeforeMin = this.indexRangeEnds.floor(minIndex); 
 		if (endPointBeforeMin == null)
@@ -235,7 +236,7 @@ public class FeatureTokenSpanFnFilteredVocab<D extends Datum<L>, L> extends Feat
 		List<TokenSpan> spans = Arrays.asList(this.tokenExtractor.extract(datum)); 
 		
 		Set<String> strs = this.fn.setCompute(spans, 
-											(this.fnCacheMode == Fn.CacheMode.ON) ? this.tokenExtractor.toString() + datum.getId() : "0", 
+											(this.fnCacheMode == Fn.CacheMode.ON) ? Fn.cacheKey(this.tokenExtractor.toString()).part(datum.getId()) : null, 
 											this.fnCacheMode);
 		
 		if (strs.size() < this.vocabulary.size()) {
@@ -243,7 +244,7 @@ public class FeatureTokenSpanFnFilteredVocab<D extends Datum<L>, L> extends Feat
 				if (this.vocabulary.containsKey(str)) {
 					int index = this.vocabulary.get(str);
 					if (index >= minIndex && index < maxIndex)
-						vector.put(index + offset, 1.0);
+						vector.set(index + offset, 1.0);
 				}
 			}
 		} else {
@@ -251,7 +252,7 @@ public class FeatureTokenSpanFnFilteredVocab<D extends Datum<L>, L> extends Feat
 				if (strs.contains(str)) {
 					int index = this.vocabulary.get(str);
 					if (index >= minIndex && index < maxIndex)
-						vector.put(index + offset, 1.0);
+						vector.set(index + offset, 1.0);
 				}
 			}
 		}
@@ -1,6 +1,7 @@
 package edu.cmu.ml.rtw.generic.data.feature;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -16,6 +17,7 @@ import edu.cmu.ml.rtw.generic.parse.AssignmentList;
 import edu.cmu.ml.rtw.generic.parse.Obj;
 import edu.cmu.ml.rtw.generic.util.BidirectionalLookupTable;
 import edu.cmu.ml.rtw.generic.util.MathUtil;
+import edu.cmu.ml.rtw.generic.util.SparseVectorBuilder;
 
 public class FeatureWord2Vec<D extends Datum<L>, L> extends Feature<D, L> {
 	public enum Mode {
@@ -81,16 +83,32 @@ public class FeatureWord2Vec<D extends Datum<L>, L> extends Feature<D, L> {
 	}
 	
 	private double computeSimilarity(Word2Vec w2v, List<Map<String, Double>> spanStrVectors) {
+		// Flatten each span's strings so that each string of one span is
+		// compared to all strings of another span in a single call
+		String[][] spanStrs = new String[spanStrVectors.size()][];
+		double[][] spanWeights = new double[spanStrVectors.size()][];
+		int maxStrs = 0;
+		for (int i = 0; i < spanStrVectors.size(); i++) {
+			spanStrs[i] = new String[spanStrVectors.get(i).size()];
+			spanWeights[i] = new double[spanStrs[i].length];
+			int k = 0;
+			for (Entry<String, Double> entry : spanStrVectors.get(i).entrySet()) {
+				spanStrs[i][k] = entry.getKey();
+				spanWeights[i][k] = entry.getValue();
+				k++;
+			}
+			maxStrs = Math.max(maxStrs, k);
+		}
+		
+		double[] similarities = new double[maxStrs];
 		double count = 0.0;
 		double similarity = 0.0;
 		for (int i = 0; i < spanStrVectors.size(); i++) {
-			for (int j = 0; j < spanStrVectors.size(); j++) {
-				if (i >= j)
-					continue;
-				for (Entry<String, Double> entry1 : spanStrVectors.get(i).entrySet()) {
-					for (Entry<String, Double> entry2 : spanStrVectors.get(j).entrySet()) {
-						similarity += entry1.getValue() * entry2.getValue() * w2v.computeSimilarity(entry1.getKey(), entry2.getKey());
-					}
+			for (int j = i + 1; j < spanStrVectors.size(); j++) {
+				for (int k = 0; k < spanStrs[i].length; k++) {
+					w2v.computeSimilarities(spanStrs[i][k], spanStrs[j], similarities);
+					for (int l = 0; l < spanStrs[j].length; l++)
+						similarity += spanWeights[i][k] * spanWeights[j][l] * similarities[l];
 				}
 
 				count++;
@@ -103,6 +121,7 @@ public class FeatureWord2Vec<D extends Datum<L>, L> extends Feature<D, L> {
 	
 	private double[] computeDifference(Word2Vec w2v, List<Map<String, Double>> spanStrVectors) {
 		double[] difference = new double[w2v.getVectorSize()];
+		double[] diff1_2 = new double[w2v.getVectorSize()];
 		double count = 0.0;
 		for (int i = 0; i < spanStrVectors.size(); i++) {
 			for (int j = 0; j < spanStrVectors.size(); j++) {
@@ -110,15 +129,15 @@ public class FeatureWord2Vec<D extends Datum<L>, L> extends Feature<D, L> {
 					continue;
 				for (Entry<String, Double> entry1 : spanStrVectors.get(i).entrySet()) {
 					for (Entry<String, Double> entry2 : spanStrVectors.get(j).entrySet()) {
-						double[] vec1 = w2v.computeVector(entry1.getKey());
-						double[] vec2 = w2v.computeVector(entry2.getKey());						
-						double[] diff1_2 = MathUtil.subtract(vec1, vec2);
+						Arrays.fill(diff1_2, 0.0);
+						w2v.addVector(entry1.getKey(), 1.0, diff1_2);
+						w2v.addVector(entry2.getKey(), -1.0, diff1_2);
 						double norm = MathUtil.computeMagnitude(diff1_2) / (entry1.getValue() * entry2.getValue());
 						if (Double.compare(norm, 0.0) == 0)
 							norm = 1.0;
 						
-						diff1_2 = MathUtil.normalize(diff1_2, norm);
-						difference = MathUtil.add(diff1_2, difference);					
+						for (int k = 0; k < difference.length; k++)
+							difference[k] += diff1_2[k] / norm;
 					}
 				}
 
@@ -131,7 +150,7 @@ public class FeatureWord2Vec<D extends Datum<L>, L> extends Feature<D, L> {
 	}
 	
 	@Override
-	public Map<Integer, Double> computeVector(D datum, int offset, Map<Integer, Double> vector) {
+	public SparseVectorBuilder computeVector(D datum, int offset, SparseVectorBuilder vector) {
 		Word2Vec w2v = this.context.getDataTools().getWord2Vec();
 		
 		if (this.mode == Mode.SIMILARITY || this.mode == Mode.DIFFERENCE) {
@@ -173,11 +192,11 @@ public class FeatureWord2Vec<D extends Datum<L>, L> extends Feature<D, L> {
 			}
 			
 			if (this.mode == Mode.SIMILARITY)
-				vector.put(offset, computeSimilarity(w2v, spanStrVectors));
+				vector.set(offset, computeSimilarity(w2v, spanStrVectors));
 			else {
 				double[] diff = computeDifference(w2v, spanStrVectors);
 				for (int i = 0; i < diff.length; i++)
-					vector.put(i + offset, diff[i]);
+					vector.set(i + offset, diff[i]);
 			}
 		} else if (this.mode == Mode.VECTOR) {
 			TokenSpan[] spans = this.tokenExtractor.extract(datum);
@@ -194,14 +213,11 @@ public class FeatureWord2Vec<D extends Datum<L>, L> extends Feature<D, L> {
 			spanStrs = MathUtil.normalize(spanStrs, spans.length);
 			
 			double[] vec = new double[w2v.getVectorSize()];
-			for (Entry<String, Double> entry : spanStrs.entrySet()) {
-				double[] strVec = w2v.computeVector(entry.getKey());
-				for (int i = 0; i < strVec.length; i++)
-					vec[i] += strVec[i] * entry.getValue();
-			}
+			for (Entry<String, Double> entry : spanStrs.entrySet())
+				w2v.addVector(entry.getKey(), entry.getValue(), vec);
 			
 			for (int i = 0; i < vec.length; i++)
-				vector.put(i + offset, vec[i]);
+				vector.set(i + offset, vec[i]);
 		}
 		
 		return vector;
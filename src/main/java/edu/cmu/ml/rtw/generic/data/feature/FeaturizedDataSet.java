@@ -9,7 +9,6 @@ import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.TreeMap;
 
-import org.platanios.learn.math.matrix.SparseVector;
 import org.platanios.learn.math.matrix.Vector;
 import org.platanios.learn.math.matrix.Vector.VectorElement;
 
@@ -17,6 +16,7 @@ import edu.cmu.ml.rtw.generic.data.annotation.DataSet;
 import edu.cmu.ml.rtw.generic.data.annotation.Datum;
 import edu.cmu.ml.rtw.generic.data.annotation.Datum.Tools.LabelIndicator;
 import edu.cmu.ml.rtw.generic.data.annotation.DatumContext;
+import edu.cmu.ml.rtw.generic.util.SparseVectorBuilder;
 import edu.cmu.ml.rtw.generic.util.ThreadMapper;
 import edu.cmu.ml.rtw.generic.util.ThreadMapper.Fn;
 
@@ -29,10 +29,10 @@ import edu.cmu.ml.rtw.generic.util.ThreadMapper.Fn;
  * evaluate models.  
  * 
  * The current implementation computes the features on demand as their
- * values are requested, and permanently caches their values in memory.
- * In the future, this might be improved so that some values can be
- * evicted from the cache and possibly serialized/deserialized from
- * disk.
+ * values are requested, and caches their values in a VectorCache.  By
+ * default, the values are permanently cached in memory, but a bounded
+ * cache that evicts values (and possibly spills them to disk) can be
+ * given through setVectorCache.
  * 
  * @author Bill McDowell
  *
@@ -47,7 +47,7 @@ public class FeaturizedDataSet<D extends Datum<L>, L> extends DataSet<D, L> {
 	private Map<String, Feature<D, L>> referencedFeatures; // Maps from reference names to features
 	private TreeMap<Integer, Feature<D, L>> features; // Maps from the feature's starting vocabulary index to the feature
 	private Map<Integer, String> featureVocabularyNames; // Sparse map from indices to names
-	private Map<Integer, Vector> featureVocabularyValues; // Map from datum ids to indices to values
+	private VectorCache featureVocabularyValues; // Map from datum ids to indices to values
 	private int featureVocabularySize;
 	private boolean precomputedFeatures;
 	
@@ -73,7 +73,7 @@ public class FeaturizedDataSet<D extends Datum<L>, L> extends DataSet<D, L> {
 				addFeature(feature);
 		
 		this.featureVocabularyNames = new ConcurrentHashMap<Integer, String>();
-		this.featureVocabularyValues = new ConcurrentHashMap<Integer, Vector>();
+		this.featureVocabularyValues = new VectorCache.InMemory();
 		this.precomputedFeatures = false;
 	}
 	
@@ -89,6 +89,22 @@ public class FeaturizedDataSet<D extends Datum<L>, L> extends DataSet<D, L> {
 		return this.maxThreads;
 	}
 	
+	public VectorCache getVectorCache() {
+		return this.featureVocabularyValues;
+	}
+	
+	/**
+	 * Replaces the cache of feature values.  Previously cached values
+	 * are discarded, and the previous cache is closed.
+	 */
+	public boolean setVectorCache(VectorCache vectorCache) {
+		if (this.featureVocabularyValues != null && this.featureVocabularyValues != vectorCache)
+			this.featureVocabularyValues.close();
+		this.featureVocabularyValues = vectorCache;
+		this.precomputedFeatures = false;
+		return true;
+	}
+	
 	public boolean setMaxThreads(int maxThreads) {
 		this.maxThreads = maxThreads;
 		return true;
@@ -251,16 +267,21 @@ public class FeaturizedDataSet<D extends Datum<L>, L> extends DataSet<D, L> {
 	public Vector getFeatureVocabularyValues(D datum, boolean cacheValues) {
 		if (!this.data.containsKey(datum.getId()))
 			return null;
-		if (this.featureVocabularyValues.containsKey(datum.getId()))
-			return this.featureVocabularyValues.get(datum.getId());
+		Vector vector = this.featureVocabularyValues.get(datum.getId());
+		if (vector != null)
+			return vector;
 		
-		Map<Integer, Double> values = new HashMap<Integer, Double>();
-		for (Entry<Integer, Feature<D, L>> featureEntry : this.features.entrySet()) {
-			values = featureEntry.getValue().computeVector(datum, featureEntry.getKey(), values);
+		SparseVectorBuilder values = SparseVectorBuilder.acquire();
+		try {
+			for (Entry<Integer, Feature<D, L>> featureEntry : this.features.entrySet()) {
+				featureEntry.getValue().computeVector(datum, featureEntry.getKey(), values);
+			}
+			
+			vector = values.toVector(getFeatureVocabularySize());
+		} finally {
+			values.release();
 		}
 		
-		Vector vector = new SparseVector(getFeatureVocabularySize(), values);
-		
 		if (cacheValues)
 			this.featureVocabularyValues.put(datum.getId(), vector);
 		
@@ -268,28 +289,24 @@ public class FeaturizedDataSet<D extends Datum<L>, L> extends DataSet<D, L> {
 	}
 	
 	public Vector computeFeatureVocabularyRange(D datum, int startIndex, int endIndex) {
-		Map<Integer, Double> values = new HashMap<Integer, Double>();
-		for (Entry<Integer, Feature<D, L>> featureEntry : this.features.entrySet()) {
-			if (featureEntry.getKey() + featureEntry.getValue().getVocabularySize() <= startIndex)
-				continue;
-			if (featureEntry.getKey() >= endIndex)
-				break;
-			
-			if (startIndex <= featureEntry.getKey() && endIndex >= featureEntry.getKey() + featureEntry.getValue().getVocabularySize()) {
-				values = featureEntry.getValue().computeVector(datum, featureEntry.getKey(), values);
-			} else {
-				Map<Integer, Double> featureValues = featureEntry.getValue().computeVector(datum);
-			
-				for (Entry<Integer, Double> featureValueEntry : featureValues.entrySet()) {
-					int index = featureValueEntry.getKey() + featureEntry.getKey();
-					if (index < startIndex || index >= endIndex)
-						continue;
-					values.put(index - startIndex, featureValueEntry.getValue());
-				}
+		SparseVectorBuilder values = SparseVectorBuilder.acquire();
+		try {
+			for (Entry<Integer, Feature<D, L>> featureEntry : this.features.entrySet()) {
+				if (featureEntry.getKey() + featureEntry.getValue().getVocabularySize() <= startIndex)
+					continue;
+				if (featureEntry.getKey() >= endIndex)
+					break;
+				
+				// Features write their values at their indices in the full 
+				// vocabulary, and toVector below keeps the values in the range
+				// and shifts all of their indices down by startIndex
+				featureEntry.getValue().computeVector(datum, featureEntry.getKey(), values);
 			}
+			
+			return values.toVector(startIndex, endIndex);
+		} finally {
+			values.release();
 		}
-		
-		return new SparseVector(endIndex - startIndex, values);
 	}
 	
 	public boolean precomputeFeatures() {
@@ -1,16 +1,14 @@
 package edu.cmu.ml.rtw.generic.data.feature;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Map.Entry;
 import java.util.TreeMap;
 
-import org.platanios.learn.math.matrix.SparseVector;
 import org.platanios.learn.math.matrix.Vector;
 
 import edu.cmu.ml.rtw.generic.data.annotation.Datum;
+import edu.cmu.ml.rtw.generic.util.SparseVectorBuilder;
 
 /**
  * FilteredVocabFeatureSet represents a set of FeatureTokenSpanFnFilteredVocab
@@ -60,22 +58,25 @@ public class FilteredVocabFeatureSet<D extends Datum<L>, L> {
 	}
 	
 	public Vector computeFeatureVocabularyRange(D datum, int startIndex, int endIndex) {
-		Map<Integer, Double> values = new HashMap<Integer, Double>();
-		
-		for (Entry<Integer, FeatureTokenSpanFnFilteredVocab<D, L>> featureEntry : this.features.entrySet()) {
-			// FIXME There's another possible range optimization here if 
-			// can get access to feature max index
-			if (featureEntry.getKey() >= endIndex)
-				break;
+		SparseVectorBuilder values = SparseVectorBuilder.acquire();
+		try {
+			for (Entry<Integer, FeatureTokenSpanFnFilteredVocab<D, L>> featureEntry : this.features.entrySet()) {
+				// FIXME There's another possible range optimization here if 
+				// can get access to feature max index
+				if (featureEntry.getKey() >= endIndex)
+					break;
+				
+				featureEntry.getValue().computeVector(datum, 
+													   featureEntry.getKey(), 
+													   startIndex - featureEntry.getKey(),
+													   endIndex - featureEntry.getKey(), 
+													   values);
+			}
 			
-			values = featureEntry.getValue().computeVector(datum, 
-														   featureEntry.getKey(), 
-														   startIndex - featureEntry.getKey(),
-														   endIndex - featureEntry.getKey(), 
-														   values);
+			return values.toVector(endIndex - startIndex);
+		} finally {
+			values.release();
 		}
-		
-		return new SparseVector(endIndex - startIndex, values);
 	}
 	
 	public FeatureTokenSpanFnFilteredVocab<D, L> getFeatureByVocabularyIndex(int index) {
@@ -0,0 +1,770 @@
+package edu.cmu.ml.rtw.generic.data.feature;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * TokenPatternAutomaton is a compiled form of the regular expressions
+ * that FeatureGramContextPattern produces from its token and part-of-speech
+ * patterns.  Rather than matching the regular expression against a
+ * string rendering ("text/TAG text/TAG ... ") of a sequence of tokens,
+ * the automaton runs directly over the sequence of tokens, where each
+ * token is represented by a symbol id that is computed from its (cleaned)
+ * text and its part-of-speech tag (see getSymbol).
+ *
+ * Whether a sequence of tokens matches is determined by a deterministic
+ * automaton (built ahead of time by the subset construction) in time
+ * linear in the number of tokens.  Capture groups are computed by
+ * simulating the non-deterministic automaton with prioritized threads
+ * (a 'Pike VM'), which gives the same groups as Java's backtracking
+ * matcher, also in linear time.
+ *
+ * Only the subset of regular expressions that can be matched token by
+ * token with exactly the same results as the string rendering is
+ * compiled: token atoms produced by FeatureGramContextPattern.convertPattern
+ * for parts of speech ("([^\\s]+/TAG[\\s]+)") and token text
+ * ("text/[^\\s]+[\\s]+"), capturing and non-capturing groups, alternation,
+ * greedy and lazy quantifiers over groups whose bodies can't be empty,
+ * and a trailing ".*" or ".+".  compile returns null for other expressions
+ * (e.g. look-around negations), and the caller should fall back to the
+ * regular expression.  The token rendering must also be unambiguous for
+ * the results to be the same, so callers should check each token with
+ * isWellFormed.
+ *
+ * Compiled automata are shared by features with the same patterns (e.g. 
+ * clones of a feature).  The least recently used automata are dropped 
+ * once the shared automata hold more than MAX_COMPILED_SIZE instructions
+ * and transitions.
+ *
+ * @author Bill McDowell
+ *
+ */
+public class TokenPatternAutomaton {
+	private static final int MAX_PROGRAM_SIZE = 2000;
+	private static final int MAX_DFA_SIZE = 1 << 20;
+	private static final long MAX_COMPILED_SIZE = 1 << 23;
+	
+	// Shared automata by pattern, in access order (least recently used first)
+	private static final LinkedHashMap<String, TokenPatternAutomaton> COMPILED = new LinkedHashMap<String, TokenPatternAutomaton>(16, 0.75f, true);
+	private static long compiledSize;
+
+	private static final String TAG_ATOM_START = "([^\\s]+/";
+	private static final String TAG_ATOM_END = "[\\s]+)";
+	private static final String TEXT_ATOM_END = "/[^\\s]+[\\s]+";
+	private static final String META_CHARACTERS = "\\^$.|?*+()[]{}/";
+
+	private static final int OP_ATOM = 0;
+	private static final int OP_SPLIT = 1;
+	private static final int OP_JMP = 2;
+	private static final int OP_SAVE = 3;
+	private static final int OP_MATCH = 4;
+
+	private static final int ATOM_ANY = -1;
+	private static final int ATOM_NEVER = -2;
+	private static final int ATOM_TAG_OFFSET = 1 << 24;
+
+	private Map<String, Integer> textIds;
+	private Map<String, Integer> tagIds;
+	private int groupCount;
+
+	// Program of the non-deterministic automaton.  Atom arguments
+	// are text ids, (tag ids + ATOM_TAG_OFFSET), ATOM_ANY, or ATOM_NEVER
+	private int[] ops;
+	private int[] args1;
+	private int[] args2;
+
+	// Deterministic automaton (or null if it would be too large), with
+	// a row of transitions for each state, and -1 as the dead state
+	private int symbolCount;
+	private int[] dfaTransitions;
+	private boolean[] dfaAccepting;
+
+	private TokenPatternAutomaton() {
+		this.textIds = new HashMap<String, Integer>();
+		this.tagIds = new HashMap<String, Integer>();
+	}
+
+	/**
+	 * @param convertedPattern a regular expression produced by
+	 * FeatureGramContextPattern.convertPattern
+	 * @return the automaton for the pattern, or null if the pattern
+	 * can't be matched by an automaton
+	 */
+	public static TokenPatternAutomaton compile(String convertedPattern) {
+		TokenPatternAutomaton automaton = null;
+		synchronized (COMPILED) {
+			automaton = COMPILED.get(convertedPattern);
+		}
+		if (automaton != null)
+			return automaton;
+
+		automaton = new TokenPatternAutomaton();
+		Parser parser = automaton.new Parser(convertedPattern);
+		Node node = parser.parse();
+		if (node == null)
+			return null;
+
+		if (!automaton.compileProgram(node))
+			return null;
+		automaton.compileDfa();
+
+		synchronized (COMPILED) {
+			TokenPatternAutomaton previous = COMPILED.put(convertedPattern, automaton);
+			if (previous != null)
+				compiledSize -= previous.getSize();
+			compiledSize += automaton.getSize();
+			
+			// Evict the least recently used automata, but keep this one
+			Iterator<TokenPatternAutomaton> iterator = COMPILED.values().iterator();
+			while (compiledSize > MAX_COMPILED_SIZE && COMPILED.size() > 1) {
+				compiledSize -= iterator.next().getSize();
+				iterator.remove();
+			}
+		}
+		
+		return automaton;
+	}
+
+	/**
+	 * @return true if the string rendering of the token is unambiguous, so
+	 * that the automaton matches it in the same way as the regular
+	 * expression.  This requires that neither the text nor the tag
+	 * contain whitespace or "/".
+	 */
+	public static boolean isWellFormed(String text, String tag) {
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '/' || isWhitespaceOrLineTerminator(c))
+				return false;
+		}
+
+		for (int i = 0; i < tag.length(); i++) {
+			char c = tag.charAt(i);
+			if (c == '/' || isWhitespaceOrLineTerminator(c))
+				return false;
+		}
+
+		return true;
+	}
+
+	private static boolean isWhitespaceOrLineTerminator(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r'
+				|| c == '\u0085' || c == '\u2028' || c == '\u2029';
+	}
+
+	/**
+	 * @return the symbol id of a token with the given (cleaned) text and
+	 * part-of-speech tag
+	 */
+	public int getSymbol(String text, String tag) {
+		Integer textId = this.textIds.get(text);
+		// A token with empty text ("/TAG") doesn't match part-of-speech atoms 
+		Integer tagId = (text.length() == 0) ? null : this.tagIds.get(tag);
+		return ((textId == null) ? 0 : textId + 1) * (this.tagIds.size() + 1) + ((tagId == null) ? 0 : tagId + 1);
+	}
+
+	/**
+	 * @return the number of instructions and transitions in the automaton
+	 */
+	private long getSize() {
+		return this.ops.length + ((this.dfaTransitions == null) ? 0 : this.dfaTransitions.length);
+	}
+
+	/**
+	 * @return the number of capturing groups in the pattern
+	 */
+	public int getGroupCount() {
+		return this.groupCount;
+	}
+
+	/**
+	 * @return true if the symbols in [start, end) match the pattern
+	 */
+	public boolean matches(int[] symbols, int start, int end) {
+		if (this.dfaTransitions == null)
+			return run(symbols, start, end, -1, -1) != null;
+
+		int state = 0;
+		for (int i = start; i < end; i++) {
+			state = this.dfaTransitions[state * this.symbolCount + symbols[i]];
+			if (state < 0)
+				return false;
+		}
+
+		return this.dfaAccepting[state];
+	}
+
+	/**
+	 * @return null if the symbols in [start, end) don't match the pattern,
+	 * and otherwise the range of symbols [groupStart, groupEnd) captured by
+	 * the given group (or {-1, -1} if the group didn't participate in the
+	 * match)
+	 */
+	public int[] match(int[] symbols, int start, int end, int group) {
+		// The deterministic automaton rejects most sequences more
+		// cheaply than the simulation that computes groups
+		if (!matches(symbols, start, end))
+			return null;
+		else if (group == 0)
+			return new int[] { start, end };
+		return run(symbols, start, end, 2 * group, 2 * group + 1);
+	}
+
+	/**
+	 * Simulates the non-deterministic automaton, keeping track of the
+	 * positions saved into the given slots
+	 */
+	private int[] run(int[] symbols, int start, int end, int saveStart, int saveEnd) {
+		int[] currentPcs = new int[this.ops.length];
+		int[] currentCaptures = new int[2 * this.ops.length];
+		int[] nextPcs = new int[this.ops.length];
+		int[] nextCaptures = new int[2 * this.ops.length];
+		int[] visited = new int[this.ops.length];
+		Arrays.fill(visited, -1);
+
+		int currentCount = addThread(0, -1, -1, start, saveStart, saveEnd, currentPcs, currentCaptures, 0, visited, start);
+		for (int i = start; i < end && currentCount > 0; i++) {
+			int nextCount = 0;
+			for (int t = 0; t < currentCount; t++) {
+				int pc = currentPcs[t];
+				if (this.ops[pc] != OP_ATOM || !atomMatches(this.args1[pc], symbols[i]))
+					continue;
+				nextCount = addThread(pc + 1, currentCaptures[2 * t], currentCaptures[2 * t + 1], i + 1, saveStart, saveEnd, nextPcs, nextCaptures, nextCount, visited, i + 1);
+			}
+
+			int[] swap = currentPcs;
+			currentPcs = nextPcs;
+			nextPcs = swap;
+			swap = currentCaptures;
+			currentCaptures = nextCaptures;
+			nextCaptures = swap;
+			currentCount = nextCount;
+		}
+
+		// The highest priority thread that has matched the full sequence
+		// is the one that the backtracking matcher would find first
+		for (int t = 0; t < currentCount; t++) {
+			if (this.ops[currentPcs[t]] == OP_MATCH) {
+				if (currentCaptures[2 * t] < 0 || currentCaptures[2 * t + 1] < 0)
+					return new int[] { -1, -1 };
+				return new int[] { currentCaptures[2 * t], currentCaptures[2 * t + 1] };
+			}
+		}
+
+		return null;
+	}
+
+	private int addThread(int pc, int captureStart, int captureEnd, int position, int saveStart, int saveEnd, int[] pcs, int[] captures, int count, int[] visited, int step) {
+		if (visited[pc] == step)
+			return count;
+		visited[pc] = step;
+
+		int op = this.ops[pc];
+		if (op == OP_JMP) {
+			return addThread(this.args1[pc], captureStart, captureEnd, position, saveStart, saveEnd, pcs, captures, count, visited, step);
+		} else if (op == OP_SPLIT) {
+			count = addThread(this.args1[pc], captureStart, captureEnd, position, saveStart, saveEnd, pcs, captures, count, visited, step);
+			return addThread(this.args2[pc], captureStart, captureEnd, position, saveStart, saveEnd, pcs, captures, count, visited, step);
+		} else if (op == OP_SAVE) {
+			if (this.args1[pc] == saveStart)
+				captureStart = position;
+			else if (this.args1[pc] == saveEnd)
+				captureEnd = position;
+			return addThread(pc + 1, captureStart, captureEnd, position, saveStart, saveEnd, pcs, captures, count, visited, step);
+		} else {
+			pcs[count] = pc;
+			captures[2 * count] = captureStart;
+			captures[2 * count + 1] = captureEnd;
+			return count + 1;
+		}
+	}
+
+	private boolean atomMatches(int atom, int symbol) {
+		if (atom == ATOM_ANY)
+			return true;
+		else if (atom == ATOM_NEVER)
+			return false;
+
+		int tagCount = this.tagIds.size() + 1;
+		if (atom < ATOM_TAG_OFFSET)
+			return symbol / tagCount == atom + 1;
+		else
+			return symbol % tagCount == atom - ATOM_TAG_OFFSET + 1;
+	}
+
+	private boolean compileProgram(Node node) {
+		List<int[]> program = new ArrayList<int[]>();
+		if (!node.emit(program))
+			return false;
+		program.add(new int[] { OP_MATCH, 0, 0 });
+		if (program.size() > MAX_PROGRAM_SIZE)
+			return false;
+
+		this.ops = new int[program.size()];
+		this.args1 = new int[program.size()];
+		this.args2 = new int[program.size()];
+		for (int i = 0; i < program.size(); i++) {
+			this.ops[i] = program.get(i)[0];
+			this.args1[i] = program.get(i)[1];
+			this.args2[i] = program.get(i)[2];
+		}
+
+		return true;
+	}
+
+	private void compileDfa() {
+		this.symbolCount = (this.textIds.size() + 1) * (this.tagIds.size() + 1);
+
+		Map<String, Integer> stateIds = new HashMap<String, Integer>();
+		List<int[]> states = new ArrayList<int[]>();
+		List<int[]> rows = new ArrayList<int[]>();
+
+		int[] startState = closure(new int[] { 0 });
+		stateIds.put(Arrays.toString(startState), 0);
+		states.add(startState);
+
+		for (int s = 0; s < states.size(); s++) {
+			if ((long)states.size() * this.symbolCount > MAX_DFA_SIZE)
+				return;
+
+			int[] state = states.get(s);
+			int[] row = new int[this.symbolCount];
+			for (int symbol = 0; symbol < this.symbolCount; symbol++) {
+				int[] next = new int[state.length];
+				int nextCount = 0;
+				for (int pc : state)
+					if (this.ops[pc] == OP_ATOM && atomMatches(this.args1[pc], symbol))
+						next[nextCount++] = pc + 1;
+
+				if (nextCount == 0) {
+					row[symbol] = -1;
+					continue;
+				}
+
+				int[] nextState = closure(Arrays.copyOf(next, nextCount));
+				String key = Arrays.toString(nextState);
+				Integer nextId = stateIds.get(key);
+				if (nextId == null) {
+					nextId = states.size();
+					stateIds.put(key, nextId);
+					states.add(nextState);
+				}
+				row[symbol] = nextId;
+			}
+			rows.add(row);
+		}
+
+		this.dfaTransitions = new int[states.size() * this.symbolCount];
+		this.dfaAccepting = new boolean[states.size()];
+		for (int s = 0; s < states.size(); s++) {
+			System.arraycopy(rows.get(s), 0, this.dfaTransitions, s * this.symbolCount, this.symbolCount);
+			for (int pc : states.get(s))
+				if (this.ops[pc] == OP_MATCH)
+					this.dfaAccepting[s] = true;
+		}
+	}
+
+	/**
+	 * @return the sorted atom and match instructions reachable from the
+	 * given instructions without consuming a symbol
+	 */
+	private int[] closure(int[] pcs) {
+		boolean[] visited = new boolean[this.ops.length];
+		int[] stack = new int[this.ops.length];
+		int stackSize = 0;
+		for (int pc : pcs) {
+			if (!visited[pc]) {
+				visited[pc] = true;
+				stack[stackSize++] = pc;
+			}
+		}
+
+		List<Integer> closure = new ArrayList<Integer>();
+		while (stackSize > 0) {
+			int pc = stack[--stackSize];
+			int op = this.ops[pc];
+			int[] successors;
+			if (op == OP_JMP)
+				successors = new int[] { this.args1[pc] };
+			else if (op == OP_SPLIT)
+				successors = new int[] { this.args1[pc], this.args2[pc] };
+			else if (op == OP_SAVE)
+				successors = new int[] { pc + 1 };
+			else {
+				closure.add(pc);
+				continue;
+			}
+
+			for (int successor : successors) {
+				if (!visited[successor]) {
+					visited[successor] = true;
+					stack[stackSize++] = successor;
+				}
+			}
+		}
+
+		int[] closureArray = new int[closure.size()];
+		for (int i = 0; i < closureArray.length; i++)
+			closureArray[i] = closure.get(i);
+		Arrays.sort(closureArray);
+		return closureArray;
+	}
+
+	/**
+	 * Node is a node of the syntax tree of a pattern
+	 */
+	private static abstract class Node {
+		public abstract boolean isNullable();
+		public abstract boolean emit(List<int[]> program);
+	}
+
+	private static class AtomNode extends Node {
+		private int atom;
+
+		public AtomNode(int atom) {
+			this.atom = atom;
+		}
+
+		public boolean isNullable() {
+			return false;
+		}
+
+		public boolean emit(List<int[]> program) {
+			program.add(new int[] { OP_ATOM, this.atom, 0 });
+			return program.size() <= MAX_PROGRAM_SIZE;
+		}
+	}
+
+	private static class SequenceNode extends Node {
+		private List<Node> nodes = new ArrayList<Node>();
+
+		public boolean isNullable() {
+			for (Node node : this.nodes)
+				if (!node.isNullable())
+					return false;
+			return true;
+		}
+
+		public boolean emit(List<int[]> program) {
+			for (Node node : this.nodes)
+				if (!node.emit(program))
+					return false;
+			return true;
+		}
+	}
+
+	private static class AlternationNode extends Node {
+		private List<Node> branches = new ArrayList<Node>();
+
+		public boolean isNullable() {
+			for (Node branch : this.branches)
+				if (branch.isNullable())
+					return true;
+			return false;
+		}
+
+		public boolean emit(List<int[]> program) {
+			List<int[]> jumps = new ArrayList<int[]>();
+			for (int i = 0; i < this.branches.size(); i++) {
+				int[] split = null;
+				if (i < this.branches.size() - 1) {
+					split = new int[] { OP_SPLIT, program.size() + 1, 0 };
+					program.add(split);
+				}
+
+				if (!this.branches.get(i).emit(program))
+					return false;
+
+				if (i < this.branches.size() - 1) {
+					int[] jump = new int[] { OP_JMP, 0, 0 };
+					program.add(jump);
+					jumps.add(jump);
+					split[2] = program.size();
+				}
+			}
+
+			for (int[] jump : jumps)
+				jump[1] = program.size();
+			return program.size() <= MAX_PROGRAM_SIZE;
+		}
+	}
+
+	private static class GroupNode extends Node {
+		private int group;
+		private Node body;
+
+		public GroupNode(int group, Node body) {
+			this.group = group;
+			this.body = body;
+		}
+
+		public boolean isNullable() {
+			return this.body.isNullable();
+		}
+
+		public boolean emit(List<int[]> program) {
+			program.add(new int[] { OP_SAVE, 2 * this.group, 0 });
+			if (!this.body.emit(program))
+				return false;
+			program.add(new int[] { OP_SAVE, 2 * this.group + 1, 0 });
+			return program.size() <= MAX_PROGRAM_SIZE;
+		}
+	}
+
+	private static class RepetitionNode extends Node {
+		private Node body;
+		private int min;
+		private int max; // -1 if unbounded
+		private boolean greedy;
+
+		public RepetitionNode(Node body, int min, int max, boolean greedy) {
+			this.body = body;
+			this.min = min;
+			this.max = max;
+			this.greedy = greedy;
+		}
+
+		public boolean isNullable() {
+			return this.min == 0 || this.body.isNullable();
+		}
+
+		public boolean emit(List<int[]> program) {
+			for (int i = 0; i < this.min; i++)
+				if (!this.body.emit(program))
+					return false;
+
+			if (this.max < 0) {
+				int[] split = new int[] { OP_SPLIT, 0, 0 };
+				int splitPc = program.size();
+				program.add(split);
+				if (!this.body.emit(program))
+					return false;
+				program.add(new int[] { OP_JMP, splitPc, 0 });
+				setSplit(split, splitPc + 1, program.size());
+			} else {
+				List<int[]> splits = new ArrayList<int[]>();
+				List<Integer> bodyPcs = new ArrayList<Integer>();
+				for (int i = this.min; i < this.max; i++) {
+					int[] split = new int[] { OP_SPLIT, 0, 0 };
+					program.add(split);
+					splits.add(split);
+					bodyPcs.add(program.size());
+					if (!this.body.emit(program))
+						return false;
+				}
+
+				for (int i = 0; i < splits.size(); i++)
+					setSplit(splits.get(i), bodyPcs.get(i), program.size());
+			}
+
+			return program.size() <= MAX_PROGRAM_SIZE;
+		}
+
+		private void setSplit(int[] split, int bodyPc, int exitPc) {
+			split[1] = (this.greedy) ? bodyPc : exitPc;
+			split[2] = (this.greedy) ? exitPc : bodyPc;
+		}
+	}
+
+	/**
+	 * Parser parses a converted pattern into a syntax tree, or
+	 * returns null if the pattern is outside of the subset that
+	 * can be compiled
+	 */
+	private class Parser {
+		private String pattern;
+		private int position;
+
+		public Parser(String pattern) {
+			this.pattern = pattern;
+			this.position = 0;
+		}
+
+		public Node parse() {
+			Node node = parseAlternation();
+			if (node == null || this.position != this.pattern.length())
+				return null;
+			return node;
+		}
+
+		private Node parseAlternation() {
+			AlternationNode alternation = new AlternationNode();
+			Node branch = parseSequence();
+			if (branch == null)
+				return null;
+			alternation.branches.add(branch);
+
+			while (peek() == '|') {
+				this.position++;
+				branch = parseSequence();
+				if (branch == null)
+					return null;
+				alternation.branches.add(branch);
+			}
+
+			return (alternation.branches.size() == 1) ? alternation.branches.get(0) : alternation;
+		}
+
+		private Node parseSequence() {
+			SequenceNode sequence = new SequenceNode();
+			while (this.position < this.pattern.length() && peek() != '|' && peek() != ')') {
+				Node node = parseRepetition();
+				if (node == null)
+					return null;
+				sequence.nodes.add(node);
+			}
+			return sequence;
+		}
+
+		private Node parseRepetition() {
+			boolean quantifiable = peek() == '(';
+			Node node = parsePrimary();
+			if (node == null)
+				return null;
+
+			char c = peek();
+			if (c != '*' && c != '+' && c != '?' && c != '{')
+				return node;
+			if (!quantifiable || node.isNullable())
+				return null;
+
+			int min = 0;
+			int max = -1;
+			if (c == '*') {
+				this.position++;
+			} else if (c == '+') {
+				this.position++;
+				min = 1;
+			} else if (c == '?') {
+				this.position++;
+				max = 1;
+			} else {
+				int close = this.pattern.indexOf('}', this.position);
+				if (close < 0)
+					return null;
+				String[] bounds = this.pattern.substring(this.position + 1, close).split(",", -1);
+				try {
+					min = Integer.valueOf(bounds[0]);
+					if (bounds.length == 1)
+						max = min;
+					else if (bounds.length == 2)
+						max = (bounds[1].length() == 0) ? -1 : Integer.valueOf(bounds[1]);
+					else
+						return null;
+				} catch (NumberFormatException e) {
+					return null;
+				}
+				if (max >= 0 && max < min)
+					return null;
+				this.position = close + 1;
+			}
+
+			boolean greedy = true;
+			if (peek() == '?') {
+				greedy = false;
+				this.position++;
+			}
+
+			c = peek();
+			if (c == '*' || c == '+' || c == '?' || c == '{')
+				return null;
+
+			return new RepetitionNode(node, min, max, greedy);
+		}
+
+		private Node parsePrimary() {
+			if (this.pattern.startsWith(TAG_ATOM_START, this.position)) {
+				int tagStart = this.position + TAG_ATOM_START.length();
+				int tagEnd = tagStart;
+				boolean anchored = false;
+				while (tagEnd < this.pattern.length() && ((this.pattern.charAt(tagEnd) >= 'A' && this.pattern.charAt(tagEnd) <= 'Z') || this.pattern.charAt(tagEnd) == '$')) {
+					anchored = anchored || this.pattern.charAt(tagEnd) == '$';
+					tagEnd++;
+				}
+
+				if (tagEnd > tagStart && this.pattern.startsWith(TAG_ATOM_END, tagEnd)) {
+					// A '$' in the tag is an end of input anchor, so the atom never matches
+					int atom = ATOM_NEVER;
+					if (!anchored)
+						atom = getTagAtom(this.pattern.substring(tagStart, tagEnd));
+
+					groupCount++;
+					this.position = tagEnd + TAG_ATOM_END.length();
+					return new GroupNode(groupCount, new AtomNode(atom));
+				}
+			}
+
+			char c = peek();
+			if (c == '(') {
+				this.position++;
+				int group = -1;
+				if (this.pattern.startsWith("?:", this.position)) {
+					this.position += 2;
+				} else if (peek() == '?') {
+					return null;
+				} else {
+					groupCount++;
+					group = groupCount;
+				}
+
+				Node body = parseAlternation();
+				if (body == null || peek() != ')')
+					return null;
+				this.position++;
+
+				return (group < 0) ? body : new GroupNode(group, body);
+			} else if (c == '.') {
+				// A trailing wildcard consumes the rest of the tokens
+				char quantifier = (this.position + 1 < this.pattern.length()) ? this.pattern.charAt(this.position + 1) : 0;
+				if (quantifier != '*' && quantifier != '+')
+					return null;
+				for (int i = this.position + 2; i < this.pattern.length(); i++)
+					if (this.pattern.charAt(i) != ')')
+						return null;
+
+				this.position += 2;
+				return new RepetitionNode(new AtomNode(ATOM_ANY), (quantifier == '+') ? 1 : 0, -1, true);
+			} else {
+				int textEnd = this.position;
+				while (textEnd < this.pattern.length()
+						&& META_CHARACTERS.indexOf(this.pattern.charAt(textEnd)) < 0
+						&& !isWhitespaceOrLineTerminator(this.pattern.charAt(textEnd)))
+					textEnd++;
+
+				if (textEnd == this.position || !this.pattern.startsWith(TEXT_ATOM_END, textEnd))
+					return null;
+
+				String text = this.pattern.substring(this.position, textEnd);
+				this.position = textEnd + TEXT_ATOM_END.length();
+
+				// Quantifiers would only apply to the atom's trailing whitespace
+				char next = peek();
+				if (next == '*' || next == '+' || next == '?' || next == '{')
+					return null;
+
+				return new AtomNode(getTextAtom(text));
+			}
+		}
+
+		private int getTextAtom(String text) {
+			if (!textIds.containsKey(text))
+				textIds.put(text, textIds.size());
+			return textIds.get(text);
+		}
+
+		private int getTagAtom(String tag) {
+			if (!tagIds.containsKey(tag))
+				tagIds.put(tag, tagIds.size());
+			return tagIds.get(tag) + ATOM_TAG_OFFSET;
+		}
+
+		private char peek() {
+			return (this.position < this.pattern.length()) ? this.pattern.charAt(this.position) : 0;
+		}
+	}
+}
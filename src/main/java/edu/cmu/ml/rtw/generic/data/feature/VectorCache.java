@@ -0,0 +1,357 @@
+package edu.cmu.ml.rtw.generic.data.feature;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.platanios.learn.math.matrix.SparseVector;
+import org.platanios.learn.math.matrix.Vector;
+import org.platanios.learn.math.matrix.Vector.VectorElement;
+
+/**
+ * VectorCache caches feature vectors of datums by their ids for
+ * DataFeatureMatrix and FeaturizedDataSet.
+ *
+ * VectorCache.InMemory keeps every vector in memory forever, and
+ * VectorCache.Bounded keeps vectors in memory up to a budget of
+ * (estimated) bytes, evicting the least recently used vectors
+ * when the budget is exceeded.  Evicted vectors can optionally be
+ * spilled to a memory-mapped file so that they can be read back
+ * without recomputing their features.  VectorCache.Bounded is split
+ * into stripes that are locked independently, and it should be closed
+ * when it is no longer used so that its spill file is deleted.
+ *
+ * Both keep counts of cache hits, misses, and evictions.
+ *
+ * @author Bill McDowell
+ *
+ */
+public abstract class VectorCache implements Closeable {
+	protected AtomicLong hits = new AtomicLong();
+	protected AtomicLong misses = new AtomicLong();
+	protected AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * @param id
+	 * @return the vector for the datum with the given id, or null
+	 * if it is not in the cache
+	 */
+	public abstract Vector get(int id);
+
+	/**
+	 * Adds the vector for the datum with the given id to the cache.
+	 * Null vectors are ignored.
+	 */
+	public abstract void put(int id, Vector vector);
+
+	public long getHits() {
+		return this.hits.get();
+	}
+
+	public long getMisses() {
+		return this.misses.get();
+	}
+
+	public long getEvictions() {
+		return this.evictions.get();
+	}
+
+	/**
+	 * Releases any resources held by the cache.  The cache holds no
+	 * vectors after it is closed.
+	 */
+	@Override
+	public void close() {
+
+	}
+
+	@Override
+	public String toString() {
+		return "hits: " + getHits() + " misses: " + getMisses() + " evictions: " + getEvictions();
+	}
+
+	public static class InMemory extends VectorCache {
+		private Map<Integer, Vector> vectors = new ConcurrentHashMap<Integer, Vector>();
+
+		@Override
+		public Vector get(int id) {
+			Vector vector = this.vectors.get(id);
+			if (vector == null)
+				this.misses.incrementAndGet();
+			else
+				this.hits.incrementAndGet();
+			return vector;
+		}
+
+		@Override
+		public void put(int id, Vector vector) {
+			if (vector != null)
+				this.vectors.put(id, vector);
+		}
+	}
+
+	public static class Bounded extends VectorCache {
+		private static final long SEGMENT_SIZE = 1L << 26;
+		private static final int DEFAULT_STRIPE_COUNT = 16;
+
+		/**
+		 * Stripe holds the vectors for the datum ids that map to it,
+		 * and is locked independently of the other stripes
+		 */
+		private static class Stripe {
+			private long maxBytes;
+			private long bytes;
+			private LinkedHashMap<Integer, Vector> vectors; // In access order, least recently used first
+			private Map<Integer, Long> spillPositions; // Map from datum ids to segment index (high bits) and offset (low bits)
+
+			public Stripe(long maxBytes) {
+				this.maxBytes = maxBytes;
+				this.bytes = 0;
+				this.vectors = new LinkedHashMap<Integer, Vector>(16, 0.75f, true);
+				this.spillPositions = new HashMap<Integer, Long>();
+			}
+		}
+
+		private Stripe[] stripes;
+
+		private File spillFile;
+		private FileChannel spillChannel; // Guarded by spillLock
+		private volatile List<MappedByteBuffer> spillSegments; // Appended under spillLock
+		private Object spillLock = new Object();
+		private long spillFileSize;
+		private volatile boolean closed;
+
+		/**
+		 * @param maxBytes budget for the estimated sizes of vectors held in memory
+		 * @param spillDirectory directory in which to create a file for evicted
+		 * vectors, or null if evicted vectors should be dropped
+		 */
+		public Bounded(long maxBytes, File spillDirectory) {
+			this(maxBytes, spillDirectory, DEFAULT_STRIPE_COUNT);
+		}
+
+		/**
+		 * @param maxBytes budget for the estimated sizes of vectors held in memory.
+		 * The budget is divided evenly among the stripes, and vectors are evicted
+		 * least recently used first within each stripe.
+		 * @param spillDirectory directory in which to create a file for evicted
+		 * vectors, or null if evicted vectors should be dropped
+		 * @param stripeCount number of independently locked stripes
+		 */
+		public Bounded(long maxBytes, File spillDirectory, int stripeCount) {
+			stripeCount = Math.max(1, stripeCount);
+			this.stripes = new Stripe[stripeCount];
+			for (int i = 0; i < stripeCount; i++)
+				this.stripes[i] = new Stripe(maxBytes / stripeCount);
+
+			if (spillDirectory != null) {
+				try {
+					this.spillFile = File.createTempFile("vectors", ".spill", spillDirectory);
+					this.spillFile.deleteOnExit();
+					this.spillChannel = new RandomAccessFile(this.spillFile, "rw").getChannel();
+				} catch (IOException e) {
+					e.printStackTrace();
+					if (this.spillFile != null)
+						this.spillFile.delete();
+					this.spillFile = null;
+					this.spillChannel = null;
+				}
+
+				this.spillSegments = new CopyOnWriteArrayList<MappedByteBuffer>();
+				this.spillFileSize = 0;
+			}
+		}
+
+		@Override
+		public Vector get(int id) {
+			Stripe stripe = getStripe(id);
+			synchronized (stripe) {
+				Vector vector = stripe.vectors.get(id);
+				if (vector != null) {
+					this.hits.incrementAndGet();
+					return vector;
+				}
+
+				Long position = stripe.spillPositions.get(id);
+				if (position != null) {
+					vector = readSpilled(position);
+					if (vector != null) {
+						this.hits.incrementAndGet();
+						putInMemory(stripe, id, vector);
+						return vector;
+					}
+				}
+
+				this.misses.incrementAndGet();
+				return null;
+			}
+		}
+
+		@Override
+		public void put(int id, Vector vector) {
+			if (vector == null || this.closed)
+				return;
+
+			Stripe stripe = getStripe(id);
+			synchronized (stripe) {
+				stripe.spillPositions.remove(id); // Any spilled vector for the id is stale
+				putInMemory(stripe, id, vector);
+			}
+		}
+
+		public long getBytes() {
+			long bytes = 0;
+			for (Stripe stripe : this.stripes) {
+				synchronized (stripe) {
+					bytes += stripe.bytes;
+				}
+			}
+			return bytes;
+		}
+
+		/**
+		 * Drops all vectors, closes the spill file, and deletes it.  The
+		 * spill segments are unmapped once they are garbage collected.
+		 */
+		@Override
+		public void close() {
+			this.closed = true;
+			for (Stripe stripe : this.stripes) {
+				synchronized (stripe) {
+					stripe.vectors.clear();
+					stripe.spillPositions.clear();
+					stripe.bytes = 0;
+				}
+			}
+
+			if (this.spillChannel == null)
+				return;
+
+			synchronized (this.spillLock) {
+				try {
+					this.spillChannel.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+
+				// Readers may still hold the old list, so it is replaced rather than cleared
+				this.spillSegments = new CopyOnWriteArrayList<MappedByteBuffer>();
+				this.spillFile.delete();
+			}
+		}
+
+		private Stripe getStripe(int id) {
+			return this.stripes[(id & Integer.MAX_VALUE) % this.stripes.length];
+		}
+
+		private void putInMemory(Stripe stripe, int id, Vector vector) {
+			Vector oldVector = stripe.vectors.put(id, vector);
+			if (oldVector != null)
+				stripe.bytes -= estimateBytes(oldVector);
+			stripe.bytes += estimateBytes(vector);
+
+			Iterator<Entry<Integer, Vector>> iterator = stripe.vectors.entrySet().iterator();
+			while (stripe.bytes > stripe.maxBytes && iterator.hasNext()) {
+				Entry<Integer, Vector> entry = iterator.next();
+				if (entry.getKey() == id)
+					continue; // Always keep the vector that was just added
+
+				if (this.spillChannel != null && !stripe.spillPositions.containsKey(entry.getKey())) {
+					Long position = writeSpilled(entry.getValue());
+					if (position != null)
+						stripe.spillPositions.put(entry.getKey(), position);
+				}
+
+				stripe.bytes -= estimateBytes(entry.getValue());
+				iterator.remove();
+				this.evictions.incrementAndGet();
+			}
+		}
+
+		/**
+		 * Vectors are spilled as their dimension, their number of
+		 * non-zero elements n, n indices, and n values.
+		 *
+		 * @return the position of the spilled vector, or null if it
+		 * could not be written
+		 */
+		private Long writeSpilled(Vector vector) {
+			int cardinality = vector.cardinality();
+			long size = 8 + 12L*cardinality;
+
+			synchronized (this.spillLock) {
+				if (this.closed)
+					return null;
+
+				MappedByteBuffer segment = (this.spillSegments.size() == 0) ? null : this.spillSegments.get(this.spillSegments.size() - 1);
+				if (segment == null || segment.remaining() < size) {
+					try {
+						long segmentSize = Math.max(SEGMENT_SIZE, size);
+						segment = this.spillChannel.map(FileChannel.MapMode.READ_WRITE, this.spillFileSize, segmentSize);
+						this.spillFileSize += segmentSize;
+						this.spillSegments.add(segment);
+					} catch (IOException e) {
+						e.printStackTrace();
+						return null;
+					}
+				}
+
+				long position = (((long)this.spillSegments.size() - 1) << 32) | segment.position();
+				segment.putInt(vector.size());
+				segment.putInt(cardinality);
+				for (VectorElement element : vector)
+					segment.putInt(element.index());
+				for (VectorElement element : vector)
+					segment.putDouble(element.value());
+
+				return position;
+			}
+		}
+
+		/**
+		 * Reads only absolute positions of segments, so spilled vectors
+		 * can be read from several stripes at once while other vectors
+		 * are being written.
+		 *
+		 * @return the spilled vector, or null if the cache has been closed
+		 */
+		private Vector readSpilled(long position) {
+			List<MappedByteBuffer> segments = this.spillSegments;
+			int segmentIndex = (int)(position >>> 32);
+			if (this.closed || segmentIndex >= segments.size())
+				return null;
+
+			MappedByteBuffer segment = segments.get(segmentIndex);
+			int offset = (int)position;
+
+			int size = segment.getInt(offset);
+			int cardinality = segment.getInt(offset + 4);
+			int[] indices = new int[cardinality];
+			double[] values = new double[cardinality];
+			for (int i = 0; i < cardinality; i++)
+				indices[i] = segment.getInt(offset + 8 + 4*i);
+			for (int i = 0; i < cardinality; i++)
+				values[i] = segment.getDouble(offset + 8 + 4*cardinality + 8*i);
+
+			return new SparseVector(size, indices, values);
+		}
+
+		private static long estimateBytes(Vector vector) {
+			// Object headers plus an index array and a value array
+			return 64 + 12L*vector.cardinality();
+		}
+	}
+}
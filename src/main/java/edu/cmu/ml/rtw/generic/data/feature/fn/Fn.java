@@ -4,13 +4,15 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
+import edu.cmu.ml.rtw.generic.parse.Assignment;
+import edu.cmu.ml.rtw.generic.parse.AssignmentList;
 import edu.cmu.ml.rtw.generic.parse.CtxParsableFunction;
+import edu.cmu.ml.rtw.generic.parse.Obj;
 import edu.cmu.ml.rtw.generic.data.Context;
+import edu.cmu.ml.rtw.generic.util.TinyLFUCache;
 
 /**
  * Fn represents a function from a collection of 
@@ -36,83 +38,127 @@ import edu.cmu.ml.rtw.generic.data.Context;
  * @param <T>
  */
 public abstract class Fn<S, T> extends CtxParsableFunction {
-	private int CACHE_SIZE = 20000; // FIXME Set this elsewhere
+	public static final int DEFAULT_CACHE_SIZE = 20000;
 	
 	public enum CacheMode {
 		ON,
 		OFF
 	}
 	
-	private Map<String, List<T>> listCache;
-	private Map<String, Set<T>> setCache;
-	
-	protected void addToSetCache(String id, Set<T> output) {
-		this.setCache.put(id, output);
+	/**
+	 * CacheKey identifies a cached output by two independent 64-bit
+	 * hashes of the input's id.  The cache is keyed on the first hash, 
+	 * and the second is stored with the output and checked on each 
+	 * hit, so a collision of the first hash is treated as a miss rather
+	 * than returning the output for another input.  A wrong output is
+	 * only returned if both hashes collide, which for n distinct ids
+	 * happens with probability below n^2 / 2^129.
+	 */
+	public static class CacheKey {
+		final long hash;
+		final long check;
+		
+		CacheKey(long hash, long check) {
+			this.hash = hash;
+			this.check = check;
+		}
+		
+		/**
+		 * @return a key for the given id of a part (e.g. a datum)
+		 * of the input identified by this key (e.g. a token span
+		 * extractor)
+		 */
+		public CacheKey part(int partId) {
+			long hash = (this.hash ^ partId) * FNV_PRIME;
+			return new CacheKey(hash ^ (hash >>> 31), mix(this.check + (partId + 1) * CHECK_MULTIPLIER));
+		}
+		
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof CacheKey))
+				return false;
+			CacheKey key = (CacheKey)o;
+			return this.hash == key.hash && this.check == key.check;
+		}
+		
+		@Override
+		public int hashCode() {
+			return (int)(this.hash ^ (this.hash >>> 32));
+		}
 	}
 	
-	protected Set<T> lookupSetCache(String id) {
-		return this.setCache.get(id);
+	private static class CachedOutput<O> {
+		private final long check;
+		private final O output;
+		
+		public CachedOutput(long check, O output) {
+			this.check = check;
+			this.output = output;
+		}
 	}
 	
-	protected void initializeSetCache() {
-		if (this.setCache == null) {
-			this.setCache = Collections.synchronizedMap(new LinkedHashMap<String, Set<T>>(CACHE_SIZE, .75F, true) {
-				private static final long serialVersionUID = 1L;
+	private static final long FNV_OFFSET_BASIS = 0xCBF29CE484222325L;
+	private static final long FNV_PRIME = 0x100000001B3L;
+	private static final long CHECK_MULTIPLIER = 0x9E3779B97F4A7C15L;
 	
-				// This method is called just after a new entry has been added
-			    public boolean removeEldestEntry(Map.Entry<String, Set<T>> eldest) {
-			        return size() > CACHE_SIZE;
-			    }
-			});
+	private Context parseContext;
+	private int cacheSize = DEFAULT_CACHE_SIZE;
+	private long cacheWeight = 0;
+	private volatile TinyLFUCache<CachedOutput<List<T>>> listCache;
+	private volatile TinyLFUCache<CachedOutput<Set<T>>> setCache;
+	
+	private TinyLFUCache<CachedOutput<Set<T>>> getSetCache() {
+		TinyLFUCache<CachedOutput<Set<T>>> setCache = this.setCache;
+		if (setCache == null) {
+			synchronized (this) {
+				if (this.setCache == null)
+					this.setCache = new TinyLFUCache<CachedOutput<Set<T>>>(this.cacheSize, this.cacheWeight);
+				setCache = this.setCache;
+			}
 		}
+		return setCache;
 	}
 	
-	protected void addToListCache(String id, List<T> output) {
-		this.listCache.put(id, output);
+	private TinyLFUCache<CachedOutput<List<T>>> getListCache() {
+		TinyLFUCache<CachedOutput<List<T>>> listCache = this.listCache;
+		if (listCache == null) {
+			synchronized (this) {
+				if (this.listCache == null)
+					this.listCache = new TinyLFUCache<CachedOutput<List<T>>>(this.cacheSize, this.cacheWeight);
+				listCache = this.listCache;
+			}
+		}
+		return listCache;
 	}
 	
-	protected List<T> lookupListCache(String id) {
-		return this.listCache.get(id);
+	public List<T> listCachedCompute(Collection<S> input, String id) {
+		return listCachedCompute(input, cacheKey(id));
 	}
 	
-	protected void initializeListCache() {
-		if (this.listCache == null) {
-			this.listCache = Collections.synchronizedMap(new LinkedHashMap<String, List<T>>(CACHE_SIZE, .75F, true) {
-				private static final long serialVersionUID = 1L;
-	
-				// This method is called just after a new entry has been added
-			    public boolean removeEldestEntry(Map.Entry<String, List<T>> eldest) {
-			        return size() > CACHE_SIZE;
-			    }
-			});
-		}
+	public Set<T> setCachedCompute(Collection<S> input, String id) {
+		return setCachedCompute(input, cacheKey(id));
 	}
 	
-	public List<T> listCachedCompute(Collection<S> input, String id) {
-		initializeListCache();
-		
-		List<T> output = lookupListCache(id);
-		if (output != null)
-			return output;
-		
-		output = listCompute(input);
+	public List<T> listCachedCompute(Collection<S> input, CacheKey key) {
+		TinyLFUCache<CachedOutput<List<T>>> cache = getListCache();
+		CachedOutput<List<T>> cached = cache.get(key.hash);
+		if (cached != null && cached.check == key.check)
+			return cached.output;
 		
-		addToListCache(id, output);
+		List<T> output = listCompute(input);
+		cache.put(key.hash, new CachedOutput<List<T>>(key.check, output), output.size() + 1);
 		
 		return output;
 	}
 	
-	public Set<T> setCachedCompute(Collection<S> input, String id) {
-		initializeSetCache();
-		
-		Set<T> output = lookupSetCache(id);
-		if (output != null) {
-			return output;
-		}
-		
-		output = setCompute(input);
+	public Set<T> setCachedCompute(Collection<S> input, CacheKey key) {
+		TinyLFUCache<CachedOutput<Set<T>>> cache = getSetCache();
+		CachedOutput<Set<T>> cached = cache.get(key.hash);
+		if (cached != null && cached.check == key.check)
+			return cached.output;
 		
-		addToSetCache(id, output);
+		Set<T> output = setCompute(input);
+		cache.put(key.hash, new CachedOutput<Set<T>>(key.check, output), output.size() + 1);
 		
 		return output;
 	}
@@ -122,6 +168,83 @@ public abstract class Fn<S, T> extends CtxParsableFunction {
 		this.setCache = null;
 	}
 	
+	/**
+	 * Sets the maximum number of cached outputs (for each of the list
+	 * and set caches), and the maximum total weight of the cached outputs,
+	 * where an output's weight is its size plus one.  A non-positive
+	 * weight leaves the weight unbounded.  These can also be set from a
+	 * ctx script through the cacheSize and cacheWeight parameters, which
+	 * every Fn accepts in addition to its own parameters (see
+	 * fromParse(Context, ...)).  Changing them clears the caches.
+	 */
+	public void setCacheBudget(int cacheSize, long cacheWeight) {
+		this.cacheSize = cacheSize;
+		this.cacheWeight = cacheWeight;
+		clearCaches();
+	}
+	
+	public int getCacheSize() {
+		return this.cacheSize;
+	}
+	
+	public long getCacheWeight() {
+		return this.cacheWeight;
+	}
+	
+	public long getCacheHitCount() {
+		return getCacheCount(0);
+	}
+	
+	public long getCacheMissCount() {
+		return getCacheCount(1);
+	}
+	
+	public long getCacheEvictionCount() {
+		return getCacheCount(2);
+	}
+	
+	private long getCacheCount(int type) {
+		long count = 0;
+		TinyLFUCache<?>[] caches = { this.listCache, this.setCache };
+		for (TinyLFUCache<?> cache : caches) {
+			if (cache == null)
+				continue;
+			if (type == 0)
+				count += cache.getHitCount();
+			else if (type == 1)
+				count += cache.getMissCount();
+			else
+				count += cache.getEvictionCount();
+		}
+		return count;
+	}
+	
+	/**
+	 * @return a cache key for the id, made of a 64-bit FNV-1a hash and
+	 * an independent 64-bit multiplicative hash of the id's characters
+	 */
+	public static CacheKey cacheKey(String id) {
+		long hash = FNV_OFFSET_BASIS;
+		long check = id.length();
+		for (int i = 0; i < id.length(); i++) {
+			hash ^= id.charAt(i);
+			hash *= FNV_PRIME;
+			check = (check + id.charAt(i)) * CHECK_MULTIPLIER;
+		}
+		return new CacheKey(hash, mix(check));
+	}
+	
+	/**
+	 * @return the 64-bit finalizer of MurmurHash3 applied to the value
+	 */
+	private static long mix(long value) {
+		value ^= value >>> 33;
+		value *= 0xFF51AFD7ED558CCDL;
+		value ^= value >>> 33;
+		value *= 0xC4CEB9FE1A85EC53L;
+		return value ^ (value >>> 33);
+	}
+	
 	public List<T> listCompute(S input, String id, CacheMode cacheMode) {
 		return listCompute(Collections.singletonList(input), id, cacheMode);
 	}
@@ -143,7 +266,87 @@ public abstract class Fn<S, T> extends CtxParsableFunction {
 		else
 			return setCompute(input);
 	}
+	
+	public List<T> listCompute(Collection<S> input, CacheKey key, CacheMode cacheMode) {
+		if (cacheMode == CacheMode.ON)
+			return listCachedCompute(input, key);
+		else
+			return listCompute(input);
+	}
 
+	public Set<T> setCompute(Collection<S> input, CacheKey key, CacheMode cacheMode) {
+		if (cacheMode == CacheMode.ON)
+			return setCachedCompute(input, key);
+		else
+			return setCompute(input);
+	}
+
+	/**
+	 * Deserializes the function like fromParse(modifiers, referenceName, obj),
+	 * resolving references (e.g. ${size}) in the cacheSize and cacheWeight 
+	 * parameters through the given context.  Without a context, these 
+	 * parameters must be literal values.  The function's own parameters 
+	 * are resolved by the function through its own context as usual.
+	 */
+	public boolean fromParse(Context context, List<String> modifiers, String referenceName, Obj obj) {
+		this.parseContext = context;
+		return fromParse(modifiers, referenceName, obj);
+	}
+	
+	@Override
+	public Obj toParse(boolean includeInternal) {
+		Obj.Function function = (Obj.Function)super.toParse(includeInternal);
+		if (this.cacheSize == DEFAULT_CACHE_SIZE && this.cacheWeight <= 0)
+			return function;
+		
+		AssignmentList parameters = function.getParameters();
+		if (this.cacheSize != DEFAULT_CACHE_SIZE)
+			parameters.add(Assignment.assignmentUntyped("cacheSize", Obj.stringValue(String.valueOf(this.cacheSize))));
+		if (this.cacheWeight > 0)
+			parameters.add(Assignment.assignmentUntyped("cacheWeight", Obj.stringValue(String.valueOf(this.cacheWeight))));
+		return function;
+	}
+	
+	@Override
+	protected boolean fromParseHelper(Obj obj) {
+		Obj.Function function = (Obj.Function)obj;
+		AssignmentList parameters = function.getParameters();
+		if (!parameters.hasNames() || (!parameters.contains("cacheSize") && !parameters.contains("cacheWeight")))
+			return super.fromParseHelper(obj);
+		
+		int cacheSize = this.cacheSize;
+		long cacheWeight = this.cacheWeight;
+		AssignmentList fnParameters = new AssignmentList();
+		for (int i = 0; i < parameters.size(); i++) {
+			Assignment parameter = parameters.get(i);
+			if (!parameter.getName().equals("cacheSize") && !parameter.getName().equals("cacheWeight")) {
+				fnParameters.add(parameter);
+				continue;
+			}
+			
+			String value = null;
+			if (this.parseContext != null)
+				value = this.parseContext.getMatchValue(parameter.getValue());
+			else if (parameter.getValue().getObjType() == Obj.Type.VALUE && ((Obj.Value)parameter.getValue()).getType() == Obj.Value.Type.STRING)
+				value = ((Obj.Value)parameter.getValue()).getStr();
+			if (value == null)
+				return false;
+			
+			try {
+				if (parameter.getName().equals("cacheSize"))
+					cacheSize = Integer.valueOf(value);
+				else
+					cacheWeight = Long.valueOf(value);
+			} catch (NumberFormatException e) {
+				return false;
+			}
+		}
+		
+		setCacheBudget(cacheSize, cacheWeight);
+		
+		return super.fromParseHelper(Obj.function(function.getName(), fnParameters, function.getInternalAssignments()));
+	}
+	
 	public List<T> listCompute(Collection<S> input) {
 		return this.compute(input, new ArrayList<T>());
 	}
@@ -1,7 +1,5 @@
 package edu.cmu.ml.rtw.generic.data.feature.meta;
 
-import java.util.Map;
-
 import edu.cmu.ml.rtw.generic.data.annotation.DataSet;
 import edu.cmu.ml.rtw.generic.data.annotation.Datum;
 import edu.cmu.ml.rtw.generic.data.annotation.Datum.Tools.LabelIndicator;
@@ -12,6 +10,7 @@ import edu.cmu.ml.rtw.generic.parse.Obj;
 import edu.cmu.ml.rtw.generic.task.classify.meta.PredictionClassificationDatum;
 import edu.cmu.ml.rtw.generic.util.BidirectionalLookupTable;
 import edu.cmu.ml.rtw.generic.util.CounterTable;
+import edu.cmu.ml.rtw.generic.util.SparseVectorBuilder;
 
 public class FeatureMetaClassificationAttribute<L> extends Feature<PredictionClassificationDatum<L>, L> {
 	public enum Attribute {
@@ -63,19 +62,19 @@ public class FeatureMetaClassificationAttribute<L> extends Feature<PredictionCla
 	}
 
 	@Override
-	public Map<Integer, Double> computeVector(PredictionClassificationDatum<L> datum, int offset, Map<Integer, Double> vector) {
+	public SparseVectorBuilder computeVector(PredictionClassificationDatum<L> datum, int offset, SparseVectorBuilder vector) {
 		if (this.attribute == Attribute.LABEL) {
 			if (!this.vocabulary.containsKey(datum.getPrediction().getLabel().toString()))
 				return vector;
-			vector.put(offset + this.vocabulary.get(datum.getPrediction().getLabel().toString()), 1.0);
+			vector.set(offset + this.vocabulary.get(datum.getPrediction().getLabel().toString()), 1.0);
 		} else if (this.attribute == Attribute.METHOD) {
 			if (!this.vocabulary.containsKey(datum.getPrediction().getMethod().getReferenceName()))
 				return vector;
-			vector.put(offset + this.vocabulary.get(datum.getPrediction().getMethod().getReferenceName()), 1.0);
+			vector.set(offset + this.vocabulary.get(datum.getPrediction().getMethod().getReferenceName()), 1.0);
 		} else if (this.attribute == Attribute.SCORE) {
-			vector.put(offset, datum.getPrediction().getScore());
+			vector.set(offset, datum.getPrediction().getScore());
 		} else if (this.attribute == Attribute.LOG_SCORE) {
-			vector.put(offset, datum.getPrediction().getScore() <= 0.0 ? 0.0 : Math.log(datum.getPrediction().getScore()));
+			vector.set(offset, datum.getPrediction().getScore() <= 0.0 ? 0.0 : Math.log(datum.getPrediction().getScore()));
 		}
 		
 		return vector;
@@ -1,7 +1,5 @@
 package edu.cmu.ml.rtw.generic.data.feature.meta;
 
-import java.util.Map;
-
 import edu.cmu.ml.rtw.generic.data.annotation.DataSet;
 import edu.cmu.ml.rtw.generic.data.annotation.Datum;
 import edu.cmu.ml.rtw.generic.data.annotation.Datum.Tools.LabelIndicator;
@@ -11,6 +9,7 @@ import edu.cmu.ml.rtw.generic.parse.Assignment.AssignmentTyped;
 import edu.cmu.ml.rtw.generic.parse.AssignmentList;
 import edu.cmu.ml.rtw.generic.parse.Obj;
 import edu.cmu.ml.rtw.generic.task.classify.meta.PredictionClassificationDatum;
+import edu.cmu.ml.rtw.generic.util.SparseVectorBuilder;
 
 public class FeatureMetaClassificationIdentity<L> extends Feature<PredictionClassificationDatum<L>, L> {
 	private Feature<?, L> feature;
@@ -44,7 +43,7 @@ public class FeatureMetaClassificationIdentity<L> extends Feature<PredictionClas
 	
 	@SuppressWarnings({ "unchecked", "rawtypes" })
 	@Override
-	public Map<Integer, Double> computeVector(PredictionClassificationDatum<L> datum, int offset, Map<Integer, Double> vector) {
+	public SparseVectorBuilder computeVector(PredictionClassificationDatum<L> datum, int offset, SparseVectorBuilder vector) {
 		return ((Feature)this.feature).computeVector((Datum)datum.getPrediction().getDatum(), offset, vector);
 	}
 
@@ -56,6 +56,18 @@ public class StorageFileSystem<S> implements Storage<StoredCollectionFileSystem<
 
 	@Override
 	public <I> StoredCollectionFileSystem<I, S> createCollection(String name, Serializer<I, S> serializer) {
+		return createCollection(name, serializer, false);
+	}
+	
+	/**
+	 * Creates a collection that stores its items in a single packed file 
+	 * rather than one file per item (see StoredCollectionFileSystem)
+	 */
+	public <I> StoredCollectionFileSystem<I, S> createPackedCollection(String name, Serializer<I, S> serializer) {
+		return createCollection(name, serializer, true);
+	}
+	
+	private <I> StoredCollectionFileSystem<I, S> createCollection(String name, Serializer<I, S> serializer, boolean packed) {
 		if (hasCollection(name))
 			return null;
 		
@@ -64,11 +76,15 @@ public class StorageFileSystem<S> implements Storage<StoredCollectionFileSystem<
 			return null;
 		
 		try {
+			if (packed)
+				new File(collectionDirectory, StoredCollectionFileSystem.PACK_INDEX_FILE).createNewFile();
+			
 			BufferedWriter w = new BufferedWriter(new FileWriter(new File(this.rootDirectory, META_COLLECTION), true));
 			w.write((new Document()).append("collection", name).append("serializer", serializer.getName()).toJson());
 			w.newLine();
 			w.close();
 		} catch (IOException e) {
+			new File(collectionDirectory, StoredCollectionFileSystem.PACK_INDEX_FILE).delete();
 			collectionDirectory.delete();
 			return null;
 		}
@@ -2,37 +2,228 @@ package edu.cmu.ml.rtw.generic.data.store;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
 import java.util.Random;
 import java.util.Set;
 import java.util.TreeMap;
-
-import com.google.common.base.Function;
-import com.google.common.base.Predicate;
-import com.google.common.io.Files;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import edu.cmu.ml.rtw.generic.data.Serializer;
 import edu.cmu.ml.rtw.generic.util.FileUtil;
+import edu.cmu.ml.rtw.generic.util.ThreadMapper;
 
-public class StoredCollectionFileSystem<I, S> extends StoredCollection<I, S> {
+/**
+ * StoredCollectionFileSystem stores items in a directory on the file system.
+ *
+ * By default, each item is stored in its own file at a path given by the
+ * values of the serializer's indices (e.g. directory/index1Value/index2Value).
+ *
+ * Alternatively, a collection can be 'packed', in which case the items
+ * are appended to a single file in the collection directory, and an
+ * index file maps their index value paths to their positions in the
+ * packed file.  This avoids walking a large directory tree and
+ * opening a file for every item when a collection contains many small
+ * items.  Packed collections are created through
+ * StorageFileSystem.createPackedCollection, and are recognized by the
+ * presence of the index file.
+ *
+ * Iteration reads and deserializes items on parallel threads ahead of
+ * the consumer, and the bulk methods (getItemsByIndices and addItems)
+ * read and write items in parallel.  These run on the ThreadMapper pool,
+ * and the file I/O on it goes through ForkJoinPool.managedBlock, so 
+ * the pool can start spare threads rather than leaving CPU work waiting
+ * on blocked reads and writes.
+ *
+ * Items and the pack index are read and written in UTF-8 in both kinds of
+ * collections, and items are read with their line breaks normalized
+ * (see FileUtil.normalizeLines).  A packed collection keeps the packed
+ * file open once it has been used, until close is called.
+ *
+ * @author Bill McDowell
+ *
+ * @param <I> item type
+ * @param <S> serialized item type
+ */
+public class StoredCollectionFileSystem<I, S> extends StoredCollection<I, S> implements Closeable {
+	public static final String PACK_FILE = ".pack";
+	public static final String PACK_INDEX_FILE = ".pack.index";
+	private static final int READ_AHEAD = 64;
+	private static final Charset CHARSET = StandardCharsets.UTF_8;
+	
 	private File directory;
 	private StorageFileSystem<S> storage;
 	
 	private Serializer<I, S> serializer;
 	
+	private Map<String, long[]> packIndex; // Map from index value paths to positions and lengths in the packed file
+	private FileChannel packChannel;
+	
+	/**
+	 * IOBlocker runs a file system operation as a ForkJoinPool.ManagedBlocker
+	 */
+	private static class IOBlocker<T> implements ForkJoinPool.ManagedBlocker {
+		private Callable<T> io;
+		private T result;
+		private boolean done;
+		
+		public IOBlocker(Callable<T> io) {
+			this.io = io;
+		}
+		
+		@Override
+		public boolean block() {
+			try {
+				this.result = this.io.call();
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+			this.done = true;
+			return true;
+		}
+		
+		@Override
+		public boolean isReleasable() {
+			return this.done;
+		}
+	}
+	
+	/**
+	 * PrefetchingIterator reads and deserializes the items at
+	 * locations given by an iterator of files or packed index value
+	 * paths.  Up to READ_AHEAD items are read in parallel ahead
+	 * of the consumer, and items are returned in the order of their
+	 * locations.
+	 */
+	private class PrefetchingIterator implements Iterator<I> {
+		private Iterator<?> locations;
+		private Deque<ForkJoinTask<I>> readAhead;
+		
+		public PrefetchingIterator(Iterator<?> locations) {
+			this.locations = locations;
+			this.readAhead = new ArrayDeque<ForkJoinTask<I>>();
+			fill();
+		}
+		
+		@Override
+		public boolean hasNext() {
+			return !this.readAhead.isEmpty();
+		}
+		
+		@Override
+		public I next() {
+			if (this.readAhead.isEmpty())
+				throw new NoSuchElementException();
+			
+			I item = this.readAhead.poll().join();
+			fill();
+			return item;
+		}
+		
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+		
+		private void fill() {
+			while (this.readAhead.size() < READ_AHEAD && this.locations.hasNext()) {
+				final Object location = this.locations.next();
+				this.readAhead.add(ThreadMapper.getPool().submit(new Callable<I>() {
+					@Override
+					public I call() {
+						return readItem(location);
+					}
+				}));
+			}
+		}
+	}
+	
+	/**
+	 * FileIterator walks the files in a directory tree in pre-order,
+	 * listing each directory only when it is reached.
+	 */
+	private static class FileIterator implements Iterator<File> {
+		private Deque<Iterator<File>> directories;
+		private File next;
+		
+		public FileIterator(File directory) {
+			this.directories = new ArrayDeque<Iterator<File>>();
+			File[] files = directory.listFiles();
+			if (files != null)
+				this.directories.push(Arrays.asList(files).iterator());
+			advance();
+		}
+		
+		@Override
+		public boolean hasNext() {
+			return this.next != null;
+		}
+		
+		@Override
+		public File next() {
+			if (this.next == null)
+				throw new NoSuchElementException();
+			File file = this.next;
+			advance();
+			return file;
+		}
+		
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+		
+		private void advance() {
+			this.next = null;
+			while (!this.directories.isEmpty()) {
+				Iterator<File> files = this.directories.peek();
+				if (!files.hasNext()) {
+					this.directories.pop();
+					continue;
+				}
+				
+				File file = files.next();
+				if (file.isDirectory()) {
+					File[] children = file.listFiles();
+					if (children != null)
+						this.directories.push(Arrays.asList(children).iterator());
+				} else if (file.isFile()) {
+					this.next = file;
+					return;
+				}
+			}
+		}
+	}
+	
 	public StoredCollectionFileSystem(String name, File directory, StorageFileSystem<S> storage) {
 		super(name);
 		this.directory = directory;
 		this.storage = storage;
 	}
-
+	
 	public StoredCollectionFileSystem(String name, File directory, Serializer<I,S> serializer) {
 		super(name);
 		this.directory = directory;
@@ -46,28 +237,30 @@ public class StoredCollectionFileSystem<I, S> extends StoredCollection<I, S> {
 		this.serializer = serializer;
 	}
 	
+	public boolean isPacked() {
+		return new File(this.directory, PACK_INDEX_FILE).exists();
+	}
+	
 	@Override
 	public Iterator<I> iterator() {
-		return Files.fileTreeTraverser()
-				.preOrderTraversal(this.directory)
-				.filter(new Predicate<File>() { public boolean apply(File file) { return file.isFile(); }})
-				.transform(
-					new Function<File, I>() {
-						@Override
-						public I apply(File file) {
-							return getSerializer().deserializeFromString(FileUtil.readFile(file), getStoreReference(file));
-						}
-					}
-				).iterator();
+		if (isPacked()) {
+			List<String> paths = null;
+			synchronized (this) {
+				paths = new ArrayList<String>(getPackIndex().keySet());
+			}
+			return new PrefetchingIterator(paths.iterator());
+		} else {
+			return new PrefetchingIterator(new FileIterator(this.directory));
+		}
 	}
-
+	
 	@Override
 	public Serializer<I, S> getSerializer() {
 		if (this.serializer == null)
 			this.serializer = this.storage.getCollectionSerializer(this.name);
 		return this.serializer;
 	}
-
+	
 	@Override
 	public Set<String> getIndex(String indexField, int limit, Random r) {
 		int indexNum = getIndexNumber(indexField);
@@ -75,6 +268,9 @@ public class StoredCollectionFileSystem<I, S> extends StoredCollection<I, S> {
 		if (indexNum < 0)
 			return null;
 		
+		if (isPacked())
+			return getPackedIndex(indexNum, limit, r);
+		
 		return getIndex(this.directory, 0, indexNum, new HashSet<String>(), limit, r);
 	}
 	
@@ -101,10 +297,25 @@ public class StoredCollectionFileSystem<I, S> extends StoredCollection<I, S> {
 				}
 			}
 		}
-
+		
 		return values;
 	}
-
+	
+	private Set<String> getPackedIndex(int indexNum, int limit, Random r) {
+		Set<String> allValues = new HashSet<String>();
+		synchronized (this) {
+			for (String path : getPackIndex().keySet())
+				allValues.add(path.split("/")[indexNum]);
+		}
+		
+		if (limit <= 0 || allValues.size() <= limit)
+			return allValues;
+		
+		List<String> shuffledValues = new ArrayList<String>(allValues);
+		Collections.shuffle(shuffledValues, r);
+		return new HashSet<String>(shuffledValues.subList(0, limit));
+	}
+	
 	@Override
 	public List<I> getItemsByIndex(String indexField, Object indexValue) {
 		List<String> indexFields = new ArrayList<String>();
@@ -113,44 +324,23 @@ public class StoredCollectionFileSystem<I, S> extends StoredCollection<I, S> {
 		indexValues.add(indexValue);
 		return getItemsByIndices(indexFields, indexValues);
 	}
-
+	
 	@Override
 	public List<I> getItemsByIndices(List<String> indexFields, List<Object> indexValues) {
-		if (indexFields.size() != indexValues.size())
+		List<Object> locations = getLocationsByIndices(indexFields, indexValues);
+		if (locations == null)
 			return null;
 		
-		TreeMap<Integer, String> constrainedIndices = new TreeMap<Integer, String>();
-		for (int i = 0; i < indexFields.size(); i++) {
-			constrainedIndices.put(getIndexNumber(indexFields.get(i)), transformIndexValue(indexValues.get(i)));
-		}
-	
-		return getItemsByIndices(this.directory, 0, constrainedIndices, new ArrayList<I>());
-	}
-	
-	private List<I> getItemsByIndices(File curIndexDir, int curIndexNum, TreeMap<Integer, String> constrainedIndices, List<I> items) {
-		File[] constrainedIndex = null;
-		if (constrainedIndices.containsKey(curIndexNum)) {
-			File constrainedIndexFile = new File(curIndexDir.getAbsolutePath(), constrainedIndices.get(curIndexNum));
-			if (!constrainedIndexFile.exists())
-				return items;
-			else 
-				constrainedIndex = new File[] { constrainedIndexFile };
-		} else {
-			constrainedIndex = curIndexDir.listFiles();
-		}
-		
-		Serializer<I, S> serializer = getSerializer(); 
-		for (File file : constrainedIndex) {
-			if (file.isDirectory()) {
-				getItemsByIndices(file, curIndexNum + 1, constrainedIndices, items);
-			} else if (file.isFile() && (constrainedIndices.size() == 0 || curIndexNum >= constrainedIndices.lastKey())) {
-				items.add(serializer.deserializeFromString(FileUtil.readFile(file), getStoreReference(file)));
+		ThreadMapper<Object, I> threads = new ThreadMapper<Object, I>(new ThreadMapper.Fn<Object, I>() {
+			@Override
+			public I apply(Object location) {
+				return readItem(location);
 			}
-		}
+		});
 		
-		return items;
+		return threads.run(locations, ThreadMapper.getPool().getParallelism());
 	}
-
+	
 	@Override
 	public List<BufferedReader> getReadersByIndex(String indexField,
 			Object indexValue) {
@@ -160,10 +350,30 @@ public class StoredCollectionFileSystem<I, S> extends StoredCollection<I, S> {
 		indexValues.add(indexValue);
 		return getReadersByIndices(indexFields, indexValues);
 	}
-
+	
 	@Override
 	public List<BufferedReader> getReadersByIndices(List<String> indexFields,
 			List<Object> indexValues) {
+		List<Object> locations = getLocationsByIndices(indexFields, indexValues);
+		if (locations == null)
+			return null;
+		
+		List<BufferedReader> readers = new ArrayList<BufferedReader>();
+		for (Object location : locations) {
+			if (location instanceof File)
+				readers.add(FileUtil.getFileReader(((File)location).getAbsolutePath(), CHARSET.name()));
+			else
+				readers.add(new BufferedReader(new StringReader(readPacked((String)location))));
+		}
+		
+		return readers;
+	}
+	
+	/**
+	 * @return the locations (files, or index value paths if the collection is
+	 * packed) of the items with the given index values
+	 */
+	private List<Object> getLocationsByIndices(List<String> indexFields, List<Object> indexValues) {
 		if (indexFields.size() != indexValues.size())
 			return null;
 		
@@ -171,17 +381,39 @@ public class StoredCollectionFileSystem<I, S> extends StoredCollection<I, S> {
 		for (int i = 0; i < indexFields.size(); i++) {
 			constrainedIndices.put(getIndexNumber(indexFields.get(i)), transformIndexValue(indexValues.get(i)));
 		}
-	
-		return getReadersByIndices(this.directory, 0, constrainedIndices, new ArrayList<BufferedReader>());
+		
+		if (!isPacked())
+			return getLocationsByIndices(this.directory, 0, constrainedIndices, new ArrayList<Object>());
+		
+		List<Object> locations = new ArrayList<Object>();
+		synchronized (this) {
+			for (String path : getPackIndex().keySet()) {
+				String[] pathValues = path.split("/");
+				boolean matches = true;
+				for (Entry<Integer, String> constrainedIndex : constrainedIndices.entrySet()) {
+					if (constrainedIndex.getKey() < 0
+							|| constrainedIndex.getKey() >= pathValues.length
+							|| !pathValues[constrainedIndex.getKey()].equals(constrainedIndex.getValue())) {
+						matches = false;
+						break;
+					}
+				}
+				
+				if (matches)
+					locations.add(path);
+			}
+		}
+		
+		return locations;
 	}
 	
-	private List<BufferedReader> getReadersByIndices(File curIndexDir, int curIndexNum, TreeMap<Integer, String> constrainedIndices, List<BufferedReader> readers) {
+	private List<Object> getLocationsByIndices(File curIndexDir, int curIndexNum, TreeMap<Integer, String> constrainedIndices, List<Object> locations) {
 		File[] constrainedIndex = null;
 		if (constrainedIndices.containsKey(curIndexNum)) {
 			File constrainedIndexFile = new File(curIndexDir.getAbsolutePath(), constrainedIndices.get(curIndexNum));
 			if (!constrainedIndexFile.exists())
-				return readers;
-			else 
+				return locations;
+			else
 				constrainedIndex = new File[] { constrainedIndexFile };
 		} else {
 			constrainedIndex = curIndexDir.listFiles();
@@ -189,13 +421,13 @@ public class StoredCollectionFileSystem<I, S> extends StoredCollection<I, S> {
 		
 		for (File file : constrainedIndex) {
 			if (file.isDirectory()) {
-				getReadersByIndices(file, curIndexNum + 1, constrainedIndices, readers);
+				getLocationsByIndices(file, curIndexNum + 1, constrainedIndices, locations);
 			} else if (file.isFile() && (constrainedIndices.size() == 0 || curIndexNum >= constrainedIndices.lastKey())) {
-				readers.add(FileUtil.getFileReader(file.getAbsolutePath()));
+				locations.add(file);
 			}
 		}
 		
-		return readers;
+		return locations;
 	}
 	
 	@Override
@@ -203,18 +435,36 @@ public class StoredCollectionFileSystem<I, S> extends StoredCollection<I, S> {
 		Serializer<I, S> serializer = getSerializer();
 		List<Serializer.Index<I>> indices = serializer.getIndices();
 		
-		StringBuilder path = new StringBuilder();
+		StringBuilder pathBuilder = new StringBuilder();
 		for (Serializer.Index<I> index : indices) {
-			path.append(transformIndexValue(index.getValue(item))).append("/");
+			pathBuilder.append(transformIndexValue(index.getValue(item))).append("/");
 		}
 		
-		path = path.delete(path.length() - 1, path.length());
+		final String path = pathBuilder.delete(pathBuilder.length() - 1, pathBuilder.length()).toString();
+		final String str = serializer.serializeToString(item);
 		
-		File file = new File(this.directory.getAbsolutePath(), path.toString());
+		Boolean added = runBlocking(new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				if (isPacked())
+					return appendPacked(path, str);
+				else
+					return writeFile(path, str);
+			}
+		});
+		
+		return added != null && added;
+	}
+	
+	private boolean writeFile(String path, String str) {
+		File file = new File(this.directory.getAbsolutePath(), path);
+		File parent = file.getParentFile();
+		if (!parent.exists() && !parent.mkdirs() && !parent.exists())
+			return false;
 		
 		try {
-			BufferedWriter w = new BufferedWriter(new FileWriter(file));
-			w.write(serializer.serializeToString(item));
+			BufferedWriter w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), CHARSET));
+			w.write(str);
 			w.close();
 		} catch (IOException e) {
 			e.printStackTrace();
@@ -223,12 +473,172 @@ public class StoredCollectionFileSystem<I, S> extends StoredCollection<I, S> {
 		
 		return true;
 	}
-
+	
+	/**
+	 * Serializes and writes the items on parallel threads.  In a packed
+	 * collection, the items are serialized in parallel, and then appended
+	 * to the packed file one at a time.
+	 */
 	@Override
 	public boolean addItems(List<I> items) {
-		for (I item : items) {
-			if (!addItem(item))
+		ThreadMapper<I, Boolean> threads = new ThreadMapper<I, Boolean>(new ThreadMapper.Fn<I, Boolean>() {
+			@Override
+			public Boolean apply(I item) {
+				return addItem(item);
+			}
+		});
+		
+		for (Boolean result : threads.run(items, ThreadMapper.getPool().getParallelism()))
+			if (!result)
 				return false;
+		
+		return true;
+	}
+	
+	private I readItem(final Object location) {
+		String str = runBlocking(new Callable<String>() {
+			@Override
+			public String call() {
+				if (location instanceof File)
+					return FileUtil.readLocalFile((File)location, CHARSET);
+				else
+					return readPacked((String)location);
+			}
+		});
+		
+		if (location instanceof File)
+			return getSerializer().deserializeFromString(str, getStoreReference((File)location));
+		else
+			return getSerializer().deserializeFromString(str, getStoreReference((String)location));
+	}
+	
+	/**
+	 * Runs blocking file system I/O through ForkJoinPool.managedBlock, so
+	 * that when it runs on a ThreadMapper pool thread, the pool can start
+	 * a spare thread for other work while the I/O waits.  Outside of a 
+	 * pool, the I/O just runs on the current thread.
+	 * 
+	 * @return the result of the I/O, or null if it failed or the thread
+	 * was interrupted
+	 */
+	private static <T> T runBlocking(Callable<T> io) {
+		IOBlocker<T> blocker = new IOBlocker<T>(io);
+		try {
+			ForkJoinPool.managedBlock(blocker);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+		return blocker.result;
+	}
+	
+	/**
+	 * Closes the packed file, which is otherwise kept open once items
+	 * have been read from or added to a packed collection.  The collection
+	 * can still be used afterward, and reopens the file when it needs it.
+	 * This should not be called while other threads are reading from or
+	 * adding to the collection.
+	 */
+	@Override
+	public synchronized void close() {
+		if (this.packChannel == null)
+			return;
+		
+		try {
+			this.packChannel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		
+		this.packChannel = null;
+	}
+	
+	private synchronized Map<String, long[]> getPackIndex() {
+		if (this.packIndex != null)
+			return this.packIndex;
+		
+		// Later entries for a path replace earlier ones
+		this.packIndex = new LinkedHashMap<String, long[]>();
+		BufferedReader r = FileUtil.getFileReader(new File(this.directory, PACK_INDEX_FILE).getAbsolutePath(), CHARSET.name());
+		if (r == null)
+			return this.packIndex;
+		
+		try {
+			String line = null;
+			while ((line = r.readLine()) != null) {
+				String[] lineParts = line.split("\t", 3);
+				if (lineParts.length < 3)
+					continue;
+				this.packIndex.put(lineParts[2], new long[] { Long.valueOf(lineParts[0]), Long.valueOf(lineParts[1]) });
+			}
+			r.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		
+		return this.packIndex;
+	}
+	
+	private synchronized FileChannel getPackChannel() throws IOException {
+		if (this.packChannel == null)
+			this.packChannel = new RandomAccessFile(new File(this.directory, PACK_FILE), "rw").getChannel();
+		return this.packChannel;
+	}
+	
+	private String readPacked(String path) {
+		long[] position = null;
+		synchronized (this) {
+			position = getPackIndex().get(path);
+		}
+		
+		if (position == null)
+			return null;
+		
+		try {
+			// Positional reads leave the channel's position alone, so they
+			// can run on several threads at once
+			ByteBuffer buffer = ByteBuffer.allocate((int)position[1]);
+			FileChannel channel = getPackChannel();
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer, position[0] + buffer.position()) < 0)
+					return null;
+			}
+			
+			return FileUtil.normalizeLines(new String(buffer.array(), CHARSET));
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+	
+	/**
+	 * Appends an item to the packed file, and then its entry to the index
+	 * file, which is opened and closed for each entry so that no writer is
+	 * left open, and so that every entry is flushed before the item is 
+	 * visible through the in-memory index
+	 */
+	private synchronized boolean appendPacked(String path, String str) {
+		byte[] bytes = str.getBytes(CHARSET);
+		
+		try {
+			FileChannel channel = getPackChannel();
+			long position = channel.size();
+			ByteBuffer buffer = ByteBuffer.wrap(bytes);
+			while (buffer.hasRemaining())
+				channel.write(buffer, position + buffer.position());
+			
+			BufferedWriter indexWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(this.directory, PACK_INDEX_FILE), true), CHARSET));
+			try {
+				indexWriter.write(position + "\t" + bytes.length + "\t" + path);
+				indexWriter.newLine();
+			} finally {
+				indexWriter.close();
+			}
+			
+			getPackIndex().put(path, new long[] { position, bytes.length });
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
 		}
 		
 		return true;
@@ -248,11 +658,15 @@ public class StoredCollectionFileSystem<I, S> extends StoredCollection<I, S> {
 	}
 	
 	private StoreReference getStoreReference(File file) {
-		List<String> fields = new ArrayList<String>();
-		List<Object> values = new ArrayList<Object>();
 		String indicesStr = file.getAbsolutePath().substring(this.directory.getAbsolutePath().length());
 		if (indicesStr.startsWith("/"))
 			indicesStr = indicesStr.substring(1);
+		return getStoreReference(indicesStr);
+	}
+	
+	private StoreReference getStoreReference(String indicesStr) {
+		List<String> fields = new ArrayList<String>();
+		List<Object> values = new ArrayList<Object>();
 		
 		String[] indexValues = indicesStr.split("/");
 		for (int i = 0; i < indexValues.length; i++) {
@@ -266,7 +680,7 @@ public class StoredCollectionFileSystem<I, S> extends StoredCollection<I, S> {
 			return new StoreReference(this.storage.getName(), this.name, fields, values);
 		}
 	}
-
+	
 	@Override
 	public Storage<?, S> getStorage() {
 		return this.storage;
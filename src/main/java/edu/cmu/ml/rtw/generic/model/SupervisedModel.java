@@ -8,6 +8,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
+
 import edu.cmu.ml.rtw.generic.data.Context;
 import edu.cmu.ml.rtw.generic.data.annotation.Datum;
 import edu.cmu.ml.rtw.generic.data.annotation.Datum.Tools.LabelIndicator;
@@ -19,18 +20,78 @@ import edu.cmu.ml.rtw.generic.parse.Assignment;
 import edu.cmu.ml.rtw.generic.parse.AssignmentList;
 import edu.cmu.ml.rtw.generic.parse.CtxParsableFunction;
 import edu.cmu.ml.rtw.generic.parse.Obj;
+import edu.cmu.ml.rtw.generic.util.SparseVectorBuilder;
+import edu.cmu.ml.rtw.generic.util.ThreadMapper;
 
 /**
  * SupervisedModel represents a supervised classification model
  * that can be trained and evaluated using a 
  * edu.cmu.ml.rtw.generic.data.feature.DataFeatureMatrix.
  * 
+ * Models can also support scoring a single datum from its
+ * feature vector through getVectorLabels, posteriorVector,
+ * and classifyVector.  These compute scores into arrays
+ * given by the caller, without constructing a data set,
+ * feature matrix, or any maps, so that they can be used
+ * for low latency online classification.  Models that
+ * support this can compute posteriors and classifications
+ * for whole feature matrices in parallel through 
+ * posteriorVectors and classifyVectors.
+ * 
  * @author Bill McDowell
  *
  * @param <D> datum type
  * @param <L> datum label type
  */
 public abstract class SupervisedModel<D extends Datum<L>, L> extends CtxParsableFunction {
+	/**
+	 * VectorScores holds the posteriors computed by posteriorVectors
+	 * for the datums of a feature matrix in a single primitive array,
+	 * indexed by the position of each datum in the data set and then by
+	 * the label's index in getVectorLabels.  The scores are only wrapped 
+	 * into maps by toPosteriorMap.
+	 */
+	public static class VectorScores<D extends Datum<L>, L> {
+		private List<D> datums;
+		private List<L> labels;
+		private double[] posteriors;
+		
+		public VectorScores(List<D> datums, List<L> labels, double[] posteriors) {
+			this.datums = datums;
+			this.labels = labels;
+			this.posteriors = posteriors;
+		}
+		
+		public int size() {
+			return this.datums.size();
+		}
+		
+		public D getDatum(int datumIndex) {
+			return this.datums.get(datumIndex);
+		}
+		
+		public List<L> getLabels() {
+			return this.labels;
+		}
+		
+		public double getPosterior(int datumIndex, int labelIndex) {
+			return this.posteriors[datumIndex*this.labels.size() + labelIndex];
+		}
+		
+		public Map<D, Map<L, Double>> toPosteriorMap() {
+			Map<D, Map<L, Double>> posteriors = new HashMap<D, Map<L, Double>>(this.datums.size());
+			for (int i = 0; i < this.datums.size(); i++) {
+				Map<L, Double> posterior = new HashMap<L, Double>(this.labels.size());
+				for (int j = 0; j < this.labels.size(); j++)
+					posterior.put(this.labels.get(j), getPosterior(i, j));
+				posteriors.put(this.datums.get(i), posterior);
+			}
+			return posteriors;
+		}
+	}
+	
+	private static final int VECTOR_BLOCK_SIZE = 256; // Datums scored by a thread at a time
+	
 	protected DatumContext<D, L> context;
 	
 	protected Set<L> validLabels; // Labels that this model can assign
@@ -128,6 +189,171 @@ public abstract class SupervisedModel<D extends Datum<L>, L> extends CtxParsable
 		return classifiedData;
 	}
 	
+	/**
+	 * @return the labels that posteriorVector and classifyVector
+	 * give scores for, where the i-th score is for the i-th label,
+	 * or null if the model can't classify single feature vectors
+	 */
+	public List<L> getVectorLabels() {
+		return null;
+	}
+	
+	/**
+	 * Computes the posterior over getVectorLabels for a single 
+	 * datum.  This should be safe to call from multiple threads 
+	 * at once on a trained model.
+	 * 
+	 * @param featureValues compacted feature vector for the datum
+	 * @param posterior array of length at least getVectorLabels().size()
+	 * into which the posterior is written
+	 * @return true if the posterior was computed, or false if the model
+	 * doesn't support it
+	 */
+	public boolean posteriorVector(SparseVectorBuilder featureValues, double[] posterior) {
+		return false;
+	}
+	
+	/**
+	 * @param featureValues compacted feature vector for a datum
+	 * @param scores scratch array of length at least getVectorLabels().size()
+	 * @return the index into getVectorLabels of the label assigned to the
+	 * datum, or -1 if the model doesn't support classifying single vectors
+	 */
+	public int classifyVector(SparseVectorBuilder featureValues, double[] scores) {
+		if (!posteriorVector(featureValues, scores))
+			return -1;
+		return argMaxIndex(scores, getVectorLabels().size());
+	}
+	
+	/**
+	 * @return the label that the model should assign to the datum
+	 * regardless of its training, or null if there isn't one
+	 */
+	public L getFixedDatumLabel(D datum) {
+		return (this.fixedDatumLabels == null) ? null : this.fixedDatumLabels.get(datum);
+	}
+	
+	/**
+	 * Computes the posteriors of all datums in a feature matrix through
+	 * posteriorVector on up to the context's maximum number of threads
+	 * 
+	 * @return the posteriors, or null if the model doesn't support 
+	 * posteriorVector
+	 */
+	public VectorScores<D, L> posteriorVectors(DataFeatureMatrix<D, L> data) {
+		List<L> labels = getVectorLabels();
+		if (labels == null)
+			return null;
+		
+		List<D> datums = new ArrayList<D>(data.getData());
+		final int labelCount = labels.size();
+		final double[] posteriors = new double[datums.size()*labelCount];
+		boolean success = scoreVectors(data, datums, labelCount, new VectorScorer() {
+			@Override
+			public boolean score(int datumIndex, SparseVectorBuilder featureValues, double[] scores) {
+				if (!posteriorVector(featureValues, scores))
+					return false;
+				System.arraycopy(scores, 0, posteriors, datumIndex*labelCount, labelCount);
+				return true;
+			}
+		});
+		
+		return (success) ? new VectorScores<D, L>(datums, labels, posteriors) : null;
+	}
+	
+	/**
+	 * Classifies all datums in a feature matrix through classifyVector on 
+	 * up to the context's maximum number of threads.  Datums with fixed 
+	 * labels are given those labels.
+	 * 
+	 * @return the classifications, or null if the model doesn't support 
+	 * classifyVector
+	 */
+	public Map<D, L> classifyVectors(DataFeatureMatrix<D, L> data) {
+		List<L> labels = getVectorLabels();
+		if (labels == null)
+			return null;
+		
+		List<D> datums = new ArrayList<D>(data.getData());
+		final int[] labelIndices = new int[datums.size()];
+		boolean success = scoreVectors(data, datums, labels.size(), new VectorScorer() {
+			@Override
+			public boolean score(int datumIndex, SparseVectorBuilder featureValues, double[] scores) {
+				labelIndices[datumIndex] = classifyVector(featureValues, scores);
+				return labelIndices[datumIndex] >= 0;
+			}
+		});
+		
+		if (!success)
+			return null;
+		
+		Map<D, L> classifiedData = new HashMap<D, L>(datums.size());
+		for (int i = 0; i < labelIndices.length; i++) {
+			D datum = datums.get(i);
+			L fixedLabel = getFixedDatumLabel(datum);
+			classifiedData.put(datum, (fixedLabel != null) ? fixedLabel : labels.get(labelIndices[i]));
+		}
+		
+		return classifiedData;
+	}
+	
+	private interface VectorScorer {
+		boolean score(int datumIndex, SparseVectorBuilder featureValues, double[] scores);
+	}
+	
+	/**
+	 * Applies the scorer to the feature vector of each datum.  The datums
+	 * are split into blocks that threads claim one at a time, and each 
+	 * thread reuses a single score array and feature vector builder for 
+	 * all the datums in a block.
+	 * 
+	 * @return true if the scorer succeeded on every datum
+	 */
+	private boolean scoreVectors(final DataFeatureMatrix<D, L> data, final List<D> datums, final int labelCount, final VectorScorer scorer) {
+		List<Integer> blockStarts = new ArrayList<Integer>();
+		for (int i = 0; i < datums.size(); i += VECTOR_BLOCK_SIZE)
+			blockStarts.add(i);
+		
+		ThreadMapper<Integer, Boolean> mapper = new ThreadMapper<Integer, Boolean>(new ThreadMapper.Fn<Integer, Boolean>() {
+			@Override
+			public Boolean apply(Integer blockStart) {
+				double[] scores = new double[labelCount];
+				int blockEnd = Math.min(blockStart + VECTOR_BLOCK_SIZE, datums.size());
+				SparseVectorBuilder featureValues = SparseVectorBuilder.acquire();
+				try {
+					for (int i = blockStart; i < blockEnd; i++) {
+						if (data.computeFeatureVocabularyValues(datums.get(i), featureValues.clear()) == null)
+							return false;
+						if (!scorer.score(i, featureValues, scores))
+							return false;
+					}
+				} finally {
+					featureValues.release();
+				}
+				
+				return true;
+			}
+		});
+		
+		List<Boolean> results = mapper.run(blockStarts, this.context.getMaxThreads());
+		for (Boolean result : results)
+			if (!result)
+				return false;
+		return true;
+	}
+	
+	protected static int argMaxIndex(double[] scores, int size) {
+		int argMax = -1;
+		double max = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < size; i++) {
+			if (scores[i] > max) {
+				max = scores[i];
+				argMax = i;
+			}
+		}
+		return argMax;
+	}
+	
 	//
 	
 	public SupervisedModel<D, L> clone() {
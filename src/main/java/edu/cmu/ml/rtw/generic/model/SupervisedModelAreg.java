@@ -3,6 +3,7 @@ package edu.cmu.ml.rtw.generic.model;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -31,6 +32,7 @@ import edu.cmu.ml.rtw.generic.parse.Obj;
 import edu.cmu.ml.rtw.generic.util.OutputWriter;
 import edu.cmu.ml.rtw.generic.util.Pair;
 import edu.cmu.ml.rtw.generic.util.PlataniosUtil;
+import edu.cmu.ml.rtw.generic.util.SparseVectorBuilder;
 
 /**
  * SupervisedModelAreg is a wrapper around Platanios'
@@ -84,6 +86,8 @@ public class SupervisedModelAreg<D extends Datum<L>, L> extends SupervisedModel<
 	private boolean computeTestEvaluations = true;
 	private String[] hyperParameterNames = { "l1", "l2", "convergenceEpsilon", "maxEvaluationConstantIterations", "maxTrainingExamples", "batchSize", "evaluationIterations", "weightedLabels", "classificationThreshold", "computeTestEvaluations" };
 	
+	private static final List<Boolean> VECTOR_LABELS = Arrays.asList(true, false);
+	
 	private LogisticRegressionAdaGrad classifier;
 	private Vector classifierWeights;
 	
@@ -304,6 +308,57 @@ public class SupervisedModelAreg<D extends Datum<L>, L> extends SupervisedModel<
 		return posteriors;
 	}
 	
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<L> getVectorLabels() {
+		if (this.validLabels == null || this.validLabels.size() > 2 || !this.validLabels.contains(true))
+			return null;
+		return (List<L>)VECTOR_LABELS;
+	}
+	
+	@Override
+	public boolean posteriorVector(SparseVectorBuilder featureValues, double[] posterior) {
+		double p = positiveProbability(featureValues);
+		if (Double.isNaN(p))
+			return false;
+		
+		// Offset by the classification threshold as in posterior
+		p = p*(1.0-this.classificationThreshold)/(this.classificationThreshold*(1.0-p)+p*(1.0-this.classificationThreshold));
+		posterior[0] = p;
+		posterior[1] = 1.0-p;
+		return true;
+	}
+	
+	@Override
+	public int classifyVector(SparseVectorBuilder featureValues, double[] scores) {
+		double p = positiveProbability(featureValues);
+		if (Double.isNaN(p))
+			return -1;
+		return (p >= this.classificationThreshold) ? 0 : 1;
+	}
+	
+	/**
+	 * @return the probability that the model gives to the positive label
+	 * for a feature vector, or NaN if the model hasn't been trained.  The 
+	 * bias weight is stored after the feature weights.
+	 */
+	private double positiveProbability(SparseVectorBuilder featureValues) {
+		Vector weights = this.classifierWeights;
+		if (weights == null || getVectorLabels() == null)
+			return Double.NaN;
+		
+		int biasIndex = weights.size() - 1;
+		double z = 0;
+		for (int i = 0; i < featureValues.size(); i++) {
+			int index = featureValues.getIndex(i);
+			if (index < biasIndex)
+				z += weights.get(index)*featureValues.getValue(i);
+		}
+		z += weights.get(biasIndex);
+		
+		return 1.0/(1.0 + Math.exp(-z));
+	}
+	
 	@SuppressWarnings("unchecked")
 	@Override
 	public Map<D, L> classify(DataFeatureMatrix<D, L> data) {
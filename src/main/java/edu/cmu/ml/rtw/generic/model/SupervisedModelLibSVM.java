@@ -1,6 +1,10 @@
 package edu.cmu.ml.rtw.generic.model;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -22,8 +26,29 @@ import edu.cmu.ml.rtw.generic.model.evaluation.metric.SupervisedModelEvaluation;
 import edu.cmu.ml.rtw.generic.parse.Assignment;
 import edu.cmu.ml.rtw.generic.parse.AssignmentList;
 import edu.cmu.ml.rtw.generic.parse.Obj;
+import edu.cmu.ml.rtw.generic.util.DualCoordinateDescent;
+import edu.cmu.ml.rtw.generic.util.SparseVectorBuilder;
 import edu.cmu.ml.rtw.generic.util.StringUtil;
 
+/**
+ * SupervisedModelLibSVM trains a binary or one-class SVM.  One-class
+ * models are trained by LIBSVM.  C_SVC models are linear, and are
+ * trained by the LIBLINEAR-style dual coordinate descent solver in 
+ * edu.cmu.ml.rtw.generic.util.DualCoordinateDescent, which minimizes
+ * the given loss (HINGE, SQUARED_HINGE, or LOGISTIC).
+ * 
+ * If the positive label is given, a C_SVC model separates the positive
+ * label from the negative label.  Otherwise, it separates each valid 
+ * label from the rest (or the first valid label from the second if there
+ * are only two).  Linear models are stored as their weights rather 
+ * than as serialized LIBSVM models, and only the LOGISTIC loss gives
+ * posteriors.
+ * 
+ * @author Bill McDowell
+ *
+ * @param <D> datum type
+ * @param <L> datum label type
+ */
 public class SupervisedModelLibSVM<D extends Datum<L>, L> extends SupervisedModel<D, L> {
 	public enum KernelType {
 		LINEAR(svm_parameter.LINEAR),
@@ -84,10 +109,22 @@ public class SupervisedModelLibSVM<D extends Datum<L>, L> extends SupervisedMode
 	private Double gamma = null;
 	private double nu = 0.5;
 	private double C = 1;
-	private String[] parameterNames = { "positiveLabel", "negativeLabel", "svmType", "kernelType", "gamma", "nu", "C" };
+	private DualCoordinateDescent.Loss loss = DualCoordinateDescent.Loss.HINGE;
+	private double bias = 1.0;
+	private double epsilon = 0.1;
+	private int maxIterations = 1000;
+	private String[] parameterNames = { "positiveLabel", "negativeLabel", "svmType", "kernelType", "gamma", "nu", "C", "loss", "bias", "epsilon", "maxIterations" };
 	
 	private svm_model model;
 	
+	// Linear model trained by dual coordinate descent.  There is one
+	// weight vector for each vector label (or a single vector for the 
+	// first of two labels), stored one after another in the weights 
+	// array with the intercept as the last weight of each vector.
+	private List<L> vectorLabels;
+	private int featureCount;
+	private double[] weights;
+	
 	public SupervisedModelLibSVM() {
 		
 	}
@@ -104,9 +141,9 @@ public class SupervisedModelLibSVM<D extends Datum<L>, L> extends SupervisedMode
 	@Override
 	public Obj getParameterValue(String parameter) {
 		if (parameter.equals("positiveLabel"))
-			return Obj.stringValue(String.valueOf(this.positiveLabel.toString()));
+			return (this.positiveLabel == null) ? null : Obj.stringValue(String.valueOf(this.positiveLabel.toString()));
 		else if (parameter.equals("negativeLabel"))
-			return Obj.stringValue(String.valueOf(this.negativeLabel.toString()));
+			return (this.negativeLabel == null) ? null : Obj.stringValue(String.valueOf(this.negativeLabel.toString()));
 		else if (parameter.equals("svmType"))
 			return Obj.stringValue(this.svmType.toString());
 		else if (parameter.equals("kernelType"))
@@ -117,6 +154,14 @@ public class SupervisedModelLibSVM<D extends Datum<L>, L> extends SupervisedMode
 			return Obj.stringValue(String.valueOf(this.nu));
 		else if (parameter.equals("C"))
 			return Obj.stringValue(String.valueOf(this.C));
+		else if (parameter.equals("loss"))
+			return Obj.stringValue(this.loss.toString());
+		else if (parameter.equals("bias"))
+			return Obj.stringValue(String.valueOf(this.bias));
+		else if (parameter.equals("epsilon"))
+			return Obj.stringValue(String.valueOf(this.epsilon));
+		else if (parameter.equals("maxIterations"))
+			return Obj.stringValue(String.valueOf(this.maxIterations));
 		else
 			return null;
 	}
@@ -124,9 +169,9 @@ public class SupervisedModelLibSVM<D extends Datum<L>, L> extends SupervisedMode
 	@Override
 	public boolean setParameterValue(String parameter, Obj parameterValue) {
 		if (parameter.equals("positiveLabel"))
-			this.positiveLabel = this.context.getDatumTools().labelFromString(this.context.getMatchValue(parameterValue));
+			this.positiveLabel = (parameterValue == null) ? null : this.context.getDatumTools().labelFromString(this.context.getMatchValue(parameterValue));
 		else if (parameter.equals("negativeLabel"))
-			this.negativeLabel = this.context.getDatumTools().labelFromString(this.context.getMatchValue(parameterValue));
+			this.negativeLabel = (parameterValue == null) ? null : this.context.getDatumTools().labelFromString(this.context.getMatchValue(parameterValue));
 		else if (parameter.equals("svmType"))
 			this.svmType = SVMType.valueOf(this.context.getMatchValue(parameterValue));
 		else if (parameter.equals("kernelType"))
@@ -137,6 +182,14 @@ public class SupervisedModelLibSVM<D extends Datum<L>, L> extends SupervisedMode
 			this.nu = Double.valueOf(this.context.getMatchValue(parameterValue));
 		else if (parameter.equals("C"))
 			this.C = Double.valueOf(this.context.getMatchValue(parameterValue));
+		else if (parameter.equals("loss"))
+			this.loss = DualCoordinateDescent.Loss.valueOf(this.context.getMatchValue(parameterValue));
+		else if (parameter.equals("bias"))
+			this.bias = Double.valueOf(this.context.getMatchValue(parameterValue));
+		else if (parameter.equals("epsilon"))
+			this.epsilon = Double.valueOf(this.context.getMatchValue(parameterValue));
+		else if (parameter.equals("maxIterations"))
+			this.maxIterations = Integer.valueOf(this.context.getMatchValue(parameterValue));
 		else
 			return false;
 		return true;
@@ -149,6 +202,8 @@ public class SupervisedModelLibSVM<D extends Datum<L>, L> extends SupervisedMode
 
 	@Override
 	protected boolean fromParseInternalHelper(AssignmentList internalAssignments) {
+		if (internalAssignments != null && internalAssignments.contains("featureCount"))
+			return fromParseLinear(internalAssignments);
 		if (internalAssignments == null || !internalAssignments.contains("classifier"))
 			return true;
 		
@@ -188,8 +243,44 @@ public class SupervisedModelLibSVM<D extends Datum<L>, L> extends SupervisedMode
 		return true;
 	}
 
+	/**
+	 * Deserializes the weights of a linear model.  Each weight vector
+	 * is an array of 'index:value' pairs of its non-zero weights, where
+	 * the index featureCount is the intercept.
+	 */
+	private boolean fromParseLinear(AssignmentList internalAssignments) {
+		this.featureCount = Integer.valueOf(((Obj.Value)internalAssignments.get("featureCount").getValue()).getStr());
+		
+		this.vectorLabels = new ArrayList<L>();
+		Obj.Array vectorLabels = (Obj.Array)internalAssignments.get("vectorLabels").getValue();
+		for (int i = 0; i < vectorLabels.size(); i++)
+			this.vectorLabels.add(this.context.getDatumTools().labelFromString(vectorLabels.getStr(i)));
+		
+		int vectorCount = getWeightVectorCount();
+		int weightCount = this.featureCount + 1;
+		this.weights = new double[vectorCount*weightCount];
+		for (int i = 0; i < vectorCount; i++) {
+			if (!internalAssignments.contains("weights_" + i))
+				return false;
+			
+			Obj.Array weights = (Obj.Array)internalAssignments.get("weights_" + i).getValue();
+			for (int j = 0; j < weights.size(); j++) {
+				String entry = weights.getStr(j);
+				int separator = entry.indexOf(':');
+				int index = Integer.valueOf(entry.substring(0, separator));
+				if (index < 0 || index >= weightCount)
+					return false;
+				this.weights[i*weightCount + index] = Double.valueOf(entry.substring(separator + 1));
+			}
+		}
+		
+		return true;
+	}
+	
 	@Override
 	protected AssignmentList toParseInternalHelper(AssignmentList internalAssignments) {
+		if (this.weights != null)
+			return toParseLinear(internalAssignments);
 		if (this.model == null) 
 			return internalAssignments;
 		
@@ -204,6 +295,33 @@ public class SupervisedModelLibSVM<D extends Datum<L>, L> extends SupervisedMode
 		
 		return internalAssignments;
 	}
+	
+	private AssignmentList toParseLinear(AssignmentList internalAssignments) {
+		internalAssignments.add(
+				Assignment.assignmentTyped(null, Context.ObjectType.VALUE.toString(), "featureCount", Obj.stringValue(String.valueOf(this.featureCount))));
+		
+		Obj.Array vectorLabels = Obj.array();
+		for (L label : this.vectorLabels)
+			vectorLabels.add(Obj.stringValue(label.toString()));
+		internalAssignments.add(
+				Assignment.assignmentTyped(new ArrayList<String>(), Context.ObjectType.ARRAY.toString(), "vectorLabels", vectorLabels));
+		
+		int vectorCount = getWeightVectorCount();
+		int weightCount = this.featureCount + 1;
+		for (int i = 0; i < vectorCount; i++) {
+			Obj.Array weights = Obj.array();
+			for (int j = 0; j < weightCount; j++) {
+				double w = this.weights[i*weightCount + j];
+				if (w != 0)
+					weights.add(Obj.stringValue(j + ":" + w));
+			}
+			
+			internalAssignments.add(
+					Assignment.assignmentTyped(new ArrayList<String>(), Context.ObjectType.ARRAY.toString(), "weights_" + i, weights));
+		}
+		
+		return internalAssignments;
+	}
 
 	@Override
 	protected <T extends Datum<Boolean>> SupervisedModel<T, Boolean> makeBinaryHelper(
@@ -221,6 +339,9 @@ public class SupervisedModelLibSVM<D extends Datum<L>, L> extends SupervisedMode
 	public boolean train(DataFeatureMatrix<D, L> data,
 			DataFeatureMatrix<D, L> testData,
 			List<SupervisedModelEvaluation<D, L>> evaluations) {		
+		if (this.svmType == SVMType.C_SVC)
+			return trainLinear(data);
+		
 		this.context.getDataTools().getOutputWriter().debugWriteln("LibSVM constructing data set... ");
 
 		svm_problem problem = constructProblem(data, true);
@@ -239,18 +360,114 @@ public class SupervisedModelLibSVM<D extends Datum<L>, L> extends SupervisedMode
 	    param.eps = 0.001; 
 		
 	    this.model = svm.svm_train(problem, param);
+	    this.weights = null;
+		
+		return true;
+	}
+	
+	/**
+	 * Trains a linear model on the sparse feature vectors of the 
+	 * data by dual coordinate descent.  The vectors are read from 
+	 * the feature matrix straight into the solver's primitive arrays,
+	 * and the solver is run once for each weight vector.
+	 */
+	private boolean trainLinear(DataFeatureMatrix<D, L> data) {
+		List<L> vectorLabels = new ArrayList<L>();
+		if (this.positiveLabel != null) {
+			vectorLabels.add(this.positiveLabel);
+			vectorLabels.add(this.negativeLabel);
+		} else {
+			vectorLabels.addAll(this.validLabels);
+			Collections.sort(vectorLabels, new Comparator<L>() {
+				@Override
+				public int compare(L l1, L l2) {
+					return l1.toString().compareTo(l2.toString());
+				}
+			});
+		}
+		
+		if (vectorLabels.size() < 2 || vectorLabels.contains(null)) {
+			this.context.getDataTools().getOutputWriter().debugWriteln("ERROR: LibSVM linear model requires at least two labels.");
+			return false;
+		}
+		
+		this.context.getDataTools().getOutputWriter().debugWriteln("LibSVM constructing linear data set... ");
+		
+		int featureCount = data.getFeatures().getFeatureVocabularySize();
+		DualCoordinateDescent solver = new DualCoordinateDescent(featureCount, this.bias);
+		List<L> datumLabels = new ArrayList<L>();
+		for (D datum : data.getData()) {
+			Vector vector = data.getFeatureVocabularyValues(datum, false);
+			SparseVectorBuilder featureValues = SparseVectorBuilder.acquire();
+			try {
+				solver.addRow(featureValues.setAll(vector).compact());
+			} finally {
+				featureValues.release();
+			}
+			
+			if (this.positiveLabel != null)
+				datumLabels.add(datum.getLabel());
+			else
+				datumLabels.add(mapValidLabel(datum.getLabel()));
+		}
+		
+		this.vectorLabels = vectorLabels;
+		this.featureCount = featureCount;
+		this.model = null;
+		
+		int vectorCount = getWeightVectorCount();
+		int weightCount = solver.getWeightCount();
+		double[] weights = new double[vectorCount*weightCount];
+		double[] y = new double[datumLabels.size()];
+		for (int i = 0; i < vectorCount; i++) {
+			L label = this.vectorLabels.get(i);
+			for (int j = 0; j < y.length; j++) {
+				L datumLabel = datumLabels.get(j);
+				if (datumLabel == null)
+					y[j] = 0.0;
+				else if (datumLabel.equals(label))
+					y[j] = 1.0;
+				else if (vectorCount > 1 || datumLabel.equals(this.vectorLabels.get(1)))
+					y[j] = -1.0;
+				else
+					y[j] = 0.0;
+			}
+			
+			double[] w = solver.solve(y, this.C, this.C, this.loss, this.epsilon, this.maxIterations, data.getData().getDatumTools().getDataTools().makeLocalRandom());
+			System.arraycopy(w, 0, weights, i*weightCount, weightCount);
+			
+			this.context.getDataTools().getOutputWriter().debugWriteln("LibSVM trained linear weights for " + label + " in " + solver.getIterations() + " iterations.");
+		}
+		
+		this.weights = weights;
 		
 		return true;
 	}
+	
+	/**
+	 * @return the number of weight vectors of the linear model, which
+	 * is one if there are two labels, and the number of labels otherwise
+	 */
+	private int getWeightVectorCount() {
+		return (this.vectorLabels.size() == 2) ? 1 : this.vectorLabels.size();
+	}
 
 	@Override
 	public Map<D, Map<L, Double>> posterior(DataFeatureMatrix<D, L> data) {
-		throw new UnsupportedOperationException();
+		if (this.weights == null || this.loss != DualCoordinateDescent.Loss.LOGISTIC)
+			throw new UnsupportedOperationException();
+		
+		VectorScores<D, L> scores = posteriorVectors(data);
+		return (scores == null) ? null : scores.toPosteriorMap();
 	}
 	
 	@Override
 	public Map<D, L> classify(DataFeatureMatrix<D, L> data) {
-		Map<D, L> out = new HashMap<D, L>();
+		Map<D, L> out = classifyVectors(data);
+		if (out != null)
+			return out;
+		
+		out = new HashMap<D, L>();
 
 		for (D datum : data.getData()) {
 			svm_node[] svmDatum = constructSVMDatumVector(data, datum);
@@ -267,6 +484,97 @@ public class SupervisedModelLibSVM<D extends Datum<L>, L> extends SupervisedMode
 		return out;
 	}
 	
+	/**
+	 * The labels are the positive label followed by the negative label,
+	 * or the labels of the weight vectors of a one-vs-rest linear model.
+	 * Only linear models trained with the LOGISTIC loss support 
+	 * posteriorVector.
+	 */
+	@Override
+	public List<L> getVectorLabels() {
+		if (this.weights != null)
+			return this.vectorLabels;
+		if (this.model == null)
+			return null;
+		return Arrays.asList(this.positiveLabel, this.negativeLabel);
+	}
+	
+	/**
+	 * The posterior of a binary logistic model is the sigmoid of the
+	 * decision value, and the posterior of a one-vs-rest logistic model
+	 * is the normalized sigmoids of the decision values of each label.
+	 */
+	@Override
+	public boolean posteriorVector(SparseVectorBuilder featureValues, double[] posterior) {
+		if (this.weights == null || this.loss != DualCoordinateDescent.Loss.LOGISTIC)
+			return false;
+		
+		int vectorCount = linearScores(featureValues, posterior);
+		if (vectorCount == 1) {
+			posterior[0] = 1.0/(1.0 + Math.exp(-posterior[0]));
+			posterior[1] = 1.0 - posterior[0];
+			return true;
+		}
+		
+		double norm = 0.0;
+		for (int i = 0; i < vectorCount; i++) {
+			posterior[i] = 1.0/(1.0 + Math.exp(-posterior[i]));
+			norm += posterior[i];
+		}
+		
+		for (int i = 0; i < vectorCount; i++)
+			posterior[i] /= norm;
+		
+		return true;
+	}
+	
+	@Override
+	public int classifyVector(SparseVectorBuilder featureValues, double[] scores) {
+		if (this.weights != null) {
+			int vectorCount = linearScores(featureValues, scores);
+			if (vectorCount == 1)
+				return (Double.compare(scores[0], 0) >= 0) ? 0 : 1;
+			return argMaxIndex(scores, vectorCount);
+		}
+		
+		if (this.model == null)
+			return -1;
+		
+		double v = svm.svm_predict(this.model, constructSVMDatumVector(featureValues));
+		return (Double.compare(v, 0) >= 0) ? 0 : 1;
+	}
+	
+	/**
+	 * Computes the decision value of each weight vector of the linear
+	 * model for a compacted feature vector
+	 * 
+	 * @return the number of weight vectors
+	 */
+	private int linearScores(SparseVectorBuilder featureValues, double[] scores) {
+		int vectorCount = getWeightVectorCount();
+		int weightCount = this.featureCount + 1;
+		for (int i = 0; i < vectorCount; i++)
+			scores[i] = DualCoordinateDescent.score(this.weights, i*weightCount, this.featureCount, this.bias, featureValues);
+		return vectorCount;
+	}
+	
+	/**
+	 * Only the non-zero values are included, which gives the same kernel 
+	 * values as the dense vectors constructed from feature matrices
+	 */
+	private svm_node[] constructSVMDatumVector(SparseVectorBuilder featureValues) {
+		svm_node[] svm_v = new svm_node[featureValues.size()];
+		
+		for (int i = 0; i < svm_v.length; i++) {
+			svm_node n = new svm_node();
+			n.index = featureValues.getIndex(i);
+			n.value = featureValues.getValue(i);
+			svm_v[i] = n;
+		}
+		
+		return svm_v;
+	}
+	
 	private svm_node[] constructSVMDatumVector(DataFeatureMatrix<D, L> data, D datum) {
 		Vector v = data.getFeatureVocabularyValues(datum, false);
 		svm_node[] svm_v = new svm_node[v.size()];
@@ -1,6 +1,7 @@
 package edu.cmu.ml.rtw.generic.model;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -8,6 +9,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.platanios.learn.math.matrix.Vector;
+import org.platanios.learn.math.matrix.Vector.VectorElement;
 
 import edu.cmu.ml.rtw.generic.data.Context;
 import edu.cmu.ml.rtw.generic.data.annotation.Datum;
@@ -20,7 +25,9 @@ import edu.cmu.ml.rtw.generic.parse.AssignmentList;
 import edu.cmu.ml.rtw.generic.parse.Obj;
 import edu.cmu.ml.rtw.generic.util.BidirectionalLookupTable;
 import edu.cmu.ml.rtw.generic.util.OutputWriter;
-import edu.cmu.ml.rtw.generic.util.PlataniosUtil;
+import edu.cmu.ml.rtw.generic.util.SparseVectorBuilder;
+import edu.cmu.ml.rtw.generic.util.ThreadMapper;
+import edu.cmu.ml.rtw.generic.util.WeightStore;
 
 /**
  * SupervisedModelSVM represents a multi-class SVM trained with
@@ -37,6 +44,16 @@ import edu.cmu.ml.rtw.generic.util.PlataniosUtil;
  *  an iteration, then the training procedure terminates (although
  *  this functionality may currently be commented out)
  * 
+ * If 'hogwildThreads' is set to a positive value, then the model
+ * is trained with asynchronous (Hogwild) SGD on that many threads,
+ * which update the shared weights without locking.  In this mode, the
+ * occasional regularizer updates are applied lazily to each weight
+ * just before it is next used rather than through a sweep over all 
+ * weights.  The weights are stored densely when the number of labels
+ * times the number of features is small enough, and in a hash table 
+ * otherwise.  Hashed weights cannot be updated concurrently, so 
+ * training with them is asynchronous but runs on a single thread.
+ * 
  * @author Bill McDowell
  *
  * @param <D> datum type
@@ -44,18 +61,24 @@ import edu.cmu.ml.rtw.generic.util.PlataniosUtil;
  */
 public class SupervisedModelSVM<D extends Datum<L>, L> extends SupervisedModel<D, L> {
 	protected BidirectionalLookupTable<L, Integer> labelIndices;
+	protected List<L> vectorLabels; // labels in order of their indices
 	protected int trainingIterations; // number of training iterations for which to run (set through 'extra info')
 	protected boolean earlyStopIfNoLabelChange; // whether to have early stopping when no prediction changes on dev set (set through 'extra info')
 	protected Map<Integer, String> featureNames; // map from feature indices to their names
 	protected int numFeatures; // total number of features
 	protected double[] bias_b;
-	protected Map<Integer, Double> feature_w; // Labels x (Input features (percepts)) sparse weights mapped from weight indices 
+	protected WeightStore feature_w; // (Input features (percepts)) x Labels weights indexed by weight indices (see getWeightIndex)
 	
 	// Adagrad stuff
 	protected int t;
-	protected Map<Integer, Double> feature_G;  // Just diagonal
+	protected WeightStore feature_G;  // Just diagonal
 	protected double[] bias_G;
 	
+	// Hogwild stuff
+	protected int hogwildThreads; // number of threads for asynchronous training, or 0 for sequential training (set through 'extra info')
+	protected WeightStore feature_R; // regularizer round at which each weight was last regularized
+	protected AtomicInteger regularizerRounds; // number of occasional regularizer updates so far
+	
 	protected double l2; // l2 regularizer
 	protected double epsilon = 0;
 	protected String[] hyperParameterNames = { "l2", "epsilon" };
@@ -73,9 +96,11 @@ public class SupervisedModelSVM<D extends Datum<L>, L> extends SupervisedModel<D
 	
 	protected boolean setLabelIndices() {
 		this.labelIndices = new BidirectionalLookupTable<L, Integer>();
+		this.vectorLabels = new ArrayList<L>(this.validLabels.size());
 		int i = 0;
 		for (L label : this.validLabels) {
 			this.labelIndices.put(label, i);
+			this.vectorLabels.add(label);
 			i++;
 		}
 		return true;
@@ -146,10 +171,15 @@ public class SupervisedModelSVM<D extends Datum<L>, L> extends SupervisedModel<D
 			
 			this.bias_b = new double[this.validLabels.size()];
 			this.numFeatures = data.getFeatures().getFeatureVocabularySize();
-			this.feature_w = new HashMap<Integer, Double>(); 	
+			this.feature_w = WeightStore.make((long)this.bias_b.length*this.numFeatures); 	
 	
 			this.bias_G = new double[this.bias_b.length];
-			this.feature_G = new HashMap<Integer, Double>();
+			this.feature_G = WeightStore.make((long)this.bias_b.length*this.numFeatures);
+		}
+		
+		if (this.hogwildThreads > 0 && this.feature_R == null) {
+			this.feature_R = WeightStore.makeInt((long)this.bias_b.length*this.numFeatures);
+			this.regularizerRounds = new AtomicInteger(0);
 		}
 		
 		this.random = data.getData().getDatumTools().getDataTools().makeLocalRandom();
@@ -164,6 +194,9 @@ public class SupervisedModelSVM<D extends Datum<L>, L> extends SupervisedModel<D
 	 * training data set
 	 */
 	protected boolean trainOneIteration(int iteration, DataFeatureMatrix<D, L> data) {
+		if (this.hogwildThreads > 0)
+			return trainOneIterationHogwild(iteration, data);
+		
 		List<Integer> dataPermutation = data.getData().constructRandomDataPermutation(this.random);
 		
 		for (Integer datumId : dataPermutation) {
@@ -195,72 +228,46 @@ public class SupervisedModelSVM<D extends Datum<L>, L> extends SupervisedModel<D
 		boolean datumLabelBest = datumLabel.equals(bestLabel);
 		boolean regularizerUpdate = (this.t % K == 0); // for "occasionality trick"
 		
-		Map<Integer, Double> datumFeatureValues = PlataniosUtil.vectorToMap(data.getFeatureVocabularyValues(datum));
+		Vector datumFeatureValues = data.getFeatureVocabularyValues(datum);
 		
-		if (iteration == 0) {
-			List<Integer> missingNameKeys = new ArrayList<Integer>();
-			for (Integer key : datumFeatureValues.keySet())
-				if (!this.featureNames.containsKey(key))
-					missingNameKeys.add(key);
-			this.featureNames.putAll(data.getFeatures().getFeatureVocabularyNamesForIndices(missingNameKeys));
-		}
+		if (iteration == 0)
+			cacheFeatureNames(data, datumFeatureValues);
 		
 		if (datumLabelBest && !regularizerUpdate) // No update necessary
 			return true;
 			
 		// Update feature weights
 		if (!regularizerUpdate) { // Update only for loss function gradients
-			for (Entry<Integer, Double> featureValue : datumFeatureValues.entrySet()) {
-				int i_datumLabelWeight = getWeightIndex(datumLabel, featureValue.getKey());
-				int i_bestLabelWeight = getWeightIndex(bestLabel, featureValue.getKey());
-				
-				if (!this.feature_w.containsKey(i_datumLabelWeight)) {
-					this.feature_w.put(i_datumLabelWeight, 0.0);
-					this.feature_G.put(i_datumLabelWeight, 0.0);
-				}
-				
-				if (!this.feature_w.containsKey(i_bestLabelWeight)) {
-					this.feature_w.put(i_bestLabelWeight, 0.0);
-					this.feature_G.put(i_bestLabelWeight, 0.0);
-				}
+			for (VectorElement featureValue : datumFeatureValues) {
+				int i_datumLabelWeight = getWeightIndex(datumLabel, featureValue.index());
+				int i_bestLabelWeight = getWeightIndex(bestLabel, featureValue.index());
 				
 				// Gradients
-				double g_datumLabelWeight = -featureValue.getValue();
-				double g_bestLabelWeight = featureValue.getValue();
-				
-				// Adagrad G
-				double G_datumLabelWeight = this.feature_G.get(i_datumLabelWeight) + g_datumLabelWeight*g_datumLabelWeight;
-				double G_bestLabelWeight = this.feature_G.get(i_bestLabelWeight) + g_bestLabelWeight*g_bestLabelWeight;
-				
-				this.feature_G.put(i_datumLabelWeight, G_datumLabelWeight);
-				this.feature_G.put(i_bestLabelWeight, G_bestLabelWeight);
-				
-				// Learning rates
-				double eta_datumLabelWeight = 1.0/Math.sqrt(G_datumLabelWeight);
-				double eta_bestLabelWeight = 1.0/Math.sqrt(G_bestLabelWeight);
+				double g_datumLabelWeight = -featureValue.value();
+				double g_bestLabelWeight = featureValue.value();
 				
-				// Weight update
-				this.feature_w.put(i_datumLabelWeight, this.feature_w.get(i_datumLabelWeight) - eta_datumLabelWeight*g_datumLabelWeight);
-				this.feature_w.put(i_bestLabelWeight, this.feature_w.get(i_bestLabelWeight) - eta_bestLabelWeight*g_bestLabelWeight);
+				updateWeight(i_datumLabelWeight, g_datumLabelWeight);
+				updateWeight(i_bestLabelWeight, g_bestLabelWeight);
 			}
 		} else { // Full weight update for regularizer
 			Map<Integer, Double> g = new HashMap<Integer, Double>(); // gradients
 			
 			// Gradient update for hinge loss
-			for (Entry<Integer, Double> featureValue : datumFeatureValues.entrySet()) {
-				int i_datumLabelWeight = getWeightIndex(datumLabel, featureValue.getKey());
-				int i_bestLabelWeight = getWeightIndex(bestLabel, featureValue.getKey());
+			for (VectorElement featureValue : datumFeatureValues) {
+				int i_datumLabelWeight = getWeightIndex(datumLabel, featureValue.index());
+				int i_bestLabelWeight = getWeightIndex(bestLabel, featureValue.index());
 				
-				g.put(i_datumLabelWeight, -featureValue.getValue());
-				g.put(i_bestLabelWeight, featureValue.getValue());
+				g.put(i_datumLabelWeight, -featureValue.value());
+				g.put(i_bestLabelWeight, featureValue.value());
 			}
 			
 			// Occasional gradient update for regularizer (this happens after every K training datum updates)
-			for (Entry<Integer, Double> wEntry : this.feature_w.entrySet()) {
-				if (!g.containsKey(wEntry.getKey()))
-					g.put(wEntry.getKey(), (K/N)*this.l2*wEntry.getValue());
+			for (int wIndex : this.feature_w.getNonZeroIndices()) {
+				double w = this.feature_w.get(wIndex);
+				if (!g.containsKey(wIndex))
+					g.put(wIndex, (K/N)*this.l2*w);
 				else 
-					g.put(wEntry.getKey(), g.get(wEntry.getKey()) + (K/N)*this.l2*wEntry.getValue());
+					g.put(wIndex, g.get(wIndex) + (K/N)*this.l2*w);
 			}
 			
 			// Update weights based on gradients
@@ -268,21 +275,132 @@ public class SupervisedModelSVM<D extends Datum<L>, L> extends SupervisedModel<D
 				if (gEntry.getValue() == 0)
 					continue;
 				
-				if (!this.feature_w.containsKey(gEntry.getKey())) {
-					this.feature_w.put(gEntry.getKey(), 0.0);
-					this.feature_G.put(gEntry.getKey(), 0.0);
-				}
-				
-				// Adagrad G
-				double G = this.feature_G.get(gEntry.getKey()) + gEntry.getValue()*gEntry.getValue();
-				this.feature_G.put(gEntry.getKey(), G);
-				
-				double eta = 1.0/Math.sqrt(G);
-				this.feature_w.put(gEntry.getKey(), this.feature_w.get(gEntry.getKey()) - eta*gEntry.getValue());
+				updateWeight(gEntry.getKey(), gEntry.getValue());
 			}
 		}
 			
-		// Update label biases
+		updateBiases(datumLabel, bestLabel);
+		
+		return true;
+	}
+	
+	/**
+	 * Trains on one pass over the data with asynchronous SGD on 
+	 * hogwildThreads threads.  The threads share the weights without
+	 * locking, and regularizer updates are applied lazily to each
+	 * weight by regularizeLazily.
+	 * 
+	 * @param iteration
+	 * @param data
+	 * @return true if the model has been trained for a full pass over the
+	 * training data set
+	 */
+	protected boolean trainOneIterationHogwild(int iteration, final DataFeatureMatrix<D, L> data) {
+		List<Integer> dataPermutation = data.getData().constructRandomDataPermutation(this.random);
+		
+		// Feature names are cached up front since the name map is not
+		// safe to update from several threads
+		if (iteration == 0) {
+			for (D datum : data.getData())
+				cacheFeatureNames(data, data.getFeatureVocabularyValues(datum));
+		}
+		
+		final double K = data.getData().size()/4.0;
+		final AtomicInteger t = new AtomicInteger(this.t);
+		ThreadMapper<Integer, Boolean> threads = new ThreadMapper<Integer, Boolean>(new ThreadMapper.Fn<Integer, Boolean>() {
+			@Override
+			public Boolean apply(Integer datumId) {
+				D datum = data.getData().getDatumById(datumId);
+				if (t.getAndIncrement() % K == 0) // for "occasionality trick"
+					regularizerRounds.incrementAndGet();
+				return trainOneDatumHogwild(datum, mapValidLabel(datum.getLabel()), data);
+			}
+		});
+		
+		int threadCount = (this.feature_w.isConcurrent() && this.feature_G.isConcurrent() && this.feature_R.isConcurrent()) ? this.hogwildThreads : 1;
+		List<Boolean> results = threads.run(dataPermutation, threadCount);
+		this.t = t.get();
+		
+		// Bring all weights up to date so that they can be used for 
+		// classification outside of training
+		for (int wIndex : this.feature_w.getNonZeroIndices())
+			regularizeLazily(wIndex);
+		
+		for (Boolean result : results)
+			if (!result)
+				return false;
+		
+		return true;
+	}
+	
+	/**
+	 * @param datum
+	 * @param datumLabel
+	 * @param data
+	 * @return true if the model has made asynchronous SGD weight updates 
+	 * from a single datum.
+	 */
+	protected boolean trainOneDatumHogwild(D datum, L datumLabel, DataFeatureMatrix<D, L> data) {
+		Vector datumFeatureValues = data.getFeatureVocabularyValues(datum);
+		
+		// Catch up on regularizer updates for weights used to score the datum
+		for (VectorElement featureValue : datumFeatureValues)
+			for (int i = 0; i < this.bias_b.length; i++)
+				regularizeLazily(getWeightIndex(i, featureValue.index()));
+		
+		L bestLabel = argMaxScoreLabel(data, datum, true);
+		if (datumLabel.equals(bestLabel))
+			return true;
+		
+		for (VectorElement featureValue : datumFeatureValues) {
+			updateWeight(getWeightIndex(datumLabel, featureValue.index()), -featureValue.value());
+			updateWeight(getWeightIndex(bestLabel, featureValue.index()), featureValue.value());
+		}
+		
+		updateBiases(datumLabel, bestLabel);
+		
+		return true;
+	}
+	
+	/**
+	 * Applies the occasional regularizer updates that have happened
+	 * since the weight at wIndex was last regularized.  Each update
+	 * is the same AdaGrad step that the sequential training would take
+	 * for the regularizer gradient (K/N)*l2*w, where K/N is 1/4.
+	 * 
+	 * The thread that advances the weight's round (atomically) is the 
+	 * only one that applies the updates for the rounds it skips, so
+	 * concurrent threads never apply the same round twice.  A thread
+	 * that loses the race leaves the weight to the winner, and any 
+	 * rounds that the winner didn't see are applied on a later call.
+	 */
+	protected void regularizeLazily(int wIndex) {
+		int rounds = this.regularizerRounds.get();
+		int lastRound = (int)this.feature_R.get(wIndex);
+		if (lastRound >= rounds)
+			return;
+		
+		if (!this.feature_R.compareAndSet(wIndex, lastRound, rounds))
+			return;
+		
+		for (int i = lastRound; i < rounds; i++) {
+			double g = 0.25*this.l2*this.feature_w.get(wIndex);
+			if (g == 0)
+				break;
+			updateWeight(wIndex, g);
+		}
+	}
+	
+	/**
+	 * Takes an AdaGrad step for the weight at wIndex given gradient g
+	 */
+	protected void updateWeight(int wIndex, double g) {
+		double G = this.feature_G.add(wIndex, g*g);
+		double eta = 1.0/Math.sqrt(G);
+		this.feature_w.add(wIndex, -eta*g);
+	}
+	
+	protected void updateBiases(L datumLabel, L bestLabel) {
 		for (int i = 0; i < this.bias_b.length; i++) {
 			// Bias gradient based on hinge loss
 			double g = ((this.labelIndices.get(datumLabel) == i) ? -1.0 : 0.0) +
@@ -295,8 +413,14 @@ public class SupervisedModelSVM<D extends Datum<L>, L> extends SupervisedModel<D
 			double eta = 1.0/Math.sqrt(this.bias_G[i]);
 			this.bias_b[i] -= eta*g;
 		}
-		
-		return true;
+	}
+	
+	protected void cacheFeatureNames(DataFeatureMatrix<D, L> data, Vector datumFeatureValues) {
+		List<Integer> missingNameKeys = new ArrayList<Integer>();
+		for (VectorElement featureValue : datumFeatureValues)
+			if (!this.featureNames.containsKey(featureValue.index()))
+				missingNameKeys.add(featureValue.index());
+		this.featureNames.putAll(data.getFeatures().getFeatureVocabularyNamesForIndices(missingNameKeys));
 	}
 	
 	private int countLabelDifferences(Map<D, L> labels1, Map<D, L> labels2) {
@@ -313,8 +437,8 @@ public class SupervisedModelSVM<D extends Datum<L>, L> extends SupervisedModel<D
 		
 		if (this.l2 > 0) {
 			double l2Norm = 0;
-			for (Entry<Integer, Double> wEntry : this.feature_w.entrySet())
-				l2Norm += wEntry.getValue()*wEntry.getValue();
+			for (int wIndex : this.feature_w.getNonZeroIndices())
+				l2Norm += this.feature_w.get(wIndex)*this.feature_w.get(wIndex);
 			value += l2Norm*this.l2*.5;
 		}
 		
@@ -370,12 +494,11 @@ public class SupervisedModelSVM<D extends Datum<L>, L> extends SupervisedModel<D
 	protected double scoreLabel(DataFeatureMatrix<D, L> data, D datum, L label, boolean includeCost) {
 		double score = 0;		
 		
-		Map<Integer, Double> featureValues = PlataniosUtil.vectorToMap(data.getFeatureVocabularyValues(datum));
+		Vector featureValues = data.getFeatureVocabularyValues(datum);
 		int labelIndex = this.labelIndices.get(label);
-		for (Entry<Integer, Double> entry : featureValues.entrySet()) {
-			int wIndex = this.getWeightIndex(label, entry.getKey());
-			if (this.feature_w.containsKey(wIndex))
-				score += this.feature_w.get(wIndex)*entry.getValue();
+		for (VectorElement featureValue : featureValues) {
+			int wIndex = this.getWeightIndex(labelIndex, featureValue.index());
+			score += this.feature_w.get(wIndex)*featureValue.value();
 		}
 		
 		score += this.bias_b[labelIndex];
@@ -389,19 +512,23 @@ public class SupervisedModelSVM<D extends Datum<L>, L> extends SupervisedModel<D
 	}
 	
 	protected int getWeightIndex(L label, int featureIndex) {
-		return this.labelIndices.get(label)*this.numFeatures + featureIndex;
+		return getWeightIndex(this.labelIndices.get(label), featureIndex);
 	}
 	
+	/**
+	 * Weights are stored feature-major, so that the weights of all the 
+	 * labels for a feature are adjacent (see scoreVector)
+	 */
 	protected int getWeightIndex(int labelIndex, int featureIndex) {
-		return labelIndex*this.numFeatures + featureIndex;
+		return featureIndex*this.labelIndices.size() + labelIndex;
 	}
 	
 	protected int getFeatureIndex(int weightIndex) {
-		return weightIndex % this.numFeatures;
+		return weightIndex / this.labelIndices.size();
 	}
 	
 	protected int getLabelIndex(int weightIndex) {
-		return weightIndex / this.numFeatures;
+		return weightIndex % this.labelIndices.size();
 	}
 	
 	@Override
@@ -441,6 +568,10 @@ public class SupervisedModelSVM<D extends Datum<L>, L> extends SupervisedModel<D
 
 	@Override
 	public Map<D, Map<L, Double>> posterior(DataFeatureMatrix<D, L> data) {
+		VectorScores<D, L> scores = posteriorVectors(data);
+		if (scores != null)
+			return scores.toPosteriorMap();
+		
 		Map<D, Map<L, Double>> posteriors = new HashMap<D, Map<L, Double>>(data.getData().size());
 
 		for (D datum : data.getData()) {
@@ -481,7 +612,11 @@ public class SupervisedModelSVM<D extends Datum<L>, L> extends SupervisedModel<D
 	
 	@Override
 	public Map<D, L> classify(DataFeatureMatrix<D, L> data) {
-		Map<D, L> classifiedData = new HashMap<D, L>();
+		Map<D, L> classifiedData = classifyVectors(data);
+		if (classifiedData != null)
+			return classifiedData;
+		
+		classifiedData = new HashMap<D, L>();
 		
 		for (D datum : data.getData()) {
 			classifiedData.put(datum, argMaxScoreLabel(data, datum, false));
@@ -490,6 +625,75 @@ public class SupervisedModelSVM<D extends Datum<L>, L> extends SupervisedModel<D
 		return classifiedData;
 	}
 	
+	@Override
+	public List<L> getVectorLabels() {
+		return this.vectorLabels;
+	}
+	
+	@Override
+	public boolean posteriorVector(SparseVectorBuilder featureValues, double[] posterior) {
+		if (!scoreVector(featureValues, posterior))
+			return false;
+		
+		int labelCount = this.vectorLabels.size();
+		double max = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < labelCount; i++)
+			if (posterior[i] > max)
+				max = posterior[i];
+		
+		double lse = 0;
+		for (int i = 0; i < labelCount; i++)
+			lse += Math.exp(posterior[i] - max);
+		lse = max + Math.log(lse);
+		
+		for (int i = 0; i < labelCount; i++)
+			posterior[i] = Math.exp(posterior[i] - lse);
+		
+		return true;
+	}
+	
+	/**
+	 * Unlike classify, this breaks ties between labels by taking the
+	 * first label in getVectorLabels rather than a random one, so that 
+	 * it doesn't need to share the model's random number generator
+	 * across threads.
+	 */
+	@Override
+	public int classifyVector(SparseVectorBuilder featureValues, double[] scores) {
+		if (!scoreVector(featureValues, scores))
+			return -1;
+		return argMaxIndex(scores, this.vectorLabels.size());
+	}
+	
+	/**
+	 * Computes the scores that scoreLabel gives to each label (without
+	 * cost) for a feature vector.  The weight store is feature-major, so 
+	 * the scores of all the labels are accumulated in one pass over the
+	 * vector, reading each feature's adjacent label weights in turn.
+	 * 
+	 * @return false if the model hasn't been trained
+	 */
+	protected boolean scoreVector(SparseVectorBuilder featureValues, double[] scores) {
+		if (this.feature_w == null || this.vectorLabels == null)
+			return false;
+		
+		int labelCount = this.vectorLabels.size();
+		Arrays.fill(scores, 0, labelCount, 0.0);
+		
+		int size = featureValues.size();
+		for (int i = 0; i < size; i++) {
+			int featureOffset = getWeightIndex(0, featureValues.getIndex(i));
+			double value = featureValues.getValue(i);
+			for (int labelIndex = 0; labelIndex < labelCount; labelIndex++)
+				scores[labelIndex] += this.feature_w.get(featureOffset + labelIndex)*value;
+		}
+		
+		for (int labelIndex = 0; labelIndex < labelCount; labelIndex++)
+			scores[labelIndex] += this.bias_b[labelIndex];
+		
+		return true;
+	}
+	
 	@Override
 	protected <T extends Datum<Boolean>> SupervisedModel<T, Boolean> makeBinaryHelper(
 			DatumContext<T, Boolean> context, LabelIndicator<L> labelIndicator,
@@ -498,6 +702,7 @@ public class SupervisedModelSVM<D extends Datum<L>, L> extends SupervisedModel<D
 		
 		binaryModelSVM.earlyStopIfNoLabelChange = this.earlyStopIfNoLabelChange;
 		binaryModelSVM.trainingIterations = this.trainingIterations;
+		binaryModelSVM.hogwildThreads = this.hogwildThreads;
 		binaryModelSVM.setLabelIndices();
 		
 		return binaryModelSVM;
@@ -511,6 +716,8 @@ public class SupervisedModelSVM<D extends Datum<L>, L> extends SupervisedModel<D
 			this.trainingIterations = Integer.valueOf(((Obj.Value)internalAssignments.get("trainingIterations").getValue()).getStr());
 		if (internalAssignments.contains("earlyStopIfNoLabelChange"))
 			this.earlyStopIfNoLabelChange = Boolean.valueOf(((Obj.Value)internalAssignments.get("earlyStopIfNoLabelChange").getValue()).getStr());
+		if (internalAssignments.contains("hogwildThreads"))
+			this.hogwildThreads = Integer.valueOf(((Obj.Value)internalAssignments.get("hogwildThreads").getValue()).getStr());
 		
 		if (!internalAssignments.contains("t") || !internalAssignments.contains("numWeights"))
 			return true;
@@ -521,8 +728,8 @@ public class SupervisedModelSVM<D extends Datum<L>, L> extends SupervisedModel<D
 		this.t = Integer.valueOf(((Obj.Value)internalAssignments.get("t").getValue()).getStr());
 		this.featureNames = new HashMap<Integer, String>();
 		
-		this.feature_w = new HashMap<Integer, Double>();
-		this.feature_G = new HashMap<Integer, Double>();
+		this.feature_w = WeightStore.make(numWeights);
+		this.feature_G = WeightStore.make(numWeights);
 		
 		this.bias_b = new double[this.labelIndices.size()];
 		this.bias_G = new double[this.bias_b.length];	
@@ -547,10 +754,10 @@ public class SupervisedModelSVM<D extends Datum<L>, L> extends SupervisedModel<D
 				int labelIndex = Integer.valueOf(wArr.getStr(4));
 				int featureIndex = Integer.valueOf(wArr.getStr(5));
 				
-				int index = labelIndex*this.numFeatures+featureIndex;
+				int index = getWeightIndex(labelIndex, featureIndex);
 				this.featureNames.put(featureIndex, featureName);
-				this.feature_w.put(index, w);
-				this.feature_G.put(index, G);
+				this.feature_w.set(index, w);
+				this.feature_G.set(index, G);
 			}
 		}
 		
@@ -569,6 +776,12 @@ public class SupervisedModelSVM<D extends Datum<L>, L> extends SupervisedModel<D
 				Assignment.assignmentTyped(null, Context.ObjectType.VALUE.toString(), "earlyStopIfNoLabelChange", Obj.stringValue(String.valueOf(this.earlyStopIfNoLabelChange)))
 		);
 		
+		if (this.hogwildThreads > 0) {
+			internalAssignments.add(
+					Assignment.assignmentTyped(null, Context.ObjectType.VALUE.toString(), "hogwildThreads", Obj.stringValue(String.valueOf(this.hogwildThreads)))
+			);
+		}
+		
 		if (this.numFeatures == 0)
 			return internalAssignments;
 		
@@ -592,32 +805,32 @@ public class SupervisedModelSVM<D extends Datum<L>, L> extends SupervisedModel<D
 			);
 		}
 		
-		List<Entry<Integer, Double>> wList = new ArrayList<Entry<Integer, Double>>(this.feature_w.entrySet());
-		Collections.sort(wList, new Comparator<Entry<Integer, Double>>() {
+		List<Integer> wList = new ArrayList<Integer>();
+		for (int wIndex : this.feature_w.getNonZeroIndices())
+			wList.add(wIndex);
+		Collections.sort(wList, new Comparator<Integer>() {
 			@Override
-			public int compare(Entry<Integer, Double> e1,
-					Entry<Integer, Double> e2) {
-				if (Math.abs(e1.getValue()) > Math.abs(e2.getValue()))
+			public int compare(Integer i1, Integer i2) {
+				double w1 = feature_w.get(i1);
+				double w2 = feature_w.get(i2);
+				if (Math.abs(w1) > Math.abs(w2))
 					return -1;
-				else if (Math.abs(e1.getValue()) < Math.abs(e2.getValue()))
+				else if (Math.abs(w1) < Math.abs(w2))
 					return 1;
 				else
 					return 0;
 			} });
 		
-		for (Entry<Integer, Double> weightEntry : wList) {
-			if (Double.compare(weightEntry.getValue(), 0.0) == 0)
-				continue;
-			
-			String weightIndex = String.valueOf(weightEntry.getKey());
-			int labelIndex = getLabelIndex(weightEntry.getKey());
+		for (Integer wIndex : wList) {
+			String weightIndex = String.valueOf(wIndex);
+			int labelIndex = getLabelIndex(wIndex);
 			String labelIndexStr = String.valueOf(labelIndex);
-			int featureIndex = getFeatureIndex(weightEntry.getKey());
+			int featureIndex = getFeatureIndex(wIndex);
 			String featureIndexStr = String.valueOf(featureIndex); 
 			String label = this.labelIndices.reverseGet(labelIndex).toString();
 			String featureName = this.featureNames.get(featureIndex);
-			String w = String.valueOf(weightEntry.getValue());
-			String G = String.valueOf((this.feature_G.containsKey(weightEntry.getKey())) ? this.feature_G.get(weightEntry.getKey()).doubleValue() : 0.0);
+			String w = String.valueOf(this.feature_w.get(wIndex));
+			String G = String.valueOf(this.feature_G.get(wIndex));
 			
 			Obj.Array weightArray = Obj.array(new String[] { label, featureName, w, G, labelIndexStr, featureIndexStr });
 			internalAssignments.add(
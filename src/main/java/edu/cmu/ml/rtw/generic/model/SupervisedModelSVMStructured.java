@@ -1,11 +1,14 @@
 package edu.cmu.ml.rtw.generic.model;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.platanios.learn.math.matrix.Vector;
+import org.platanios.learn.math.matrix.Vector.VectorElement;
 
 import edu.cmu.ml.rtw.generic.data.annotation.Datum;
 import edu.cmu.ml.rtw.generic.data.annotation.DatumContext;
@@ -13,7 +16,7 @@ import edu.cmu.ml.rtw.generic.data.annotation.structure.DatumStructure;
 import edu.cmu.ml.rtw.generic.data.annotation.structure.DatumStructureCollection;
 import edu.cmu.ml.rtw.generic.data.feature.DataFeatureMatrix;
 import edu.cmu.ml.rtw.generic.parse.Obj;
-import edu.cmu.ml.rtw.generic.util.PlataniosUtil;
+import edu.cmu.ml.rtw.generic.util.ThreadMapper;
 
 /**
  * SupervisedModelSVMStructured represents a structured SVM trained with
@@ -31,6 +34,10 @@ import edu.cmu.ml.rtw.generic.util.PlataniosUtil;
  * as a non-structured SVM, and the structure is only imposed at inference 
  * time using the datum label scores to optimize the structure.
  * 
+ * If 'hogwildThreads' is set, then structured training runs asynchronously
+ * over datum structures in the same way that SupervisedModelSVM runs
+ * over datums.
+ * 
  * Parameters:
  *  l2 - l2 regularization hyper-parameter
  *  
@@ -89,6 +96,9 @@ public class SupervisedModelSVMStructured<D extends Datum<L>, L> extends Supervi
 		if (!this.includeStructuredTraining)
 			return super.trainOneIteration(iteration, data);
 		
+		if (this.hogwildThreads > 0)
+			return trainOneIterationStructuredHogwild(iteration, data);
+		
 		List<Integer> dataPermutation = this.trainingDatumStructureCollection.constructRandomDatumStructurePermutation(this.random);
 		double N = dataPermutation.size();
 		for (Integer datumStructureIndex : dataPermutation) {
@@ -96,84 +106,138 @@ public class SupervisedModelSVMStructured<D extends Datum<L>, L> extends Supervi
 			boolean regularizerUpdate = (this.t % K == 0); // for "occasionality trick"
 			
 			DatumStructure<D, L> datumStructure = this.trainingDatumStructureCollection.getDatumStructure(datumStructureIndex);
-			// Map datums to labels to their current scores
-			Map<D, Map<L, Double>> scoredDatumLabels = scoreDatumStructureLabels(data, datumStructure, true);
-			Map<D, L> datumLabels = datumStructure.getDatumLabels(this.labelMapping);
+			trainOneDatumStructure(datumStructure, iteration == 0, (regularizerUpdate) ? (K/N)*this.l2 : 0.0, data);
 			
-			// Best datum labels according to model's inference based on current weights
-			Map<D, L> bestDatumLabels = getBestDatumLabels(data, datumStructure, scoredDatumLabels);
-
-			Map<Integer, Double> datumStructureFeatureValues = computeDatumStructureFeatureValues(data, datumStructure, datumLabels, iteration == 0);
-			Map<Integer, Double> bestStructureFeatureValues = computeDatumStructureFeatureValues(data, datumStructure, bestDatumLabels, false);
-			
-			// Update feature weight gradients
-			Map<Integer, Double> gMap = new HashMap<Integer, Double>();
-			
-			for (Entry<Integer, Double> featureEntry : datumStructureFeatureValues.entrySet()) {
-				int weightIndex = featureEntry.getKey();
-				gMap.put(weightIndex, -featureEntry.getValue());
-			}
-			
-			for (Entry<Integer, Double> featureEntry : bestStructureFeatureValues.entrySet()) {
-				int weightIndex = featureEntry.getKey();
-				if (gMap.containsKey(weightIndex))
-					gMap.put(weightIndex, gMap.get(weightIndex) + featureEntry.getValue());
-				else
-					gMap.put(weightIndex, featureEntry.getValue());
-			}
-			
-			// Occasionally (every K datums) include regularizer term in computation of feature weight gradients
-			if (regularizerUpdate) {	
-				for (Entry<Integer, Double> wEntry : this.feature_w.entrySet()) {
-					if (!gMap.containsKey(wEntry.getKey()))
-						gMap.put(wEntry.getKey(), (K/N)*this.l2*wEntry.getValue());
-					else 
-						gMap.put(wEntry.getKey(), gMap.get(wEntry.getKey()) + (K/N)*this.l2*wEntry.getValue());
-				}
-			}
-				
-			// Update feature weights based on computed gradients
-			for (Entry<Integer, Double> gEntry : gMap.entrySet()) {
-				int weightIndex = gEntry.getKey();
-				double g = gEntry.getValue();
-				
-				if (g == 0)
-					continue;
-				
-				if (!this.feature_w.containsKey(weightIndex)) {
-					this.feature_w.put(weightIndex, 0.0);
-					this.feature_G.put(weightIndex, 0.0);
-				}
+			this.t++;
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Trains on one pass over the datum structures with asynchronous SGD
+	 * on hogwildThreads threads.  See SupervisedModelSVM.trainOneIterationHogwild.
+	 * 
+	 * @param iteration
+	 * @param data
+	 * @return true if the model has been trained using one pass over the full training
+	 * data set.
+	 */
+	protected boolean trainOneIterationStructuredHogwild(int iteration, final DataFeatureMatrix<D, L> data) {
+		List<Integer> dataPermutation = this.trainingDatumStructureCollection.constructRandomDatumStructurePermutation(this.random);
+		
+		// Feature names are cached up front since the name map is not
+		// safe to update from several threads
+		if (iteration == 0) {
+			for (D datum : data.getData())
+				cacheFeatureNames(data, data.getFeatureVocabularyValues(datum));
+		}
+		
+		final double K = dataPermutation.size()/4.0;
+		final AtomicInteger t = new AtomicInteger(this.t);
+		ThreadMapper<Integer, Boolean> threads = new ThreadMapper<Integer, Boolean>(new ThreadMapper.Fn<Integer, Boolean>() {
+			@Override
+			public Boolean apply(Integer datumStructureIndex) {
+				if (t.getAndIncrement() % K == 0) // for "occasionality trick"
+					regularizerRounds.incrementAndGet();
 				
-				double G = this.feature_G.get(weightIndex) + g*g;
-				this.feature_G.put(weightIndex, G);
+				DatumStructure<D, L> datumStructure = trainingDatumStructureCollection.getDatumStructure(datumStructureIndex);
 				
-				double eta = 1.0/Math.sqrt(G);
+				// Catch up on regularizer updates for weights used to score the structure
+				for (D datum : datumStructure)
+					for (VectorElement featureValue : data.getFeatureVocabularyValues(datum))
+						for (int i = 0; i < bias_b.length; i++)
+							regularizeLazily(getWeightIndex(i, featureValue.index()));
 				
-				this.feature_w.put(weightIndex, this.feature_w.get(weightIndex) - eta*g);
+				trainOneDatumStructure(datumStructure, false, 0.0, data);
+				return true;
 			}
-			
-			// Update label biases
-			for (int i = 0; i < this.bias_b.length; i++) {
-				L label = this.labelIndices.reverseGet(i);
-				int datumLabelCount = getLabelCount(datumLabels, label);
-				int bestLabelCount = getLabelCount(bestDatumLabels, label);
-				double g = -datumLabelCount + bestLabelCount;
-				
-				if (g == 0)
-					continue;
-				
-				this.bias_G[i] += g*g;
-				
-				double eta = 1.0/Math.sqrt(this.bias_G[i]);
-				
-				this.bias_b[i] -= g*eta;
+		});
+		
+		int threadCount = (this.feature_w.isConcurrent() && this.feature_G.isConcurrent() && this.feature_R.isConcurrent()) ? this.hogwildThreads : 1;
+		threads.run(dataPermutation, threadCount);
+		this.t = t.get();
+		
+		for (int wIndex : this.feature_w.getNonZeroIndices())
+			regularizeLazily(wIndex);
+		
+		return true;
+	}
+	
+	/**
+	 * Makes SGD weight updates from a single datum structure
+	 * 
+	 * @param datumStructure
+	 * @param cacheFeatureNames
+	 * @param regularizerScale if non-zero, the regularizer gradient 
+	 * regularizerScale*w is included in the update for every weight
+	 * @param data
+	 */
+	protected void trainOneDatumStructure(DatumStructure<D, L> datumStructure, boolean cacheFeatureNames, double regularizerScale, DataFeatureMatrix<D, L> data) {
+		// Map datums to labels to their current scores
+		Map<D, Map<L, Double>> scoredDatumLabels = scoreDatumStructureLabels(data, datumStructure, true);
+		Map<D, L> datumLabels = datumStructure.getDatumLabels(this.labelMapping);
+		
+		// Best datum labels according to model's inference based on current weights
+		Map<D, L> bestDatumLabels = getBestDatumLabels(data, datumStructure, scoredDatumLabels);
+
+		Map<Integer, Double> datumStructureFeatureValues = computeDatumStructureFeatureValues(data, datumStructure, datumLabels, cacheFeatureNames);
+		Map<Integer, Double> bestStructureFeatureValues = computeDatumStructureFeatureValues(data, datumStructure, bestDatumLabels, false);
+		
+		// Update feature weight gradients
+		Map<Integer, Double> gMap = new HashMap<Integer, Double>();
+		
+		for (Entry<Integer, Double> featureEntry : datumStructureFeatureValues.entrySet()) {
+			int weightIndex = featureEntry.getKey();
+			gMap.put(weightIndex, -featureEntry.getValue());
+		}
+		
+		for (Entry<Integer, Double> featureEntry : bestStructureFeatureValues.entrySet()) {
+			int weightIndex = featureEntry.getKey();
+			if (gMap.containsKey(weightIndex))
+				gMap.put(weightIndex, gMap.get(weightIndex) + featureEntry.getValue());
+			else
+				gMap.put(weightIndex, featureEntry.getValue());
+		}
+		
+		// Occasionally (every K datums) include regularizer term in computation of feature weight gradients
+		if (regularizerScale != 0) {	
+			for (int wIndex : this.feature_w.getNonZeroIndices()) {
+				double w = this.feature_w.get(wIndex);
+				if (!gMap.containsKey(wIndex))
+					gMap.put(wIndex, regularizerScale*w);
+				else 
+					gMap.put(wIndex, gMap.get(wIndex) + regularizerScale*w);
 			}
+		}
 			
-			this.t++;
+		// Update feature weights based on computed gradients
+		for (Entry<Integer, Double> gEntry : gMap.entrySet()) {
+			int weightIndex = gEntry.getKey();
+			double g = gEntry.getValue();
+			
+			if (g == 0)
+				continue;
+			
+			updateWeight(weightIndex, g);
 		}
 		
-		return true;
+		// Update label biases
+		for (int i = 0; i < this.bias_b.length; i++) {
+			L label = this.labelIndices.reverseGet(i);
+			int datumLabelCount = getLabelCount(datumLabels, label);
+			int bestLabelCount = getLabelCount(bestDatumLabels, label);
+			double g = -datumLabelCount + bestLabelCount;
+			
+			if (g == 0)
+				continue;
+			
+			this.bias_G[i] += g*g;
+			
+			double eta = 1.0/Math.sqrt(this.bias_G[i]);
+			
+			this.bias_b[i] -= g*eta;
+		}
 	}
 	
 	@Override
@@ -185,8 +249,8 @@ public class SupervisedModelSVMStructured<D extends Datum<L>, L> extends Supervi
 
 		if (this.l2 > 0) {
 			double l2Norm = 0;
-			for (double w : this.feature_w.values())
-				l2Norm += w*w;
+			for (int wIndex : this.feature_w.getNonZeroIndices())
+				l2Norm += this.feature_w.get(wIndex)*this.feature_w.get(wIndex);
 			value += l2Norm*this.l2*.5;
 		}
 		
@@ -215,6 +279,15 @@ public class SupervisedModelSVMStructured<D extends Datum<L>, L> extends Supervi
 		return "SVMStructured";
 	}
 	
+	/**
+	 * Labels depend on the structures that contain the datums, so they
+	 * can't be assigned from single feature vectors
+	 */
+	@Override
+	public List<L> getVectorLabels() {
+		return null;
+	}
+	
 	/**
 	 * @param data
 	 * @return a map from datums in data to their posteriors.  The posteriors are
@@ -399,8 +472,7 @@ public class SupervisedModelSVMStructured<D extends Datum<L>, L> extends Supervi
 	
 		Map<Integer, Double> datumStructureFeatureValues = computeDatumStructureFeatureValues(data, datumStructure, structureLabels, false);
 		for (Entry<Integer, Double> entry : datumStructureFeatureValues.entrySet()) {
-			if (this.feature_w.containsKey(entry.getKey()))
-				score += this.feature_w.get(entry.getKey())*entry.getValue();
+			score += this.feature_w.get(entry.getKey())*entry.getValue();
 		}
 		
 		for (int i = 0; i < this.bias_b.length; i++) {
@@ -421,26 +493,19 @@ public class SupervisedModelSVMStructured<D extends Datum<L>, L> extends Supervi
 	
 	protected Map<Integer, Double> computeDatumStructureFeatureValues(DataFeatureMatrix<D,L> data, DatumStructure<D, L> datumStructure, Map<D, L> structureLabels, boolean cacheFeatureNames) {
 		Map<Integer, Double> featureValues = new HashMap<Integer, Double>();
-		int numDatumFeatures = data.getFeatures().getFeatureVocabularySize();
 		for (D datum : datumStructure) {
-			Map<Integer, Double> datumFeatureValues = PlataniosUtil.vectorToMap(data.getFeatureVocabularyValues(datum));
+			Vector datumFeatureValues = data.getFeatureVocabularyValues(datum);
 			int labelIndex = this.labelIndices.get(structureLabels.get(datum));
-			int featureLabelOffset = numDatumFeatures*labelIndex;
 			
-			for (Entry<Integer, Double> entry : datumFeatureValues.entrySet()) {
-				int featureIndex = featureLabelOffset + entry.getKey();
+			for (VectorElement featureValue : datumFeatureValues) {
+				int featureIndex = getWeightIndex(labelIndex, featureValue.index());
 				if (!featureValues.containsKey(featureIndex))
 					featureValues.put(featureIndex, 0.0);
-				featureValues.put(featureIndex, featureValues.get(featureIndex) + entry.getValue());
+				featureValues.put(featureIndex, featureValues.get(featureIndex) + featureValue.value());
 			}
 			
-			if (cacheFeatureNames) {
-				List<Integer> missingNameKeys = new ArrayList<Integer>();
-				for (Integer key : datumFeatureValues.keySet())
-					if (!this.featureNames.containsKey(key))
-						missingNameKeys.add(key);
-				this.featureNames.putAll(data.getFeatures().getFeatureVocabularyNamesForIndices(missingNameKeys));
-			}
+			if (cacheFeatureNames)
+				cacheFeatureNames(data, datumFeatureValues);
 		}
 		
 		return featureValues;
@@ -65,7 +65,7 @@ public class ValidationKCV<D extends Datum<L>, L>/* extends Validation<D, L>*/ {
 	
 	@Override
 	public List<Double> run() {
-		this.folds = this.data.makePartition(this.k, this.data.getDatumTools().getDataTools().getGlobalRandom());
+		this.folds = this.data.makePartition(this.k, this.data.getDatumTools().getDataTools().getAssignmentRandom());
 		
 		ExecutorService threadPool = Executors.newFixedThreadPool(maxThreads);
 		List<ValidationThread> tasks = new ArrayList<ValidationThread>();
@@ -82,6 +82,16 @@ public abstract class CtxParsableFunction extends CtxParsable implements Paramet
 		return true;
 	}
 	
+	/**
+	 * @return the value of the given parameter as a CtxParsableFunction
+	 * whose toParse(false) is equal to getParameterValue(parameter), or null
+	 * if there is no such object.  This allows the parameter to be 
+	 * inspected (e.g. by rules) without constructing its Obj.
+	 */
+	public CtxParsableFunction getParameterParsable(String parameter) {
+		return null;
+	}
+	
 	protected abstract boolean fromParseInternal(AssignmentList internalAssignments);
 	protected abstract AssignmentList toParseInternal();
 	public abstract String getGenericName();
@@ -1,6 +1,7 @@
 package edu.cmu.ml.rtw.generic.rule;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -27,6 +28,7 @@ public class Rule extends CtxParsable {
 	}
 	
 	private Obj.Rule parse;
+	private RulePattern compiledSource; // Null if the source pattern can only be interpreted
 	
 	public Rule() {
 		
@@ -40,29 +42,24 @@ public class Rule extends CtxParsable {
 	@Override
 	protected boolean fromParseHelper(Obj obj) {
 		this.parse = (Obj.Rule)obj;
+		this.compiledSource = RulePattern.compile(this.parse.getSource());
 		return true;
 	}
 	
 	public List<Obj> apply(CtxParsable sourceObj) {
-		return applyToParse(sourceObj.toParse(), null);
+		return apply(sourceObj, null);
 	}
 	
 	public List<Obj> apply(CtxParsable sourceObj, Map<String, Obj> extraAssignments) {
-		return applyToParse(sourceObj.toParse(), extraAssignments);
+		return applyToSources(RulePattern.Sources.fromParsables(Collections.singletonList(sourceObj)), extraAssignments);
 	}
 	
 	public <P extends CtxParsable> List<Obj> apply(List<P> sources) {
-		List<Obj> objs = new ArrayList<Obj>();
-		for (P sourceObj : sources)
-			objs.add(sourceObj.toParse());
-		return applyToParses(objs, null);
+		return apply(sources, null);
 	}
 	
 	public <P extends CtxParsable> List<Obj> apply(List<P> sources, Map<String, Obj> extraAssignments) {
-		List<Obj> objs = new ArrayList<Obj>();
-		for (P sourceObj : sources)
-			objs.add(sourceObj.toParse());
-		return applyToParses(objs, extraAssignments);
+		return applyToSources(RulePattern.Sources.fromParsables(sources), extraAssignments);
 	}
 	
 	public List<Obj> applyToParse(Obj sourceObj) {
@@ -81,8 +78,18 @@ public class Rule extends CtxParsable {
 	
 	
 	public List<Obj> applyToParses(List<Obj> sourceObjs, Map<String, Obj> extraAssignments) {
+		return applyToSources(RulePattern.Sources.fromParses(sourceObjs), extraAssignments);
+	}
+	
+	List<Obj> applyToSources(RulePattern.Sources sources, Map<String, Obj> extraAssignments) {
+		List<Map<String, Obj>> matches = null;
+		if (this.compiledSource != null)
+			matches = this.compiledSource.match(sources);
+		else
+			matches = match(this.parse.getSource(), sources.getParses());
+		
 		List<Obj> outputs = new ArrayList<Obj>();
-		List<Map<String, Obj>> matches = extendMatches(match(this.parse.getSource(), sourceObjs), extraAssignments);
+		matches = extendMatches(matches, extraAssignments);
 		for (Map<String, Obj> match : matches) {
 			Obj target = this.parse.getTarget().clone();
 			target.resolveValues(match);
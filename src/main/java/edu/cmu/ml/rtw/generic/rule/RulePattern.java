@@ -0,0 +1,607 @@
+package edu.cmu.ml.rtw.generic.rule;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import edu.cmu.ml.rtw.generic.parse.AssignmentList;
+import edu.cmu.ml.rtw.generic.parse.CtxParsable;
+import edu.cmu.ml.rtw.generic.parse.CtxParsableFunction;
+import edu.cmu.ml.rtw.generic.parse.Obj;
+
+/**
+ * RulePattern is the compiled form of the source pattern of a
+ * Rule.  Rule.applyToParses interprets a pattern by cloning and
+ * resolving the Obj for each argument of And, Or, Not, and Equals
+ * against each partial match, and then calling Obj.match on every
+ * source.  A compiled pattern instead looks up referenced variables
+ * (${x}) in the partial match as it goes, and only considers
+ * sources whose function names are the same as the names of the
+ * atoms.
+ *
+ * Atoms are matched against RulePattern.Sources, which index a
+ * list of sources by function name, and which remember the matches
+ * of atoms that don't reference any variables (like the alpha
+ * memories of a Rete network) so that rules in a RuleSet that share
+ * such atoms only match them once per list of sources.  Sources
+ * that are CtxParsableFunctions are matched through their parameters
+ * (and CtxParsableFunction.getParameterParsable) without converting
+ * them into Objs, except by atoms that match parameters by position
+ * or that name a parameter more than once.  These atoms match the
+ * toParse of the source, which Sources computes once per source.
+ *
+ * Patterns that use Obj features that aren't supported here (e.g.
+ * internal assignments) are not compiled, and the Rule falls back
+ * to interpreting them.
+ *
+ * @author Bill McDowell
+ *
+ */
+abstract class RulePattern {
+	/**
+	 * Sources holds the objects that a set of rules is applied
+	 * to, indexed by function name.
+	 */
+	static class Sources {
+		private static final List<Object> NO_SOURCES = new ArrayList<Object>();
+
+		private List<? extends CtxParsable> parsables;
+		private List<Obj> parses;
+		private Map<String, List<Object>> functionSources; // Obj.Functions and CtxParsableFunctions
+		private Map<String, List<Map<String, Obj>>> atomMatches;
+		private Map<CtxParsable, Obj> parsableParses;
+
+		private Sources() {
+			this.functionSources = new HashMap<String, List<Object>>();
+			this.atomMatches = new HashMap<String, List<Map<String, Obj>>>();
+			this.parsableParses = new IdentityHashMap<CtxParsable, Obj>();
+		}
+
+		public static Sources fromParses(List<Obj> sourceObjs) {
+			Sources sources = new Sources();
+			sources.parses = sourceObjs;
+			for (Obj sourceObj : sourceObjs)
+				sources.addParse(sourceObj);
+			return sources;
+		}
+
+		public static <P extends CtxParsable> Sources fromParsables(List<P> sourceParsables) {
+			Sources sources = new Sources();
+			sources.parsables = sourceParsables;
+			for (P sourceParsable : sourceParsables) {
+				if (sourceParsable instanceof CtxParsableFunction) {
+					CtxParsableFunction sourceFn = (CtxParsableFunction)sourceParsable;
+					sources.add(sourceFn.getGenericName(), sourceFn);
+				} else {
+					sources.addParse(sourceParsable.toParse());
+				}
+			}
+			return sources;
+		}
+
+		private void addParse(Obj sourceObj) {
+			// Only functions can match atoms
+			if (sourceObj.getObjType() == Obj.Type.FUNCTION)
+				add(((Obj.Function)sourceObj).getName(), sourceObj);
+		}
+
+		private void add(String name, Object source) {
+			if (!this.functionSources.containsKey(name))
+				this.functionSources.put(name, new ArrayList<Object>());
+			this.functionSources.get(name).add(source);
+		}
+
+		/**
+		 * @return the sources as Objs for rules with patterns
+		 * that aren't compiled
+		 */
+		public List<Obj> getParses() {
+			if (this.parses == null) {
+				this.parses = new ArrayList<Obj>();
+				for (CtxParsable parsable : this.parsables)
+					this.parses.add(getParse(parsable));
+			}
+
+			return this.parses;
+		}
+
+		/**
+		 * @return parsable.toParse(), which is only computed the first
+		 * time that it's requested for a given parsable
+		 */
+		public Obj getParse(CtxParsable parsable) {
+			Obj parse = this.parsableParses.get(parsable);
+			if (parse == null) {
+				parse = parsable.toParse();
+				this.parsableParses.put(parsable, parse);
+			}
+			return parse;
+		}
+
+		public List<Object> getFunctionSources(String name) {
+			List<Object> sources = this.functionSources.get(name);
+			return (sources == null) ? NO_SOURCES : sources;
+		}
+
+		private List<Map<String, Obj>> getAtomMatches(String atomKey) {
+			return this.atomMatches.get(atomKey);
+		}
+
+		private void setAtomMatches(String atomKey, List<Map<String, Obj>> matches) {
+			this.atomMatches.put(atomKey, matches);
+		}
+	}
+
+	/**
+	 * Marks a successful atom match under the "" key.  Obj.match
+	 * puts the matched source under this key, but nothing reads it
+	 * back, so matches only need to contain the key.
+	 */
+	private static final Obj MATCHED = Obj.stringValue("");
+
+	public List<Map<String, Obj>> match(Sources sources) {
+		List<Map<String, Obj>> matches = new ArrayList<Map<String, Obj>>();
+		match(sources, new HashMap<String, Obj>(), matches);
+		return matches;
+	}
+
+	/**
+	 * Adds extensions of the partial match that satisfy this pattern
+	 * to matches
+	 */
+	protected abstract void match(Sources sources, Map<String, Obj> match, List<Map<String, Obj>> matches);
+
+	/**
+	 * @return compiled pattern, or null if the pattern uses
+	 * features that can only be interpreted by Rule
+	 */
+	public static RulePattern compile(Obj.Function pattern) {
+		String name = pattern.getName();
+		AssignmentList args = pattern.getParameters();
+		if (name.equals("And") || name.equals("Or")) {
+			RulePattern[] argPatterns = new RulePattern[args.size()];
+			for (int i = 0; i < args.size(); i++) {
+				Obj arg = args.get(i).getValue();
+				if (arg.getObjType() != Obj.Type.FUNCTION)
+					return null;
+				argPatterns[i] = compile((Obj.Function)arg);
+				if (argPatterns[i] == null)
+					return null;
+			}
+
+			return (name.equals("And")) ? new And(argPatterns) : new Or(argPatterns);
+		} else if (name.equals("Not")) {
+			if (args.size() != 1 || args.get(0).getValue().getObjType() != Obj.Type.FUNCTION)
+				return null;
+			RulePattern argPattern = compile((Obj.Function)args.get(0).getValue());
+			return (argPattern == null) ? null : new Not(argPattern);
+		} else if (name.equals("Equals")) {
+			if (args.size() < 2)
+				return null;
+			Obj.Value[] values = new Obj.Value[args.size()];
+			for (int i = 0; i < args.size(); i++) {
+				if (args.get(i).getValue().getObjType() != Obj.Type.VALUE)
+					return null;
+				values[i] = (Obj.Value)args.get(i).getValue();
+			}
+			return new Equals(values);
+		} else {
+			FunctionTerm term = FunctionTerm.compile(pattern);
+			return (term == null) ? null : new Atom(term, pattern.toString());
+		}
+	}
+
+	private static class And extends RulePattern {
+		private RulePattern[] args;
+
+		public And(RulePattern[] args) {
+			this.args = args;
+		}
+
+		@Override
+		protected void match(Sources sources, Map<String, Obj> match, List<Map<String, Obj>> matches) {
+			List<Map<String, Obj>> possibleMatches = new ArrayList<Map<String, Obj>>();
+			possibleMatches.add(match);
+			for (int i = 0; i < this.args.length; i++) {
+				List<Map<String, Obj>> nextPossibleMatches = new ArrayList<Map<String, Obj>>();
+				for (Map<String, Obj> currentMatch : possibleMatches)
+					this.args[i].match(sources, currentMatch, nextPossibleMatches);
+
+				possibleMatches = nextPossibleMatches;
+				if (possibleMatches.size() == 0)
+					return;
+			}
+
+			matches.addAll(possibleMatches);
+		}
+	}
+
+	/**
+	 * Matches the union of the matches of the arguments
+	 */
+	private static class Or extends RulePattern {
+		private RulePattern[] args;
+
+		public Or(RulePattern[] args) {
+			this.args = args;
+		}
+
+		@Override
+		protected void match(Sources sources, Map<String, Obj> match, List<Map<String, Obj>> matches) {
+			for (int i = 0; i < this.args.length; i++)
+				this.args[i].match(sources, match, matches);
+		}
+	}
+
+	private static class Not extends RulePattern {
+		private RulePattern arg;
+
+		public Not(RulePattern arg) {
+			this.arg = arg;
+		}
+
+		@Override
+		protected void match(Sources sources, Map<String, Obj> match, List<Map<String, Obj>> matches) {
+			List<Map<String, Obj>> argMatches = new ArrayList<Map<String, Obj>>();
+			this.arg.match(sources, match, argMatches);
+			if (argMatches.size() == 0)
+				matches.add(match);
+		}
+	}
+
+	private static class Equals extends RulePattern {
+		private Obj.Value[] values;
+
+		public Equals(Obj.Value[] values) {
+			this.values = values;
+		}
+
+		@Override
+		protected void match(Sources sources, Map<String, Obj> match, List<Map<String, Obj>> matches) {
+			// Only Values can be equal.  Interpreted patterns compare
+			// other Objs by identity after cloning them, so they never are.
+			Obj value = resolve(this.values[0], match);
+			if (value.getObjType() != Obj.Type.VALUE)
+				return;
+			for (int i = 1; i < this.values.length; i++) {
+				Obj otherValue = resolve(this.values[i], match);
+				if (otherValue.getObjType() != Obj.Type.VALUE || !value.equals(otherValue))
+					return;
+			}
+
+			matches.add(match);
+		}
+
+		private Obj resolve(Obj.Value value, Map<String, Obj> match) {
+			if (value.getType() != Obj.Value.Type.CURLY_BRACED || !match.containsKey(value.getStr()))
+				return value;
+			return match.get(value.getStr());
+		}
+	}
+
+	private static class Atom extends RulePattern {
+		private FunctionTerm term;
+		private String key;
+
+		public Atom(FunctionTerm term, String key) {
+			this.term = term;
+			this.key = key;
+		}
+
+		@Override
+		protected void match(Sources sources, Map<String, Obj> match, List<Map<String, Obj>> matches) {
+			if (this.term.hasReferences()) {
+				matchSources(sources, match, matches);
+				return;
+			}
+
+			List<Map<String, Obj>> atomMatches = sources.getAtomMatches(this.key);
+			if (atomMatches == null) {
+				atomMatches = new ArrayList<Map<String, Obj>>();
+				matchSources(sources, null, atomMatches);
+				sources.setAtomMatches(this.key, atomMatches);
+			}
+
+			for (Map<String, Obj> atomMatch : atomMatches) {
+				Map<String, Obj> currentMatch = new HashMap<String, Obj>(atomMatch);
+				currentMatch.putAll(match);
+				matches.add(currentMatch);
+			}
+		}
+
+		private void matchSources(Sources sources, Map<String, Obj> match, List<Map<String, Obj>> matches) {
+			for (Object source : sources.getFunctionSources(this.term.name)) {
+				Map<String, Obj> currentMatch = new HashMap<String, Obj>();
+				boolean matched = (source instanceof Obj) ?
+						this.term.match((Obj)source, match, currentMatch)
+						: this.term.match((CtxParsableFunction)source, sources, match, currentMatch);
+				if (!matched)
+					continue;
+
+				currentMatch.put("", MATCHED);
+				if (match != null)
+					currentMatch.putAll(match);
+				matches.add(currentMatch);
+			}
+		}
+	}
+
+	/**
+	 * Term is a compiled Obj within an atom.  Terms follow
+	 * the semantics of source.match(pattern) for the Obj
+	 * pattern from which they were compiled, with references to
+	 * variables resolved against the partial match.
+	 */
+	private static abstract class Term {
+		/**
+		 * @return true if the source matches, in which case the
+		 * bound variables are added to bindings
+		 */
+		public abstract boolean match(Obj source, Map<String, Obj> match, Map<String, Obj> bindings);
+		public abstract boolean hasReferences();
+
+		/**
+		 * @param valueReferences indicates whether references (${x}) can
+		 * only be resolved to Values (as in arrays) rather than any Obj
+		 * (as in assignment lists)
+		 */
+		public static Term compile(Obj pattern, boolean valueReferences) {
+			if (pattern.getObjType() == Obj.Type.FUNCTION) {
+				return FunctionTerm.compile((Obj.Function)pattern);
+			} else if (pattern.getObjType() == Obj.Type.ARRAY) {
+				Obj.Array array = (Obj.Array)pattern;
+				Term[] elements = new Term[array.size()];
+				for (int i = 0; i < elements.length; i++)
+					elements[i] = compile(array.get(i), true);
+				return new ArrayTerm(elements);
+			} else if (pattern.getObjType() == Obj.Type.VALUE) {
+				Obj.Value value = (Obj.Value)pattern;
+				if (value.getType() == Obj.Value.Type.SQUARE_BRACKETED)
+					return new VariableTerm(value.getStr());
+				else if (value.getType() == Obj.Value.Type.CURLY_BRACED)
+					return new ReferenceTerm(value.getStr(), valueReferences);
+				else
+					return new StringTerm(value.getStr());
+			} else {
+				return null;
+			}
+		}
+	}
+
+	private static class StringTerm extends Term {
+		private String str;
+
+		public StringTerm(String str) {
+			this.str = str;
+		}
+
+		@Override
+		public boolean match(Obj source, Map<String, Obj> match, Map<String, Obj> bindings) {
+			return source.getObjType() == Obj.Type.VALUE && this.str.equals(((Obj.Value)source).getStr());
+		}
+
+		@Override
+		public boolean hasReferences() {
+			return false;
+		}
+	}
+
+	private static class VariableTerm extends Term {
+		private String name;
+
+		public VariableTerm(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public boolean match(Obj source, Map<String, Obj> match, Map<String, Obj> bindings) {
+			if (source.getObjType() == Obj.Type.RULE)
+				return false;
+			bindings.put(this.name, source);
+			return true;
+		}
+
+		@Override
+		public boolean hasReferences() {
+			return false;
+		}
+	}
+
+	private static class ReferenceTerm extends Term {
+		private String name;
+		private boolean valueOnly;
+
+		public ReferenceTerm(String name, boolean valueOnly) {
+			this.name = name;
+			this.valueOnly = valueOnly;
+		}
+
+		@Override
+		public boolean match(Obj source, Map<String, Obj> match, Map<String, Obj> bindings) {
+			Obj value = (match == null) ? null : match.get(this.name);
+			if (value == null) // Unresolved references don't match anything
+				return false;
+
+			if (value.getObjType() == Obj.Type.VALUE) {
+				Obj.Value v = (Obj.Value)value;
+				if (v.getType() == Obj.Value.Type.STRING) {
+					return source.getObjType() == Obj.Type.VALUE && v.getStr().equals(((Obj.Value)source).getStr());
+				} else if (v.getType() == Obj.Value.Type.SQUARE_BRACKETED) {
+					if (source.getObjType() == Obj.Type.RULE)
+						return false;
+					bindings.put(v.getStr(), source);
+					return true;
+				} else {
+					return false;
+				}
+			} else if (this.valueOnly) {
+				return false;
+			}
+
+			Map<String, Obj> valueMatch = source.match(value);
+			if (valueMatch.size() == 0)
+				return false;
+			bindings.putAll(valueMatch);
+			return true;
+		}
+
+		@Override
+		public boolean hasReferences() {
+			return true;
+		}
+	}
+
+	private static class ArrayTerm extends Term {
+		private Term[] elements;
+
+		public ArrayTerm(Term[] elements) {
+			this.elements = elements;
+		}
+
+		@Override
+		public boolean match(Obj source, Map<String, Obj> match, Map<String, Obj> bindings) {
+			if (source.getObjType() != Obj.Type.ARRAY)
+				return false;
+
+			Obj.Array array = (Obj.Array)source;
+			if (array.size() != this.elements.length)
+				return false;
+
+			for (int i = 0; i < this.elements.length; i++)
+				if (!this.elements[i].match(array.get(i), match, bindings))
+					return false;
+
+			return true;
+		}
+
+		@Override
+		public boolean hasReferences() {
+			for (Term element : this.elements)
+				if (element.hasReferences())
+					return true;
+			return false;
+		}
+	}
+
+	private static class FunctionTerm extends Term {
+		private String name;
+		private String[] parameterNames; // Null if parameters are matched by position
+		private Term[] parameters;
+		private boolean distinctParameterNames;
+		private boolean references;
+
+		private FunctionTerm(String name, String[] parameterNames, Term[] parameters) {
+			this.name = name;
+			this.parameterNames = parameterNames;
+			this.parameters = parameters;
+
+			this.references = false;
+			for (Term parameter : parameters)
+				this.references = this.references || parameter.hasReferences();
+
+			if (parameterNames != null) {
+				Set<String> names = new HashSet<String>();
+				for (String parameterName : parameterNames)
+					names.add(parameterName);
+				this.distinctParameterNames = names.size() == parameterNames.length;
+			}
+		}
+
+		public static FunctionTerm compile(Obj.Function pattern) {
+			if (pattern.getInternalAssignments() != null)
+				return null;
+
+			AssignmentList parameterList = pattern.getParameters();
+			boolean named = parameterList.hasNames();
+			String[] parameterNames = (named) ? new String[parameterList.size()] : null;
+			Term[] parameters = new Term[parameterList.size()];
+			for (int i = 0; i < parameters.length; i++) {
+				if (named && parameterList.get(i).getName() == null)
+					return null;
+				if (named)
+					parameterNames[i] = parameterList.get(i).getName();
+				parameters[i] = Term.compile(parameterList.get(i).getValue(), false);
+				if (parameters[i] == null)
+					return null;
+			}
+
+			return new FunctionTerm(pattern.getName(), parameterNames, parameters);
+		}
+
+		@Override
+		public boolean match(Obj source, Map<String, Obj> match, Map<String, Obj> bindings) {
+			if (source.getObjType() != Obj.Type.FUNCTION)
+				return false;
+
+			Obj.Function function = (Obj.Function)source;
+			if (!this.name.equals(function.getName()))
+				return false;
+
+			AssignmentList sourceParameters = function.getParameters();
+			if (this.parameters.length > sourceParameters.size())
+				return false;
+
+			if (this.parameterNames == null) {
+				for (int i = 0; i < this.parameters.length; i++)
+					if (!this.parameters[i].match(sourceParameters.get(i).getValue(), match, bindings))
+						return false;
+			} else if (this.parameters.length > 0) {
+				if (!sourceParameters.hasNames())
+					return false;
+				for (int i = 0; i < this.parameters.length; i++) {
+					if (!sourceParameters.contains(this.parameterNames[i]))
+						return false;
+					if (!this.parameters[i].match(sourceParameters.get(this.parameterNames[i]).getValue(), match, bindings))
+						return false;
+				}
+			}
+
+			return true;
+		}
+
+		public boolean match(CtxParsableFunction source, Sources sources, Map<String, Obj> match, Map<String, Obj> bindings) {
+			if (this.parameterNames == null || !this.distinctParameterNames)
+				return match(sources.getParse(source), match, bindings);
+
+			if (!this.name.equals(source.getGenericName()))
+				return false;
+
+			String[] sourceParameterNames = source.getParameterNames();
+			for (int i = 0; i < this.parameters.length; i++) {
+				if (!contains(sourceParameterNames, this.parameterNames[i]))
+					return false;
+
+				if (this.parameters[i] instanceof FunctionTerm) {
+					CtxParsableFunction parameterFn = source.getParameterParsable(this.parameterNames[i]);
+					if (parameterFn != null) {
+						if (!((FunctionTerm)this.parameters[i]).match(parameterFn, sources, match, bindings))
+							return false;
+						continue;
+					}
+				}
+
+				Obj parameterValue = source.getParameterValue(this.parameterNames[i]);
+				if (parameterValue == null || !this.parameters[i].match(parameterValue, match, bindings))
+					return false;
+			}
+
+			return true;
+		}
+
+		@Override
+		public boolean hasReferences() {
+			return this.references;
+		}
+
+		private static boolean contains(String[] strs, String str) {
+			for (String s : strs)
+				if (str.equals(s))
+					return true;
+			return false;
+		}
+	}
+}
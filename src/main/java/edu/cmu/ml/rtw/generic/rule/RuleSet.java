@@ -1,6 +1,7 @@
 package edu.cmu.ml.rtw.generic.rule;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -82,25 +83,19 @@ public class RuleSet extends CtxParsableFunction {
 	}
 
 	public Map<String, List<Obj>> apply(CtxParsable sourceObj) {
-		return applyToParse(sourceObj.toParse(), null);
+		return apply(sourceObj, null);
 	}
 	
 	public Map<String, List<Obj>> apply(CtxParsable sourceObj, Map<String, Obj> extraAssignments) {
-		return applyToParse(sourceObj.toParse(), extraAssignments);
+		return applyToSources(RulePattern.Sources.fromParsables(Collections.singletonList(sourceObj)), extraAssignments);
 	}
 	
 	public <P extends CtxParsable> Map<String, List<Obj>> apply(List<P> sources) {
-		List<Obj> objs = new ArrayList<Obj>();
-		for (P sourceObj : sources)
-			objs.add(sourceObj.toParse());
-		return applyToParses(objs, null);
+		return apply(sources, null);
 	}
 	
 	public <P extends CtxParsable> Map<String, List<Obj>> apply(List<P> sources, Map<String, Obj> extraAssignments) {
-		List<Obj> objs = new ArrayList<Obj>();
-		for (P sourceObj : sources)
-			objs.add(sourceObj.toParse());
-		return applyToParses(objs, extraAssignments);
+		return applyToSources(RulePattern.Sources.fromParsables(sources), extraAssignments);
 	}
 	
 	public Map<String, List<Obj>> applyToParse(Obj sourceObj) {
@@ -119,10 +114,15 @@ public class RuleSet extends CtxParsableFunction {
 	
 	
 	public Map<String, List<Obj>> applyToParses(List<Obj> sourceObjs, Map<String, Obj> extraAssignments) {
+		return applyToSources(RulePattern.Sources.fromParses(sourceObjs), extraAssignments);
+	}
+	
+	private Map<String, List<Obj>> applyToSources(RulePattern.Sources sources, Map<String, Obj> extraAssignments) {
 		Map<String, List<Obj>> outputs = new HashMap<String, List<Obj>>();
 		
+		// The rules share the sources so that they share matches of common atoms
 		for (Rule rule : this.rules) {
-			List<Obj> ruleOutputs = rule.applyToParses(sourceObjs, extraAssignments);
+			List<Obj> ruleOutputs = rule.applyToSources(sources, extraAssignments);
 			if (ruleOutputs.size() > 0)
 				outputs.put(rule.getReferenceName(), ruleOutputs);
 		}
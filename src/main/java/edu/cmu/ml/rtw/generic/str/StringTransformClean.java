@@ -0,0 +1,19 @@
+package edu.cmu.ml.rtw.generic.str;
+
+import edu.cmu.ml.rtw.generic.util.StringUtil;
+
+public class StringTransformClean implements StringTransform {
+	public StringTransformClean() {
+
+	}
+
+	@Override
+	public String transform(String str) {
+		return StringUtil.clean(str);
+	}
+
+	@Override
+	public String toString() {
+		return "DefaultCleanFn";
+	}
+}
@@ -0,0 +1,602 @@
+package edu.cmu.ml.rtw.generic.str;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import edu.cmu.ml.rtw.generic.util.Stemmer;
+
+/**
+ * StringTransformPipeline applies a chain of StringTransforms, and
+ * fuses consecutive built-in transforms (the default clean, and
+ * the StringTransform* classes in this package) into a single pass
+ * over the characters of the string.  Each fused transform is a
+ * stage that passes characters on to the next stage as soon as it
+ * can, so the fused transforms don't build intermediate strings
+ * or run regular expressions.  The stages and their buffers are
+ * reused by each thread.
+ *
+ * The output is the same as the output of applying the transforms
+ * one after another.  The stages reproduce the transforms' regular
+ * expressions and case mapping on ASCII strings, so strings with
+ * other characters (or case mapping under locales where it differs
+ * on ASCII) go through the original transforms (see canFuse).
+ *
+ * Stems computed by fused stemming transforms are memoized in a
+ * bounded LRU cache that is shared by all pipelines (see StemCache).
+ *
+ * @author Bill McDowell
+ *
+ */
+public class StringTransformPipeline implements StringTransform {
+	private static final int MAX_MEMOIZED_STEMS = 100000;
+	private static final int MAX_TOKEN_LENGTH = 30; // See StringTransformRemoveLongTokens
+	private static final StemCache stems = new StemCache(MAX_MEMOIZED_STEMS);
+
+	private String name;
+	private List<StringTransform> transforms;
+	private List<StringTransform> segments;
+
+	public StringTransformPipeline(String name, List<StringTransform> transforms) {
+		this.name = name;
+		this.transforms = new ArrayList<StringTransform>();
+		for (StringTransform transform : transforms) {
+			if (transform.getClass() == StringTransformPipeline.class)
+				this.transforms.addAll(((StringTransformPipeline)transform).transforms);
+			else
+				this.transforms.add(transform);
+		}
+
+		this.segments = new ArrayList<StringTransform>();
+		List<StringTransform> fusable = new ArrayList<StringTransform>();
+		for (StringTransform transform : this.transforms) {
+			if (isFusable(transform)) {
+				fusable.add(transform);
+				continue;
+			}
+
+			if (fusable.size() > 0) {
+				this.segments.add(new FusedSegment(fusable));
+				fusable = new ArrayList<StringTransform>();
+			}
+
+			this.segments.add(transform);
+		}
+
+		if (fusable.size() > 0)
+			this.segments.add(new FusedSegment(fusable));
+	}
+
+	/**
+	 * @return a pipeline that is the same as the transform if the
+	 * transform can be fused, and otherwise the transform itself
+	 */
+	public static StringTransform compile(StringTransform transform) {
+		if (transform.getClass() == StringTransformPipeline.class || !isFusable(transform))
+			return transform;
+		return new StringTransformPipeline(transform.toString(), Arrays.asList(transform));
+	}
+
+	public static StringTransformPipeline compile(String name, List<StringTransform> transforms) {
+		return new StringTransformPipeline(name, transforms);
+	}
+
+	/**
+	 * @return true if the transform is an instance of one of the built-in
+	 * transforms that the stages reproduce.  Subclasses of these aren't 
+	 * fusable, since they might override transform.
+	 */
+	public static boolean isFusable(StringTransform transform) {
+		Class<?> transformClass = transform.getClass();
+		return transformClass == StringTransformClean.class
+				|| transformClass == StringTransformRemoveLongTokens.class
+				|| transformClass == StringTransformRemoveSymbols.class
+				|| transformClass == StringTransformReplaceNumbers.class
+				|| transformClass == StringTransformSpaceToUnderscore.class
+				|| transformClass == StringTransformStem.class
+				|| transformClass == StringTransformToLowerCase.class
+				|| transformClass == StringTransformTrim.class
+				|| transformClass == StringTransformUnderscoreToSpace.class;
+	}
+
+	/**
+	 * @return true if the fused stages produce the same output as
+	 * the original transforms on str
+	 */
+	public static boolean canFuse(String str) {
+		String language = Locale.getDefault().getLanguage();
+		if (language.equals("tr") || language.equals("az") || language.equals("lt"))
+			return false;
+
+		for (int i = 0; i < str.length(); i++)
+			if (str.charAt(i) >= 128)
+				return false;
+		return true;
+	}
+
+	public List<StringTransform> getTransforms() {
+		return this.transforms;
+	}
+
+	@Override
+	public String transform(String str) {
+		for (StringTransform segment : this.segments)
+			str = segment.transform(str);
+		return str;
+	}
+
+	@Override
+	public String toString() {
+		return this.name;
+	}
+
+	private static class FusedSegment implements StringTransform {
+		private List<StringTransform> transforms;
+		private ThreadLocal<Chain> chains;
+
+		public FusedSegment(List<StringTransform> transforms) {
+			this.transforms = transforms;
+			this.chains = new ThreadLocal<Chain>() {
+				@Override
+				protected Chain initialValue() {
+					return new Chain(FusedSegment.this.transforms);
+				}
+			};
+		}
+
+		@Override
+		public String transform(String str) {
+			if (!canFuse(str)) {
+				for (StringTransform transform : this.transforms)
+					str = transform.transform(str);
+				return str;
+			}
+
+			return this.chains.get().run(str);
+		}
+	}
+
+	/**
+	 * Chain is a thread's stages for a fused segment, ending in
+	 * a reusable output buffer
+	 */
+	private static class Chain {
+		private List<Stage> stages;
+		private Output output;
+
+		public Chain(List<StringTransform> transforms) {
+			this.stages = new ArrayList<Stage>();
+			for (StringTransform transform : transforms)
+				addStages(transform);
+			this.output = new Output();
+
+			for (int i = 0; i < this.stages.size() - 1; i++)
+				this.stages.get(i).next = this.stages.get(i + 1);
+			if (this.stages.size() > 0)
+				this.stages.get(this.stages.size() - 1).next = this.output;
+		}
+
+		private void addStages(StringTransform transform) {
+			if (transform instanceof StringTransformClean) {
+				// See StringUtil.clean
+				CleanHead head = new CleanHead();
+				this.stages.add(head);
+				this.stages.add(new Trim());
+				this.stages.add(new CleanTokens());
+				this.stages.add(new MapChars(MapChars.Type.TO_LOWER_CASE));
+				this.stages.add(new ReplaceRuns(ReplaceRuns.Type.SYMBOLS, ""));
+				this.stages.add(new ReplaceRuns(ReplaceRuns.Type.SPACES, " "));
+				this.stages.add(new Trim());
+				this.stages.add(new CleanTail(head));
+			} else if (transform instanceof StringTransformRemoveLongTokens) {
+				this.stages.add(new RemoveLongTokens());
+				this.stages.add(new Trim());
+			} else if (transform instanceof StringTransformRemoveSymbols) {
+				this.stages.add(new ReplaceRuns(ReplaceRuns.Type.SYMBOLS, " "));
+			} else if (transform instanceof StringTransformReplaceNumbers) {
+				this.stages.add(new ReplaceRuns(ReplaceRuns.Type.DIGITS, "[D]"));
+			} else if (transform instanceof StringTransformSpaceToUnderscore) {
+				this.stages.add(new MapChars(MapChars.Type.SPACE_TO_UNDERSCORE));
+			} else if (transform instanceof StringTransformStem) {
+				this.stages.add(new StemTokens());
+				this.stages.add(new Trim());
+			} else if (transform instanceof StringTransformToLowerCase) {
+				this.stages.add(new MapChars(MapChars.Type.TO_LOWER_CASE));
+			} else if (transform instanceof StringTransformTrim) {
+				this.stages.add(new Trim());
+			} else if (transform instanceof StringTransformUnderscoreToSpace) {
+				this.stages.add(new MapChars(MapChars.Type.UNDERSCORE_TO_SPACE));
+			}
+		}
+
+		public String run(String str) {
+			this.output.reset();
+			for (Stage stage : this.stages)
+				stage.reset();
+
+			Stage head = (this.stages.size() > 0) ? this.stages.get(0) : this.output;
+			for (int i = 0; i < str.length(); i++)
+				head.put(str.charAt(i));
+			head.end();
+
+			return this.output.toString();
+		}
+	}
+
+	/*
+	 * Character classes of the transforms' regular expressions
+	 * on ASCII characters
+	 */
+
+	private static boolean isSpace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static boolean isWord(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || isDigit(c) || c == '_';
+	}
+
+	/**
+	 * Stage is a step in a fused segment that receives the characters
+	 * output by the previous step, and passes its own output to the
+	 * next one
+	 */
+	private static abstract class Stage {
+		protected Stage next;
+
+		public abstract void put(char c);
+
+		public void end() {
+			this.next.end();
+		}
+
+		public void reset() {
+
+		}
+
+		protected void put(CharSequence str) {
+			for (int i = 0; i < str.length(); i++)
+				this.next.put(str.charAt(i));
+		}
+	}
+
+	private static class Output extends Stage {
+		private StringBuilder str = new StringBuilder();
+
+		@Override
+		public void put(char c) {
+			this.str.append(c);
+		}
+
+		@Override
+		public void end() {
+
+		}
+
+		@Override
+		public void reset() {
+			this.str.setLength(0);
+		}
+
+		@Override
+		public String toString() {
+			return this.str.toString();
+		}
+	}
+
+	/**
+	 * MapChars maps each character to a single character (e.g.
+	 * str.toLowerCase() or str.replaceAll(" ", "_"))
+	 */
+	private static class MapChars extends Stage {
+		public enum Type {
+			TO_LOWER_CASE,
+			SPACE_TO_UNDERSCORE,
+			UNDERSCORE_TO_SPACE
+		}
+
+		private Type type;
+
+		public MapChars(Type type) {
+			this.type = type;
+		}
+
+		@Override
+		public void put(char c) {
+			if (this.type == Type.TO_LOWER_CASE) {
+				if (c >= 'A' && c <= 'Z')
+					c = (char)(c + ('a' - 'A'));
+			} else if (this.type == Type.SPACE_TO_UNDERSCORE) {
+				if (c == ' ')
+					c = '_';
+			} else if (c == '_') {
+				c = ' ';
+			}
+
+			this.next.put(c);
+		}
+	}
+
+	/**
+	 * ReplaceRuns replaces each maximal run of characters in a class
+	 * with a replacement (e.g. str.replaceAll("\\d+", "[D]"))
+	 */
+	private static class ReplaceRuns extends Stage {
+		public enum Type {
+			SYMBOLS, // [\\W&&[^\\s]]
+			DIGITS, // \\d
+			SPACES // \\s
+		}
+
+		private Type type;
+		private String replacement;
+		private boolean inRun;
+
+		public ReplaceRuns(Type type, String replacement) {
+			this.type = type;
+			this.replacement = replacement;
+		}
+
+		@Override
+		public void put(char c) {
+			boolean matches = false;
+			if (this.type == Type.SYMBOLS)
+				matches = !isWord(c) && !isSpace(c);
+			else if (this.type == Type.DIGITS)
+				matches = isDigit(c);
+			else
+				matches = isSpace(c);
+
+			if (!matches) {
+				this.inRun = false;
+				this.next.put(c);
+			} else if (!this.inRun) {
+				this.inRun = true;
+				put(this.replacement);
+			}
+		}
+
+		@Override
+		public void reset() {
+			this.inRun = false;
+		}
+	}
+
+	/**
+	 * Trim removes leading and trailing characters up to ' ' (as in
+	 * str.trim()), holding back inner runs of them until it sees
+	 * whether they're trailing
+	 */
+	private static class Trim extends Stage {
+		private boolean started;
+		private StringBuilder pending = new StringBuilder();
+
+		@Override
+		public void put(char c) {
+			if (c <= ' ') {
+				if (this.started)
+					this.pending.append(c);
+				return;
+			}
+
+			this.started = true;
+			if (this.pending.length() > 0) {
+				put(this.pending);
+				this.pending.setLength(0);
+			}
+
+			this.next.put(c);
+		}
+
+		@Override
+		public void reset() {
+			this.started = false;
+			this.pending.setLength(0);
+		}
+	}
+
+	/**
+	 * Tokens splits its input into tokens as in str.split("\\s+")
+	 * and passes each token to putToken.  As with split, a leading
+	 * empty token is kept if the input starts with white-space and
+	 * there is a later non-empty token, and an empty input is a
+	 * single empty token.
+	 */
+	private static abstract class Tokens extends Stage {
+		protected StringBuilder token = new StringBuilder();
+		private boolean started;
+		private boolean leadingEmpty;
+
+		protected abstract void putToken(CharSequence token);
+
+		@Override
+		public void put(char c) {
+			if (!isSpace(c)) {
+				this.started = true;
+				this.token.append(c);
+				return;
+			}
+
+			if (!this.started) {
+				this.started = true;
+				this.leadingEmpty = true;
+			} else if (this.token.length() > 0) {
+				putNonEmptyToken();
+			}
+		}
+
+		@Override
+		public void end() {
+			if (this.token.length() > 0)
+				putNonEmptyToken();
+			else if (!this.started)
+				putToken("");
+			this.next.end();
+		}
+
+		@Override
+		public void reset() {
+			this.token.setLength(0);
+			this.started = false;
+			this.leadingEmpty = false;
+		}
+
+		private void putNonEmptyToken() {
+			if (this.leadingEmpty) {
+				putToken("");
+				this.leadingEmpty = false;
+			}
+
+			putToken(this.token);
+			this.token.setLength(0);
+		}
+	}
+
+	private static class RemoveLongTokens extends Tokens {
+		@Override
+		protected void putToken(CharSequence token) {
+			if (token.length() > MAX_TOKEN_LENGTH)
+				return;
+			put(token);
+			this.next.put(' ');
+		}
+	}
+
+	/**
+	 * StemCache maps words to their stems, and evicts the least 
+	 * recently used words once it holds maxSize words.  The words
+	 * are split into stripes by hash, each of which is locked
+	 * independently, so threads stemming different words rarely
+	 * contend.
+	 */
+	private static class StemCache {
+		private static final int STRIPE_COUNT = 16;
+		
+		private LinkedHashMap<String, String>[] stripes; // In access order, least recently used first
+		
+		@SuppressWarnings("unchecked")
+		public StemCache(int maxSize) {
+			final int maxStripeSize = Math.max(1, maxSize / STRIPE_COUNT);
+			this.stripes = new LinkedHashMap[STRIPE_COUNT];
+			for (int i = 0; i < STRIPE_COUNT; i++) {
+				this.stripes[i] = new LinkedHashMap<String, String>(16, 0.75f, true) {
+					private static final long serialVersionUID = 1L;
+					
+					@Override
+					protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+						return size() > maxStripeSize;
+					}
+				};
+			}
+		}
+		
+		public String get(String word) {
+			LinkedHashMap<String, String> stripe = getStripe(word);
+			synchronized (stripe) {
+				return stripe.get(word);
+			}
+		}
+		
+		public void put(String word, String stem) {
+			LinkedHashMap<String, String> stripe = getStripe(word);
+			synchronized (stripe) {
+				stripe.put(word, stem);
+			}
+		}
+		
+		private LinkedHashMap<String, String> getStripe(String word) {
+			int h = word.hashCode();
+			h ^= h >>> 16;
+			return this.stripes[(h & 0x7FFFFFFF) % STRIPE_COUNT];
+		}
+	}
+
+	private static class StemTokens extends Tokens {
+		@Override
+		protected void putToken(CharSequence token) {
+			String word = token.toString();
+			String stem = stems.get(word);
+			if (stem == null) {
+				stem = Stemmer.stem(word);
+				stems.put(word, stem);
+			}
+
+			put(stem);
+			this.next.put(' ');
+		}
+	}
+
+	/**
+	 * CleanTokens removes the tokens that StringUtil.clean removes
+	 * (the ones that start with slashes or dashes)
+	 */
+	private static class CleanTokens extends Tokens {
+		@Override
+		protected void putToken(CharSequence token) {
+			if (token.length() > 0) {
+				char first = token.charAt(0);
+				if (first == '/' || first == '\\' || first == '-')
+					return;
+			}
+
+			put(token);
+			this.next.put(' ');
+		}
+	}
+
+	/**
+	 * CleanHead and CleanTail keep the strings that StringUtil.clean
+	 * returns unchanged ("$", "&", "+", and "@" after trimming).  The
+	 * rest of the clean stages remove these strings entirely, so
+	 * CleanTail outputs them in their place.
+	 */
+	private static class CleanHead extends Stage {
+		private int count;
+		private char last;
+
+		@Override
+		public void put(char c) {
+			if (c > ' ') {
+				this.count++;
+				this.last = c;
+			}
+			this.next.put(c);
+		}
+
+		@Override
+		public void reset() {
+			this.count = 0;
+		}
+
+		public boolean isUnchanged() {
+			return this.count == 1 && (this.last == '$' || this.last == '&' || this.last == '+' || this.last == '@');
+		}
+	}
+
+	private static class CleanTail extends Stage {
+		private CleanHead head;
+
+		public CleanTail(CleanHead head) {
+			this.head = head;
+		}
+
+		@Override
+		public void put(char c) {
+			this.next.put(c);
+		}
+
+		@Override
+		public void end() {
+			if (this.head.isUnchanged())
+				this.next.put(this.head.last);
+			this.next.end();
+		}
+	}
+}
@@ -6,6 +6,7 @@ import java.util.List;
 
 import edu.cmu.ml.rtw.generic.data.Context;
 import edu.cmu.ml.rtw.generic.parse.CtxParsable;
+import edu.cmu.ml.rtw.generic.parse.CtxParsableFunction;
 import edu.cmu.ml.rtw.generic.parse.Obj;
 
 public class WeightedStructureRelationBinary extends WeightedStructureRelation {
@@ -62,6 +63,16 @@ public class WeightedStructureRelationBinary extends WeightedStructureRelation {
 			return super.getParameterValue(parameter);
 	}
 	
+	@Override
+	public CtxParsableFunction getParameterParsable(String parameter) {
+		if (parameter.equals("r1"))
+			return this.r1;
+		else if (parameter.equals("r2"))
+			return this.r2;
+		else
+			return super.getParameterParsable(parameter);
+	}
+	
 	@Override
 	public boolean setParameterValue(String parameter, Obj parameterValue) {
 		if (parameter.equals("r1")) {			
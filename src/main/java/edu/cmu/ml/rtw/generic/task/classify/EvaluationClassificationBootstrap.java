@@ -0,0 +1,239 @@
+package edu.cmu.ml.rtw.generic.task.classify;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import edu.cmu.ml.rtw.generic.data.annotation.Datum;
+import edu.cmu.ml.rtw.generic.data.annotation.DatumContext;
+import edu.cmu.ml.rtw.generic.util.Pair;
+import edu.cmu.ml.rtw.generic.util.ThreadMapper;
+
+/**
+ * EvaluationClassificationBootstrap computes bootstrap confidence
+ * intervals for classification measures, and the paired bootstrap
+ * significance of the difference between two methods' measures.
+ *
+ * Each resample draws the task's labeled data with replacement, and
+ * is represented by the number of times each datum is drawn (see
+ * EvaluationClassificationMeasure.Resampler), so the data set is 
+ * never copied, and the task classifies and scores the data once
+ * for all of the resamples (see TaskClassification).  The resamples
+ * are computed in parallel, each with its own random stream seeded
+ * from DataTools.makeLocalRandom, so the results only depend on the
+ * random seed and not on the number of threads.
+ *
+ * @author Bill McDowell
+ *
+ */
+public class EvaluationClassificationBootstrap<D extends Datum<L>, L> {
+	/**
+	 * Interval is a measure's value on the full data, along with
+	 * its percentile bootstrap confidence interval
+	 */
+	public static class Interval {
+		private double estimate;
+		private double lower;
+		private double upper;
+		private double confidence;
+
+		public Interval(double estimate, double lower, double upper, double confidence) {
+			this.estimate = estimate;
+			this.lower = lower;
+			this.upper = upper;
+			this.confidence = confidence;
+		}
+
+		public double getEstimate() {
+			return this.estimate;
+		}
+
+		public double getLower() {
+			return this.lower;
+		}
+
+		public double getUpper() {
+			return this.upper;
+		}
+
+		public double getConfidence() {
+			return this.confidence;
+		}
+
+		@Override
+		public String toString() {
+			return this.estimate + "\t[" + this.lower + ", " + this.upper + "]";
+		}
+	}
+
+	/**
+	 * Comparison is the difference between two measures (the first
+	 * minus the second) on the same task, along with the confidence
+	 * interval of the difference and the two-sided p-value of the
+	 * hypothesis that there is no difference
+	 */
+	public static class Comparison {
+		private Interval difference;
+		private double pValue;
+
+		public Comparison(Interval difference, double pValue) {
+			this.difference = difference;
+			this.pValue = pValue;
+		}
+
+		public Interval getDifference() {
+			return this.difference;
+		}
+
+		public double getPValue() {
+			return this.pValue;
+		}
+
+		@Override
+		public String toString() {
+			return this.difference.toString() + "\t(p=" + this.pValue + ")";
+		}
+	}
+
+	private DatumContext<D, L> context;
+	private int resampleCount;
+	private double confidence;
+
+	public EvaluationClassificationBootstrap(DatumContext<D, L> context) {
+		this(context, 1000, 0.95);
+	}
+
+	public EvaluationClassificationBootstrap(DatumContext<D, L> context, int resampleCount, double confidence) {
+		this.context = context;
+		this.resampleCount = resampleCount;
+		this.confidence = confidence;
+	}
+
+	/**
+	 * @return the measure's confidence interval, or null if the measure
+	 * can't be computed on resamples
+	 */
+	public Interval computeInterval(EvaluationClassificationMeasure<D, L> measure) {
+		List<Pair<Double, Double>> values = computeResamples(measure, null);
+		if (values == null)
+			return null;
+
+		double[] samples = new double[values.size()];
+		for (int i = 0; i < samples.length; i++)
+			samples[i] = values.get(i).getFirst();
+
+		return makeInterval(measure.compute(), samples);
+	}
+
+	/**
+	 * @return the comparison of two measures of (usually) different
+	 * methods on the same task, computed on the same resamples, or null
+	 * if the measures can't be computed on resamples
+	 */
+	public Comparison computeComparison(EvaluationClassificationMeasure<D, L> measure1, EvaluationClassificationMeasure<D, L> measure2) {
+		if (measure1.task != measure2.task) {
+			this.context.getDataTools().getOutputWriter().debugWriteln("ERROR: Bootstrap comparison of " + measure1.getReferenceName() + " and " + measure2.getReferenceName() + " requires a shared task.");
+			return null;
+		}
+
+		List<Pair<Double, Double>> values = computeResamples(measure1, measure2);
+		if (values == null)
+			return null;
+
+		double difference = measure1.compute() - measure2.compute();
+		double[] samples = new double[values.size()];
+		int extremeCount = 0;
+		for (int i = 0; i < samples.length; i++) {
+			samples[i] = values.get(i).getFirst() - values.get(i).getSecond();
+
+			// Resampled differences are shifted to be centered at zero
+			// under the null hypothesis
+			if (Math.abs(samples[i] - difference) >= Math.abs(difference))
+				extremeCount++;
+		}
+
+		double pValue = (extremeCount + 1.0) / (samples.length + 1.0);
+		return new Comparison(makeInterval(difference, samples), pValue);
+	}
+
+	/**
+	 * @return pairs of values of measure1 and measure2 (or null if
+	 * measure2 is null) on each resample
+	 */
+	private List<Pair<Double, Double>> computeResamples(final EvaluationClassificationMeasure<D, L> measure1, final EvaluationClassificationMeasure<D, L> measure2) {
+		// Computing the measures on the full data caches the task's
+		// predictions, so the resamples only read them
+		if (this.resampleCount <= 0 || measure1.task == null)
+			return null;
+		if (measure1.compute() == null || (measure2 != null && measure2.compute() == null))
+			return null;
+
+		final List<D> data = measure1.task.getIndexedData();
+		if (data == null)
+			return null;
+		
+		// The resamplers fetch the task's predictions here, so the 
+		// threads don't go through the task
+		final EvaluationClassificationMeasure.Resampler resampler1 = measure1.makeResampler();
+		final EvaluationClassificationMeasure.Resampler resampler2 = (measure2 != null) ? measure2.makeResampler() : null;
+		if (resampler1 == null || (measure2 != null && resampler2 == null)) {
+			this.context.getDataTools().getOutputWriter().debugWriteln("ERROR: Measure doesn't support bootstrap resampling.");
+			return null;
+		}
+
+		int labeledCount = 0;
+		for (D datum : data)
+			if (datum.getLabel() != null)
+				labeledCount++;
+
+		final int[] labeledIndices = new int[labeledCount];
+		labeledCount = 0;
+		for (int i = 0; i < data.size(); i++)
+			if (data.get(i).getLabel() != null)
+				labeledIndices[labeledCount++] = i;
+
+		Random random = this.context.getDataTools().makeLocalRandom();
+		List<Long> seeds = new ArrayList<Long>(this.resampleCount);
+		for (int i = 0; i < this.resampleCount; i++)
+			seeds.add(random.nextLong());
+
+		ThreadMapper<Long, Pair<Double, Double>> mapper = new ThreadMapper<Long, Pair<Double, Double>>(new ThreadMapper.Fn<Long, Pair<Double, Double>>() {
+			@Override
+			public Pair<Double, Double> apply(Long seed) {
+				Random r = context.getDataTools().makeLocalRandom(seed);
+				int[] dataCounts = new int[data.size()];
+				for (int i = 0; i < labeledIndices.length; i++)
+					dataCounts[labeledIndices[r.nextInt(labeledIndices.length)]]++;
+
+				Double value1 = resampler1.computeResample(dataCounts);
+				Double value2 = (resampler2 != null) ? resampler2.computeResample(dataCounts) : null;
+				return new Pair<Double, Double>(value1, value2);
+			}
+		});
+
+		List<Pair<Double, Double>> values = mapper.run(seeds, this.context.getMaxThreads());
+		for (Pair<Double, Double> value : values) {
+			if (value.getFirst() == null || (measure2 != null && value.getSecond() == null)) {
+				this.context.getDataTools().getOutputWriter().debugWriteln("ERROR: Measure doesn't support bootstrap resampling.");
+				return null;
+			}
+		}
+
+		return values;
+	}
+
+	/**
+	 * @return the percentile interval of the samples
+	 */
+	private Interval makeInterval(double estimate, double[] samples) {
+		Arrays.sort(samples);
+		double alpha = 1.0 - this.confidence;
+		int lowerIndex = (int)Math.floor(alpha / 2.0 * samples.length);
+		int upperIndex = (int)Math.ceil((1.0 - alpha / 2.0) * samples.length) - 1;
+		lowerIndex = Math.max(0, Math.min(samples.length - 1, lowerIndex));
+		upperIndex = Math.max(lowerIndex, Math.min(samples.length - 1, upperIndex));
+
+		return new Interval(estimate, samples[lowerIndex], samples[upperIndex], this.confidence);
+	}
+}
@@ -1,5 +1,12 @@
 package edu.cmu.ml.rtw.generic.task.classify;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 import edu.cmu.ml.rtw.generic.data.annotation.Datum;
 import edu.cmu.ml.rtw.generic.data.annotation.DatumContext;
 import edu.cmu.ml.rtw.generic.opt.search.ParameterSearchable;
@@ -59,5 +66,60 @@ public abstract class EvaluationClassificationMeasure<D extends Datum<L>, L> ext
 		return getReferenceName() + ":\t" + compute();
 	}
 	
+	/**
+	 * Resampler computes a measure on resamples of the task's data 
+	 * using the predictions that it fetched from the task when it was
+	 * made, so that resamples can be computed in parallel without 
+	 * going through the task (see EvaluationClassificationBootstrap)
+	 */
+	public static abstract class Resampler {
+		/**
+		 * @return the measure on a resample of the task's data, where
+		 * dataCounts[i] is the number of times that the i-th datum of the
+		 * task (see TaskClassification.getIndexedData) is drawn into the
+		 * resample
+		 */
+		public abstract Double computeResample(int[] dataCounts);
+	}
+	
+	/**
+	 * @return a resampler for the measure, or null if the measure can't
+	 * be computed on resamples.  The task's predictions for the method
+	 * are fetched (and computed if they aren't cached) once, on the
+	 * calling thread.
+	 */
+	public Resampler makeResampler() {
+		return null;
+	}
+	
 	protected abstract EvaluationClassificationMeasure<D, L> makeInstance();
+	
+	/**
+	 * Computes the measures in a single pass over each of their tasks.
+	 * The measures share the classifications and scores that their tasks
+	 * cache for each method (see TaskClassification), so each task is
+	 * classified and scored once per method rather than once per
+	 * measure.  If forceRecompute is true, the cached predictions for
+	 * each task and method are recomputed once, before the first measure
+	 * that uses them.
+	 * 
+	 * @return the values of the measures, in the same order
+	 */
+	public static <D extends Datum<L>, L> List<Double> computeAll(List<? extends EvaluationClassificationMeasure<D, L>> measures, boolean forceRecompute) {
+		Map<TaskClassification<D, L>, Set<MethodClassification<D, L>>> cleared = new HashMap<TaskClassification<D, L>, Set<MethodClassification<D, L>>>();
+		List<Double> values = new ArrayList<Double>(measures.size());
+		
+		for (EvaluationClassificationMeasure<D, L> measure : measures) {
+			if (forceRecompute && measure.task != null && measure.method != null) {
+				if (!cleared.containsKey(measure.task))
+					cleared.put(measure.task, new HashSet<MethodClassification<D, L>>());
+				if (cleared.get(measure.task).add(measure.method))
+					measure.task.clearCache(measure.method);
+			}
+			
+			values.add(measure.compute(false));
+		}
+		
+		return values;
+	}
 }
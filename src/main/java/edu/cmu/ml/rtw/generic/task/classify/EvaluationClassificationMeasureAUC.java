@@ -1,11 +1,6 @@
 package edu.cmu.ml.rtw.generic.task.classify;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Comparator;
-import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
 
 import edu.cmu.ml.rtw.generic.data.annotation.Datum;
 import edu.cmu.ml.rtw.generic.data.annotation.DatumContext;
@@ -35,35 +30,61 @@ public class EvaluationClassificationMeasureAUC<D extends Datum<L> , L> extends
 	 */
 	@Override
 	public Double compute(boolean forceRecompute) {
-		Map<D, Double> scoreMap = this.method.score(this.task, this.filterLabel);
-		List<Entry<D, Double>> scores = new ArrayList<>(scoreMap.entrySet());
-		scores.sort(new Comparator<Entry<D, Double>>() {
-			public int compare(Entry<D, Double> o1, Entry<D, Double> o2) {
-				return Double.compare(o2.getValue(), o1.getValue());
-			}
-		});
+		return compute(this.task.computeScores(this.method, this.filterLabel, forceRecompute), null);
+	}
+	
+	@Override
+	public Resampler makeResampler() {
+		final TaskClassification.ScoredData<D> scores = this.task.computeScores(this.method, this.filterLabel, false);
+		if (scores == null)
+			return null;
 		
+		// Sorted here rather than by the first resample
+		scores.getDescendingOrder();
+		return new Resampler() {
+			@Override
+			public Double computeResample(int[] dataCounts) {
+				return compute(scores, dataCounts);
+			}
+		};
+	}
+	
+	/**
+	 * Computes the AUC on the scored data, with each datum counted
+	 * as many times as it is drawn into the resample given by dataCounts
+	 * (or once if dataCounts is null)
+	 */
+	private Double compute(TaskClassification.ScoredData<D> scores, int[] dataCounts) {
 		int tp = 0, fp = 0;
 		int tp_prev = 0, fp_prev = 0;
 		double A = 0.0;
 		double score_prev = Double.NEGATIVE_INFINITY;
 		
-		for (Entry<D, Double> entry : scores) {
-			if (entry.getKey().getLabel() == null)
+		for (int i : scores.getDescendingOrder()) {
+			D datum = scores.getDatum(i);
+			if (datum.getLabel() == null)
 				continue;
 			
-			Double score = entry.getValue();
-			if (!score.equals(score_prev)) {
+			int count = 1;
+			if (dataCounts != null) {
+				int dataIndex = scores.getDataIndex(i);
+				count = (dataIndex < 0) ? 0 : dataCounts[dataIndex];
+				if (count == 0)
+					continue;
+			}
+			
+			double score = scores.getScore(i);
+			if (Double.compare(score, score_prev) != 0) {
 				A += trapezoidArea(fp, fp_prev, tp, tp_prev);
 				score_prev = score;
 				fp_prev = fp;
 				tp_prev = tp;
 			}
 			
-			if (entry.getKey().getLabel().equals(this.filterLabel)) 
-				tp++;
+			if (datum.getLabel().equals(this.filterLabel)) 
+				tp += count;
 			else
-				fp++;
+				fp += count;
 		}
 		
 		if (tp == 0)
@@ -72,14 +93,14 @@ public class EvaluationClassificationMeasureAUC<D extends Datum<L> , L> extends
 			return 1.0;
 		
 		A += trapezoidArea(fp, fp_prev, tp, tp_prev);
-		A /= (tp*fp);
+		A /= ((double)tp*fp);
 		
 		return A;
 	}
 	
 	@Override
 	public int computeSampleSize(boolean forceRecompute) {
-		return this.method.score(this.task, this.filterLabel).size();
+		return this.task.computeScores(this.method, this.filterLabel, forceRecompute).size();
 	}
 	
 	@Override
@@ -19,7 +19,24 @@ public class EvaluationClassificationMeasureAccuracy<D extends Datum<L>, L> exte
 
 	@Override
 	public Double compute(boolean forceRecompute) {
-		Map<L, Map<Stat, Integer>> stats =  this.task.computeStats(this.method, forceRecompute);
+		return compute(this.task.computeStats(this.method, forceRecompute));
+	}
+	
+	@Override
+	public Resampler makeResampler() {
+		final Map<L, Map<L, int[]>> actualToPredictedIndices = this.task.computeActualToPredictedIndices(this.method);
+		if (actualToPredictedIndices == null)
+			return null;
+		
+		return new Resampler() {
+			@Override
+			public Double computeResample(int[] dataCounts) {
+				return compute(task.computeStats(actualToPredictedIndices, dataCounts));
+			}
+		};
+	}
+	
+	private Double compute(Map<L, Map<Stat, Integer>> stats) {
 		int trueCount = 0;
 		int falseCount = 0;
 		
@@ -24,6 +24,17 @@ public class EvaluationClassificationMeasureConstant<D extends Datum<L> , L> ext
 		return this.value;
 	}
 	
+	@Override
+	public Resampler makeResampler() {
+		final double value = this.value;
+		return new Resampler() {
+			@Override
+			public Double computeResample(int[] dataCounts) {
+				return value;
+			}
+		};
+	}
+	
 	@Override
 	public int computeSampleSize(boolean forceRecompute) {
 		return this.task.getData().size();
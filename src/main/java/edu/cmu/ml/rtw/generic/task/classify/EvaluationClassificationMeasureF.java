@@ -37,7 +37,24 @@ public class EvaluationClassificationMeasureF<D extends Datum<L> , L> extends Ev
 
 	@Override
 	public Double compute(boolean forceRecompute) {
-		Map<L, Map<Stat, Integer>> stats =  this.task.computeStats(this.method, forceRecompute);
+		return compute(this.task.computeStats(this.method, forceRecompute));
+	}
+	
+	@Override
+	public Resampler makeResampler() {
+		final Map<L, Map<L, int[]>> actualToPredictedIndices = this.task.computeActualToPredictedIndices(this.method);
+		if (actualToPredictedIndices == null)
+			return null;
+		
+		return new Resampler() {
+			@Override
+			public Double computeResample(int[] dataCounts) {
+				return compute(task.computeStats(actualToPredictedIndices, dataCounts));
+			}
+		};
+	}
+	
+	private Double compute(Map<L, Map<Stat, Integer>> stats) {
 		
 		double F = 0.0;
 
@@ -34,7 +34,24 @@ public class EvaluationClassificationMeasurePrecision<D extends Datum<L> , L> ex
 
 	@Override
 	public Double compute(boolean forceRecompute) {
-		Map<L, Map<Stat, Integer>> stats =  this.task.computeStats(this.method, forceRecompute);
+		return compute(this.task.computeStats(this.method, forceRecompute), true);
+	}
+	
+	@Override
+	public Resampler makeResampler() {
+		final Map<L, Map<L, int[]>> actualToPredictedIndices = this.task.computeActualToPredictedIndices(this.method);
+		if (actualToPredictedIndices == null)
+			return null;
+		
+		return new Resampler() {
+			@Override
+			public Double computeResample(int[] dataCounts) {
+				return compute(task.computeStats(actualToPredictedIndices, dataCounts), false);
+			}
+		};
+	}
+	
+	private Double compute(Map<L, Map<Stat, Integer>> stats, boolean keepMicroCounts) {
 		
 		double p = 0.0;
 		double num = 0.0;
@@ -71,7 +88,7 @@ public class EvaluationClassificationMeasurePrecision<D extends Datum<L> , L> ex
 			}
 		}
 		
-		if (this.mode == Mode.MICRO) {
+		if (this.mode == Mode.MICRO && keepMicroCounts) {
 			this.microNumerator = (int)num;
 			this.microDenominator = (int)den;
 		}
@@ -2,10 +2,7 @@ package edu.cmu.ml.rtw.generic.task.classify;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
 
 import edu.cmu.ml.rtw.generic.data.annotation.Datum;
 import edu.cmu.ml.rtw.generic.data.annotation.DatumContext;
@@ -32,29 +29,24 @@ public class EvaluationClassificationROC<D extends Datum<L>, L> extends Evaluati
 
 	@Override
 	public List<Pair<Double, Double>> compute(boolean forceRecompute) {
-		Map<D, Double> scoreMap = this.method.score(this.task, this.filterLabel);
-		List<Entry<D, Double>> scores = new ArrayList<>(scoreMap.entrySet());
-		scores.sort(new Comparator<Entry<D, Double>>() {
-			public int compare(Entry<D, Double> o1, Entry<D, Double> o2) {
-				return Double.compare(o2.getValue(), o1.getValue());
-			}
-		});
+		TaskClassification.ScoredData<D> scores = this.task.computeScores(this.method, this.filterLabel, forceRecompute);
 		
 		int tp = 0, fp = 0;
 		List<Pair<Double, Double>> points = new ArrayList<>();
 		double score_prev = Double.NEGATIVE_INFINITY;
 		
-		for (Entry<D, Double> entry : scores) {
-			if (entry.getKey().getLabel() == null)
+		for (int i : scores.getDescendingOrder()) {
+			D datum = scores.getDatum(i);
+			if (datum.getLabel() == null)
 				continue;
 			
-			Double score = entry.getValue();
-			if (!score.equals(score_prev)) {
+			double score = scores.getScore(i);
+			if (Double.compare(score, score_prev) != 0) {
 				points.add(new Pair<Double, Double>(Double.valueOf(fp), Double.valueOf(tp)));
 				score_prev = score;
 			}
 			
-			if (entry.getKey().getLabel().equals(this.filterLabel)) 
+			if (datum.getLabel().equals(this.filterLabel)) 
 				tp++;
 			else
 				fp++;
@@ -75,7 +67,7 @@ public class EvaluationClassificationROC<D extends Datum<L>, L> extends Evaluati
 	
 	@Override
 	public int computeSampleSize(boolean forceRecompute) {
-		throw new UnsupportedOperationException();
+		return this.task.computeScores(this.method, this.filterLabel, forceRecompute).size();
 	}
 
 	@Override
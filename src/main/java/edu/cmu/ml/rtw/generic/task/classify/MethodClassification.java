@@ -1,5 +1,6 @@
 package edu.cmu.ml.rtw.generic.task.classify;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -12,7 +13,11 @@ import edu.cmu.ml.rtw.generic.task.classify.meta.PredictionClassification;
 import edu.cmu.ml.rtw.generic.util.Pair;
 
 public abstract class MethodClassification<D extends Datum<L>, L> extends CtxParsableFunction {
+	public static final int UNVERSIONED = -1;
+	
 	protected DatumContext<D, L> context;
+	private volatile int version = 0;
+	private int[] dependencyVersions; // Versions of the methods that the predictions depend on
 	
 	public MethodClassification() {
 		this(null);
@@ -78,6 +83,56 @@ public abstract class MethodClassification<D extends Datum<L>, L> extends CtxPar
 		return this.clone(this.referenceName);
 	}
 	
+	/**
+	 * @return a number that changes whenever the method's predictions
+	 * might change (e.g. when it is retrained), so that tasks can reuse
+	 * their cached predictions for the method until it changes (see
+	 * TaskClassification), or UNVERSIONED if the method doesn't keep 
+	 * track of when its predictions change, in which case tasks don't
+	 * cache them.  Implementations that keep a version override this
+	 * to return getTrackedVersion, and call incrementVersion whenever 
+	 * they're trained or their parameters are set.
+	 */
+	public int getVersion() {
+		return UNVERSIONED;
+	}
+	
+	/**
+	 * @return the number of times incrementVersion has been called
+	 */
+	protected int getTrackedVersion() {
+		return this.version;
+	}
+	
+	protected synchronized void incrementVersion() {
+		this.version++;
+	}
+	
+	/**
+	 * @return the version of a method whose predictions also depend on
+	 * the predictions of the given methods (e.g. a method that wraps
+	 * another one).  The version is incremented whenever the versions 
+	 * of the given methods have changed since the last call, so 
+	 * implementations can return this from getVersion.  The version is
+	 * UNVERSIONED if any of the given methods is missing or unversioned.
+	 */
+	protected synchronized int getDependentVersion(MethodClassification<?, ?>... dependencies) {
+		int[] versions = new int[dependencies.length];
+		for (int i = 0; i < dependencies.length; i++) {
+			versions[i] = (dependencies[i] == null) ? UNVERSIONED : dependencies[i].getVersion();
+			if (versions[i] == UNVERSIONED)
+				return UNVERSIONED;
+		}
+		
+		if (!Arrays.equals(versions, this.dependencyVersions)) {
+			if (this.dependencyVersions != null)
+				this.version++;
+			this.dependencyVersions = versions;
+		}
+		
+		return this.version;
+	}
+	
 	public abstract Map<D, L> classify(DataSet<D, L> data);
 	public abstract Map<D, Pair<L, Double>> classifyWithScore(DataSet<D, L> data);
 	public abstract Map<D, Double> score(DataSet<D, L> data, L label);
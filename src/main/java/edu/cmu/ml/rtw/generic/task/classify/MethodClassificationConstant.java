@@ -47,6 +47,7 @@ public class MethodClassificationConstant<D extends Datum<L>, L> extends MethodC
 		else
 			return false;
 		
+		incrementVersion();
 		return true;
 	}
 
@@ -105,6 +106,11 @@ public class MethodClassificationConstant<D extends Datum<L>, L> extends MethodC
 		return new MethodClassificationConstant<D, L>(context);
 	}
 
+	@Override
+	public int getVersion() {
+		return getTrackedVersion();
+	}
+
 	@Override
 	public boolean hasTrainable() {
 		return false;
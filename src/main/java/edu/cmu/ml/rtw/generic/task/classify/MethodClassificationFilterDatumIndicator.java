@@ -63,6 +63,7 @@ public class MethodClassificationFilterDatumIndicator<D extends Datum<L>, L> ext
 		else
 			return false;
 		
+		incrementVersion();
 		return true;
 	}
 
@@ -117,6 +118,11 @@ public class MethodClassificationFilterDatumIndicator<D extends Datum<L>, L> ext
 		return new MethodClassificationFilterDatumIndicator<D, L>(context);
 	}
 
+	@Override
+	public int getVersion() {
+		return getDependentVersion(this.method);
+	}
+
 	@Override
 	public boolean hasTrainable() {
 		return this.method.hasTrainable();
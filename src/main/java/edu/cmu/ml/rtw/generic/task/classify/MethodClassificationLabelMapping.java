@@ -64,6 +64,7 @@ public class MethodClassificationLabelMapping<D extends Datum<L>, L> extends Met
 		else
 			return false;
 		
+		incrementVersion();
 		return true;
 	}
 
@@ -121,6 +122,11 @@ public class MethodClassificationLabelMapping<D extends Datum<L>, L> extends Met
 		return new MethodClassificationLabelMapping<D, L>(context);
 	}
 
+	@Override
+	public int getVersion() {
+		return getDependentVersion(this.method);
+	}
+
 	@Override
 	public boolean hasTrainable() {
 		return this.method.hasTrainable();
@@ -19,6 +19,7 @@ import edu.cmu.ml.rtw.generic.parse.Assignment.AssignmentTyped;
 import edu.cmu.ml.rtw.generic.parse.AssignmentList;
 import edu.cmu.ml.rtw.generic.parse.Obj;
 import edu.cmu.ml.rtw.generic.util.Pair;
+import edu.cmu.ml.rtw.generic.util.SparseVectorBuilder;
 
 public class MethodClassificationSupervisedModel<D extends Datum<L>, L> extends MethodClassification<D, L> implements Trainable<D, L> {
 	private DataFeatureMatrix<D, L> data;
@@ -32,6 +33,9 @@ public class MethodClassificationSupervisedModel<D extends Datum<L>, L> extends
 	
 	private boolean initialized = false;
 	
+	// Scratch space for scoring single datums on each thread
+	private ThreadLocal<double[]> vectorScores = new ThreadLocal<double[]>();
+	
 	public MethodClassificationSupervisedModel() {
 		this(null);
 	}
@@ -92,11 +96,10 @@ public class MethodClassificationSupervisedModel<D extends Datum<L>, L> extends
 			this.trainOnInit = (parameterValue == null) ? true : Boolean.valueOf(this.context.getMatchValue(parameterValue));
 		else if (parameter.equals("dataFeatures"))
 			this.dataFeatures = (parameterValue == null) ? null : this.context.getMatchFeatureSet(parameterValue);
-		else if (this.model != null)
-			return this.model.setParameterValue(parameter, parameterValue);
-		else
+		else if (this.model == null || !this.model.setParameterValue(parameter, parameterValue))
 			return false;
 		
+		incrementVersion();
 		return true;
 	}
 
@@ -167,6 +170,7 @@ public class MethodClassificationSupervisedModel<D extends Datum<L>, L> extends
 				return false;
 			this.model = model;
 			this.initialized = true;
+			incrementVersion();
 		}
 		
 		return true;
@@ -220,11 +224,18 @@ public class MethodClassificationSupervisedModel<D extends Datum<L>, L> extends
 		
 		List<SupervisedModelEvaluation<D, L>> evals = new ArrayList<SupervisedModelEvaluation<D, L>>();
 		evals.add(this.trainEvaluation);
-		return this.model.train(this.data, devMat, evals);
+		boolean trained = this.model.train(this.data, devMat, evals);
+		incrementVersion();
+		return trained;
 	}
 
 	
 	
+	@Override
+	public int getVersion() {
+		return getTrackedVersion();
+	}
+	
 	@Override
 	public boolean hasTrainable() {
 		return true;
@@ -272,7 +283,9 @@ public class MethodClassificationSupervisedModel<D extends Datum<L>, L> extends
 		List<SupervisedModelEvaluation<D, L>> evals = new ArrayList<SupervisedModelEvaluation<D, L>>();
 		evals.add(this.trainEvaluation);
 		
-		return this.model.iterateTraining(this.data, devMat, evals, constrainedData);
+		boolean iterated = this.model.iterateTraining(this.data, devMat, evals, constrainedData);
+		incrementVersion();
+		return iterated;
 	}
 
 	@Override
@@ -280,8 +293,31 @@ public class MethodClassificationSupervisedModel<D extends Datum<L>, L> extends
 		return this.data.getData();
 	}
 
+	/*
+	 * The single datum methods below score the datum's feature vector 
+	 * directly through the model when it supports it (see 
+	 * SupervisedModel.getVectorLabels), and otherwise classify a data set 
+	 * containing only the datum.
+	 */
+	
 	@Override
 	public L classify(D datum) {
+		L fixedLabel = this.model.getFixedDatumLabel(datum);
+		if (fixedLabel != null)
+			return fixedLabel;
+		
+		List<L> labels = this.model.getVectorLabels();
+		if (labels != null) {
+			SparseVectorBuilder featureValues = computeFeatureValues(datum);
+			try {
+				int labelIndex = this.model.classifyVector(featureValues, getVectorScores(labels.size()));
+				if (labelIndex >= 0)
+					return labels.get(labelIndex);
+			} finally {
+				featureValues.release();
+			}
+		}
+		
 		// FIXME This is slow and stupid
 		DataSet<D, L> data = new DataSet<D, L>(null);
 		data.add(datum);
@@ -294,6 +330,20 @@ public class MethodClassificationSupervisedModel<D extends Datum<L>, L> extends
 
 	@Override
 	public Pair<L, Double> classifyWithScore(D datum) {
+		List<L> labels = this.model.getVectorLabels();
+		if (labels != null) {
+			SparseVectorBuilder featureValues = computeFeatureValues(datum);
+			try {
+				double[] scores = getVectorScores(labels.size());
+				L fixedLabel = this.model.getFixedDatumLabel(datum);
+				int labelIndex = (fixedLabel != null) ? labels.indexOf(fixedLabel) : this.model.classifyVector(featureValues, scores);
+				if (labelIndex >= 0 && this.model.posteriorVector(featureValues, scores))
+					return new Pair<L, Double>(labels.get(labelIndex), scores[labelIndex]);
+			} finally {
+				featureValues.release();
+			}
+		}
+		
 		// FIXME This is slow and stupid
 		DataSet<D, L> data = new DataSet<D, L>(null);
 		data.add(datum);
@@ -306,6 +356,19 @@ public class MethodClassificationSupervisedModel<D extends Datum<L>, L> extends
 	
 	@Override
 	public double score(D datum, L label) {
+		List<L> labels = this.model.getVectorLabels();
+		int labelIndex = (labels != null) ? labels.indexOf(label) : -1;
+		if (labelIndex >= 0) {
+			SparseVectorBuilder featureValues = computeFeatureValues(datum);
+			try {
+				double[] scores = getVectorScores(labels.size());
+				if (this.model.posteriorVector(featureValues, scores))
+					return scores[labelIndex];
+			} finally {
+				featureValues.release();
+			}
+		}
+		
 		// FIXME This is slow and stupid
 		DataSet<D, L> data = new DataSet<D, L>(null);
 		data.add(datum);
@@ -318,6 +381,25 @@ public class MethodClassificationSupervisedModel<D extends Datum<L>, L> extends
 		
 	}
 	
+	/**
+	 * @return the feature vector for the datum in the current thread's 
+	 * builder, which should be released once the datum has been scored
+	 */
+	private SparseVectorBuilder computeFeatureValues(D datum) {
+		SparseVectorBuilder featureValues = SparseVectorBuilder.acquire();
+		this.data.getFeatures().computeFeatureVocabularyValues(datum, featureValues);
+		return featureValues;
+	}
+	
+	private double[] getVectorScores(int size) {
+		double[] scores = this.vectorScores.get();
+		if (scores == null || scores.length < size) {
+			scores = new double[size];
+			this.vectorScores.set(scores);
+		}
+		return scores;
+	}
+	
 	public SupervisedModel<D, L> getSupervisedModel() {
 		return this.model;
 	}
@@ -1,10 +1,15 @@
 package edu.cmu.ml.rtw.generic.task.classify;
 
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.WeakHashMap;
 
 import edu.cmu.ml.rtw.generic.data.annotation.DataSet;
 import edu.cmu.ml.rtw.generic.data.annotation.Datum;
@@ -13,6 +18,25 @@ import edu.cmu.ml.rtw.generic.parse.AssignmentList;
 import edu.cmu.ml.rtw.generic.parse.CtxParsableFunction;
 import edu.cmu.ml.rtw.generic.parse.Obj;
 
+/**
+ * TaskClassification is a classification task over a data set.  It
+ * caches each method's classifications of the data (and the statistics
+ * computed from them) and each method's scores for the data, so that 
+ * the evaluations of a method on the task (see EvaluationClassification)
+ * classify and score the data once rather than once per evaluation.  
+	 * The cached predictions for a method are dropped when its version 
+	 * changes (see MethodClassification.getVersion), e.g. when it is 
+ * retrained, and predictions for methods that are unversioned aren't
+ * cached.
+ * 
+ * The task also indexes its data (see getIndexedData), so that
+ * statistics can be computed on resamples of the data that are
+ * represented by the number of times each datum is drawn (see
+ * EvaluationClassificationBootstrap) without copying the data set.
+ * 
+ * @author Bill McDowell
+ *
+ */
 public class TaskClassification<D extends Datum<L>, L> extends CtxParsableFunction {
 	public enum Stat {
 		TRUE_POSITIVE,
@@ -21,16 +45,149 @@ public class TaskClassification<D extends Datum<L>, L> extends CtxParsableFuncti
 		FALSE_NEGATIVE,
 	}
 	
+	/**
+	 * ScoredData holds a method's scores for a label on each datum
+	 * in the task in primitive arrays, along with the datum indices 
+	 * in order of descending score, which is computed once and shared
+	 * by the evaluations that need it (e.g. AUC and ROC)
+	 */
+	public static class ScoredData<D> {
+		private List<D> data;
+		private int[] dataIndices;
+		private double[] scores;
+		private int[] descendingOrder;
+		
+		public ScoredData(Map<D, Double> scores, Map<D, Integer> dataIndices) {
+			this.data = new ArrayList<D>(scores.size());
+			this.dataIndices = new int[scores.size()];
+			this.scores = new double[scores.size()];
+			
+			int i = 0;
+			for (Entry<D, Double> entry : scores.entrySet()) {
+				Integer dataIndex = dataIndices.get(entry.getKey());
+				this.data.add(entry.getKey());
+				this.dataIndices[i] = (dataIndex == null) ? -1 : dataIndex;
+				this.scores[i] = entry.getValue();
+				i++;
+			}
+		}
+		
+		public int size() {
+			return this.scores.length;
+		}
+		
+		public D getDatum(int index) {
+			return this.data.get(index);
+		}
+		
+		/**
+		 * @return the index of the datum in the task's indexed data 
+		 * (see TaskClassification.getIndexedData), or -1 if the datum 
+		 * isn't in the task
+		 */
+		public int getDataIndex(int index) {
+			return this.dataIndices[index];
+		}
+		
+		public double getScore(int index) {
+			return this.scores[index];
+		}
+		
+		public synchronized int[] getDescendingOrder() {
+			if (this.descendingOrder != null)
+				return this.descendingOrder;
+			
+			Integer[] order = new Integer[this.scores.length];
+			for (int i = 0; i < order.length; i++)
+				order[i] = i;
+			
+			final double[] scores = this.scores;
+			Arrays.sort(order, new Comparator<Integer>() {
+				public int compare(Integer i1, Integer i2) {
+					return Double.compare(scores[i2], scores[i1]);
+				}
+			});
+			
+			this.descendingOrder = new int[order.length];
+			for (int i = 0; i < order.length; i++)
+				this.descendingOrder[i] = order[i];
+			
+			return this.descendingOrder;
+		}
+	}
+	
+	/**
+	 * MethodCache holds the classifications, statistics, and scores 
+	 * computed for one method object at one of its versions (see 
+	 * MethodClassification.getVersion).  Results that are computed 
+	 * while the method changes are stored in the old cache, which is
+	 * replaced the next time the method's cache is requested.
+	 */
+	private static class MethodCache<D, L> {
+		// Weakly referenced so that the cache doesn't keep its key alive 
+		private WeakReference<MethodClassification<?, ?>> method;
+		private int version;
+		
+		private Map<L, Map<L, List<D>>> actualToPredicted;
+		private Map<L, Map<L, int[]>> actualToPredictedIndices;
+		private Map<L, Map<Stat, Integer>> stats;
+		private Map<L, ScoredData<D>> scores;
+		
+		public MethodCache(MethodClassification<?, ?> method, int version) {
+			this.method = new WeakReference<MethodClassification<?, ?>>(method);
+			this.version = version;
+			this.scores = Collections.synchronizedMap(new HashMap<L, ScoredData<D>>());
+		}
+		
+		public boolean isFor(MethodClassification<?, ?> method, int version) {
+			return this.method.get() == method && this.version == version;
+		}
+		
+		public synchronized Map<L, Map<L, List<D>>> getActualToPredicted() {
+			return this.actualToPredicted;
+		}
+		
+		public synchronized void setActualToPredicted(Map<L, Map<L, List<D>>> actualToPredicted) {
+			this.actualToPredicted = actualToPredicted;
+			this.actualToPredictedIndices = null;
+			this.stats = null;
+		}
+		
+		public synchronized Map<L, Map<L, int[]>> getActualToPredictedIndices(Map<L, Map<L, List<D>>> actualToPredicted) {
+			return (this.actualToPredicted == actualToPredicted) ? this.actualToPredictedIndices : null;
+		}
+		
+		public synchronized void setActualToPredictedIndices(Map<L, Map<L, List<D>>> actualToPredicted, Map<L, Map<L, int[]>> actualToPredictedIndices) {
+			if (this.actualToPredicted == actualToPredicted)
+				this.actualToPredictedIndices = actualToPredictedIndices;
+		}
+		
+		public synchronized Map<L, Map<Stat, Integer>> getStats(Map<L, Map<L, List<D>>> actualToPredicted) {
+			return (this.actualToPredicted == actualToPredicted) ? this.stats : null;
+		}
+		
+		public synchronized void setStats(Map<L, Map<L, List<D>>> actualToPredicted, Map<L, Map<Stat, Integer>> stats) {
+			if (this.actualToPredicted == actualToPredicted)
+				this.stats = stats;
+		}
+	}
+	
 	protected DataSet<D, L> data;
 	protected String[] parameterNames = { "data" };
 	
-	protected Map<MethodClassification<D, L>, Map<L, Map<L, List<D>>>> methodsActualToPredicted;
+	// Caches by method, with weak keys so that the caches of discarded 
+	// methods are dropped.  Methods are equal if they have the same 
+	// reference names, so each cache also checks the method's identity.
+	private Map<MethodClassification<D, L>, MethodCache<D, L>> methodsCaches;
 	protected boolean initialized = false;
 	protected DatumContext<D, L> context;
 	
+	private List<D> indexedData;
+	private Map<D, Integer> dataIndices;
+	
 	public TaskClassification(DatumContext<D, L> context) {
 		this.context = context;
-		this.methodsActualToPredicted = new HashMap<MethodClassification<D, L>, Map<L, Map<L, List<D>>>>();
+		this.methodsCaches = new WeakHashMap<MethodClassification<D, L>, MethodCache<D, L>>();
 	}
 	
 	public boolean init() {
@@ -50,20 +207,43 @@ public class TaskClassification<D extends Datum<L>, L> extends CtxParsableFuncti
 		return this.data;
 	}
 	
+	/**
+	 * @return the task's data in a fixed order, so that data can be 
+	 * referred to by their indices (e.g. in resamples)
+	 */
+	public synchronized List<D> getIndexedData() {
+		if (this.indexedData != null)
+			return this.indexedData;
+		if (!init())
+			return null;
+		
+		this.indexedData = new ArrayList<D>(this.data.size());
+		this.dataIndices = new HashMap<D, Integer>();
+		for (D datum : this.data) {
+			this.dataIndices.put(datum, this.indexedData.size());
+			this.indexedData.add(datum);
+		}
+		
+		return this.indexedData;
+	}
+	
 	public Map<L, Map<L, List<D>>> computeActualToPredictedData(MethodClassification<D, L> method) {
 		return computeActualToPredictedData(method, false);
 	}
 	
 	public Map<L, Map<L, List<D>>> computeActualToPredictedData(MethodClassification<D, L> method, boolean forceRecompute) {
-		if (!init())
+		MethodCache<D, L> cache = initCache(method);
+		if (cache == null)
 			return null;
-		if (!method.init(this.data))
-			return null;
-		
-		if (!forceRecompute && this.methodsActualToPredicted.containsKey(method))
-			return this.methodsActualToPredicted.get(method);
+		return computeActualToPredictedData(method, cache, forceRecompute);
+	}
+	
+	private Map<L, Map<L, List<D>>> computeActualToPredictedData(MethodClassification<D, L> method, MethodCache<D, L> cache, boolean forceRecompute) {
+		Map<L, Map<L, List<D>>> actualToPredicted = cache.getActualToPredicted();
+		if (!forceRecompute && actualToPredicted != null)
+			return actualToPredicted;
 		
-		Map<L, Map<L, List<D>>> actualToPredicted = new HashMap<L, Map<L, List<D>>>();
+		actualToPredicted = new HashMap<L, Map<L, List<D>>>();
 		Map<D, L> predictions = method.classify(getData());
 		
 		for (D datum : this.data) {
@@ -79,7 +259,7 @@ public class TaskClassification<D extends Datum<L>, L> extends CtxParsableFuncti
 			actualToPredicted.get(actual).get(predicted).add(datum);
 		}
 		
-		this.methodsActualToPredicted.put(method, actualToPredicted);
+		cache.setActualToPredicted(actualToPredicted);
 		return actualToPredicted;
 	}
 	
@@ -88,19 +268,102 @@ public class TaskClassification<D extends Datum<L>, L> extends CtxParsableFuncti
 	}
 	
 	public Map<L, Map<Stat, Integer>> computeStats(MethodClassification<D, L> method, boolean forceRecompute) {
-		Map<L, Map<L, List<D>>> actualToPredicted = computeActualToPredictedData(method, forceRecompute);
+		MethodCache<D, L> cache = initCache(method);
+		if (cache == null)
+			return null;
+		Map<L, Map<L, List<D>>> actualToPredicted = computeActualToPredictedData(method, cache, forceRecompute);
+		if (actualToPredicted == null)
+			return null;
+		Map<L, Map<Stat, Integer>> stats = cache.getStats(actualToPredicted);
+		if (stats != null)
+			return stats;
+		
+		Map<L, Map<L, Integer>> actualToPredictedCounts = new HashMap<L, Map<L, Integer>>();
+		for (Entry<L, Map<L, List<D>>> entry : actualToPredicted.entrySet()) {
+			actualToPredictedCounts.put(entry.getKey(), new HashMap<L, Integer>());
+			for (Entry<L, List<D>> entry2 : entry.getValue().entrySet())
+				actualToPredictedCounts.get(entry.getKey()).put(entry2.getKey(), entry2.getValue().size());
+		}
+		
+		stats = computeStats(actualToPredictedCounts);
+		cache.setStats(actualToPredicted, stats);
+		return stats;
+	}
+	
+	/**
+	 * @return the statistics for a method's classifications on a 
+	 * resample of the task's data, where dataCounts[i] is the number
+	 * of times the i-th datum (see getIndexedData) is in the resample,
+	 * and actualToPredictedIndices are the method's classifications
+	 * from computeActualToPredictedIndices.  The statistics are the 
+	 * same as the ones computed by computeStats(method) on a copy of 
+	 * the data that contains each datum the given number of times.  
+	 * This only reads its arguments, so it can be called by several 
+	 * threads at once.
+	 */
+	public Map<L, Map<Stat, Integer>> computeStats(Map<L, Map<L, int[]>> actualToPredictedIndices, int[] dataCounts) {
+		Map<L, Map<L, Integer>> actualToPredictedCounts = new HashMap<L, Map<L, Integer>>();
+		for (Entry<L, Map<L, int[]>> entry : actualToPredictedIndices.entrySet()) {
+			Map<L, Integer> predictedCounts = new HashMap<L, Integer>();
+			for (Entry<L, int[]> entry2 : entry.getValue().entrySet()) {
+				int count = 0;
+				for (int index : entry2.getValue())
+					count += dataCounts[index];
+				if (count > 0)
+					predictedCounts.put(entry2.getKey(), count);
+			}
+			
+			if (predictedCounts.size() > 0)
+				actualToPredictedCounts.put(entry.getKey(), predictedCounts);
+		}
+		
+		return computeStats(actualToPredictedCounts);
+	}
+	
+	/**
+	 * @return the method's classifications as a map from actual labels 
+	 * to predicted labels to the indices of the data (see getIndexedData)
+	 * with those labels
+	 */
+	public Map<L, Map<L, int[]>> computeActualToPredictedIndices(MethodClassification<D, L> method) {
+		MethodCache<D, L> cache = initCache(method);
+		if (cache == null)
+			return null;
+		Map<L, Map<L, List<D>>> actualToPredicted = computeActualToPredictedData(method, cache, false);
+		if (actualToPredicted == null || getIndexedData() == null)
+			return null;
+		Map<L, Map<L, int[]>> actualToPredictedIndices = cache.getActualToPredictedIndices(actualToPredicted);
+		if (actualToPredictedIndices != null)
+			return actualToPredictedIndices;
+		
+		actualToPredictedIndices = new HashMap<L, Map<L, int[]>>();
+		for (Entry<L, Map<L, List<D>>> entry : actualToPredicted.entrySet()) {
+			actualToPredictedIndices.put(entry.getKey(), new HashMap<L, int[]>());
+			for (Entry<L, List<D>> entry2 : entry.getValue().entrySet()) {
+				int[] indices = new int[entry2.getValue().size()];
+				for (int i = 0; i < indices.length; i++)
+					indices[i] = this.dataIndices.get(entry2.getValue().get(i));
+				actualToPredictedIndices.get(entry.getKey()).put(entry2.getKey(), indices);
+			}
+		}
+		
+		cache.setActualToPredictedIndices(actualToPredicted, actualToPredictedIndices);
+		return actualToPredictedIndices;
+	}
+	
+	private Map<L, Map<Stat, Integer>> computeStats(Map<L, Map<L, Integer>> actualToPredictedCounts) {
 		Map<L, Map<Stat, Integer>> stats = new HashMap<L, Map<Stat, Integer>>();
 
-		for (Entry<L, Map<L, List<D>>> entry : actualToPredicted.entrySet()) {
+		for (Entry<L, Map<L, Integer>> entry : actualToPredictedCounts.entrySet()) {
 			L actual = entry.getKey();
 			
-			for (Entry<L, List<D>> entry2 : entry.getValue().entrySet()) {
+			for (Entry<L, Integer> entry2 : entry.getValue().entrySet()) {
 				L predicted = entry2.getKey();
-				int count = entry2.getValue().size();
+				int count = entry2.getValue();
 				
 				if (actual.equals(predicted)) {
 					incrementStat(stats, predicted, Stat.TRUE_POSITIVE, count);
-					for (L label : actualToPredicted.keySet())
+					for (L label : actualToPredictedCounts.keySet())
 						if (!label.equals(predicted))
 							incrementStat(stats, label, Stat.TRUE_NEGATIVE, count);
 				} else {
@@ -114,6 +377,78 @@ public class TaskClassification<D extends Datum<L>, L> extends CtxParsableFuncti
 		return stats;
 	}
 	
+	public ScoredData<D> computeScores(MethodClassification<D, L> method, L label) {
+		return computeScores(method, label, false);
+	}
+	
+	/**
+	 * @return the method's scores for the label on the task's data.
+	 * Unlike computeActualToPredictedData, this doesn't initialize the
+	 * method.
+	 */
+	public ScoredData<D> computeScores(MethodClassification<D, L> method, L label, boolean forceRecompute) {
+		if (!init())
+			return null;
+		
+		Map<L, ScoredData<D>> labelsScores = getCache(method).scores;
+		if (!forceRecompute && labelsScores.containsKey(label))
+			return labelsScores.get(label);
+		
+		if (getIndexedData() == null)
+			return null;
+		
+		ScoredData<D> scores = new ScoredData<D>(method.score(this.data, label), this.dataIndices);
+		labelsScores.put(label, scores);
+		return scores;
+	}
+	
+	/**
+	 * Drops the cached classifications, statistics, and scores for
+	 * the method, so that they are recomputed the next time they're
+	 * needed
+	 */
+	public void clearCache(MethodClassification<D, L> method) {
+		synchronized (this.methodsCaches) {
+			this.methodsCaches.remove(method);
+		}
+	}
+	
+	/**
+	 * Initializes the task and the method (which may train the method),
+	 * and then returns the method's cache
+	 */
+	private MethodCache<D, L> initCache(MethodClassification<D, L> method) {
+		if (!init())
+			return null;
+		if (!method.init(this.data))
+			return null;
+		return getCache(method);
+	}
+	
+	/**
+	 * @return the cache for the current version of the method, which
+	 * replaces the method's previous cache if the method has changed, 
+	 * or an empty cache that isn't kept if the method is unversioned
+	 */
+	private MethodCache<D, L> getCache(MethodClassification<D, L> method) {
+		int version = method.getVersion();
+		if (version == MethodClassification.UNVERSIONED)
+			return new MethodCache<D, L>(method, version);
+		
+		synchronized (this.methodsCaches) {
+			MethodCache<D, L> cache = this.methodsCaches.get(method);
+			if (cache != null && cache.isFor(method, version))
+				return cache;
+			
+			// Removed first so that the method becomes the weak key, 
+			// in case it's a different object with the same name
+			cache = new MethodCache<D, L>(method, version);
+			this.methodsCaches.remove(method);
+			this.methodsCaches.put(method, cache);
+			return cache;
+		}
+	}
+	
 	private void incrementStat(Map<L, Map<Stat, Integer>> stats, L label, Stat stat, int count) {
 		if (!stats.containsKey(label)) {
 			stats.put(label, new HashMap<Stat, Integer>());
@@ -79,9 +79,25 @@ public class MethodClassificationMetaEvaluation extends MethodClassification<Pre
 		} else
 			return false;
 		
+		incrementVersion();
 		return true;
 	}
 	
+	/**
+	 * The scores depend on the evaluations' methods, so the version
+	 * changes whenever any of their versions change
+	 */
+	@Override
+	public int getVersion() {
+		if (this.evaluations == null)
+			return getTrackedVersion();
+		
+		MethodClassification<?, ?>[] methods = new MethodClassification<?, ?>[this.evaluations.size()];
+		for (int i = 0; i < methods.length; i++)
+			methods[i] = this.evaluations.get(i).getMethod();
+		return getDependentVersion(methods);
+	}
+	
 	@SuppressWarnings({ "unchecked", "rawtypes" })
 	private Double getScoreForDatum(PredictionClassificationDatum<Boolean> datum) {
 		int i = 0;
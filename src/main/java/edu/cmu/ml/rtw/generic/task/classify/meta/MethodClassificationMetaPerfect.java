@@ -92,6 +92,15 @@ public class MethodClassificationMetaPerfect extends MethodClassification<Predic
 		return new MethodClassificationMetaPerfect(context);
 	}
 
+	/**
+	 * The classifications depend only on the classified predictions,
+	 * so the version never changes
+	 */
+	@Override
+	public int getVersion() {
+		return getTrackedVersion();
+	}
+
 	@Override
 	public boolean hasTrainable() {
 		return false;
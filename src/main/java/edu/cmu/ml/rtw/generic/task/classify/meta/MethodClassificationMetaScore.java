@@ -34,7 +34,7 @@ public class MethodClassificationMetaScore extends MethodClassification<Predicti
 	public boolean setParameterValue(String parameter, Obj parameterValue) {
 		return false;
 	}
-
+	
 	@Override
 	public Map<PredictionClassificationDatum<Boolean>, Boolean> classify(DataSet<PredictionClassificationDatum<Boolean>, Boolean> data) {
 		Map<PredictionClassificationDatum<Boolean>, Boolean> map = new HashMap<PredictionClassificationDatum<Boolean>, Boolean>();
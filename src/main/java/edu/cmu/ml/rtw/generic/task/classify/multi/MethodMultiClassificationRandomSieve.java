@@ -222,7 +222,7 @@ public class MethodMultiClassificationRandomSieve extends MethodMultiClassificat
 		final Map<String, ?> structures = this.structurizers.get(0).makeStructures();
 		
 		// Map structures to lists of predictions
-		List<Triple<Integer, PredictionClassification, Double>> scoredPredictions = getPossiblePredictionOrdering(this.context.getDataTools().getGlobalRandom(), data, recomputeOrderingMeasures);
+		List<Triple<Integer, PredictionClassification, Double>> scoredPredictions = getPossiblePredictionOrdering(this.context.getDataTools().getAssignmentRandom(), data, recomputeOrderingMeasures);
 		Map<String, List<Triple<Integer, PredictionClassification, Double>>> structurePredictions = new HashMap<>();
 		for (Triple<Integer, PredictionClassification, Double> scoredPrediction : scoredPredictions) {
 			int methodIndex = scoredPrediction.getFirst();
@@ -0,0 +1,204 @@
+package edu.cmu.ml.rtw.generic.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * BKTree is a Burkhard-Keller tree that indexes items under
+ * an integer-valued metric (e.g. Levenshtein edit distance
+ * between strings).  Each child of a node is stored under its
+ * distance to the node's item, and the triangle inequality
+ * allows whole subtrees to be skipped when searching for items
+ * near a query.  This gives sublinear nearest-item and
+ * bounded-distance queries for most real data sets.
+ *
+ * The min method supports searching for the item that minimizes
+ * an objective which is a function of the metric distance (e.g.
+ * normalized edit distance), as long as the objective can
+ * provide a lower bound on its value given a lower bound on
+ * the distance.
+ *
+ * @author Bill McDowell
+ *
+ * @param <T> item type
+ */
+public class BKTree<T> {
+	public interface Metric<T> {
+		int distance(T item1, T item2);
+	}
+
+	public interface Objective<T> {
+		/**
+		 * @return the value of the objective for item given that its
+		 * distance from the query under the tree's metric is distance
+		 */
+		double compute(T query, T item, int distance);
+
+		/**
+		 * @return a lower bound on the value of the objective for any
+		 * item whose distance from the query is at least minDistance
+		 */
+		double lowerBound(T query, int minDistance);
+	}
+
+	private class Node {
+		private T item;
+		private int[] childDistances;
+		private List<Node> children;
+
+		public Node(T item) {
+			this.item = item;
+		}
+
+		public Node getChild(int distance) {
+			if (this.childDistances == null)
+				return null;
+			int index = Arrays.binarySearch(this.childDistances, 0, this.children.size(), distance);
+			return (index < 0) ? null : this.children.get(index);
+		}
+
+		public void addChild(int distance, Node child) {
+			if (this.childDistances == null) {
+				this.childDistances = new int[2];
+				this.children = new ArrayList<Node>(2);
+			} else if (this.children.size() == this.childDistances.length) {
+				this.childDistances = Arrays.copyOf(this.childDistances, this.childDistances.length * 2);
+			}
+
+			int index = -(Arrays.binarySearch(this.childDistances, 0, this.children.size(), distance) + 1);
+			System.arraycopy(this.childDistances, index, this.childDistances, index + 1, this.children.size() - index);
+			this.childDistances[index] = distance;
+			this.children.add(index, child);
+		}
+	}
+
+	private Metric<T> metric;
+	private Node root;
+	private int size;
+
+	public BKTree(Metric<T> metric) {
+		this.metric = metric;
+		this.size = 0;
+	}
+
+	/**
+	 * @param item
+	 * @return true if the item was added, and false if an equal item
+	 * (at distance 0) is already in the tree
+	 */
+	public boolean add(T item) {
+		if (this.root == null) {
+			this.root = new Node(item);
+			this.size++;
+			return true;
+		}
+
+		Node node = this.root;
+		while (true) {
+			int distance = this.metric.distance(item, node.item);
+			if (distance == 0)
+				return false;
+
+			Node child = node.getChild(distance);
+			if (child == null) {
+				node.addChild(distance, new Node(item));
+				this.size++;
+				return true;
+			}
+
+			node = child;
+		}
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * @param query
+	 * @param maxDistance
+	 * @return pairs of items and their distances for all items
+	 * within maxDistance of the query
+	 */
+	public List<Pair<T, Integer>> getWithinDistance(T query, int maxDistance) {
+		List<Pair<T, Integer>> results = new ArrayList<Pair<T, Integer>>();
+		if (this.root == null)
+			return results;
+
+		Deque<Node> toVisit = new ArrayDeque<Node>();
+		toVisit.push(this.root);
+		while (!toVisit.isEmpty()) {
+			Node node = toVisit.pop();
+			int distance = this.metric.distance(query, node.item);
+			if (distance <= maxDistance)
+				results.add(new Pair<T, Integer>(node.item, distance));
+
+			if (node.children == null)
+				continue;
+
+			for (int i = 0; i < node.children.size(); i++) {
+				int childDistance = node.childDistances[i];
+				if (childDistance >= distance - maxDistance && childDistance <= distance + maxDistance)
+					toVisit.push(node.children.get(i));
+			}
+		}
+
+		return results;
+	}
+
+	/**
+	 * @param query
+	 * @param objective
+	 * @return the item that minimizes the objective with respect to the
+	 * query, paired with the objective's value.  If several items share
+	 * the minimum, then one of them is returned.
+	 */
+	public Pair<T, Double> min(T query, Objective<T> objective) {
+		return min(query, objective, Double.POSITIVE_INFINITY);
+	}
+	
+	/**
+	 * @param query
+	 * @param objective
+	 * @param bound
+	 * @return the item that minimizes the objective with respect to the
+	 * query if its value is less than bound, paired with the objective's 
+	 * value.  Otherwise, a null item paired with the bound.  The bound 
+	 * allows searches over several trees to share their current minimum.
+	 */
+	public Pair<T, Double> min(T query, Objective<T> objective, double bound) {
+		T minItem = null;
+		double min = bound;
+		if (this.root == null)
+			return new Pair<T, Double>(minItem, min);
+
+		Deque<Node> toVisit = new ArrayDeque<Node>();
+		toVisit.push(this.root);
+		while (!toVisit.isEmpty()) {
+			Node node = toVisit.pop();
+			int distance = this.metric.distance(query, node.item);
+			double value = objective.compute(query, node.item, distance);
+			if (value < min) {
+				min = value;
+				minItem = node.item;
+			}
+
+			if (node.children == null)
+				continue;
+
+			// By the triangle inequality, every item under the child at
+			// childDistance is at least |distance - childDistance| from
+			// the query
+			for (int i = 0; i < node.children.size(); i++) {
+				int minChildDistance = Math.abs(distance - node.childDistances[i]);
+				if (objective.lowerBound(query, minChildDistance) < min)
+					toVisit.push(node.children.get(i));
+			}
+		}
+
+		return new Pair<T, Double>(minItem, min);
+	}
+}
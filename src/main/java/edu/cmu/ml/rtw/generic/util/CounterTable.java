@@ -1,11 +1,13 @@
 package edu.cmu.ml.rtw.generic.util;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.TreeMap;
-import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -16,29 +18,60 @@ import org.json.JSONObject;
  * and decrementing counts for each item, and transforming the histogram
  * into various data-structures.
  * 
+ * Counts can be incremented from many threads at once.  Increments
+ * go to a shared concurrent table of pending counts, and the pending
+ * counts are merged into the main table of counts whenever the counts
+ * are read.  Merging replaces the pending table, so its capacity does
+ * not outlive the merge.  Reads should not be interleaved with 
+ * increments from other threads.
+ * 
  * @author Lingpeng Kong, Bill McDowell
  * 
  */
 public class CounterTable<T>{
 	public HashMap<T, Integer> counts;
 	
+	private volatile ConcurrentHashMap<T, AtomicInteger> pendingCounts;
+	
 	public CounterTable(){
 		this.counts = new HashMap<T,Integer>();
+		this.pendingCounts = new ConcurrentHashMap<T, AtomicInteger>();
 	}
 	
-	public synchronized void incrementCount(T w) {
+	public void incrementCount(T w) {
 		incrementCount(w, 1);
 	}
 	
-	public synchronized void incrementCount(T w, int inc) {
-		if(this.counts.containsKey(w)){
-			this.counts.put(w, this.counts.get(w) + inc);
-		} else {
-			this.counts.put(w, inc);
+	public void incrementCount(T w, int inc) {
+		ConcurrentHashMap<T, AtomicInteger> pendingCounts = this.pendingCounts;
+		AtomicInteger count = pendingCounts.get(w);
+		if (count == null) {
+			count = new AtomicInteger();
+			AtomicInteger existingCount = pendingCounts.putIfAbsent(w, count);
+			if (existingCount != null)
+				count = existingCount;
+		}
+		count.addAndGet(inc);
+	}
+	
+	/**
+	 * Moves the pending counts into the main table
+	 */
+	private synchronized void mergePendingCounts() {
+		ConcurrentHashMap<T, AtomicInteger> pendingCounts = this.pendingCounts;
+		if (pendingCounts.isEmpty())
+			return;
+		
+		this.pendingCounts = new ConcurrentHashMap<T, AtomicInteger>();
+		for (Entry<T, AtomicInteger> entry : pendingCounts.entrySet()) {
+			Integer count = this.counts.get(entry.getKey());
+			this.counts.put(entry.getKey(), (count == null) ? entry.getValue().get() : count + entry.getValue().get());
 		}
 	}
 	
 	public void removeCountsLessThan(int minCount) {
+		mergePendingCounts();
+		
 		List<T> valuesToRemove = new ArrayList<T>();
 		for (Entry<T, Integer> entry : this.counts.entrySet()) {
 			if (entry.getValue() < minCount)
@@ -49,22 +82,27 @@ public class CounterTable<T>{
 			this.counts.remove(valueToRemove);
 	}
 	
+	/**
+	 * @return a map from items to their positions in the natural
+	 * ordering of the items
+	 */
+	@SuppressWarnings("unchecked")
 	public Map<T, Integer> buildIndex() {
-		HashMap<T, Integer> index = new HashMap<T, Integer>();
-		int i = 0;
+		mergePendingCounts();
 		
-		TreeSet<T> sortedIndex = new TreeSet<T>();
-		sortedIndex.addAll(this.counts.keySet());
+		Object[] sortedItems = this.counts.keySet().toArray();
+		Arrays.sort(sortedItems);
 		
-		for (T item : sortedIndex) {
-			index.put(item, i);
-			i++;
-		}
+		HashMap<T, Integer> index = new HashMap<T, Integer>((int)(sortedItems.length / 0.75) + 1);
+		for (int i = 0; i < sortedItems.length; i++)
+			index.put((T)sortedItems[i], i);
 		
 		return index;
 	}
 	
 	public TreeMap<Integer, List<T>> getSortedCounts() {
+		mergePendingCounts();
+		
 		TreeMap<Integer, List<T>> sortedCounts = new TreeMap<Integer, List<T>>();
 		
 		for (Entry<T, Integer> entry : this.counts.entrySet()) {
@@ -78,10 +116,12 @@ public class CounterTable<T>{
 	}
 	
 	public Map<T, Integer> getCounts() {
+		mergePendingCounts();
 		return this.counts;
 	}
 	
 	public int getSize() {
+		mergePendingCounts();
 		return this.counts.size();
 	}
 	
@@ -106,6 +146,7 @@ public class CounterTable<T>{
 	@SuppressWarnings("unchecked")
 	public boolean fromJSON(JSONObject json) {
 		this.counts = new HashMap<T, Integer>(); 
+		this.pendingCounts = new ConcurrentHashMap<T, AtomicInteger>();
 		
 		JSONArray keys = json.names();
 		try {
@@ -0,0 +1,385 @@
+package edu.cmu.ml.rtw.generic.util;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * DualCoordinateDescent trains L2-regularized linear classifiers
+ * by coordinate descent on their dual problems, following the
+ * solvers of LIBLINEAR (Hsieh et al., 2008 and Yu et al., 2011).
+ *
+ * The training vectors are stored as rows of a compressed sparse
+ * row matrix of primitive arrays, so training never boxes vector
+ * components or copies them into per-datum objects.  Once the rows
+ * have been added, solve can be called several times (e.g. once
+ * for each label of a one-vs-rest classifier) with different
+ * targets.
+ *
+ * If the bias is positive, each row is given an extra component
+ * with the bias as its value, and the weight of this component
+ * (the last weight) is the intercept of the classifier.  As in
+ * LIBLINEAR, the intercept is regularized along with the other
+ * weights.
+ *
+ * @author Bill McDowell
+ *
+ */
+public class DualCoordinateDescent {
+	public enum Loss {
+		HINGE,
+		SQUARED_HINGE,
+		LOGISTIC
+	}
+
+	private static final int MAX_NEWTON_ITERATIONS = 100;
+
+	private int featureCount;
+	private double bias;
+
+	private int rowCount;
+	private int[] rowStarts;
+	private int[] indices;
+	private double[] values;
+	private double[] squaredNorms;
+
+	private int iterations;
+
+	/**
+	 * @param featureCount the number of components of the vectors
+	 * (not including the bias component)
+	 * @param bias the value of the bias component of each row, or
+	 * a non-positive value for no intercept
+	 */
+	public DualCoordinateDescent(int featureCount, double bias) {
+		this.featureCount = featureCount;
+		this.bias = bias;
+
+		this.rowCount = 0;
+		this.rowStarts = new int[17];
+		this.indices = new int[64];
+		this.values = new double[64];
+		this.squaredNorms = new double[16];
+	}
+
+	public int getFeatureCount() {
+		return this.featureCount;
+	}
+
+	/**
+	 * @return the number of weights given by solve, which is the number
+	 * of features plus one for the intercept
+	 */
+	public int getWeightCount() {
+		return this.featureCount + 1;
+	}
+
+	public int getRowCount() {
+		return this.rowCount;
+	}
+
+	/**
+	 * @return the number of passes over the data made by the last
+	 * call to solve
+	 */
+	public int getIterations() {
+		return this.iterations;
+	}
+
+	/**
+	 * Adds a row to the matrix.  Components whose indices are not in
+	 * [0, getFeatureCount()) are ignored.
+	 *
+	 * @param vector compacted vector
+	 * @return the index of the row
+	 */
+	public int addRow(SparseVectorBuilder vector) {
+		if (this.rowCount + 1 == this.squaredNorms.length) {
+			this.squaredNorms = Arrays.copyOf(this.squaredNorms, this.squaredNorms.length*2);
+			this.rowStarts = Arrays.copyOf(this.rowStarts, this.squaredNorms.length + 1);
+		}
+
+		int start = this.rowStarts[this.rowCount];
+		int end = start;
+		double squaredNorm = (this.bias > 0) ? this.bias*this.bias : 0.0;
+		for (int i = 0; i < vector.size(); i++) {
+			int index = vector.getIndex(i);
+			double value = vector.getValue(i);
+			if (index < 0 || index >= this.featureCount || value == 0)
+				continue;
+
+			if (end == this.indices.length) {
+				this.indices = Arrays.copyOf(this.indices, this.indices.length*2);
+				this.values = Arrays.copyOf(this.values, this.values.length*2);
+			}
+
+			this.indices[end] = index;
+			this.values[end] = value;
+			squaredNorm += value*value;
+			end++;
+		}
+
+		this.squaredNorms[this.rowCount] = squaredNorm;
+		this.rowCount++;
+		this.rowStarts[this.rowCount] = end;
+
+		return this.rowCount - 1;
+	}
+
+	/**
+	 * Trains a binary classifier.
+	 *
+	 * @param y the target of each row: 1 for positive, -1 for negative, or
+	 * 0 for rows that should be left out of training
+	 * @param positiveC the cost of errors on positive rows
+	 * @param negativeC the cost of errors on negative rows
+	 * @param loss
+	 * @param epsilon tolerance of the stopping condition (LIBLINEAR uses 0.1)
+	 * @param maxIterations maximum number of passes over the rows
+	 * @param random used to shuffle the order in which rows are visited
+	 * @return the weights, with the intercept as the last weight
+	 */
+	public double[] solve(double[] y, double positiveC, double negativeC, Loss loss, double epsilon, int maxIterations, Random random) {
+		int[] rows = new int[this.rowCount];
+		int activeCount = 0;
+		for (int i = 0; i < this.rowCount; i++)
+			if (y[i] != 0)
+				rows[activeCount++] = i;
+		rows = Arrays.copyOf(rows, activeCount);
+
+		double[] w = new double[getWeightCount()];
+		if (loss == Loss.LOGISTIC)
+			this.iterations = solveLogistic(w, rows, y, positiveC, negativeC, epsilon, maxIterations, random);
+		else
+			this.iterations = solveSVM(w, rows, y, positiveC, negativeC, loss == Loss.SQUARED_HINGE, epsilon, maxIterations, random);
+		return w;
+	}
+
+	/**
+	 * Dual coordinate descent for the hinge and squared hinge losses
+	 * with shrinking.  Rows whose dual variables are at a bound and
+	 * whose gradients suggest they'll stay there are removed from the
+	 * active set, and the active set is reset to all rows before
+	 * stopping to make sure that the removed rows still satisfy the
+	 * stopping condition.
+	 */
+	private int solveSVM(double[] w, int[] rows, double[] y, double positiveC, double negativeC, boolean squaredHinge, double epsilon, int maxIterations, Random random) {
+		int l = rows.length;
+		double[] alpha = new double[l];
+
+		// For the squared hinge, the dual has a diagonal term and no
+		// upper bound
+		double positiveDiagonal = (squaredHinge) ? 0.5/positiveC : 0.0;
+		double negativeDiagonal = (squaredHinge) ? 0.5/negativeC : 0.0;
+		double positiveUpper = (squaredHinge) ? Double.POSITIVE_INFINITY : positiveC;
+		double negativeUpper = (squaredHinge) ? Double.POSITIVE_INFINITY : negativeC;
+
+		int[] order = new int[l];
+		for (int s = 0; s < l; s++)
+			order[s] = s;
+
+		int activeSize = l;
+		double projectedMaxOld = Double.POSITIVE_INFINITY;
+		double projectedMinOld = Double.NEGATIVE_INFINITY;
+		int iteration = 0;
+		while (iteration < maxIterations) {
+			double projectedMaxNew = Double.NEGATIVE_INFINITY;
+			double projectedMinNew = Double.POSITIVE_INFINITY;
+
+			shuffle(order, activeSize, random);
+
+			for (int s = 0; s < activeSize; s++) {
+				int a = order[s];
+				int row = rows[a];
+				double yi = y[row];
+				double diagonal = (yi > 0) ? positiveDiagonal : negativeDiagonal;
+				double upper = (yi > 0) ? positiveUpper : negativeUpper;
+				double qd = this.squaredNorms[row] + diagonal;
+				if (qd <= 0) // Empty row without an intercept, which doesn't affect the weights
+					continue;
+
+				double G = yi*dot(w, row) - 1.0 + alpha[a]*diagonal;
+				double projectedG = 0.0;
+				if (alpha[a] == 0) {
+					if (G > projectedMaxOld) {
+						activeSize--;
+						swap(order, s, activeSize);
+						s--;
+						continue;
+					} else if (G < 0) {
+						projectedG = G;
+					}
+				} else if (alpha[a] == upper) {
+					if (G < projectedMinOld) {
+						activeSize--;
+						swap(order, s, activeSize);
+						s--;
+						continue;
+					} else if (G > 0) {
+						projectedG = G;
+					}
+				} else {
+					projectedG = G;
+				}
+
+				projectedMaxNew = Math.max(projectedMaxNew, projectedG);
+				projectedMinNew = Math.min(projectedMinNew, projectedG);
+
+				if (Math.abs(projectedG) > 1.0e-12) {
+					double alphaOld = alpha[a];
+					alpha[a] = Math.min(Math.max(alpha[a] - G/qd, 0.0), upper);
+					addRow(w, row, (alpha[a] - alphaOld)*yi);
+				}
+			}
+
+			iteration++;
+
+			if (projectedMaxNew - projectedMinNew <= epsilon) {
+				if (activeSize == l)
+					break;
+
+				activeSize = l;
+				projectedMaxOld = Double.POSITIVE_INFINITY;
+				projectedMinOld = Double.NEGATIVE_INFINITY;
+				continue;
+			}
+
+			projectedMaxOld = (projectedMaxNew <= 0) ? Double.POSITIVE_INFINITY : projectedMaxNew;
+			projectedMinOld = (projectedMinNew >= 0) ? Double.NEGATIVE_INFINITY : projectedMinNew;
+		}
+
+		return iteration;
+	}
+
+	/**
+	 * Dual coordinate descent for the logistic loss.  Each row has a
+	 * pair of dual variables that sum to its cost, and each coordinate
+	 * step solves a one variable sub-problem with a few Newton steps.
+	 * The tolerance of the sub-problems is tightened as the outer
+	 * iterations converge.
+	 */
+	private int solveLogistic(double[] w, int[] rows, double[] y, double positiveC, double negativeC, double epsilon, int maxIterations, Random random) {
+		int l = rows.length;
+		double[] alpha = new double[2*l];
+
+		for (int a = 0; a < l; a++) {
+			int row = rows[a];
+			double upper = (y[row] > 0) ? positiveC : negativeC;
+			alpha[2*a] = Math.min(0.001*upper, 1.0e-8);
+			alpha[2*a + 1] = upper - alpha[2*a];
+			addRow(w, row, y[row]*alpha[2*a]);
+		}
+
+		int[] order = new int[l];
+		for (int s = 0; s < l; s++)
+			order[s] = s;
+
+		double innerEpsilon = 1.0e-2;
+		double innerEpsilonMin = Math.min(1.0e-8, epsilon);
+		int iteration = 0;
+		while (iteration < maxIterations) {
+			shuffle(order, l, random);
+
+			int newtonIterations = 0;
+			double gMax = 0.0;
+			for (int s = 0; s < l; s++) {
+				int a = order[s];
+				int row = rows[a];
+				double yi = y[row];
+				double upper = (yi > 0) ? positiveC : negativeC;
+				double xx = this.squaredNorms[row];
+				double ywx = yi*dot(w, row);
+
+				int index1 = 2*a;
+				int index2 = 2*a + 1;
+				double sign = 1.0;
+				if (0.5*xx*(alpha[index2] - alpha[index1]) + ywx < 0) {
+					index1 = 2*a + 1;
+					index2 = 2*a;
+					sign = -1.0;
+				}
+
+				double alphaOld = alpha[index1];
+				double z = alphaOld;
+				if (upper - z < 0.5*upper)
+					z = 0.1*z;
+				double gp = xx*(z - alphaOld) + sign*ywx + Math.log(z/(upper - z));
+				gMax = Math.max(gMax, Math.abs(gp));
+
+				int innerIterations = 0;
+				while (innerIterations <= MAX_NEWTON_ITERATIONS) {
+					if (Math.abs(gp) < innerEpsilon)
+						break;
+					double gpp = xx + upper/(upper - z)/z;
+					double zNew = z - gp/gpp;
+					if (zNew <= 0)
+						z *= 0.1;
+					else
+						z = zNew;
+					gp = xx*(z - alphaOld) + sign*ywx + Math.log(z/(upper - z));
+					newtonIterations++;
+					innerIterations++;
+				}
+
+				if (innerIterations > 0) {
+					alpha[index1] = z;
+					alpha[index2] = upper - z;
+					addRow(w, row, sign*(z - alphaOld)*yi);
+				}
+			}
+
+			iteration++;
+
+			if (gMax < epsilon)
+				break;
+
+			if (newtonIterations <= l/10)
+				innerEpsilon = Math.max(innerEpsilonMin, 0.1*innerEpsilon);
+		}
+
+		return iteration;
+	}
+
+	private double dot(double[] w, int row) {
+		double sum = (this.bias > 0) ? w[this.featureCount]*this.bias : 0.0;
+		int end = this.rowStarts[row + 1];
+		for (int i = this.rowStarts[row]; i < end; i++)
+			sum += w[this.indices[i]]*this.values[i];
+		return sum;
+	}
+
+	private void addRow(double[] w, int row, double scale) {
+		if (scale == 0)
+			return;
+		if (this.bias > 0)
+			w[this.featureCount] += scale*this.bias;
+		int end = this.rowStarts[row + 1];
+		for (int i = this.rowStarts[row]; i < end; i++)
+			w[this.indices[i]] += scale*this.values[i];
+	}
+
+	/**
+	 * @return the decision value of a compacted vector under weights
+	 * given by solve, starting at the given offset of the weight array.
+	 * Components whose indices are not in [0, featureCount) are ignored.
+	 */
+	public static double score(double[] weights, int offset, int featureCount, double bias, SparseVectorBuilder vector) {
+		double sum = (bias > 0) ? weights[offset + featureCount]*bias : 0.0;
+		for (int i = 0; i < vector.size(); i++) {
+			int index = vector.getIndex(i);
+			if (index >= 0 && index < featureCount)
+				sum += weights[offset + index]*vector.getValue(i);
+		}
+		return sum;
+	}
+
+	private static void shuffle(int[] array, int size, Random random) {
+		for (int i = size - 1; i > 0; i--)
+			swap(array, i, random.nextInt(i + 1));
+	}
+
+	private static void swap(int[] array, int i, int j) {
+		int temp = array[i];
+		array[i] = array[j];
+		array[j] = temp;
+	}
+}
@@ -9,6 +9,8 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -53,6 +55,37 @@ public class FileUtil {
 		return str.toString();
 	}
 	
+	/**
+	 * Reads a file from the local file system in a single NIO read.  Unlike
+	 * readFile, this does not fall back to class path resources or HDFS, but
+	 * it gives the same string (lines terminated by '\n', see normalizeLines) 
+	 * for local files in the given charset.
+	 * 
+	 * @param file
+	 * @param charset
+	 * @return the contents of the file, or null if it could not be read
+	 */
+	public static String readLocalFile(File file, Charset charset) {
+		try {
+			return normalizeLines(new String(Files.readAllBytes(file.toPath()), charset));
+		} catch (IOException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * @return the string with its line breaks ("\r\n", "\r" or "\n")
+	 * replaced by '\n', and with '\n' after its last line, which is 
+	 * how readFile returns the contents of a file
+	 */
+	public static String normalizeLines(String str) {
+		if (str.indexOf('\r') >= 0)
+			str = str.replace("\r\n", "\n").replace('\r', '\n');
+		if (str.length() > 0 && str.charAt(str.length() - 1) != '\n')
+			str = str + "\n";
+		return str;
+	}
+	
 	public static List<Map<String, String>> readSVFile(String path, String separator) {
 		List<Map<String, String>> maps = new ArrayList<Map<String, String>>();
 		BufferedReader r = getFileReader(path);
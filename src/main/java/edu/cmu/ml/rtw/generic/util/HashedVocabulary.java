@@ -0,0 +1,231 @@
+package edu.cmu.ml.rtw.generic.util;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * HashedVocabulary maps strings to the components of a vector
+ * of 2^bits dimensions using a signed murmur3 hash (the 'hashing
+ * trick'), so that features can compute vectors over a vocabulary
+ * of strings without storing the vocabulary.  Strings whose hashes
+ * collide share a component, and each string is given a sign by
+ * a bit of its hash so that collisions cancel out in expectation
+ * rather than accumulating.
+ *
+ * The vocabulary can optionally keep a bounded sample of the strings
+ * that hash to each component during training so that components can
+ * be named for debugging, and it can count the number of documents in which each
+ * component occurs (e.g. for idf weights) in an array with one
+ * entry per component.
+ *
+ * @author Bill McDowell
+ *
+ */
+public class HashedVocabulary {
+	private static final int SEED = 0x5F3759DF;
+
+	private int bits;
+	private int mask;
+	private int sampleSize;
+	private ConcurrentHashMap<Integer, String> sample;
+
+	private AtomicIntegerArray documentFrequencies;
+	private int documentCount;
+
+	/**
+	 * @param bits the log (base 2) of the number of components
+	 * @param sampleSize the maximum number of components for which
+	 * to remember a string that hashes to them
+	 */
+	public HashedVocabulary(int bits, int sampleSize) {
+		if (bits <= 0 || bits > 30)
+			throw new IllegalArgumentException("Hashed vocabulary bits must be in [1, 30]");
+
+		this.bits = bits;
+		this.mask = (1 << bits) - 1;
+		this.sampleSize = sampleSize;
+		this.sample = new ConcurrentHashMap<Integer, String>();
+	}
+
+	public int getBits() {
+		return this.bits;
+	}
+
+	public int getSampleSize() {
+		return this.sampleSize;
+	}
+
+	public int size() {
+		return this.mask + 1;
+	}
+
+	/**
+	 * @return the murmur3 hash of the string
+	 */
+	public int hash(String str) {
+		return murmur3(str);
+	}
+
+	/**
+	 * @return the murmur3 hash of the string, and records the string
+	 * in the sample if its component doesn't have a string yet and the
+	 * sample isn't full.  This is for passes over the training data, 
+	 * so that computing vectors at scoring time only calls hash.
+	 */
+	public int hashAndSample(String str) {
+		int hash = murmur3(str);
+		if (this.sampleSize > 0 && this.sample.size() < this.sampleSize)
+			this.sample.putIfAbsent(hash & this.mask, str);
+		return hash;
+	}
+
+	/**
+	 * @return the component of the string with the given hash
+	 */
+	public int getIndex(int hash) {
+		return hash & this.mask;
+	}
+
+	/**
+	 * @return the sign of the string with the given hash.  The sign
+	 * is taken from the highest bit, which is not part of the index.
+	 */
+	public double getSign(int hash) {
+		return (hash < 0) ? -1.0 : 1.0;
+	}
+
+	/**
+	 * @return a string from the sample that hashes to the given
+	 * component, or null if there is none
+	 */
+	public String reverseGet(int index) {
+		return this.sample.get(index);
+	}
+
+	public void putSample(int index, String str) {
+		this.sample.put(index, str);
+	}
+
+	public Map<Integer, String> getSample() {
+		return Collections.unmodifiableMap(this.sample);
+	}
+
+	/**
+	 * Starts counting document frequencies over the given number of
+	 * documents, clearing existing counts
+	 */
+	public void initDocumentFrequencies(int documentCount) {
+		this.documentFrequencies = new AtomicIntegerArray(size());
+		this.documentCount = documentCount;
+	}
+
+	public boolean hasDocumentFrequencies() {
+		return this.documentFrequencies != null;
+	}
+
+	public int getDocumentCount() {
+		return this.documentCount;
+	}
+
+	/**
+	 * Increments the document frequency of a component.  This
+	 * can be called from several threads at once.
+	 */
+	public void incrementDocumentFrequency(int index, int increment) {
+		this.documentFrequencies.addAndGet(index, increment);
+	}
+
+	public void setDocumentFrequency(int index, int documentFrequency) {
+		this.documentFrequencies.set(index, documentFrequency);
+	}
+
+	public int getDocumentFrequency(int index) {
+		return (this.documentFrequencies == null) ? 0 : this.documentFrequencies.get(index);
+	}
+
+	/**
+	 * @return the idf of the component, computed in the same way
+	 * as for an unhashed vocabulary (log(N/(1+df)))
+	 */
+	public double getIdf(int index) {
+		return Math.log(this.documentCount/(1.0 + getDocumentFrequency(index)));
+	}
+
+	/**
+	 * Sums the values in [0, count) of components that occur more than
+	 * once so that each component occurs once, and sorts the
+	 * components in increasing order.
+	 *
+	 * @return the number of distinct components
+	 */
+	public static int merge(int[] indices, double[] values, int count) {
+		if (count <= 1)
+			return count;
+
+		long[] order = new long[count];
+		for (int i = 0; i < count; i++)
+			order[i] = (((long)indices[i]) << 32) | i;
+		Arrays.sort(order);
+
+		double[] sortedValues = new double[count];
+		for (int i = 0; i < count; i++)
+			sortedValues[i] = values[(int)order[i]];
+
+		int merged = 0;
+		for (int i = 0; i < count; i++) {
+			int index = (int)(order[i] >>> 32);
+			if (merged > 0 && indices[merged - 1] == index) {
+				values[merged - 1] += sortedValues[i];
+			} else {
+				indices[merged] = index;
+				values[merged] = sortedValues[i];
+				merged++;
+			}
+		}
+
+		return merged;
+	}
+
+	/**
+	 * @return the 32-bit murmur3 hash of the string's UTF-16 code
+	 * units (two per block), which avoids encoding the string into
+	 * bytes
+	 */
+	public static int murmur3(String str) {
+		int h = SEED;
+		int length = str.length();
+		int i = 1;
+		for (; i < length; i += 2) {
+			int k = str.charAt(i - 1) | (str.charAt(i) << 16);
+			h = mixH(h, mixK(k));
+		}
+
+		if ((length & 1) == 1)
+			h ^= mixK(str.charAt(length - 1));
+
+		h ^= 2 * length;
+		h ^= h >>> 16;
+		h *= 0x85EBCA6B;
+		h ^= h >>> 13;
+		h *= 0xC2B2AE35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	private static int mixK(int k) {
+		k *= 0xCC9E2D51;
+		k = Integer.rotateLeft(k, 15);
+		k *= 0x1B873593;
+		return k;
+	}
+
+	private static int mixH(int h, int k) {
+		h ^= k;
+		h = Integer.rotateLeft(h, 13);
+		h = h * 5 + 0xE6546B64;
+		return h;
+	}
+}
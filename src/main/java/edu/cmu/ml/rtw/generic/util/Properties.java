@@ -131,6 +131,13 @@ public class Properties {
 		return info;
 	}
 	
+	public String getWordNetSnapshotPath() {
+		if (this.properties.containsKey("wordnet_snapshot"))
+			return loadProperty("wordnet_snapshot");
+		else
+			return null;
+	}
+	
 	public String getDebugDirectory() {
 		if (this.properties.containsKey("debug_dir"))
 			return loadProperty("debug_dir");
@@ -145,6 +152,13 @@ public class Properties {
 			return null;
 	}
 	
+	public Integer getContextThreads() {
+		if (this.properties.containsKey("contextThreads"))
+			return Integer.valueOf(this.properties.get("contextThreads").toString());
+		else 
+			return null;
+	}
+	
 	public Integer getRandomSeed() {
 		if (this.properties.containsKey("randomSeed"))
 			return Integer.valueOf(this.properties.get("randomSeed").toString());
@@ -0,0 +1,211 @@
+package edu.cmu.ml.rtw.generic.util;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.platanios.learn.math.matrix.SparseVector;
+import org.platanios.learn.math.matrix.Vector;
+import org.platanios.learn.math.matrix.Vector.VectorElement;
+
+/**
+ * SparseVectorBuilder accumulates (index, value) pairs of a sparse
+ * vector in parallel primitive arrays so that features can be
+ * computed without boxing every component into a Map<Integer, Double>.
+ *
+ * Setting an index that has already been set overwrites the old
+ * value (the same semantics as Map.put), but the overwrite is
+ * only resolved when the builder is converted into a vector or
+ * map.
+ *
+ * Builders are meant to be reused.  The acquire/release methods
+ * give access to a builder that is local to the current thread,
+ * and fall back to a fresh builder when the thread's builder is
+ * already in use (e.g. when a feature computes the vector of
+ * another feature set while its own vector is being built).
+ *
+ * @author Bill McDowell
+ *
+ */
+public class SparseVectorBuilder {
+	private static final int DEFAULT_CAPACITY = 64;
+
+	private static final ThreadLocal<SparseVectorBuilder> threadBuilders = new ThreadLocal<SparseVectorBuilder>() {
+		@Override
+		protected SparseVectorBuilder initialValue() {
+			return new SparseVectorBuilder();
+		}
+	};
+
+	private int[] indices;
+	private double[] values;
+	private int size;
+	private boolean sorted;
+	private boolean inUse;
+
+	public SparseVectorBuilder() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public SparseVectorBuilder(int capacity) {
+		this.indices = new int[Math.max(capacity, 1)];
+		this.values = new double[this.indices.length];
+		clear();
+	}
+
+	/**
+	 * @return a cleared builder for use by the current thread.  The
+	 * builder should be given back through release once the vector
+	 * has been built.
+	 */
+	public static SparseVectorBuilder acquire() {
+		SparseVectorBuilder builder = threadBuilders.get();
+		if (builder.inUse) {
+			builder = new SparseVectorBuilder();
+		} else {
+			builder.clear();
+		}
+
+		builder.inUse = true;
+		return builder;
+	}
+
+	public void release() {
+		this.inUse = false;
+	}
+
+	public SparseVectorBuilder clear() {
+		this.size = 0;
+		this.sorted = true;
+		return this;
+	}
+
+	public SparseVectorBuilder set(int index, double value) {
+		if (this.size == this.indices.length) {
+			int capacity = this.indices.length * 2;
+			this.indices = Arrays.copyOf(this.indices, capacity);
+			this.values = Arrays.copyOf(this.values, capacity);
+		}
+
+		if (this.size > 0 && this.indices[this.size - 1] >= index)
+			this.sorted = false;
+
+		this.indices[this.size] = index;
+		this.values[this.size] = value;
+		this.size++;
+
+		return this;
+	}
+
+	public SparseVectorBuilder setAll(Map<Integer, Double> vector) {
+		for (Entry<Integer, Double> entry : vector.entrySet())
+			set(entry.getKey(), entry.getValue());
+		return this;
+	}
+
+	public SparseVectorBuilder setAll(Vector vector) {
+		for (VectorElement element : vector)
+			set(element.index(), element.value());
+		return this;
+	}
+
+	/**
+	 * @return the number of (index, value) pairs that have been set.
+	 * This may be larger than the number of non-zero elements of the
+	 * built vector if some indices were set more than once.
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	public int getIndex(int i) {
+		return this.indices[i];
+	}
+
+	public double getValue(int i) {
+		return this.values[i];
+	}
+
+	/**
+	 * Divides the values of the pairs set at positions [start, size())
+	 * by the given divisor.  This is used to normalize the values that
+	 * a single feature has just added to the builder.
+	 * @return this
+	 */
+	public SparseVectorBuilder divideValues(int start, double divisor) {
+		for (int i = start; i < this.size; i++)
+			this.values[i] /= divisor;
+		return this;
+	}
+	
+	/**
+	 * Sorts the pairs by index and removes overwritten pairs so that
+	 * the first size() pairs of the builder give a valid sparse vector.
+	 * @return this
+	 */
+	public SparseVectorBuilder compact() {
+		if (this.sorted)
+			return this;
+
+		// Sort positions by index, breaking ties by insertion order so
+		// that the last value set for each index is the one that is kept
+		long[] keys = new long[this.size];
+		for (int i = 0; i < this.size; i++)
+			keys[i] = (((long)this.indices[i]) << 32) | i;
+		Arrays.sort(keys);
+
+		int[] sortedIndices = new int[this.indices.length];
+		double[] sortedValues = new double[this.values.length];
+		int sortedSize = 0;
+		for (int i = 0; i < keys.length; i++) {
+			int position = (int)keys[i];
+			int index = this.indices[position];
+			if (sortedSize > 0 && sortedIndices[sortedSize - 1] == index) {
+				sortedValues[sortedSize - 1] = this.values[position];
+			} else {
+				sortedIndices[sortedSize] = index;
+				sortedValues[sortedSize] = this.values[position];
+				sortedSize++;
+			}
+		}
+
+		this.indices = sortedIndices;
+		this.values = sortedValues;
+		this.size = sortedSize;
+		this.sorted = true;
+
+		return this;
+	}
+
+	public Vector toVector(int dimension) {
+		compact();
+		return new SparseVector(dimension, Arrays.copyOf(this.indices, this.size), Arrays.copyOf(this.values, this.size));
+	}
+
+	/**
+	 * @return a vector containing the elements of the builder with
+	 * indices in [startIndex, endIndex), shifted down by startIndex
+	 */
+	public Vector toVector(int startIndex, int endIndex) {
+		compact();
+
+		int start = Arrays.binarySearch(this.indices, 0, this.size, startIndex);
+		if (start < 0)
+			start = -(start + 1);
+		int end = Arrays.binarySearch(this.indices, 0, this.size, endIndex);
+		if (end < 0)
+			end = -(end + 1);
+
+		int[] rangeIndices = new int[end - start];
+		for (int i = start; i < end; i++)
+			rangeIndices[i - start] = this.indices[i] - startIndex;
+
+		return new SparseVector(endIndex - startIndex, rangeIndices, Arrays.copyOfRange(this.values, start, end));
+	}
+
+	public Map<Integer, Double> toMap(Map<Integer, Double> map) {
+		for (int i = 0; i < this.size; i++)
+			map.put(this.indices[i], this.values[i]);
+		return map;
+	}
+}
@@ -11,6 +11,10 @@ import java.util.Base64;
 import java.util.Collection;
 import java.util.List;
 
+import edu.cmu.ml.rtw.generic.str.StringTransform;
+import edu.cmu.ml.rtw.generic.str.StringTransformClean;
+import edu.cmu.ml.rtw.generic.str.StringTransformPipeline;
+
 /**
  * 
  * StringUtil contains various utilities for dealing with strings.  
@@ -19,6 +23,8 @@ import java.util.List;
  * 
  */
 public class StringUtil {
+	private static final StringTransform FUSED_CLEAN = StringTransformPipeline.compile(new StringTransformClean());
+	
 	/**
 	 * @param str1
 	 * @param str2
@@ -74,8 +80,22 @@ public class StringUtil {
 		return distance[str1.length()][str2.length()];
 	}
 	
-	// FIXME: This function is messy and inefficient and really shouldn't exist
+	// FIXME: This function is messy and really shouldn't exist.  
+	// ASCII strings are cleaned in a single pass by the fused clean
+	// stages in StringTransformPipeline, and other strings by 
+	// cleanRegex.
 	public static String clean(String str) {
+		if (StringTransformPipeline.canFuse(str))
+			return FUSED_CLEAN.transform(str);
+		return cleanRegex(str);
+	}
+	
+	/**
+	 * @return str cleaned by regular expressions.  This defines the 
+	 * output of clean, and the fused clean stages are tested against
+	 * it.
+	 */
+	static String cleanRegex(String str) {
 		StringBuilder cleanStrBuilder = new StringBuilder();
 		
 		str = str.trim();
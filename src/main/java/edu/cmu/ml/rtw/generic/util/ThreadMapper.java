@@ -1,18 +1,45 @@
 package edu.cmu.ml.rtw.generic.util;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * ThreadMapper maps a function onto a collection
  * of objects on parallel threads.
- * 
+ *
+ * All mappers share a single process-wide work-stealing
+ * pool rather than creating and tearing down a thread pool
+ * on each call.  The maxThreads argument to run is a budget on
+ * the number of workers that process a single call's items, and
+ * the calling thread always acts as one of these workers.  Since
+ * nested calls (e.g. a grid search thread that featurizes a data
+ * set) run on the same pool, the total number of threads
+ * stays bounded by the pool's parallelism no matter how
+ * deeply mappers are nested.
+ *
+ * Once the calling thread runs out of items, it takes back the
+ * helper tasks that no thread has started, so a call never waits
+ * for its helpers to reach the front of the pool's queues behind
+ * unrelated work.  The calling thread then only waits for helpers
+ * that are already running.  It waits on each helper's latch rather 
+ * than joining, since a join can run other tasks on top of the caller's
+ * stack (which could disturb its thread local state, e.g. 
+ * SparseVectorBuilder buffers).  Inside of the pool, the latch is 
+ * waited on through a ForkJoinPool.ManagedBlocker, so that the pool
+ * can add a thread to make up for the blocked one.
+ *
+ * If the function throws an exception on any item, then the
+ * remaining items are skipped and the exception is rethrown
+ * by run.
+ *
  * @author Bill McDowell
  *
  * @param <S>
@@ -22,116 +49,195 @@ public class ThreadMapper<S, T> {
 	public static interface Fn<S, T> {
 		T apply(S item);
 	}
-	
-	private class Task implements Callable<T> {
-		private S item;
+
+	private static class PoolHolder {
+		private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Worker repeatedly claims the next block of unprocessed
+	 * items, and applies the function to each item in the
+	 * block.  Results are written directly into their positions
+	 * as they are computed, so workers never wait on each other
+	 * until the end of the call.
+	 */
+	private class Worker extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private Object[] items;
+		private Object[] results;
+		private AtomicInteger next;
+		private int blockSize;
 		
-		public Task(S item) {
-			this.item = item;
+		private AtomicBoolean claimed;
+		private CountDownLatch done;
+		private Throwable failure;
+
+		public Worker(Object[] items, Object[] results, AtomicInteger next, int blockSize) {
+			this.items = items;
+			this.results = results;
+			this.next = next;
+			this.blockSize = blockSize;
+			this.claimed = new AtomicBoolean(false);
+			this.done = new CountDownLatch(1);
+		}
+		
+		/**
+		 * @return true if the caller is the first to claim the worker.
+		 * A worker only processes items if it claims itself, so the thread
+		 * that starts a call can claim helpers that haven't started to 
+		 * keep them from running.
+		 */
+		public boolean claim() {
+			return this.claimed.compareAndSet(false, true);
 		}
 
+		@SuppressWarnings("unchecked")
 		@Override
-		public T call() throws Exception {
-			return fn.apply(this.item);
+		protected void compute() {
+			if (!claim())
+				return;
+			
+			try {
+				int start = 0;
+				while ((start = this.next.getAndAdd(this.blockSize)) < this.items.length) {
+					int end = Math.min(start + this.blockSize, this.items.length);
+					for (int i = start; i < end; i++)
+						this.results[i] = fn.apply((S)this.items[i]);
+				}
+			} catch (RuntimeException | Error e) {
+				// Stop the other workers from claiming more items
+				this.next.set(this.items.length);
+				this.failure = e;
+			} finally {
+				this.done.countDown();
+			}
+		}
+		
+		/**
+		 * Waits for a worker that has claimed itself to finish
+		 */
+		public void await() {
+			LatchBlocker blocker = new LatchBlocker(this.done);
+			boolean interrupted = false;
+			while (true) {
+				try {
+					// Outside of the pool, this just waits on the latch
+					ForkJoinPool.managedBlock(blocker);
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			
+			if (interrupted)
+				Thread.currentThread().interrupt();
 		}
 	}
 	
-	private class PartitionTask implements Callable<List<T>> {
-		private List<S> items;
+	/**
+	 * LatchBlocker waits on a latch as a ForkJoinPool.ManagedBlocker
+	 */
+	private static class LatchBlocker implements ForkJoinPool.ManagedBlocker {
+		private CountDownLatch latch;
 		
-		public PartitionTask(List<S> items) {
-			this.items = items;
+		public LatchBlocker(CountDownLatch latch) {
+			this.latch = latch;
 		}
-
+		
 		@Override
-		public List<T> call() throws Exception {
-			List<T> results = new ArrayList<>();
-			for (S item : items)
-				results.add(fn.apply(item));
-			return results;
+		public boolean block() throws InterruptedException {
+			this.latch.await();
+			return true;
+		}
+		
+		@Override
+		public boolean isReleasable() {
+			return this.latch.getCount() == 0;
 		}
 	}
-	
+
 	private Fn<S, T> fn;
-	
+
 	public ThreadMapper(Fn<S, T> fn) {
 		this.fn = fn;
 	}
-	
+
+	/**
+	 * @return the pool shared by all mappers.  Its parallelism is
+	 * the number of available processors.
+	 */
+	public static ForkJoinPool getPool() {
+		return PoolHolder.POOL;
+	}
+
 	public List<T> run(Collection<S> items, int maxThreads) {
 		return run(items, maxThreads, false);
 	}
 
+	/**
+	 * @param items
+	 * @param maxThreads
+	 * @param partition indicates whether the items should be split into
+	 * maxThreads contiguous parts with each part processed by a single
+	 * worker, rather than having each worker claim items one at a time
+	 * @return the results of applying the function to the items in the
+	 * order of the items
+	 */
 	public List<T> run(Collection<S> items, int maxThreads, boolean partition) {
-		if (partition)
-			return runPartitioned(items, maxThreads);
-		else
-			return runIndividual(items, maxThreads);
-	}
-	
-	private List<T> runPartitioned(Collection<S> items, int maxThreads) {
-		List<T> results = new ArrayList<T>(items.size());
 		if (items.size() == 0)
-			return results;
-		
-		List<PartitionTask> tasks = new ArrayList<>();
-		int itemsPerPart = (int)Math.ceil(items.size() / (double)maxThreads);
-		List<S> part = null;
-		int i = 0;
-		for (S item : items) {
-			if (i % itemsPerPart == 0) {
-				if (part != null)
-					tasks.add(new PartitionTask(part));
-				part = new ArrayList<>();
-			}
-			part.add(item);
-			i++;
-		}
-		
-		if (part != null && part.size() != 0)
-			tasks.add(new PartitionTask(part));
-		
-		ExecutorService threadPool = Executors.newFixedThreadPool(maxThreads);
-		try {
-			List<Future<List<T>>> futureResults = threadPool.invokeAll(tasks);
-			threadPool.shutdown();
-			threadPool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-			for (Future<List<T>> futureResult : futureResults) {
-				List<T> result = futureResult.get();
-				results.addAll(result);
-			}
-		} catch (Exception e) {
-			e.printStackTrace();
-			return null;
-		}
-		
-		return results;
+			return new ArrayList<T>();
+
+		maxThreads = Math.max(1, maxThreads);
+		int blockSize = (partition) ? (int)Math.ceil(items.size() / (double)maxThreads) : 1;
+		return run(items.toArray(), maxThreads, blockSize);
 	}
-	
-	private List<T> runIndividual(Collection<S> items, int maxThreads) {
-		List<T> results = new ArrayList<T>(items.size());
-		if (items.size() == 0)
-			return results;
-		
-		List<Task> tasks = new ArrayList<Task>();
- 		for (S item : items) {
-			tasks.add(new Task(item));
+
+	@SuppressWarnings("unchecked")
+	private List<T> run(Object[] items, int maxThreads, int blockSize) {
+		Object[] results = new Object[items.length];
+		AtomicInteger next = new AtomicInteger(0);
+		int workerCount = Math.min(maxThreads, (items.length + blockSize - 1) / blockSize);
+
+		// Nested calls from inside the pool fork their workers onto the
+		// current worker thread's queue, so idle threads steal them and
+		// no new threads are created
+		ForkJoinPool pool = getPool();
+		boolean nested = ForkJoinTask.getPool() == pool;
+		List<Worker> helpers = new ArrayList<Worker>(workerCount - 1);
+		for (int i = 1; i < workerCount; i++) {
+			Worker helper = new Worker(items, results, next, blockSize);
+			if (nested)
+				helper.fork();
+			else
+				pool.execute(helper);
+			helpers.add(helper);
 		}
-		
- 		ExecutorService threadPool = Executors.newFixedThreadPool(maxThreads);
-		try {
-			List<Future<T>> futureResults = threadPool.invokeAll(tasks);
-			threadPool.shutdown();
-			threadPool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-			for (Future<T> futureResult : futureResults) {
-				T result = futureResult.get();
-				results.add(result);
+
+		Worker caller = new Worker(items, results, next, blockSize);
+		caller.compute();
+		Throwable failure = caller.failure;
+
+		// Helpers that haven't started are taken back (and unforked if 
+		// they are still on this thread's queue), and the rest are
+		// waited on
+		for (Worker helper : helpers) {
+			if (helper.claim()) {
+				if (nested)
+					helper.tryUnfork();
+				continue;
 			}
-		} catch (Exception e) {
-			e.printStackTrace();
-			return null;
+			
+			helper.await();
+			if (failure == null)
+				failure = helper.failure;
 		}
-		
-		return results;
+
+		if (failure instanceof RuntimeException)
+			throw (RuntimeException)failure;
+		else if (failure instanceof Error)
+			throw (Error)failure;
+
+		return new ArrayList<T>((List<T>)Arrays.asList(results));
 	}
 }
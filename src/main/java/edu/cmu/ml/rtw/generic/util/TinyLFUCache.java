@@ -0,0 +1,434 @@
+package edu.cmu.ml.rtw.generic.util;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * TinyLFUCache is a concurrent cache from long keys to values,
+ * bounded by a number of entries and (optionally) a total weight
+ * of entries.  It uses the W-TinyLFU eviction policy: new entries
+ * go into a small LRU window, and an entry leaving the window
+ * is only admitted into the main segmented LRU region if it has
+ * been requested more often than the entry that it would evict.
+ * Request frequencies are estimated with a count-min sketch whose
+ * counts are periodically halved, so that the cache adapts to
+ * changes in the distribution of requests.  Unlike plain LRU, this
+ * keeps frequently requested entries in the cache when there is
+ * a long tail of keys that are only requested once or twice.
+ *
+ * The cache is split into segments by key, each with its own
+ * lock, size and weight budget, and frequency sketch, so threads
+ * that request different keys rarely contend.  The hit, miss,
+ * and eviction counts are kept in LongAdders for the same reason.
+ *
+ * See Einziger, Friedman, and Manes. 2017. TinyLFU: A Highly
+ * Efficient Cache Admission Policy.
+ *
+ * @author Bill McDowell
+ *
+ * @param <V>
+ */
+public class TinyLFUCache<V> {
+	private static final int MAX_SEGMENTS = 64;
+	private static final int MIN_SEGMENT_SIZE = 16;
+
+	private Segment[] segments;
+	private int segmentShift;
+	private LongAdder hits;
+	private LongAdder misses;
+	private LongAdder evictions;
+
+	/**
+	 * @param maxSize the maximum number of entries
+	 * @param maxWeight the maximum total weight of entries, or a
+	 * non-positive number if the weight is unbounded
+	 */
+	public TinyLFUCache(int maxSize, long maxWeight) {
+		int segmentCount = 1;
+		while (segmentCount < MAX_SEGMENTS && segmentCount < 4 * Runtime.getRuntime().availableProcessors())
+			segmentCount <<= 1;
+		while (segmentCount > 1 && maxSize / segmentCount < MIN_SEGMENT_SIZE)
+			segmentCount >>= 1;
+
+		this.segments = new Segment[segmentCount];
+		this.segmentShift = 32 - Integer.numberOfTrailingZeros(segmentCount);
+		this.hits = new LongAdder();
+		this.misses = new LongAdder();
+		this.evictions = new LongAdder();
+
+		int segmentSize = Math.max(2, (maxSize + segmentCount - 1) / segmentCount);
+		long segmentWeight = (maxWeight <= 0) ? Long.MAX_VALUE : Math.max(1, (maxWeight + segmentCount - 1) / segmentCount);
+		for (int i = 0; i < segmentCount; i++)
+			this.segments[i] = new Segment(segmentSize, segmentWeight, this.evictions);
+	}
+
+	@SuppressWarnings("unchecked")
+	public V get(long key) {
+		int hash = hash(key);
+		Object value = segmentFor(hash).get(key, hash);
+		if (value == null)
+			this.misses.increment();
+		else
+			this.hits.increment();
+		return (V)value;
+	}
+
+	/**
+	 * Adds the value to the cache, unless its weight exceeds the
+	 * weight budget of the key's segment
+	 */
+	public void put(long key, V value, int weight) {
+		int hash = hash(key);
+		segmentFor(hash).put(key, hash, value, weight);
+	}
+
+	public void clear() {
+		for (Segment segment : this.segments)
+			segment.clear();
+	}
+
+	public int size() {
+		int size = 0;
+		for (Segment segment : this.segments)
+			size += segment.size();
+		return size;
+	}
+
+	public long getWeight() {
+		long weight = 0;
+		for (Segment segment : this.segments)
+			weight += segment.getWeight();
+		return weight;
+	}
+
+	public long getHitCount() {
+		return this.hits.sum();
+	}
+
+	public long getMissCount() {
+		return this.misses.sum();
+	}
+
+	public long getEvictionCount() {
+		return this.evictions.sum();
+	}
+
+	@Override
+	public String toString() {
+		return "size=" + size() + ", weight=" + getWeight() + ", hits=" + getHitCount() + ", misses=" + getMissCount() + ", evictions=" + getEvictionCount();
+	}
+
+	private Segment segmentFor(int hash) {
+		return (this.segmentShift == 32) ? this.segments[0] : this.segments[hash >>> this.segmentShift];
+	}
+
+	private static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		h ^= h >>> 32;
+		return (int)h;
+	}
+
+	/**
+	 * Segment holds its entries in arrays indexed by entry, linked
+	 * into an LRU list for each region (the window, and the probation
+	 * and protected parts of the main region), and finds them through
+	 * an open addressing table from keys to entries
+	 */
+	private static class Segment {
+		private static final byte WINDOW = 0;
+		private static final byte PROBATION = 1;
+		private static final byte PROTECTED = 2;
+		private static final int NONE = -1;
+
+		private int windowCapacity;
+		private int mainCapacity;
+		private int protectedCapacity;
+		private long maxWeight;
+
+		private long[] keys;
+		private Object[] values;
+		private int[] weights;
+		private byte[] regions;
+		private int[] prev;
+		private int[] next;
+		private int freeHead;
+
+		private int[] heads; // Least recently used entry in each region
+		private int[] tails; // Most recently used entry in each region
+		private int[] regionSizes;
+		private int size;
+		private long weight;
+
+		private int[] table; // Entry index + 1, or 0 if empty
+		private int tableMask;
+
+		private FrequencySketch sketch;
+		private LongAdder evictions;
+
+		public Segment(int capacity, long maxWeight, LongAdder evictions) {
+			this.windowCapacity = Math.max(1, capacity / 100);
+			this.mainCapacity = Math.max(1, capacity - this.windowCapacity);
+			this.protectedCapacity = this.mainCapacity * 4 / 5;
+			this.maxWeight = maxWeight;
+			this.evictions = evictions;
+
+			// One extra entry holds a new value before an entry is evicted
+			int entryCount = this.windowCapacity + this.mainCapacity + 1;
+			this.keys = new long[entryCount];
+			this.values = new Object[entryCount];
+			this.weights = new int[entryCount];
+			this.regions = new byte[entryCount];
+			this.prev = new int[entryCount];
+			this.next = new int[entryCount];
+
+			int tableSize = Integer.highestOneBit(entryCount * 2 - 1) << 1;
+			this.table = new int[tableSize];
+			this.tableMask = tableSize - 1;
+
+			this.heads = new int[3];
+			this.tails = new int[3];
+			this.regionSizes = new int[3];
+			this.sketch = new FrequencySketch(entryCount);
+
+			reset();
+		}
+
+		private void reset() {
+			for (int i = 0; i < this.keys.length; i++) {
+				this.values[i] = null;
+				this.next[i] = (i + 1 < this.keys.length) ? i + 1 : NONE;
+			}
+
+			this.freeHead = 0;
+			for (int i = 0; i < 3; i++) {
+				this.heads[i] = NONE;
+				this.tails[i] = NONE;
+				this.regionSizes[i] = 0;
+			}
+
+			for (int i = 0; i < this.table.length; i++)
+				this.table[i] = 0;
+
+			this.size = 0;
+			this.weight = 0;
+		}
+
+		public synchronized void clear() {
+			reset();
+		}
+
+		public synchronized int size() {
+			return this.size;
+		}
+
+		public synchronized long getWeight() {
+			return this.weight;
+		}
+
+		public synchronized Object get(long key, int hash) {
+			this.sketch.increment(key);
+
+			int entry = find(key, hash);
+			if (entry == NONE)
+				return null;
+
+			byte region = this.regions[entry];
+			unlink(entry);
+			if (region == PROBATION) {
+				link(entry, PROTECTED);
+				if (this.regionSizes[PROTECTED] > this.protectedCapacity) {
+					int demoted = this.heads[PROTECTED];
+					unlink(demoted);
+					link(demoted, PROBATION);
+				}
+			} else {
+				link(entry, region);
+			}
+
+			return this.values[entry];
+		}
+
+		public synchronized void put(long key, int hash, Object value, int weight) {
+			if (weight > this.maxWeight)
+				return;
+
+			int entry = find(key, hash);
+			if (entry != NONE) {
+				this.weight += weight - this.weights[entry];
+				this.values[entry] = value;
+				this.weights[entry] = weight;
+				evictOverweight();
+				return;
+			}
+
+			entry = this.freeHead;
+			this.freeHead = this.next[entry];
+			this.keys[entry] = key;
+			this.values[entry] = value;
+			this.weights[entry] = weight;
+			this.size++;
+			this.weight += weight;
+			insertIntoTable(entry, hash);
+			link(entry, WINDOW);
+
+			while (this.regionSizes[WINDOW] > this.windowCapacity) {
+				int candidate = this.heads[WINDOW];
+				unlink(candidate);
+				if (this.regionSizes[PROBATION] + this.regionSizes[PROTECTED] < this.mainCapacity) {
+					link(candidate, PROBATION);
+					continue;
+				}
+
+				int victim = (this.heads[PROBATION] != NONE) ? this.heads[PROBATION] : this.heads[PROTECTED];
+				if (this.sketch.frequency(this.keys[candidate]) > this.sketch.frequency(this.keys[victim])) {
+					evict(victim);
+					link(candidate, PROBATION);
+				} else {
+					evictUnlinked(candidate);
+				}
+			}
+
+			evictOverweight();
+		}
+
+		private void evictOverweight() {
+			while (this.weight > this.maxWeight) {
+				if (this.heads[PROBATION] != NONE)
+					evict(this.heads[PROBATION]);
+				else if (this.heads[PROTECTED] != NONE)
+					evict(this.heads[PROTECTED]);
+				else
+					evict(this.heads[WINDOW]);
+			}
+		}
+
+		private void evict(int entry) {
+			unlink(entry);
+			evictUnlinked(entry);
+		}
+
+		private void evictUnlinked(int entry) {
+			removeFromTable(entry);
+			this.size--;
+			this.weight -= this.weights[entry];
+			this.values[entry] = null;
+			this.next[entry] = this.freeHead;
+			this.freeHead = entry;
+			this.evictions.increment();
+		}
+
+		private void link(int entry, byte region) {
+			this.regions[entry] = region;
+			this.prev[entry] = this.tails[region];
+			this.next[entry] = NONE;
+			if (this.tails[region] != NONE)
+				this.next[this.tails[region]] = entry;
+			else
+				this.heads[region] = entry;
+			this.tails[region] = entry;
+			this.regionSizes[region]++;
+		}
+
+		private void unlink(int entry) {
+			byte region = this.regions[entry];
+			if (this.prev[entry] != NONE)
+				this.next[this.prev[entry]] = this.next[entry];
+			else
+				this.heads[region] = this.next[entry];
+			if (this.next[entry] != NONE)
+				this.prev[this.next[entry]] = this.prev[entry];
+			else
+				this.tails[region] = this.prev[entry];
+			this.regionSizes[region]--;
+		}
+
+		private int find(long key, int hash) {
+			for (int slot = hash & this.tableMask; this.table[slot] != 0; slot = (slot + 1) & this.tableMask) {
+				int entry = this.table[slot] - 1;
+				if (this.keys[entry] == key)
+					return entry;
+			}
+			return NONE;
+		}
+
+		private void insertIntoTable(int entry, int hash) {
+			int slot = hash & this.tableMask;
+			while (this.table[slot] != 0)
+				slot = (slot + 1) & this.tableMask;
+			this.table[slot] = entry + 1;
+		}
+
+		private void removeFromTable(int entry) {
+			int slot = hash(this.keys[entry]) & this.tableMask;
+			while (this.table[slot] != entry + 1)
+				slot = (slot + 1) & this.tableMask;
+
+			// Shift back later entries in the probe sequence so that
+			// they can still be found
+			this.table[slot] = 0;
+			int next = slot;
+			while (true) {
+				next = (next + 1) & this.tableMask;
+				if (this.table[next] == 0)
+					break;
+
+				int home = hash(this.keys[this.table[next] - 1]) & this.tableMask;
+				boolean between = (slot <= next) ? (slot < home && home <= next) : (slot < home || home <= next);
+				if (!between) {
+					this.table[slot] = this.table[next];
+					this.table[next] = 0;
+					slot = next;
+				}
+			}
+		}
+	}
+
+	/**
+	 * FrequencySketch is a count-min sketch of request frequencies
+	 * with 4 rows of counters that saturate at 15, and which are
+	 * halved after a number of requests proportional to the
+	 * segment's capacity
+	 */
+	private static class FrequencySketch {
+		private static final long[] SEEDS = { 0xC3A5C85C97CB3127L, 0xB492B66FBE98F273L, 0x9AE16A3B2F90404FL, 0xCBF29CE484222325L };
+
+		private byte[][] counts;
+		private int mask;
+		private int requests;
+		private int resetRequests;
+
+		public FrequencySketch(int capacity) {
+			int width = Math.max(16, Integer.highestOneBit(capacity * 2 - 1) << 1);
+			this.counts = new byte[SEEDS.length][width];
+			this.mask = width - 1;
+			this.resetRequests = 10 * capacity;
+		}
+
+		public void increment(long key) {
+			for (int i = 0; i < SEEDS.length; i++) {
+				int index = index(key, i);
+				if (this.counts[i][index] < 15)
+					this.counts[i][index]++;
+			}
+
+			if (++this.requests >= this.resetRequests) {
+				for (int i = 0; i < this.counts.length; i++)
+					for (int j = 0; j < this.counts[i].length; j++)
+						this.counts[i][j] >>= 1;
+				this.requests /= 2;
+			}
+		}
+
+		public int frequency(long key) {
+			int frequency = Integer.MAX_VALUE;
+			for (int i = 0; i < SEEDS.length; i++)
+				frequency = Math.min(frequency, this.counts[i][index(key, i)]);
+			return frequency;
+		}
+
+		private int index(long key, int row) {
+			long h = (key ^ SEEDS[row]) * 0x9E3779B97F4A7C15L;
+			h ^= h >>> 29;
+			return (int)h & this.mask;
+		}
+	}
+}
@@ -0,0 +1,268 @@
+package edu.cmu.ml.rtw.generic.util;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * WeightStore maps non-negative integer indices to double values
+ * (e.g. model weights and their AdaGrad accumulators) without
+ * boxing them into a Map<Integer, Double>.  Indices that have
+ * never been set have value 0.
+ *
+ * The make method returns a dense store backed by a double array
+ * when the number of possible indices is small enough, and
+ * an open-addressing hash store otherwise.  Dense stores can be
+ * read and written by several threads at once without locking
+ * (writes might be lost under contention, which is acceptable for
+ * Hogwild-style training), but hashed stores cannot.
+ *
+ * The makeInt method returns a store for integer values (e.g. 
+ * counters) which is dense when the number of possible indices is
+ * small enough.  Its dense store is backed by an atomic int array,
+ * so that compareAndSet is atomic, and takes half the memory of a
+ * double array.
+ *
+ * @author Bill McDowell
+ *
+ */
+public abstract class WeightStore {
+	/**
+	 * Maximum number of possible indices for which make and makeInt
+	 * return a dense store.  A dense double store of this size takes
+	 * 32MB, and is allocated in full before any values are set.
+	 */
+	public static final long MAX_DENSE_SIZE = 1L << 22;
+
+	public static WeightStore make(long size) {
+		if (size <= MAX_DENSE_SIZE)
+			return new Dense((int)size);
+		else
+			return new Hashed();
+	}
+
+	/**
+	 * @return a store for integer values.  Values are truncated to
+	 * integers when they are set on the dense store.
+	 */
+	public static WeightStore makeInt(long size) {
+		if (size <= MAX_DENSE_SIZE)
+			return new DenseInt((int)size);
+		else
+			return new Hashed();
+	}
+
+	public abstract double get(int index);
+	public abstract void set(int index, double value);
+
+	/**
+	 * @return indices with non-zero values
+	 */
+	public abstract int[] getNonZeroIndices();
+
+	/**
+	 * @return true if the store can be safely read and written by
+	 * several threads at once
+	 */
+	public abstract boolean isConcurrent();
+
+	/**
+	 * @return the new value at index
+	 */
+	public double add(int index, double delta) {
+		double value = get(index) + delta;
+		set(index, value);
+		return value;
+	}
+
+	/**
+	 * Sets the value at index to update if its current value is
+	 * expected.  This is only atomic for DenseInt stores.
+	 *
+	 * @return true if the value was set
+	 */
+	public boolean compareAndSet(int index, double expected, double update) {
+		if (get(index) != expected)
+			return false;
+		set(index, update);
+		return true;
+	}
+
+	public static class DenseInt extends WeightStore {
+		private AtomicIntegerArray values;
+
+		public DenseInt(int size) {
+			this.values = new AtomicIntegerArray(size);
+		}
+
+		@Override
+		public double get(int index) {
+			return this.values.get(index);
+		}
+
+		@Override
+		public void set(int index, double value) {
+			this.values.set(index, (int)value);
+		}
+
+		@Override
+		public boolean compareAndSet(int index, double expected, double update) {
+			return this.values.compareAndSet(index, (int)expected, (int)update);
+		}
+
+		@Override
+		public int[] getNonZeroIndices() {
+			int count = 0;
+			for (int i = 0; i < this.values.length(); i++)
+				if (this.values.get(i) != 0)
+					count++;
+
+			int[] indices = new int[count];
+			count = 0;
+			for (int i = 0; i < this.values.length(); i++)
+				if (this.values.get(i) != 0)
+					indices[count++] = i;
+
+			return indices;
+		}
+
+		@Override
+		public boolean isConcurrent() {
+			return true;
+		}
+	}
+
+	public static class Dense extends WeightStore {
+		private double[] values;
+
+		public Dense(int size) {
+			this.values = new double[size];
+		}
+
+		@Override
+		public double get(int index) {
+			return this.values[index];
+		}
+
+		@Override
+		public void set(int index, double value) {
+			this.values[index] = value;
+		}
+
+		@Override
+		public int[] getNonZeroIndices() {
+			int count = 0;
+			for (int i = 0; i < this.values.length; i++)
+				if (this.values[i] != 0)
+					count++;
+
+			int[] indices = new int[count];
+			count = 0;
+			for (int i = 0; i < this.values.length; i++)
+				if (this.values[i] != 0)
+					indices[count++] = i;
+
+			return indices;
+		}
+
+		@Override
+		public boolean isConcurrent() {
+			return true;
+		}
+	}
+
+	/**
+	 * Hashed is an open-addressing (linear probing) hash table
+	 * from indices to values.
+	 */
+	public static class Hashed extends WeightStore {
+		private static final int EMPTY = -1;
+		private static final int DEFAULT_CAPACITY = 1024;
+
+		private int[] keys;
+		private double[] values;
+		private int size;
+
+		public Hashed() {
+			this(DEFAULT_CAPACITY);
+		}
+
+		public Hashed(int capacity) {
+			int tableSize = Integer.highestOneBit(Math.max(capacity, 2) * 2 - 1);
+			this.keys = new int[tableSize];
+			this.values = new double[tableSize];
+			Arrays.fill(this.keys, EMPTY);
+			this.size = 0;
+		}
+
+		@Override
+		public double get(int index) {
+			int slot = findSlot(this.keys, index);
+			return (this.keys[slot] == EMPTY) ? 0.0 : this.values[slot];
+		}
+
+		@Override
+		public void set(int index, double value) {
+			int slot = findSlot(this.keys, index);
+			if (this.keys[slot] != EMPTY) {
+				this.values[slot] = value;
+				return;
+			} else if (value == 0) {
+				return;
+			}
+
+			this.keys[slot] = index;
+			this.values[slot] = value;
+			this.size++;
+
+			if (this.size * 2 > this.keys.length)
+				resize();
+		}
+
+		@Override
+		public int[] getNonZeroIndices() {
+			int count = 0;
+			for (int i = 0; i < this.keys.length; i++)
+				if (this.keys[i] != EMPTY && this.values[i] != 0)
+					count++;
+
+			int[] indices = new int[count];
+			count = 0;
+			for (int i = 0; i < this.keys.length; i++)
+				if (this.keys[i] != EMPTY && this.values[i] != 0)
+					indices[count++] = this.keys[i];
+
+			return indices;
+		}
+
+		@Override
+		public boolean isConcurrent() {
+			return false;
+		}
+
+		private void resize() {
+			int[] oldKeys = this.keys;
+			double[] oldValues = this.values;
+
+			this.keys = new int[oldKeys.length * 2];
+			this.values = new double[oldValues.length * 2];
+			Arrays.fill(this.keys, EMPTY);
+
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldKeys[i] == EMPTY)
+					continue;
+				int slot = findSlot(this.keys, oldKeys[i]);
+				this.keys[slot] = oldKeys[i];
+				this.values[slot] = oldValues[i];
+			}
+		}
+
+		private static int findSlot(int[] keys, int index) {
+			int mask = keys.length - 1;
+			int hash = index * 0x9E3779B9;
+			int slot = (hash ^ (hash >>> 16)) & mask;
+			while (keys[slot] != EMPTY && keys[slot] != index)
+				slot = (slot + 1) & mask;
+			return slot;
+		}
+	}
+}
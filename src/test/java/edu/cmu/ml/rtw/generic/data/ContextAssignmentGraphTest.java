@@ -0,0 +1,109 @@
+package edu.cmu.ml.rtw.generic.data;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.cmu.ml.rtw.generic.parse.AssignmentList;
+
+public class ContextAssignmentGraphTest {
+	@Test
+	public void testBarriers() {
+		ContextAssignmentGraph graph = makeGraph(
+				"value maxThreads=\"2\";\n" +
+				"str_fn pre=Affix(type=\"PREFIX\", n=\"3\");\n" +
+				"str_fn suf=Affix(type=\"SUFFIX\", n=\"3\");\n" +
+				"value x=\"1\";\n" +
+				"str_fn pre2=Affix(type=\"PREFIX\", n=\"2\");\n" +
+				"value seed=SetRandomSeed(seed=\"1\");\n" +
+				"str_fn suf2=Affix(type=\"SUFFIX\", n=\"2\");\n");
+
+		assertDependencies(graph, 0);
+		assertDependencies(graph, 1, 0);
+		assertDependencies(graph, 2, 0);
+		assertDependencies(graph, 3, 0, 1, 2);
+		assertDependencies(graph, 4, 3);
+		assertDependencies(graph, 5, 3, 4);
+		assertDependencies(graph, 6, 5);
+		assertAcyclic(graph);
+	}
+
+	@Test
+	public void testReferences() {
+		ContextAssignmentGraph graph = makeGraph(
+				"value a=\"2\";\n" +
+				"str_fn f1=Filter(filter=${a}, type=\"SUBSTRING\");\n" +
+				"str_fn f2=Filter(filter=\"${a}_\", type=\"PREFIX\");\n" +
+				"value m=MultiplyValues(value1=${a}, value2=\"2\");\n" +
+				"str_fn f3=Filter(filter=${a}, type=\"SUFFIX\");\n" +
+				"str_fn f4=Filter(filter=${m}, type=\"SUFFIX\");\n" +
+				"str_fn f1=Affix(type=\"PREFIX\", n=\"3\");\n");
+
+		// Readers of a are independent, but the command that uses a
+		// waits for them, and later readers wait for the command
+		assertDependencies(graph, 1, 0);
+		assertDependencies(graph, 2, 0);
+		assertDependencies(graph, 3, 0, 1, 2);
+		assertDependencies(graph, 4, 0, 3);
+		assertDependencies(graph, 5, 0, 3);
+		
+		// Redefinition
+		assertDependencies(graph, 6, 0, 1);
+		assertAcyclic(graph);
+	}
+
+	@Test
+	public void testNestedFunctionMatches() {
+		ContextAssignmentGraph graph = makeGraph(
+				"value a=\"1\";\n" +
+				"str_fn pre=Affix(type=\"PREFIX\", n=\"3\");\n" +
+				"str_fn suf=Affix(type=\"SUFFIX\", n=\"3\");\n" +
+				"str_fn fPre=Filter(filter=Affix(type=\"PREFIX\", n=\"3\"), type=\"SUBSTRING\");\n" +
+				"str_fn fAny=Filter(filter=Affix(type=${t}, n=\"3\"), type=\"SUBSTRING\");\n");
+
+		// Nested functions wait for assignments that may construct 
+		// objects that they match
+		assertDependencies(graph, 3, 0, 1);
+		assertDependencies(graph, 4, 0, 1, 2, 3);
+		assertAcyclic(graph);
+	}
+
+	@Test
+	public void testMissingReferences() {
+		ContextAssignmentGraph graph = makeGraph(
+				"str_fn x=Filter(filter=${later}, type=\"SUBSTRING\");\n" +
+				"str_fn y=Filter(filter=${missing}, type=\"SUBSTRING\");\n" +
+				"str_fn later=Affix(type=\"PREFIX\", n=\"3\");\n" +
+				"value m=MultiplyValues(value1=${missing}, value2=\"2\");\n");
+
+		// Missing references don't add dependencies, and a forward 
+		// reference is evaluated before the assignment that defines it,
+		// as it would be in order
+		assertDependencies(graph, 0);
+		assertDependencies(graph, 1);
+		assertDependencies(graph, 2, 0);
+		assertDependencies(graph, 3, 1);
+		assertAcyclic(graph);
+	}
+
+	private static void assertDependencies(ContextAssignmentGraph graph, int index, int... expected) {
+		Assert.assertArrayEquals(expected, graph.getDependencies(index));
+		for (int dependency : expected)
+			Assert.assertTrue(graph.getDependents(dependency).contains(index));
+	}
+
+	/**
+	 * Assignments only depend on earlier assignments, so there can't be 
+	 * cycles, and every assignment is eventually evaluated
+	 */
+	private static void assertAcyclic(ContextAssignmentGraph graph) {
+		for (int i = 0; i < graph.size(); i++)
+			for (int dependency : graph.getDependencies(i))
+				Assert.assertTrue(dependency < i);
+	}
+
+	private static ContextAssignmentGraph makeGraph(String str) {
+		AssignmentList assignments = new AssignmentList();
+		Assert.assertTrue(assignments.fromString(str));
+		return new ContextAssignmentGraph(assignments);
+	}
+}
@@ -1,12 +1,18 @@
 package edu.cmu.ml.rtw.generic.data;
 
 import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
 
+import org.junit.Assert;
 import org.junit.Test;
 
+import edu.cmu.ml.rtw.generic.data.annotation.DataSet;
 import edu.cmu.ml.rtw.generic.data.annotation.DatumContext;
 import edu.cmu.ml.rtw.generic.data.annotation.TernaryLabel;
 import edu.cmu.ml.rtw.generic.data.annotation.TestDatum;
+import edu.cmu.ml.rtw.generic.parse.AssignmentList;
+import edu.cmu.ml.rtw.generic.parse.Obj;
 import edu.cmu.ml.rtw.generic.util.OutputWriter;
 import edu.cmu.ml.rtw.generic.util.Properties;
 
@@ -156,6 +162,92 @@ public class ContextTest {
 		return contextStr;
 	}
 	
+	@Test
+	public void testContextThreads() {
+		String contextStr = "value a=\"2\";\n";
+		contextStr +=       "value b=MultiplyValues(value1=${a}, value2=\"3\");\n";
+		contextStr +=       "value c=MultiplyValues(value1=${a}, value2=\"5\");\n";
+		contextStr +=       "str_fn pre=Affix(type=\"PREFIX\", n=\"3\");\n";
+		contextStr +=       "str_fn suf=Affix(type=\"SUFFIX\", n=\"3\");\n";
+		contextStr +=       "value d=MultiplyValues(value1=${b}, value2=${c});\n";
+		contextStr +=       "str_fn pre2=Affix(type=\"PREFIX\", n=\"2\");\n";
+		
+		Context serialContext = Context.run("test", new DataTools(new OutputWriter()), "value contextThreads=\"1\";\n" + contextStr);
+		Context concurrentContext = Context.run("test", new DataTools(new OutputWriter()), "value contextThreads=\"8\";\n" + contextStr);
+		
+		Assert.assertEquals(1, serialContext.getContextThreads());
+		Assert.assertEquals(8, concurrentContext.getContextThreads());
+		Assert.assertEquals("60.0", concurrentContext.getMatchValue(Obj.curlyBracedValue("d")));
+		Assert.assertEquals(serialContext.toParse().toString().replace("contextThreads=\"1\"", "contextThreads=\"8\""), 
+							concurrentContext.toParse().toString());
+	}
+	
+	@Test
+	public void testSerialPartitionRandom() {
+		String dataStr = "data trainData = Test(storage=\"BSONMemory\", collection=\"TrainDocuments\");\n";
+		String partitionStr = "value partitioned = PartitionData(data=${trainData}, distribution=(\".5\", \".3\", \".2\"));\n";
+		
+		// Serially evaluated scripts draw partitions from the global
+		// Random instance, exactly as a direct call does
+		DatumContext<TestDatum<Boolean>, Boolean> serialContext = DatumContext.run(TestDatum.getBooleanTools(makeTestDataTools()), 
+				"value contextThreads=\"1\";\n" + dataStr + partitionStr);
+		DatumContext<TestDatum<Boolean>, Boolean> baselineContext = DatumContext.run(TestDatum.getBooleanTools(makeTestDataTools()), 
+				"value contextThreads=\"1\";\n" + dataStr);
+		DataSet<TestDatum<Boolean>, Boolean> baselineData = baselineContext.getMatchDataSet(Obj.curlyBracedValue("trainData"));
+		List<DataSet<TestDatum<Boolean>, Boolean>> baselineParts = baselineData.makePartition(new double[] { .5, .3, .2 }, baselineContext.getDataTools().getGlobalRandom());
+		
+		for (int i = 0; i < baselineParts.size(); i++) {
+			DataSet<TestDatum<Boolean>, Boolean> part = serialContext.getMatchDataSet(Obj.curlyBracedValue("trainData_" + i));
+			Assert.assertEquals(getDatumIds(baselineParts.get(i)), getDatumIds(part));
+		}
+		
+		// Concurrently evaluated scripts draw from per-assignment instances,
+		// which don't depend on the evaluation order
+		String concurrentStr = "value contextThreads=\"8\";\n" + dataStr + partitionStr + "value other=MultiplyValues(value1=\"2\", value2=\"3\");\n";
+		DatumContext<TestDatum<Boolean>, Boolean> concurrentContext1 = DatumContext.run(TestDatum.getBooleanTools(makeTestDataTools()), concurrentStr);
+		DatumContext<TestDatum<Boolean>, Boolean> concurrentContext2 = DatumContext.run(TestDatum.getBooleanTools(makeTestDataTools()), concurrentStr);
+		for (int i = 0; i < baselineParts.size(); i++) {
+			Obj partName = Obj.curlyBracedValue("trainData_" + i);
+			Assert.assertEquals(getDatumIds(concurrentContext1.getMatchDataSet(partName)), getDatumIds(concurrentContext2.getMatchDataSet(partName)));
+		}
+	}
+	
+	private DataTools makeTestDataTools() {
+		return new DataTools(new OutputWriter(),
+				new Properties(new StringReader(
+						"debug_dir=\n" +
+						"storage_fs_bson_testBson=/test/bson\n" +
+						"storage_fs_str_testStr=/test/str"
+						)));
+	}
+	
+	private List<Integer> getDatumIds(DataSet<TestDatum<Boolean>, Boolean> data) {
+		List<Integer> ids = new ArrayList<Integer>();
+		for (TestDatum<Boolean> datum : data)
+			ids.add(datum.getId());
+		return ids;
+	}
+	
+	@Test
+	public void testContextThreadsFailure() {
+		String contextStr = "value contextThreads=\"8\";\n";
+		contextStr +=       "value a=MultiplyValues(value1=\"2\", value2=\"3\");\n";
+		contextStr +=       "str_fn pre=Affix(type=\"PREFIX\", n=\"3\");\n";
+		contextStr +=       "value bad=${missing};\n";
+		contextStr +=       "value b=\"1\";\n";
+		
+		AssignmentList assignments = new AssignmentList();
+		Assert.assertTrue(assignments.fromString(contextStr));
+		
+		Context context = new Context(new DataTools(new OutputWriter()));
+		Assert.assertFalse(context.fromParse(Obj.function("test", new AssignmentList(), assignments)));
+		
+		// Assignments evaluated before the failure aren't rolled back
+		Assert.assertEquals("6.0", context.getMatchValue(Obj.curlyBracedValue("a")));
+		Assert.assertNotNull(context.getMatchStrFn(Obj.curlyBracedValue("pre")));
+		Assert.assertNull(context.getMatchValue(Obj.curlyBracedValue("b")));
+	}
+	
 	/* FIXME Needs refactored @Test
 	public void testContextSerializationSelfValue() {
 		testContextSerializationSelf("value x=\"1\";\n");
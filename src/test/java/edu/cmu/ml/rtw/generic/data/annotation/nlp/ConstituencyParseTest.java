@@ -0,0 +1,140 @@
+package edu.cmu.ml.rtw.generic.data.annotation.nlp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.cmu.ml.rtw.generic.data.annotation.nlp.ConstituencyParse.Constituent;
+import edu.cmu.ml.rtw.generic.data.annotation.nlp.ConstituencyParse.ConstituentPath;
+
+public class ConstituencyParseTest {
+	@Test
+	public void testIndexAgainstTreeWalk() {
+		Random random = new Random(1);
+		for (int t = 0; t < 50; t++) {
+			int[] tokenCount = new int[1];
+			String parseStr = makeTreeString(random, 0, tokenCount);
+			ConstituencyParse parse = ConstituencyParse.fromString(parseStr, null, 0);
+			
+			List<Constituent> constituents = new ArrayList<Constituent>();
+			List<Constituent> leaves = new ArrayList<Constituent>();
+			collect(parse.getRoot(), constituents, leaves);
+			
+			// Every pair of constituents, including pairs of a constituent with itself
+			for (Constituent source : constituents) {
+				for (Constituent target : constituents) {
+					Assert.assertEquals(source != target && isAncestor(source, target), parse.isAbove(source, target));
+					Assert.assertEquals(source != target && isAncestor(target, source), parse.isBelow(source, target));
+					for (boolean noLeaves : new boolean[] { false, true }) {
+						ConstituentPath path = parse.getPath(source, target, noLeaves);
+						List<Constituent> expectedPath = getPath(source, target, noLeaves);
+						Assert.assertEquals(expectedPath.size(), path.getLength());
+						for (int i = 0; i < expectedPath.size(); i++)
+							Assert.assertSame(expectedPath.get(i), path.getConstituent(i));
+					}
+				}
+			}
+			
+			// Every pair of tokens, where tokens inside of multi-token leaves
+			// have no constituent
+			for (int i = 0; i < tokenCount[0]; i++) {
+				Constituent sourceLeaf = getLeaf(leaves, i);
+				Assert.assertSame(sourceLeaf, parse.getTokenConstituent(i));
+				for (int j = 0; j < tokenCount[0]; j++) {
+					Constituent targetLeaf = getLeaf(leaves, j);
+					boolean dominating = false;
+					if (sourceLeaf != null) {
+						TokenSpan parentSpan = sourceLeaf.getParent().getTokenSpan();
+						dominating = parentSpan.getStartTokenIndex() <= j && parentSpan.getEndTokenIndex() > j;
+					}
+					
+					Assert.assertEquals(dominating, parse.isDominating(i, j));
+					for (boolean noLeaves : new boolean[] { false, true }) {
+						int expectedLength = (sourceLeaf == null || targetLeaf == null) ? -1 : getPath(sourceLeaf, targetLeaf, noLeaves).size();
+						Assert.assertEquals(expectedLength, parse.getPathLength(i, j, noLeaves));
+					}
+				}
+			}
+			
+			Assert.assertNull(parse.getTokenConstituent(tokenCount[0]));
+			Assert.assertEquals(-1, parse.getPathLength(0, tokenCount[0], false));
+		}
+	}
+	
+	/**
+	 * @return a random tree with at least two levels above its leaves, 
+	 * whose leaves sometimes hold more than one token
+	 */
+	private String makeTreeString(Random random, int depth, int[] tokenCount) {
+		if (depth >= 2 && (depth >= 6 || random.nextInt(3) == 0)) {
+			StringBuilder leaf = new StringBuilder("(NN");
+			int tokens = (random.nextInt(5) == 0) ? 2 : 1;
+			for (int i = 0; i < tokens; i++)
+				leaf.append(" w").append(tokenCount[0]++);
+			return leaf.append(")").toString();
+		}
+		
+		StringBuilder node = new StringBuilder("(X" + depth);
+		int children = 1 + random.nextInt(3);
+		for (int i = 0; i < children; i++)
+			node.append(" ").append(makeTreeString(random, depth + 1, tokenCount));
+		return node.append(")").toString();
+	}
+	
+	private void collect(Constituent constituent, List<Constituent> constituents, List<Constituent> leaves) {
+		constituents.add(constituent);
+		if (constituent.isLeaf()) {
+			leaves.add(constituent);
+			return;
+		}
+		for (Constituent child : constituent.getChildren())
+			collect(child, constituents, leaves);
+	}
+	
+	private Constituent getLeaf(List<Constituent> leaves, int tokenIndex) {
+		for (Constituent leaf : leaves)
+			if (leaf.getTokenSpan().getStartTokenIndex() == tokenIndex)
+				return leaf;
+		return null;
+	}
+	
+	private boolean isAncestor(Constituent ancestor, Constituent constituent) {
+		for (Constituent current = constituent; current != null; current = current.getParent())
+			if (current == ancestor)
+				return true;
+		return false;
+	}
+	
+	/**
+	 * @return the path from source up to the lowest common ancestor and
+	 * down to target, found by walking parents
+	 */
+	private List<Constituent> getPath(Constituent source, Constituent target, boolean noLeaves) {
+		Constituent ancestor = source;
+		while (!isAncestor(ancestor, target))
+			ancestor = ancestor.getParent();
+		
+		List<Constituent> path = new ArrayList<Constituent>();
+		for (Constituent current = source; current != ancestor; current = current.getParent())
+			path.add(current);
+		path.add(ancestor);
+		
+		List<Constituent> down = new ArrayList<Constituent>();
+		for (Constituent current = target; current != ancestor; current = current.getParent())
+			down.add(0, current);
+		path.addAll(down);
+		
+		if (noLeaves) {
+			List<Constituent> withoutLeaves = new ArrayList<Constituent>();
+			for (Constituent constituent : path)
+				if (!constituent.isLeaf())
+					withoutLeaves.add(constituent);
+			return withoutLeaves;
+		}
+		
+		return path;
+	}
+}
@@ -1,6 +1,9 @@
 package edu.cmu.ml.rtw.generic.data.annotation.nlp;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -49,4 +52,85 @@ public class DependencyParseTest {
 		Assert.assertEquals("mark", deps.get(0).getType());
 		Assert.assertEquals("nmod", deps.get(1).getType());
 	}
+	
+	@Test
+	public void testPathQueries() {
+		DependencyParse parse = DependencyParse.fromString(
+				"root(ROOT-0, learned-2)\n" +
+				"nsubj(learned-2, Jim-1)\n" +
+				"xcomp(learned-2, read-4)\n" +
+				"mark(read-4, to-3)\n" +
+				"nmod(read-4, school-6)\n" +
+				"case(school-6, at-5)", null, 0);
+		
+		Assert.assertEquals(3, parse.getPathLength(3-1, 5-1));
+		Assert.assertEquals("mark-D/nmod-G/case-G", parse.getPathString(3-1, 5-1, true));
+		Assert.assertEquals(parse.getPath(3-1, 5-1).toString(), parse.getPathString(3-1, 5-1, true));
+		Assert.assertEquals(DependencyParse.PathType.NONE, parse.getPathType(3-1, 5-1));
+		Assert.assertEquals(DependencyParse.PathType.GOVERNING, parse.getPathType(2-1, 5-1));
+		Assert.assertEquals(DependencyParse.PathType.GOVERNED_BY, parse.getPathType(5-1, -1));
+		Assert.assertTrue(parse.isDirectlyGoverning(4-1, 6-1));
+		Assert.assertEquals(-1, parse.getPathLength(7-1, 1-1));
+		Assert.assertNull(parse.getPathString(7-1, 1-1, false));
+	}
+	
+	@Test
+	public void testPathSearchCache() {
+		// A random graph (not a tree) over more tokens than there are
+		// cached searches, queried from interleaved sources
+		Random random = new Random(1);
+		int tokenCount = 40;
+		List<List<Integer>> neighbors = new ArrayList<List<Integer>>();
+		for (int i = 0; i <= tokenCount; i++)
+			neighbors.add(new ArrayList<Integer>());
+		
+		StringBuilder parseStr = new StringBuilder();
+		for (int i = 1; i <= tokenCount; i++) {
+			int governor = random.nextInt(i);
+			parseStr.append("dep(t-" + governor + ", t-" + i + ")\n");
+			neighbors.get(governor).add(i);
+			neighbors.get(i).add(governor);
+			if (i > 2 && random.nextInt(4) == 0) {
+				int other = 1 + random.nextInt(i - 1);
+				if (!neighbors.get(i).contains(other)) {
+					parseStr.append("extra(t-" + other + ", t-" + i + ")\n");
+					neighbors.get(other).add(i);
+					neighbors.get(i).add(other);
+				}
+			}
+		}
+		
+		DependencyParse parse = DependencyParse.fromString(parseStr.toString().trim(), null, 0);
+		for (int q = 0; q < 2000; q++) {
+			int source = random.nextInt(tokenCount + 1);
+			int target = random.nextInt(tokenCount + 1);
+			int distance = getDistance(neighbors, source, target);
+			Assert.assertEquals(distance, parse.getPathLength(source - 1, target - 1));
+			
+			DependencyParse.DependencyPath path = parse.getPath(source - 1, target - 1);
+			Assert.assertEquals(distance, path.getDependencyLength());
+			Assert.assertEquals(source - 1, path.getTokenIndex(0));
+			Assert.assertEquals(target - 1, path.getTokenIndex(distance));
+			for (int i = 0; i < distance; i++)
+				Assert.assertTrue(neighbors.get(path.getTokenIndex(i) + 1).contains(path.getTokenIndex(i + 1) + 1));
+		}
+	}
+	
+	private int getDistance(List<List<Integer>> neighbors, int source, int target) {
+		int[] distances = new int[neighbors.size()];
+		Arrays.fill(distances, -1);
+		distances[source] = 0;
+		List<Integer> queue = new ArrayList<Integer>();
+		queue.add(source);
+		for (int i = 0; i < queue.size(); i++) {
+			int current = queue.get(i);
+			for (int neighbor : neighbors.get(current)) {
+				if (distances[neighbor] < 0) {
+					distances[neighbor] = distances[current] + 1;
+					queue.add(neighbor);
+				}
+			}
+		}
+		return distances[target];
+	}
 }
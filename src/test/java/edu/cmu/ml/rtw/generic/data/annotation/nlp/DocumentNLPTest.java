@@ -1,5 +1,6 @@
 package edu.cmu.ml.rtw.generic.data.annotation.nlp;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import org.json.JSONException;
@@ -13,6 +14,8 @@ import edu.cmu.ml.rtw.generic.data.annotation.nlp.micro.Annotation;
 import edu.cmu.ml.rtw.generic.data.annotation.nlp.micro.DocumentAnnotation;
 import edu.cmu.ml.rtw.generic.model.annotator.nlp.PipelineNLPStanford;
 import edu.cmu.ml.rtw.generic.util.OutputWriter;
+import edu.cmu.ml.rtw.generic.util.Pair;
+import edu.cmu.ml.rtw.generic.util.Triple;
 
 public class DocumentNLPTest {	
 	@Test
@@ -28,6 +31,64 @@ public class DocumentNLPTest {
 		/*testNLPAnnotationAndSerializationDisabledFrom(null, "Jim learned to read at school. It was horrible, but he had to do it anyway.");*/
 	}
 	
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testCompactDocument() {
+		DataTools dataTools = new DataTools(new OutputWriter());
+		DocumentNLPMutable document = new DocumentNLPInMemory(dataTools, "theDocument", "Jim ate apples. Mary ate pears.");
+		String[][] tokens = { { "Jim", "ate", "apples", "." }, { "Mary", "ate", "pears", "." } };
+		PoSTag[][] posTags = { { PoSTag.NNP, PoSTag.VBD, PoSTag.NNS, PoSTag.SYM }, { PoSTag.NNP, PoSTag.VBD, PoSTag.NNS, PoSTag.SYM } };
+		
+		Pair<?, Double>[][] tokenAnno = new Pair[tokens.length][];
+		Pair<?, Double>[][] posAnno = new Pair[tokens.length][];
+		Pair<?, Double>[][] lemmaAnno = new Pair[tokens.length][];
+		int charIndex = 0;
+		for (int i = 0; i < tokens.length; i++) {
+			tokenAnno[i] = new Pair[tokens[i].length];
+			posAnno[i] = new Pair[tokens[i].length];
+			lemmaAnno[i] = new Pair[tokens[i].length];
+			for (int j = 0; j < tokens[i].length; j++) {
+				tokenAnno[i][j] = new Pair<Token, Double>(new Token(document, tokens[i][j], charIndex, charIndex + tokens[i][j].length()), null);
+				posAnno[i][j] = new Pair<PoSTag, Double>(posTags[i][j], (j % 2 == 0) ? 0.5 : null);
+				lemmaAnno[i][j] = new Pair<String, Double>(tokens[i][j].toLowerCase(), null);
+				charIndex += tokens[i][j].length() + 1;
+			}
+		}
+		
+		List<Triple<TokenSpan, ?, Double>> ner = new ArrayList<Triple<TokenSpan, ?, Double>>();
+		ner.add(new Triple<TokenSpan, String, Double>(new TokenSpan(document, 1, 0, 1), "PERSON", 0.25));
+		ner.add(new Triple<TokenSpan, String, Double>(new TokenSpan(document, 0, 0, 1), "PERSON", null));
+		
+		document.setTokenAnnotation(AnnotationTypeNLP.TOKEN, tokenAnno);
+		document.setTokenAnnotation(AnnotationTypeNLP.POS, posAnno);
+		document.setTokenAnnotation(AnnotationTypeNLP.LEMMA, lemmaAnno);
+		document.setTokenSpanAnnotation(AnnotationTypeNLP.NER, ner);
+		
+		DocumentNLPCompact compact = new DocumentNLPCompact(document);
+		
+		Assert.assertEquals(document.getText(), compact.getText());
+		Assert.assertEquals(document.getSentenceCount(), compact.getSentenceCount());
+		for (int i = 0; i < document.getSentenceCount(); i++) {
+			Assert.assertEquals(document.getSentenceTokenCount(i), compact.getSentenceTokenCount(i));
+			for (int j = 0; j < document.getSentenceTokenCount(i); j++) {
+				Assert.assertEquals(document.getTokenStr(i, j), compact.getTokenStr(i, j));
+				Assert.assertEquals(document.getToken(i, j).getCharSpanStart(), compact.getToken(i, j).getCharSpanStart());
+				Assert.assertEquals(document.getPoSTag(i, j), compact.getPoSTag(i, j));
+				Assert.assertEquals(document.getPoSTagConfidence(i, j), compact.getPoSTagConfidence(i, j));
+				Assert.assertEquals(document.getTokenAnnotation(AnnotationTypeNLP.LEMMA, i, j), compact.getTokenAnnotation(AnnotationTypeNLP.LEMMA, i, j));
+			}
+			
+			Assert.assertEquals(document.getNer(i).toString(), compact.getNer(i).toString());
+		}
+		
+		Assert.assertNull(compact.getTokenConfidence(0, 0));
+		Assert.assertEquals(0.5, compact.getPoSTagConfidence(0, 0), 0.0);
+		Assert.assertNull(compact.getPoSTagConfidence(0, 1));
+		Assert.assertEquals(0.25, compact.getNerWithConfidence(new TokenSpan(compact, 1, 0, 1), TokenSpan.ANY_SHARING_RELATION).get(0).getThird(), 0.0);
+		Assert.assertNull(compact.getNerWithConfidence(new TokenSpan(compact, 0, 0, 1), TokenSpan.ANY_SHARING_RELATION).get(0).getThird());
+		Assert.assertEquals(2, compact.getNer().size());
+	}
+	
 	private void testNLPAnnotationAndSerializationDisabledFrom(AnnotationTypeNLP<?> disabledFrom, String text) {
 		PipelineNLPStanford stanfordPipe = new PipelineNLPStanford();//7);
 		stanfordPipe = new PipelineNLPStanford(stanfordPipe);
@@ -0,0 +1,61 @@
+package edu.cmu.ml.rtw.generic.data.annotation.nlp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.cmu.ml.rtw.generic.data.DataTools;
+import edu.cmu.ml.rtw.generic.data.annotation.nlp.TokenSpan.Relation;
+import edu.cmu.ml.rtw.generic.util.OutputWriter;
+import edu.cmu.ml.rtw.generic.util.Pair;
+
+public class TokenSpanIndexTest {
+	@Test
+	public void testGetSpans() {
+		DocumentNLP document = new DocumentNLPInMemory(new DataTools(new OutputWriter()), "theDocument", "");
+		Random random = new Random(1);
+
+		Relation[][] relationSets = new Relation[][] {
+			TokenSpan.ANY_SHARING_RELATION,
+			TokenSpan.ANY_CLOSE_RELATION,
+			{ Relation.EQUAL },
+			{ Relation.CONTAINS },
+			{ Relation.CONTAINED_BY },
+			{ Relation.OVERLAPS },
+			{ Relation.CONTAINS, Relation.OVERLAPS },
+			{ Relation.SAME_SENTENCE },
+			{ }
+		};
+
+		// Sizes on both sides of TokenSpanIndex.MIN_INDEXED_SIZE
+		for (int size : new int[] { 0, 1, TokenSpanIndex.MIN_INDEXED_SIZE - 1, TokenSpanIndex.MIN_INDEXED_SIZE, 50, 400 }) {
+			List<Pair<TokenSpan, Integer>> spans = new ArrayList<Pair<TokenSpan, Integer>>();
+			for (int i = 0; i < size; i++)
+				spans.add(new Pair<TokenSpan, Integer>(makeSpan(document, random), i));
+			TokenSpanIndex<Pair<TokenSpan, Integer>> index = new TokenSpanIndex<Pair<TokenSpan, Integer>>(spans);
+
+			for (int i = 0; i < 200; i++) {
+				TokenSpan query = (size > 0 && i % 4 == 0) ? spans.get(random.nextInt(size)).getFirst() : makeSpan(document, random);
+				for (Relation[] relations : relationSets)
+					Assert.assertEquals(scan(spans, query, relations), index.getSpans(query, relations));
+			}
+		}
+	}
+
+	private static TokenSpan makeSpan(DocumentNLP document, Random random) {
+		int start = random.nextInt(60);
+		int end = Math.min(60, start + random.nextInt(6));
+		return new TokenSpan(document, 0, start, end);
+	}
+
+	private static List<Pair<TokenSpan, Integer>> scan(List<Pair<TokenSpan, Integer>> spans, TokenSpan query, Relation[] relations) {
+		List<Pair<TokenSpan, Integer>> related = new ArrayList<Pair<TokenSpan, Integer>>();
+		for (Pair<TokenSpan, Integer> span : spans)
+			if (query.hasRelationTo(span.getFirst(), relations))
+				related.add(span);
+		return related;
+	}
+}
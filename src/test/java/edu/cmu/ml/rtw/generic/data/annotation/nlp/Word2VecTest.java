@@ -0,0 +1,157 @@
+package edu.cmu.ml.rtw.generic.data.annotation.nlp;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class Word2VecTest {
+	private static final String[] WORDS = { "dog", "cat", "apple", "zero", "dog", "\u00e9t\u00e9" };
+	private static final float[][] VECTORS = {
+		{ 1f, 2f, 0f, 1f, 0.5f },
+		{ 1f, 1.5f, 0.5f, 1f, 0f },
+		{ -3f, 0f, 2f, 0f, 1f },
+		{ 0f, 0f, 0f, 0f, 0f },
+		{ 9f, 9f, 9f, 9f, 9f }, // Duplicate, so it is dropped
+		{ 0.25f, -1f, 0f, 4f, 2f }
+	};
+
+	@Test
+	public void testConvertRoundTrip() throws IOException {
+		File directory = makeTempDirectory();
+		File model = writeGoogleBinaryModel(directory);
+		File converted = new File(directory, "converted");
+		Assert.assertTrue(Word2Vec.convert(model, converted));
+		Assert.assertEquals(2, directory.listFiles().length);
+
+		Word2Vec w2v = new Word2Vec(converted);
+		Assert.assertEquals(5, w2v.getVectorSize());
+		Assert.assertEquals(5, w2v.getWordCount());
+		Assert.assertEquals(-1, w2v.getIndex("bird"));
+		for (int i = 0; i < WORDS.length; i++) {
+			if (i == 4)
+				continue;
+			Assert.assertTrue(w2v.getIndex(WORDS[i]) >= 0);
+			double[] vector = w2v.computeVector(WORDS[i]);
+			for (int j = 0; j < vector.length; j++)
+				Assert.assertEquals(VECTORS[i][j], vector[j], 0.0);
+		}
+
+		// Converting again replaces the old file
+		Assert.assertTrue(Word2Vec.convert(model, converted));
+		Assert.assertEquals(2, directory.listFiles().length);
+
+		// Failed conversions leave no temporary files behind
+		Assert.assertFalse(Word2Vec.convert(new File(directory, "missing"), new File(directory, "missing.mmap")));
+		Assert.assertEquals(2, directory.listFiles().length);
+
+		deleteDirectory(directory);
+	}
+
+	@Test
+	public void testSimilarity() throws IOException {
+		File directory = makeTempDirectory();
+		File model = writeGoogleBinaryModel(directory);
+
+		// The model is converted next to itself on first use
+		Word2Vec w2v = new Word2Vec(model);
+		Assert.assertTrue(new File(model.getPath() + Word2Vec.MAPPED_FILE_SUFFIX).exists());
+
+		String[] strs = { "dog", "cat", "apple", "zero", "bird", "\u00e9t\u00e9" };
+		double[] similarities = new double[strs.length];
+		for (String str : strs) {
+			w2v.computeSimilarities(str, strs, similarities);
+			for (int i = 0; i < strs.length; i++) {
+				Assert.assertEquals(cosine(str, strs[i]), w2v.computeSimilarity(str, strs[i]), 1e-12);
+				Assert.assertEquals(w2v.computeSimilarity(str, strs[i]), similarities[i], 0.0);
+			}
+		}
+
+		Assert.assertEquals(1.0, w2v.computeSimilarity("dog", "dog"), 1e-6);
+		Assert.assertEquals(0.0, w2v.computeSimilarity("dog", "zero"), 0.0);
+		Assert.assertEquals(0.0, w2v.computeSimilarity("dog", "bird"), 0.0);
+
+		deleteDirectory(directory);
+	}
+
+	@Test
+	public void testReadOnlyDirectory() throws IOException {
+		File directory = makeTempDirectory();
+		File model = writeGoogleBinaryModel(directory);
+		Assert.assertTrue(directory.setWritable(false));
+		try {
+			Word2Vec w2v = new Word2Vec(model);
+			Assert.assertEquals(5, w2v.getWordCount());
+			// Without write access, the converted file goes elsewhere
+			if (!directory.canWrite())
+				Assert.assertEquals(1, directory.listFiles().length);
+		} finally {
+			Assert.assertTrue(directory.setWritable(true));
+		}
+
+		deleteDirectory(directory);
+	}
+
+	private static double cosine(String str1, String str2) {
+		float[] vector1 = getVector(str1);
+		float[] vector2 = getVector(str2);
+		if (vector1 == null || vector2 == null)
+			return 0.0;
+
+		double dot = 0.0, norm1 = 0.0, norm2 = 0.0;
+		for (int i = 0; i < vector1.length; i++) {
+			dot += vector1[i] * (double)vector2[i];
+			norm1 += vector1[i] * (double)vector1[i];
+			norm2 += vector2[i] * (double)vector2[i];
+		}
+
+		if (norm1 == 0.0 || norm2 == 0.0)
+			return 0.0;
+		return dot / ((float)Math.sqrt(norm1) * (double)(float)Math.sqrt(norm2));
+	}
+
+	private static float[] getVector(String str) {
+		for (int i = 0; i < WORDS.length; i++)
+			if (WORDS[i].equals(str))
+				return VECTORS[i];
+		return null;
+	}
+
+	private static File writeGoogleBinaryModel(File directory) throws IOException {
+		File model = new File(directory, "model.bin");
+		OutputStream out = new FileOutputStream(model);
+		try {
+			out.write((WORDS.length + " " + VECTORS[0].length + "\n").getBytes(StandardCharsets.UTF_8));
+			for (int i = 0; i < WORDS.length; i++) {
+				out.write((WORDS[i] + " ").getBytes(StandardCharsets.UTF_8));
+				ByteBuffer row = ByteBuffer.allocate(4*VECTORS[i].length).order(ByteOrder.LITTLE_ENDIAN);
+				for (float value : VECTORS[i])
+					row.putFloat(value);
+				out.write(row.array());
+				out.write('\n');
+			}
+		} finally {
+			out.close();
+		}
+		return model;
+	}
+
+	private static File makeTempDirectory() throws IOException {
+		File directory = File.createTempFile("word2VecTest", "");
+		Assert.assertTrue(directory.delete());
+		Assert.assertTrue(directory.mkdir());
+		return directory;
+	}
+
+	private static void deleteDirectory(File directory) {
+		for (File file : directory.listFiles())
+			Assert.assertTrue(file.delete());
+		Assert.assertTrue(directory.delete());
+	}
+}
@@ -1,15 +1,138 @@
 package edu.cmu.ml.rtw.generic.data.annotation.nlp;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import org.junit.Assert;
 import org.junit.Test;
 
 import edu.cmu.ml.rtw.generic.data.DataTools;
 
 public class WordNetTest {
+	private static final String[] WORDS = { "dog", "dogs", "walking", "car", "automobile", "quickly", "happy", "xyzzy", "New_York" };
+	private static final PoSTag[] TAGS = { PoSTag.NN, PoSTag.NNS, PoSTag.VBG, PoSTag.VB, PoSTag.JJ, PoSTag.RB, PoSTag.IN };
+	
 	@Test
 	public void testWordNet() {
 		WordNet wn = (new DataTools()).getWordNet();
 		String lemma = wn.getLemma("walking", PoSTag.VBG);
 		Assert.assertEquals("walk", lemma);
 	}
+	
+	@Test
+	public void testSnapshot() throws IOException {
+		File directory = File.createTempFile("wordNetTest", "");
+		Assert.assertTrue(directory.delete());
+		Assert.assertTrue(directory.mkdir());
+		File snapshotFile = new File(directory, "wordnet.snapshot");
+		
+		// The first instance computes the table and saves it, and the
+		// second loads it
+		WordNet computed = new WordNet(snapshotFile);
+		Assert.assertTrue(snapshotFile.exists());
+		Assert.assertEquals(1, directory.listFiles().length);
+		WordNet loaded = new WordNet(snapshotFile);
+		WordNet uncached = new WordNet(null, 1024, false);
+		
+		assertSameLookups(uncached, computed);
+		assertSameLookups(uncached, loaded);
+		assertSameLookups(uncached, new WordNet());
+		
+		// A corrupt snapshot is recomputed and replaced
+		RandomAccessFile file = new RandomAccessFile(snapshotFile, "rw");
+		try {
+			file.writeInt(0);
+		} finally {
+			file.close();
+		}
+		
+		WordNet recomputed = new WordNet(snapshotFile);
+		assertSameLookups(uncached, recomputed);
+		assertSameLookups(uncached, new WordNet(snapshotFile));
+		Assert.assertEquals(1, directory.listFiles().length);
+		
+		Assert.assertTrue(snapshotFile.delete());
+		Assert.assertTrue(directory.delete());
+	}
+	
+	/**
+	 * Looks up the same words from 1 to 32 threads, checks that every
+	 * thread sees the serial results, and prints the lookup throughput
+	 * of the shared instance next to that of a lock around each lookup
+	 * (the behavior of the synchronized DataTools.getWordNet)
+	 */
+	@Test
+	public void testConcurrentLookups() throws Exception {
+		final WordNet wn = (new DataTools()).getWordNet();
+		final List<String> expected = lookUpAll(wn, null);
+		final Object lock = new Object();
+		
+		for (int threads = 1; threads <= 32; threads *= 2) {
+			double shared = measureThroughput(wn, null, expected, threads);
+			double locked = measureThroughput(wn, lock, expected, threads);
+			System.out.println("WordNet lookups/s with " + threads + " threads: " + (long)shared + " shared, " + (long)locked + " locked");
+		}
+	}
+	
+	private double measureThroughput(final WordNet wn, final Object lock, final List<String> expected, int threads) throws Exception {
+		final int repetitions = 200;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+			for (int i = 0; i < threads; i++) {
+				tasks.add(new Callable<Boolean>() {
+					public Boolean call() {
+						for (int j = 0; j < repetitions; j++)
+							if (!expected.equals(lookUpAll(wn, lock)))
+								return false;
+						return true;
+					}
+				});
+			}
+			
+			long start = System.nanoTime();
+			for (Future<Boolean> result : executor.invokeAll(tasks))
+				Assert.assertTrue(result.get());
+			double seconds = (System.nanoTime() - start) / 1e9;
+			return threads * repetitions * expected.size() / seconds;
+		} finally {
+			executor.shutdown();
+		}
+	}
+	
+	private List<String> lookUpAll(WordNet wn, Object lock) {
+		List<String> results = new ArrayList<String>();
+		for (String word : WORDS) {
+			for (PoSTag tag : TAGS) {
+				if (lock == null) {
+					results.add(wn.getLemma(word, tag));
+				} else {
+					synchronized (lock) {
+						results.add(wn.getLemma(word, tag));
+					}
+				}
+			}
+		}
+		return results;
+	}
+	
+	private void assertSameLookups(WordNet expected, WordNet actual) {
+		for (String word : WORDS) {
+			for (PoSTag tag : TAGS) {
+				Assert.assertEquals(expected.getLemma(word, tag), actual.getLemma(word, tag));
+				Assert.assertEquals(expected.getImmediateSynsetNames(word, tag), actual.getImmediateSynsetNames(word, tag));
+				Assert.assertEquals(expected.getFirstImmediateSynsetName(word, tag), actual.getFirstImmediateSynsetName(word, tag));
+			}
+		}
+		
+		Assert.assertTrue(actual.areSynonyms("car", PoSTag.NN, "automobile", PoSTag.NN));
+		Assert.assertFalse(actual.areSynonyms("car", PoSTag.NN, "happy", PoSTag.JJ));
+	}
 }
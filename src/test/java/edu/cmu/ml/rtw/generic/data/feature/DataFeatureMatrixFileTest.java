@@ -0,0 +1,113 @@
+package edu.cmu.ml.rtw.generic.data.feature;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.platanios.learn.math.matrix.SparseVector;
+import org.platanios.learn.math.matrix.Vector;
+
+public class DataFeatureMatrixFileTest {
+	@Test
+	public void testRoundTrip() throws IOException {
+		File directory = makeTempDirectory();
+		DataFeatureMatrixFile file = new DataFeatureMatrixFile(directory);
+		Assert.assertFalse(file.exists());
+		Assert.assertTrue(file.create(7L, 20));
+		Assert.assertTrue(file.exists());
+
+		for (int i = 0; i < 5; i++)
+			Assert.assertTrue(file.append(100 + i, (i == 3) ? null : String.valueOf(i % 2 == 0), makeVector(i)));
+
+		// Appended rows are not visible until they are flushed
+		DataFeatureMatrixFile reader = new DataFeatureMatrixFile(directory);
+		Assert.assertTrue(reader.open(7L));
+		Assert.assertEquals(0, reader.getRowCount());
+
+		Assert.assertTrue(file.flush());
+		Assert.assertFalse(reader.open(8L));
+		Assert.assertTrue(reader.open(7L));
+		assertRows(reader, 5);
+		Assert.assertEquals(-1, reader.getRow(99));
+
+		// Appending from a new instance continues after the flushed rows
+		DataFeatureMatrixFile appender = new DataFeatureMatrixFile(directory);
+		for (int i = 5; i < 8; i++)
+			Assert.assertTrue(appender.append(100 + i, String.valueOf(i % 2 == 0), makeVector(i)));
+		Assert.assertTrue(appender.flush());
+
+		reader = new DataFeatureMatrixFile(directory);
+		Assert.assertTrue(reader.open(7L));
+		assertRows(reader, 8);
+
+		VectorCache cache = reader.makeVectorCache();
+		assertVectorEquals(makeVector(6), cache.get(106));
+		Assert.assertNull(cache.get(99));
+		cache.put(99, makeVector(1));
+		assertVectorEquals(makeVector(1), cache.get(99));
+
+		// Only the columns and the header are left in the directory
+		Assert.assertEquals(6, directory.listFiles().length);
+
+		// Recreating the file drops its rows
+		Assert.assertTrue(appender.create(9L, 20));
+		reader = new DataFeatureMatrixFile(directory);
+		Assert.assertFalse(reader.open(7L));
+		Assert.assertTrue(reader.open(9L));
+		Assert.assertEquals(0, reader.getRowCount());
+
+		for (File column : directory.listFiles())
+			Assert.assertTrue(column.delete());
+		Assert.assertTrue(directory.delete());
+	}
+
+	private static void assertRows(DataFeatureMatrixFile file, int rowCount) {
+		Assert.assertEquals(rowCount, file.getRowCount());
+		Assert.assertEquals(20, file.getVocabularySize());
+		for (int i = 0; i < rowCount; i++) {
+			Assert.assertEquals(i, file.getRow(100 + i));
+			Assert.assertEquals(100 + i, file.getDatumId(i));
+			Assert.assertEquals((i == 3) ? null : String.valueOf(i % 2 == 0), file.getLabel(i));
+			Assert.assertEquals(i, file.getCardinality(i));
+
+			Vector expected = makeVector(i);
+			assertVectorEquals(expected, file.getVector(i));
+
+			IntBuffer indices = file.getIndices(i);
+			DoubleBuffer values = file.getValues(i);
+			Assert.assertTrue(indices.isReadOnly());
+			Assert.assertEquals(i, indices.remaining());
+			Assert.assertEquals(i, values.remaining());
+			for (int j = 0; j < i; j++)
+				Assert.assertEquals(expected.get(indices.get(j)), values.get(j), 0.0);
+		}
+	}
+
+	private static Vector makeVector(int row) {
+		int[] indices = new int[row];
+		double[] values = new double[row];
+		for (int i = 0; i < row; i++) {
+			indices[i] = 2*i + row % 2;
+			values[i] = row + i*0.25;
+		}
+		return new SparseVector(20, indices, values);
+	}
+
+	private static void assertVectorEquals(Vector expected, Vector actual) {
+		Assert.assertNotNull(actual);
+		Assert.assertEquals(expected.size(), actual.size());
+		Assert.assertEquals(expected.cardinality(), actual.cardinality());
+		for (int i = 0; i < expected.size(); i++)
+			Assert.assertEquals(expected.get(i), actual.get(i), 0.0);
+	}
+
+	private static File makeTempDirectory() throws IOException {
+		File directory = File.createTempFile("dataFeatureMatrixFileTest", "");
+		Assert.assertTrue(directory.delete());
+		Assert.assertTrue(directory.mkdir());
+		return directory;
+	}
+}
@@ -0,0 +1,179 @@
+package edu.cmu.ml.rtw.generic.data.feature;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.cmu.ml.rtw.generic.data.DataTools;
+import edu.cmu.ml.rtw.generic.data.annotation.Datum;
+import edu.cmu.ml.rtw.generic.data.annotation.DatumContext;
+import edu.cmu.ml.rtw.generic.data.annotation.TestDatum;
+import edu.cmu.ml.rtw.generic.data.annotation.nlp.AnnotationTypeNLP;
+import edu.cmu.ml.rtw.generic.data.annotation.nlp.DocumentNLP;
+import edu.cmu.ml.rtw.generic.data.annotation.nlp.DocumentNLPInMemory;
+import edu.cmu.ml.rtw.generic.data.annotation.nlp.DocumentNLPMutable;
+import edu.cmu.ml.rtw.generic.data.annotation.nlp.PoSTag;
+import edu.cmu.ml.rtw.generic.data.annotation.nlp.Token;
+import edu.cmu.ml.rtw.generic.data.annotation.nlp.TokenSpan;
+import edu.cmu.ml.rtw.generic.parse.Obj;
+import edu.cmu.ml.rtw.generic.util.OutputWriter;
+import edu.cmu.ml.rtw.generic.util.Pair;
+
+public class FeatureGramContextPatternTest {
+	// "!!" and "." are empty after DefaultCleanFn, "a b" keeps its space
+	// after DefaultCleanFn, and "and/or" keeps its slash after Trim, so
+	// the sentences with them aren't well-formed for the automata
+	private static final String[][][] TOKENS = {
+		{
+			{ "The", "big", "dog", "quickly", "ate", "the", "red", "apple", "." },
+			{ "Jim", "!!", "ran", "to", "the", "store", "and/or", "the", "old", "park" }
+		},
+		{
+			{ "a b", "cat", "sat", "on", "the", "mat" },
+			{ "It", "was", "a", "dog", "'s", "toy" }
+		}
+	};
+
+	private static final PoSTag[][][] POS_TAGS = {
+		{
+			{ PoSTag.DT, PoSTag.JJ, PoSTag.NN, PoSTag.RB, PoSTag.VBD, PoSTag.DT, PoSTag.JJ, PoSTag.NN, PoSTag.SYM },
+			{ PoSTag.NNP, PoSTag.SYM, PoSTag.VBD, PoSTag.TO, PoSTag.DT, PoSTag.NN, PoSTag.CC, PoSTag.DT, PoSTag.JJ, PoSTag.NN }
+		},
+		{
+			{ PoSTag.DT, PoSTag.NN, PoSTag.VBD, PoSTag.IN, PoSTag.DT, PoSTag.NN },
+			{ PoSTag.PRP, PoSTag.VBD, PoSTag.DT, PoSTag.NN, PoSTag.POS, PoSTag.NN }
+		}
+	};
+
+	// beforePattern, afterPattern, capturePart
+	private static final String[][] PATTERNS = {
+		{ "", "((((<p:RB,VB>)*<p:VB>)|POS)(DT)?(<p:JJ,NN>)*<p:NN>).*", "AFTER" },
+		{ "", "(('the')|(DT))(<p:JJ>)?(<p:NN>).*", "AFTER" },
+		{ "", "((<p:FN,JJ,NN>)+?)(<p:NN>)", "AFTER" },
+		{ "((DT)|(<p:JJ>))*(<p:NN>)", "", "BEFORE" },
+		{ "((<p:NNP,NN,JJ,FN>)|('dog'))+((<p:RB>)*)", "", "BEFORE" },
+		{ "((DT)|(<p:JJ,NN,VB,RB>))+", "((<p:RB,VB>)*)(<p:NN>)?.*", "AFTER" },
+		{ "(<p:NNP>)(.*)", "", "BEFORE" }
+	};
+
+	private static final String[] CLEAN_FNS = { "DefaultCleanFn", "Trim" };
+
+	@Test
+	public void testAutomataMatchPatterns() {
+		DataTools dataTools = new DataTools(new OutputWriter());
+		TestDatum.Tools<Boolean> tools = TestDatum.getBooleanTools(dataTools);
+		tools.addTokenSpanExtractor(new Datum.Tools.TokenSpanExtractor<TestDatum<Boolean>, Boolean>() {
+			@Override
+			public String toString() {
+				return "SentenceSpans";
+			}
+
+			@Override
+			public TokenSpan[] extract(TestDatum<Boolean> datum) {
+				return getSentenceSpans(datum.getTokenSpan().getDocument());
+			}
+		});
+
+		DatumContext<TestDatum<Boolean>, Boolean> context = new DatumContext<TestDatum<Boolean>, Boolean>(tools);
+		List<TestDatum<Boolean>> data = new ArrayList<TestDatum<Boolean>>();
+		for (int i = 0; i < TOKENS.length; i++)
+			data.add(new TestDatum<Boolean>(i, new TokenSpan(makeDocument(dataTools, i), 0, 0, 1), true));
+
+		int automataCount = 0;
+		int gramCount = 0;
+		for (String[] patterns : PATTERNS) {
+			for (String cleanFn : CLEAN_FNS) {
+				for (int captureGroup = 0; ; captureGroup++) {
+					FeatureGramContextPattern<TestDatum<Boolean>, Boolean> feature = makeFeature(context, cleanFn, patterns, captureGroup);
+					if (feature.beforeAutomaton != null || feature.afterAutomaton != null)
+						automataCount++;
+
+					for (TestDatum<Boolean> datum : data) {
+						Map<String, Integer> expected = new HashMap<String, Integer>();
+						for (TokenSpan tokenSpan : feature.tokenExtractor.extract(datum)) {
+							String gram = feature.computeGramByPatterns(tokenSpan);
+							if (gram == null)
+								continue;
+							if (!expected.containsKey(gram))
+								expected.put(gram, 0);
+							expected.put(gram, expected.get(gram) + 1);
+							gramCount++;
+						}
+
+						Assert.assertEquals(Arrays.toString(patterns) + " " + cleanFn + " " + captureGroup, expected, feature.getGramsForDatum(datum));
+					}
+
+					int groupCount = (patterns[2].equals("BEFORE") ? feature.convertedBeforePattern : feature.convertedAfterPattern).matcher("").groupCount();
+					if (captureGroup == groupCount)
+						break;
+				}
+			}
+		}
+
+		Assert.assertTrue(automataCount > 0);
+		Assert.assertTrue(gramCount > 0);
+	}
+
+	private static FeatureGramContextPattern<TestDatum<Boolean>, Boolean> makeFeature(DatumContext<TestDatum<Boolean>, Boolean> context, String cleanFn, String[] patterns, int captureGroup) {
+		FeatureGramContextPattern<TestDatum<Boolean>, Boolean> feature = new FeatureGramContextPattern<TestDatum<Boolean>, Boolean>(context);
+		Assert.assertTrue(feature.setParameterValue("cleanFn", Obj.stringValue(cleanFn)));
+		Assert.assertTrue(feature.setParameterValue("tokenExtractor", Obj.stringValue("SentenceSpans")));
+		Assert.assertTrue(feature.setParameterValue("beforePattern", Obj.stringValue(patterns[0])));
+		Assert.assertTrue(feature.setParameterValue("afterPattern", Obj.stringValue(patterns[1])));
+		Assert.assertTrue(feature.setParameterValue("capturePart", Obj.stringValue(patterns[2])));
+		Assert.assertTrue(feature.setParameterValue("captureGroup", Obj.stringValue(String.valueOf(captureGroup))));
+		return feature;
+	}
+
+	/**
+	 * @return the spans of one and two tokens in each sentence, and then
+	 * the first token of the first sentence again, so that the sentence
+	 * changes between consecutive spans
+	 */
+	private static TokenSpan[] getSentenceSpans(DocumentNLP document) {
+		List<TokenSpan> tokenSpans = new ArrayList<TokenSpan>();
+		for (int i = 0; i < document.getSentenceCount(); i++) {
+			int tokenCount = document.getSentenceTokenCount(i);
+			for (int j = 0; j < tokenCount; j++) {
+				tokenSpans.add(new TokenSpan(document, i, j, j + 1));
+				if (j + 2 <= tokenCount)
+					tokenSpans.add(new TokenSpan(document, i, j, j + 2));
+			}
+		}
+
+		tokenSpans.add(new TokenSpan(document, 0, 0, 1));
+		return tokenSpans.toArray(new TokenSpan[tokenSpans.size()]);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static DocumentNLP makeDocument(DataTools dataTools, int index) {
+		String[][] tokens = TOKENS[index];
+		StringBuilder text = new StringBuilder();
+		for (String[] sentence : tokens)
+			for (String token : sentence)
+				text.append(token).append(" ");
+
+		DocumentNLPMutable document = new DocumentNLPInMemory(dataTools, "document" + index, text.toString().trim());
+		Pair<?, Double>[][] tokenAnno = new Pair[tokens.length][];
+		Pair<?, Double>[][] posAnno = new Pair[tokens.length][];
+		int charIndex = 0;
+		for (int i = 0; i < tokens.length; i++) {
+			tokenAnno[i] = new Pair[tokens[i].length];
+			posAnno[i] = new Pair[tokens[i].length];
+			for (int j = 0; j < tokens[i].length; j++) {
+				tokenAnno[i][j] = new Pair<Token, Double>(new Token(document, tokens[i][j], charIndex, charIndex + tokens[i][j].length()), null);
+				posAnno[i][j] = new Pair<PoSTag, Double>(POS_TAGS[index][i][j], null);
+				charIndex += tokens[i][j].length() + 1;
+			}
+		}
+
+		document.setTokenAnnotation(AnnotationTypeNLP.TOKEN, tokenAnno);
+		document.setTokenAnnotation(AnnotationTypeNLP.POS, posAnno);
+		return document;
+	}
+}
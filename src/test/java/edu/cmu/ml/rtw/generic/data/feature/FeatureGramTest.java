@@ -0,0 +1,90 @@
+package edu.cmu.ml.rtw.generic.data.feature;
+
+import java.io.StringReader;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.cmu.ml.rtw.generic.data.DataTools;
+import edu.cmu.ml.rtw.generic.data.annotation.DataSet;
+import edu.cmu.ml.rtw.generic.data.annotation.DatumContext;
+import edu.cmu.ml.rtw.generic.data.annotation.TestDatum;
+import edu.cmu.ml.rtw.generic.parse.Obj;
+import edu.cmu.ml.rtw.generic.util.HashedVocabulary;
+import edu.cmu.ml.rtw.generic.util.OutputWriter;
+import edu.cmu.ml.rtw.generic.util.Properties;
+
+public class FeatureGramTest {
+	@Test
+	public void testHashedVectors() {
+		DatumContext<TestDatum<Boolean>, Boolean> context = makeContext();
+		DataSet<TestDatum<Boolean>, Boolean> data = context.getMatchDataSet(Obj.curlyBracedValue("trainData"));
+		FeatureGram<TestDatum<Boolean>, Boolean> unhashed = (FeatureGram<TestDatum<Boolean>, Boolean>)context.getMatchFeature(Obj.curlyBracedValue("unhashed"));
+		FeatureGram<TestDatum<Boolean>, Boolean> hashed = (FeatureGram<TestDatum<Boolean>, Boolean>)context.getMatchFeature(Obj.curlyBracedValue("hashed"));
+		Assert.assertTrue(unhashed.init(data));
+		Assert.assertTrue(hashed.init(data));
+		
+		// Initialization samples the grams, and computing vectors doesn't
+		int sampleSize = hashed.hashedVocabulary.getSample().size();
+		Assert.assertTrue(sampleSize > 0);
+		
+		// Without collisions, each hashed component is the signed value 
+		// of the gram that hashes to it
+		for (TestDatum<Boolean> datum : data) {
+			Map<Integer, Double> unhashedVector = unhashed.computeVector(datum);
+			Map<Integer, Double> hashedVector = hashed.computeVector(datum);
+			Assert.assertEquals(unhashedVector.size(), hashedVector.size());
+			for (Entry<Integer, Double> entry : unhashedVector.entrySet()) {
+				String gram = unhashed.getVocabularyTerm(entry.getKey());
+				int hash = HashedVocabulary.murmur3(gram);
+				int index = hashed.hashedVocabulary.getIndex(hash);
+				Assert.assertEquals(gram, hashed.getVocabularyTerm(index));
+				Assert.assertEquals(entry.getValue()*hashed.hashedVocabulary.getSign(hash), hashedVector.get(index), 1e-9);
+			}
+		}
+		
+		Assert.assertEquals(sampleSize, hashed.hashedVocabulary.getSample().size());
+	}
+	
+	@Test
+	public void testHashedSerialization() {
+		DatumContext<TestDatum<Boolean>, Boolean> context = makeContext();
+		DataSet<TestDatum<Boolean>, Boolean> data = context.getMatchDataSet(Obj.curlyBracedValue("trainData"));
+		FeatureGram<TestDatum<Boolean>, Boolean> hashed = (FeatureGram<TestDatum<Boolean>, Boolean>)context.getMatchFeature(Obj.curlyBracedValue("hashed"));
+		Assert.assertTrue(hashed.init(data));
+		
+		// Cloning serializes the document frequencies through toParse 
+		// and deserializes them through fromParse
+		FeatureGram<TestDatum<Boolean>, Boolean> deserialized = (FeatureGram<TestDatum<Boolean>, Boolean>)hashed.clone(true);
+		Assert.assertNotNull(deserialized);
+		Assert.assertFalse(hashed.hashedVocabulary == deserialized.hashedVocabulary);
+		Assert.assertTrue(deserialized.hashedVocabulary.hasDocumentFrequencies());
+		Assert.assertEquals(hashed.hashedVocabulary.getDocumentCount(), deserialized.hashedVocabulary.getDocumentCount());
+		for (int i = 0; i < hashed.hashedVocabulary.size(); i++)
+			Assert.assertEquals(hashed.hashedVocabulary.getDocumentFrequency(i), deserialized.hashedVocabulary.getDocumentFrequency(i));
+		Assert.assertEquals(hashed.hashedVocabulary.getSample(), deserialized.hashedVocabulary.getSample());
+		Assert.assertEquals(hashed.toParse().toString(), deserialized.toParse().toString());
+		
+		for (TestDatum<Boolean> datum : data)
+			Assert.assertEquals(hashed.computeVector(datum), deserialized.computeVector(datum));
+	}
+	
+	private static DatumContext<TestDatum<Boolean>, Boolean> makeContext() {
+		DataTools dataTools = new DataTools(new OutputWriter(),
+				new Properties(new StringReader(
+						"debug_dir=\n" +
+						"storage_fs_bson_testBson=/test/bson\n" +
+						"storage_fs_str_testStr=/test/str"
+						)));
+		
+		String featureStr = "NGramSentence(minFeatureOccurrence=\"2\", cleanFn=\"DefaultCleanFn\", tokenExtractor=\"TokenSpan\", scale=\"NORMALIZED_TFIDF\", clusterer=\"None\", n=\"1\", noTokenSpan=\"false\"";
+		String contextStr = "value maxThreads=\"2\";\n";
+		contextStr +=       "data trainData = Test(storage=\"BSONMemory\", collection=\"TrainDocuments\");\n";
+		contextStr +=       "feature unhashed=" + featureStr + ");\n";
+		contextStr +=       "feature hashed=" + featureStr + ", hashBits=\"24\", hashSample=\"100000\");\n";
+		
+		return DatumContext.run(TestDatum.getBooleanTools(dataTools), contextStr);
+	}
+}
@@ -0,0 +1,136 @@
+package edu.cmu.ml.rtw.generic.data.feature;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.cmu.ml.rtw.generic.data.annotation.DataSet;
+import edu.cmu.ml.rtw.generic.data.annotation.Datum;
+import edu.cmu.ml.rtw.generic.data.annotation.Datum.Tools.LabelIndicator;
+import edu.cmu.ml.rtw.generic.data.annotation.DatumContext;
+import edu.cmu.ml.rtw.generic.data.annotation.TestDatum;
+import edu.cmu.ml.rtw.generic.parse.AssignmentList;
+import edu.cmu.ml.rtw.generic.parse.Obj;
+import edu.cmu.ml.rtw.generic.util.SparseVectorBuilder;
+
+public class FeatureTest {
+	@Test
+	public void testMapOnlyFeature() {
+		MapOnlyFeature feature = new MapOnlyFeature();
+		
+		SparseVectorBuilder vector = feature.computeVector(null, 3, new SparseVectorBuilder());
+		Assert.assertEquals(2, vector.size());
+		Assert.assertEquals(3, vector.getIndex(0));
+		Assert.assertEquals(2.0, vector.getValue(0), 0.0);
+		Assert.assertEquals(4, vector.getIndex(1));
+		Assert.assertEquals(1.0, vector.getValue(1), 0.0);
+		
+		Map<Integer, Double> map = feature.computeVector(null, 3, new HashMap<Integer, Double>());
+		Assert.assertEquals(vector.toMap(new HashMap<Integer, Double>()), map);
+	}
+	
+	@Test
+	public void testFeatureWithoutComputeVector() {
+		StubFeature feature = new StubFeature() { };
+		
+		try {
+			feature.computeVector(null, 0, new SparseVectorBuilder());
+			Assert.fail();
+		} catch (UnsupportedOperationException e) {
+			
+		}
+		
+		try {
+			feature.computeVector(null);
+			Assert.fail();
+		} catch (UnsupportedOperationException e) {
+			
+		}
+		
+		// The failures don't leave the adapter state behind
+		Assert.assertEquals(2, new MapOnlyFeature().computeVector(null, 0, new SparseVectorBuilder()).size());
+	}
+	
+	/**
+	 * MapOnlyFeature only overrides the map-based computeVector, and 
+	 * computes a built-in feature within it
+	 */
+	private static class MapOnlyFeature extends StubFeature {
+		private FeatureConstant<TestDatum<Boolean>, Boolean> inner = new FeatureConstant<TestDatum<Boolean>, Boolean>();
+		
+		@Override
+		public Map<Integer, Double> computeVector(TestDatum<Boolean> datum, int offset, Map<Integer, Double> vector) {
+			vector.put(offset, 2.0);
+			return this.inner.computeVector(datum, offset + 1, vector);
+		}
+	}
+	
+	private static class StubFeature extends Feature<TestDatum<Boolean>, Boolean> {
+		@Override
+		public boolean init(DataSet<TestDatum<Boolean>, Boolean> dataSet) {
+			return true;
+		}
+
+		@Override
+		public int getVocabularySize() {
+			return 2;
+		}
+
+		@Override
+		public String getVocabularyTerm(int index) {
+			return String.valueOf(index);
+		}
+
+		@Override
+		protected boolean setVocabularyTerm(int index, String term) {
+			return true;
+		}
+
+		@Override
+		protected <T extends Datum<Boolean>> Feature<T, Boolean> makeBinaryHelper(DatumContext<T, Boolean> context, LabelIndicator<Boolean> labelIndicator, Feature<T, Boolean> binaryFeature) {
+			return binaryFeature;
+		}
+
+		@Override
+		protected boolean cloneHelper(Feature<TestDatum<Boolean>, Boolean> clone) {
+			return true;
+		}
+
+		@Override
+		protected boolean fromParseInternalHelper(AssignmentList internalAssignments) {
+			return true;
+		}
+
+		@Override
+		protected AssignmentList toParseInternalHelper(AssignmentList internalAssignments) {
+			return internalAssignments;
+		}
+
+		@Override
+		public Feature<TestDatum<Boolean>, Boolean> makeInstance(DatumContext<TestDatum<Boolean>, Boolean> context) {
+			return new StubFeature();
+		}
+
+		@Override
+		public String[] getParameterNames() {
+			return new String[0];
+		}
+
+		@Override
+		public Obj getParameterValue(String parameter) {
+			return null;
+		}
+
+		@Override
+		public boolean setParameterValue(String parameter, Obj parameterValue) {
+			return false;
+		}
+
+		@Override
+		public String getGenericName() {
+			return "Stub";
+		}
+	}
+}
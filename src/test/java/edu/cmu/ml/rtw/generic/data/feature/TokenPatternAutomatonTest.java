@@ -0,0 +1,87 @@
+package edu.cmu.ml.rtw.generic.data.feature;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TokenPatternAutomatonTest {
+	@Test
+	public void testMatchesRegex() {
+		String[] patterns = {
+			"(([^\\s]+/DT[\\s]+))?((([^\\s]+/JJ[\\s]+)|([^\\s]+/NN[\\s]+)))*([^\\s]+/NN[\\s]+).*",
+			"(the/[^\\s]+[\\s]+)*?(([^\\s]+/NN[\\s]+)|([^\\s]+/PRP$[\\s]+))+",
+			"((([^\\s]+/VB[\\s]+)){1,2}|dog/[^\\s]+[\\s]+)([^\\s]+/IN[\\s]+)"
+		};
+		
+		String[][] texts = {
+			{ "the", "big", "dog", "ran" },
+			{ "the", "the", "dog", "cat" },
+			{ "run", "run", "of" },
+			{ "dog", "of" },
+			{ "", "dog" },
+			{ "his", "dog" }
+		};
+		
+		String[][] tags = {
+			{ "DT", "JJ", "NN", "VB" },
+			{ "DT", "DT", "NN", "NN" },
+			{ "VB", "VB", "IN" },
+			{ "NN", "IN" },
+			{ "NN", "NN" },
+			{ "PRP$", "NN" }
+		};
+		
+		for (String pattern : patterns) {
+			Pattern regex = Pattern.compile(pattern);
+			TokenPatternAutomaton automaton = TokenPatternAutomaton.compile(pattern);
+			Assert.assertEquals(regex.matcher("").groupCount(), automaton.getGroupCount());
+			
+			for (int i = 0; i < texts.length; i++) {
+				StringBuilder str = new StringBuilder();
+				int[] symbols = new int[texts[i].length];
+				for (int j = 0; j < texts[i].length; j++) {
+					str.append(texts[i][j]).append("/").append(tags[i][j]).append(" ");
+					symbols[j] = automaton.getSymbol(texts[i][j], tags[i][j]);
+				}
+				
+				Matcher matcher = regex.matcher(str.toString());
+				boolean matches = matcher.matches();
+				Assert.assertEquals(pattern + " " + str, matches, automaton.matches(symbols, 0, symbols.length));
+				
+				for (int group = 0; group <= automaton.getGroupCount(); group++) {
+					int[] capture = automaton.match(symbols, 0, symbols.length, group);
+					if (!matches) {
+						Assert.assertNull(capture);
+					} else if (matcher.group(group) == null) {
+						Assert.assertEquals(-1, capture[0]);
+					} else {
+						Assert.assertEquals(matcher.start(group), str.length() - suffixLength(texts[i], tags[i], capture[0]));
+						Assert.assertEquals(matcher.end(group), str.length() - suffixLength(texts[i], tags[i], capture[1]));
+					}
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void testShared() {
+		String pattern = "(([^\\s]+/DT[\\s]+))?([^\\s]+/NN[\\s]+)";
+		Assert.assertSame(TokenPatternAutomaton.compile(pattern), TokenPatternAutomaton.compile(pattern));
+	}
+	
+	@Test
+	public void testUnsupported() {
+		Assert.assertNull(TokenPatternAutomaton.compile("(?!.*([^\\s]+/NN[\\s]+))([^\\s]+/DT[\\s]+)"));
+		Assert.assertNull(TokenPatternAutomaton.compile("((([^\\s]+/NN[\\s]+))?)*"));
+		Assert.assertNull(TokenPatternAutomaton.compile(".*([^\\s]+/NN[\\s]+)"));
+	}
+	
+	private int suffixLength(String[] texts, String[] tags, int start) {
+		int length = 0;
+		for (int i = start; i < texts.length; i++)
+			length += texts[i].length() + tags[i].length() + 2;
+		return length;
+	}
+}
@@ -0,0 +1,113 @@
+package edu.cmu.ml.rtw.generic.data.feature;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.platanios.learn.math.matrix.SparseVector;
+import org.platanios.learn.math.matrix.Vector;
+
+import edu.cmu.ml.rtw.generic.util.ThreadMapper;
+
+public class VectorCacheTest {
+	@Test
+	public void testBoundedEviction() {
+		// Each vector has an estimated size of 64 + 12*2 = 88 bytes
+		VectorCache.Bounded cache = new VectorCache.Bounded(3*88, null, 1);
+		for (int i = 0; i < 5; i++)
+			cache.put(i, makeVector(i));
+
+		Assert.assertEquals(2, cache.getEvictions());
+		Assert.assertEquals(3*88, cache.getBytes());
+		Assert.assertNull(cache.get(0));
+		Assert.assertNull(cache.get(1));
+		Assert.assertEquals(2, cache.getMisses());
+
+		// Reading 2 makes 3 the least recently used
+		assertVectorEquals(makeVector(2), cache.get(2));
+		cache.put(5, makeVector(5));
+		Assert.assertNull(cache.get(3));
+		assertVectorEquals(makeVector(2), cache.get(2));
+		assertVectorEquals(makeVector(4), cache.get(4));
+		assertVectorEquals(makeVector(5), cache.get(5));
+
+		cache.close();
+		Assert.assertEquals(0, cache.getBytes());
+		Assert.assertNull(cache.get(5));
+	}
+
+	@Test
+	public void testBoundedSpill() throws IOException {
+		File spillDirectory = makeTempDirectory();
+		VectorCache.Bounded cache = new VectorCache.Bounded(4*88, spillDirectory, 2);
+		Assert.assertEquals(1, spillDirectory.listFiles().length);
+
+		for (int i = 0; i < 50; i++)
+			cache.put(i, makeVector(i));
+		Assert.assertTrue(cache.getEvictions() > 0);
+
+		for (int i = 0; i < 50; i++)
+			assertVectorEquals(makeVector(i), cache.get(i));
+		Assert.assertEquals(0, cache.getMisses());
+		Assert.assertTrue(cache.getBytes() <= 4*88);
+
+		// Replacing a spilled vector does not bring back the old one
+		cache.put(0, makeVector(100));
+		for (int i = 1; i < 50; i++)
+			cache.get(i);
+		assertVectorEquals(makeVector(100), cache.get(0));
+
+		cache.close();
+		Assert.assertEquals(0, spillDirectory.listFiles().length);
+		Assert.assertNull(cache.get(1));
+		Assert.assertTrue(spillDirectory.delete());
+	}
+
+	@Test
+	public void testBoundedConcurrent() throws IOException {
+		File spillDirectory = makeTempDirectory();
+		final VectorCache.Bounded cache = new VectorCache.Bounded(16*88, spillDirectory, 4);
+		List<Integer> ids = new ArrayList<Integer>();
+		for (int i = 0; i < 1000; i++)
+			ids.add(i);
+
+		ThreadMapper<Integer, Boolean> mapper = new ThreadMapper<Integer, Boolean>(new ThreadMapper.Fn<Integer, Boolean>() {
+			@Override
+			public Boolean apply(Integer id) {
+				cache.put(id, makeVector(id));
+				Vector vector = cache.get(id/2);
+				return vector == null || vector.get(id/2) == id/2;
+			}
+		});
+
+		for (Boolean result : mapper.run(ids, 4))
+			Assert.assertTrue(result);
+		for (int i = 0; i < 1000; i++)
+			assertVectorEquals(makeVector(i), cache.get(i));
+
+		cache.close();
+		Assert.assertTrue(spillDirectory.delete());
+	}
+
+	private static Vector makeVector(int id) {
+		return new SparseVector(2*id + 2, new int[] { id, 2*id + 1 }, new double[] { id, -id - 0.5 });
+	}
+
+	private static void assertVectorEquals(Vector expected, Vector actual) {
+		Assert.assertNotNull(actual);
+		Assert.assertEquals(expected.size(), actual.size());
+		Assert.assertEquals(expected.cardinality(), actual.cardinality());
+		for (int i = 0; i < expected.size(); i++)
+			Assert.assertEquals(expected.get(i), actual.get(i), 0.0);
+	}
+
+	private static File makeTempDirectory() throws IOException {
+		File directory = File.createTempFile("vectorCacheTest", "");
+		Assert.assertTrue(directory.delete());
+		Assert.assertTrue(directory.mkdir());
+		return directory;
+	}
+}
@@ -1,5 +1,21 @@
 package edu.cmu.ml.rtw.generic.data.feature.fn;
 
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.cmu.ml.rtw.generic.data.DataTools;
+import edu.cmu.ml.rtw.generic.data.annotation.DatumContext;
+import edu.cmu.ml.rtw.generic.data.annotation.TestDatum;
+import edu.cmu.ml.rtw.generic.data.annotation.nlp.TokenSpan;
+import edu.cmu.ml.rtw.generic.parse.Obj;
+import edu.cmu.ml.rtw.generic.util.OutputWriter;
+import edu.cmu.ml.rtw.generic.util.Properties;
+
 /*
 import java.util.Arrays;
 import java.util.List;
@@ -20,6 +36,65 @@ import edu.cmu.ml.rtw.generic.parse.Obj;
 import edu.cmu.ml.rtw.generic.util.OutputWriter;*/
 
 public class FnTest {
+	@Test
+	public void testCacheParameters() {
+		DataTools dataTools = new DataTools(new OutputWriter(),
+				new Properties(new StringReader(
+						"debug_dir=\n" +
+						"storage_fs_bson_testBson=/test/bson\n" +
+						"storage_fs_str_testStr=/test/str"
+						)));
+		
+		DatumContext<TestDatum<Boolean>, Boolean> context = DatumContext.run(TestDatum.getBooleanTools(dataTools), 
+				"value size=\"5\";\n" +
+				"ts_str_fn str=String(cleanFn=\"DefaultCleanFn\", cacheSize=${size}, cacheWeight=\"100\");\n" +
+				"ts_str_fn strDefault=String(cleanFn=\"DefaultCleanFn\");\n");
+		
+		Fn<TokenSpan, String> str = context.getMatchTokenSpanStrFn(Obj.curlyBracedValue("str"));
+		Assert.assertEquals(5, str.getCacheSize());
+		Assert.assertEquals(100, str.getCacheWeight());
+		
+		Fn<TokenSpan, String> strDefault = context.getMatchTokenSpanStrFn(Obj.curlyBracedValue("strDefault"));
+		Assert.assertEquals(Fn.DEFAULT_CACHE_SIZE, strDefault.getCacheSize());
+		Assert.assertNull(strDefault.getParameterValue("cacheSize"));
+		
+		// The cache parameters are serialized with the function's own
+		// parameters
+		Fn<TokenSpan, String> deserialized = str.makeInstance(context);
+		Assert.assertTrue(deserialized.fromParse(str.toParse(false)));
+		Assert.assertEquals(5, deserialized.getCacheSize());
+		Assert.assertEquals(100, deserialized.getCacheWeight());
+		Assert.assertEquals(str.toParse(false).toString(), deserialized.toParse(false).toString());
+	}
+	
+	@Test
+	public void testCacheKeys() {
+		FnStringCase fn = new FnStringCase();
+		
+		// Keys that share the cache hash but not the check hash
+		// don't return each other's outputs
+		Fn.CacheKey keyA = new Fn.CacheKey(1L, 2L);
+		Fn.CacheKey keyB = new Fn.CacheKey(1L, 3L);
+		Assert.assertEquals(Arrays.asList("a"), fn.listCachedCompute(Arrays.asList("A"), keyA));
+		Assert.assertEquals(Arrays.asList("b"), fn.listCachedCompute(Arrays.asList("B"), keyB));
+		Assert.assertEquals(Arrays.asList("b"), fn.listCachedCompute(Arrays.asList("C"), keyB));
+		Assert.assertEquals(Arrays.asList("a"), fn.listCachedCompute(Arrays.asList("A"), keyA));
+		
+		Assert.assertEquals(Fn.cacheKey("extractor").part(7), Fn.cacheKey("extractor").part(7));
+		
+		// Neither hash collides over many similar ids and parts
+		Set<Long> hashes = new HashSet<Long>();
+		Set<Long> checks = new HashSet<Long>();
+		for (int i = 0; i < 1000; i++) {
+			Fn.CacheKey key = Fn.cacheKey("extractor" + i);
+			for (int j = 0; j < 100; j++) {
+				Fn.CacheKey partKey = key.part(j);
+				Assert.assertTrue(hashes.add(partKey.hash));
+				Assert.assertTrue(checks.add(partKey.check));
+			}
+		}
+	}
+	
 	/* FIXME Needs refactoredprivate TestDatum<String> testDatum = constructTestDatum();
 	private Context<TestDatum<String>, String> context = Context.deserialize(TestDatum.getStringTools(new DataTools(new OutputWriter())),
 															"ts_fn head=Head();\n" +
@@ -0,0 +1,193 @@
+package edu.cmu.ml.rtw.generic.data.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.cmu.ml.rtw.generic.data.Serializer;
+
+public class StoredCollectionFileSystemTest {
+	@Test
+	public void testUnpackedRoundTrip() throws IOException {
+		testRoundTrip(false);
+	}
+	
+	@Test
+	public void testPackedRoundTrip() throws IOException {
+		testRoundTrip(true);
+	}
+	
+	@Test
+	public void testPackedMatchesUnpacked() throws IOException {
+		File directory = makeDirectory();
+		try {
+			StorageFileSystem<String> storage = makeStorage(directory);
+			StoredCollectionFileSystem<String, String> unpacked = storage.createCollection("unpacked", new SerializerTestItem());
+			StoredCollectionFileSystem<String, String> packed = storage.createPackedCollection("packed", new SerializerTestItem());
+			List<String> items = makeItems();
+			Assert.assertTrue(unpacked.addItems(items));
+			Assert.assertTrue(packed.addItems(items));
+			
+			// Both read items in the same charset with the same line breaks
+			Assert.assertEquals(sorted(unpacked), sorted(packed));
+			Assert.assertEquals(unpacked.getItemsByIndices(Arrays.asList("group", "id"), Arrays.<Object>asList("g1", "7")), 
+								packed.getItemsByIndices(Arrays.asList("group", "id"), Arrays.<Object>asList("g1", "7")));
+			packed.close();
+		} finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+	
+	private void testRoundTrip(boolean packed) throws IOException {
+		File directory = makeDirectory();
+		try {
+			StorageFileSystem<String> storage = makeStorage(directory);
+			StoredCollectionFileSystem<String, String> collection = (packed) ? 
+					storage.createPackedCollection("items", new SerializerTestItem()) 
+					: storage.createCollection("items", new SerializerTestItem());
+			Assert.assertEquals(packed, collection.isPacked());
+			
+			List<String> items = makeItems();
+			Assert.assertTrue(collection.addItems(items.subList(0, items.size() - 1)));
+			Assert.assertTrue(collection.addItem(items.get(items.size() - 1)));
+			
+			List<String> expected = new ArrayList<String>();
+			for (String item : items)
+				expected.add(normalize(item));
+			Collections.sort(expected);
+			
+			Assert.assertEquals(expected, sorted(collection));
+			assertIndexedItems(expected, collection);
+			collection.close();
+			
+			// The items are all there after closing and reopening
+			@SuppressWarnings("unchecked")
+			StoredCollectionFileSystem<String, String> reopened = (StoredCollectionFileSystem<String, String>)storage.getCollection("items", new SerializerTestItem());
+			Assert.assertEquals(packed, reopened.isPacked());
+			Assert.assertEquals(expected, sorted(reopened));
+			assertIndexedItems(expected, reopened);
+			
+			// Items added after reopening are read back too
+			Assert.assertTrue(reopened.addItems(Arrays.asList("g2\t0\tlate", "g2\t1\tlater")));
+			Assert.assertEquals(Arrays.asList("g2\t0\tlate", "g2\t1\tlater"), sorted(reopened.getItemsByIndex("group", "g2")));
+			Assert.assertEquals(expected.size() + 2, sorted(reopened).size());
+			reopened.close();
+		} finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+	
+	private void assertIndexedItems(List<String> expected, StoredCollectionFileSystem<String, String> collection) {
+		List<String> group = new ArrayList<String>();
+		for (String item : expected)
+			if (item.startsWith("g1\t"))
+				group.add(item);
+		Assert.assertEquals(group, sorted(collection.getItemsByIndex("group", "g1")));
+		
+		List<String> item = collection.getItemsByIndices(Arrays.asList("group", "id"), Arrays.<Object>asList("g0", "4"));
+		Assert.assertEquals(1, item.size());
+		Assert.assertEquals("g0\t4\tline 4 \u00FC\nsecond line", item.get(0));
+		
+		Assert.assertEquals(0, collection.getItemsByIndices(Arrays.asList("group", "id"), Arrays.<Object>asList("g0", "5")).size());
+	}
+	
+	private List<String> makeItems() {
+		List<String> items = new ArrayList<String>();
+		for (int i = 0; i < 40; i++)
+			items.add("g" + (i % 2) + "\t" + i + "\tline " + i + " \u00FC\r\nsecond line");
+		return items;
+	}
+	
+	private String normalize(String item) {
+		return item.replace("\r\n", "\n");
+	}
+	
+	private List<String> sorted(Iterable<String> items) {
+		List<String> list = new ArrayList<String>();
+		for (String item : items)
+			list.add(item);
+		Collections.sort(list);
+		return list;
+	}
+	
+	private File makeDirectory() throws IOException {
+		File directory = File.createTempFile("storedCollectionTest", "");
+		Assert.assertTrue(directory.delete());
+		Assert.assertTrue(directory.mkdir());
+		return directory;
+	}
+	
+	private StorageFileSystem<String> makeStorage(File directory) {
+		Map<String, Serializer<?, ?>> serializers = new HashMap<String, Serializer<?, ?>>();
+		serializers.put("TestItem", new SerializerTestItem());
+		return new StorageFileSystem<String>("test", directory.getAbsolutePath(), serializers);
+	}
+	
+	/**
+	 * SerializerTestItem stores tab-separated (group, id, text) strings, 
+	 * indexed by group and id
+	 */
+	private static class SerializerTestItem extends Serializer<String, String> {
+		private List<Serializer.Index<String>> indices;
+		
+		public SerializerTestItem() {
+			this.indices = new ArrayList<Serializer.Index<String>>();
+			this.indices.add(makeIndex("group", 0));
+			this.indices.add(makeIndex("id", 1));
+		}
+		
+		private Serializer.Index<String> makeIndex(final String field, final int part) {
+			return new Serializer.Index<String>() {
+				@Override
+				public String getField() {
+					return field;
+				}
+
+				@Override
+				public Object getValue(String item) {
+					return item.split("\t")[part];
+				}
+			};
+		}
+		
+		@Override
+		public String getName() {
+			return "TestItem";
+		}
+
+		@Override
+		public String serialize(String item) {
+			return item;
+		}
+
+		@Override
+		public String deserialize(String object, StoreReference storeReference) {
+			// Items are read with a line break after their last line
+			return object.substring(0, object.length() - 1);
+		}
+
+		@Override
+		public String serializeToString(String item) {
+			return serialize(item);
+		}
+
+		@Override
+		public String deserializeFromString(String str, StoreReference storeReference) {
+			return deserialize(str, storeReference);
+		}
+
+		@Override
+		public List<Serializer.Index<String>> getIndices() {
+			return this.indices;
+		}
+	}
+}
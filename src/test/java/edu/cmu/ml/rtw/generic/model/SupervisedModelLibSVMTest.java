@@ -0,0 +1,233 @@
+package edu.cmu.ml.rtw.generic.model;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.cmu.ml.rtw.generic.data.DataTools;
+import edu.cmu.ml.rtw.generic.data.annotation.DatumContext;
+import edu.cmu.ml.rtw.generic.data.annotation.TernaryLabel;
+import edu.cmu.ml.rtw.generic.data.annotation.TestDatum;
+import edu.cmu.ml.rtw.generic.data.feature.DataFeatureMatrix;
+import edu.cmu.ml.rtw.generic.model.evaluation.metric.SupervisedModelEvaluation;
+import edu.cmu.ml.rtw.generic.parse.Obj;
+import edu.cmu.ml.rtw.generic.util.DualCoordinateDescent;
+import edu.cmu.ml.rtw.generic.util.OutputWriter;
+import edu.cmu.ml.rtw.generic.util.Properties;
+import edu.cmu.ml.rtw.generic.util.SparseVectorBuilder;
+
+public class SupervisedModelLibSVMTest {
+	@Test
+	public void testDualCoordinateDescent() {
+		DualCoordinateDescent hardMargin = new DualCoordinateDescent(1, 0.0);
+		hardMargin.addRow(new SparseVectorBuilder().set(0, 1.0).compact());
+		hardMargin.addRow(new SparseVectorBuilder().set(0, -1.0).compact());
+		double[] w = hardMargin.solve(new double[] { 1.0, -1.0 }, 10.0, 10.0, DualCoordinateDescent.Loss.HINGE, 0.001, 1000, new Random(1));
+		Assert.assertEquals(1.0, w[0], .01);
+		
+		Random random = new Random(1);
+		DualCoordinateDescent solver = new DualCoordinateDescent(10, 1.0);
+		double[] y = new double[200];
+		for (int i = 0; i < y.length; i++) {
+			SparseVectorBuilder x = new SparseVectorBuilder();
+			double x0 = random.nextDouble();
+			double x1 = random.nextDouble();
+			x.set(0, x0).set(1, x1).set(2 + random.nextInt(8), 1.0);
+			solver.addRow(x.compact());
+			
+			if (Math.abs(x0 - x1) < 0.1)
+				y[i] = 0.0; // Left out of training
+			else
+				y[i] = (x0 > x1) ? 1.0 : -1.0;
+		}
+		
+		for (DualCoordinateDescent.Loss loss : DualCoordinateDescent.Loss.values()) {
+			w = solver.solve(y, 1.0, 1.0, loss, 0.1, 1000, new Random(1));
+			Assert.assertEquals(11, w.length);
+			Assert.assertTrue(solver.getIterations() < 1000);
+			
+			random = new Random(1);
+			for (int i = 0; i < y.length; i++) {
+				SparseVectorBuilder x = new SparseVectorBuilder();
+				x.set(0, random.nextDouble()).set(1, random.nextDouble()).set(2 + random.nextInt(8), 1.0);
+				double score = DualCoordinateDescent.score(w, 0, 10, 1.0, x.compact());
+				if (y[i] != 0)
+					Assert.assertTrue(score*y[i] > 0);
+			}
+		}
+	}
+	
+	@Test
+	public void testLinearBinary() {
+		DatumContext<TestDatum<Boolean>, Boolean> context = makeBinaryContext(
+				"model svm=LibSVM(svmType=\"C_SVC\", loss=\"LOGISTIC\", C=\"1\", epsilon=\"0.0001\", maxIterations=\"2000\") {\n" +
+				"array validLabels=(\"true\", \"false\");\n" +
+				"};\n");
+		
+		DataFeatureMatrix<TestDatum<Boolean>, Boolean> data = context.getMatchDataFeatures(Obj.curlyBracedValue("trainMatrix"));
+		SupervisedModel<TestDatum<Boolean>, Boolean> model = context.getMatchModel(Obj.curlyBracedValue("svm"));
+		Assert.assertTrue(model.train(data, data, new ArrayList<SupervisedModelEvaluation<TestDatum<Boolean>, Boolean>>()));
+		
+		// Without a positive label, the two valid labels are separated 
+		// by a single weight vector for the first of the sorted labels
+		Assert.assertEquals(Arrays.asList(false, true), model.getVectorLabels());
+		assertPosteriorsAgree(model, data);
+		assertLinearRoundTrip(model, data);
+	}
+	
+	@Test
+	public void testLinearPositiveLabel() {
+		DatumContext<TestDatum<Boolean>, Boolean> context = makeBinaryContext(
+				"model svm=LibSVM(svmType=\"C_SVC\", loss=\"LOGISTIC\", C=\"1\", epsilon=\"0.0001\", maxIterations=\"2000\") {\n" +
+				"array validLabels=(\"true\", \"false\");\n" +
+				"};\n" +
+				"model positiveSvm=LibSVM(svmType=\"C_SVC\", loss=\"LOGISTIC\", C=\"1\", epsilon=\"0.0001\", maxIterations=\"2000\", positiveLabel=\"true\", negativeLabel=\"false\") {\n" +
+				"array validLabels=(\"true\", \"false\");\n" +
+				"};\n");
+		
+		DataFeatureMatrix<TestDatum<Boolean>, Boolean> data = context.getMatchDataFeatures(Obj.curlyBracedValue("trainMatrix"));
+		SupervisedModel<TestDatum<Boolean>, Boolean> model = context.getMatchModel(Obj.curlyBracedValue("svm"));
+		SupervisedModel<TestDatum<Boolean>, Boolean> positiveModel = context.getMatchModel(Obj.curlyBracedValue("positiveSvm"));
+		Assert.assertTrue(model.train(data, data, new ArrayList<SupervisedModelEvaluation<TestDatum<Boolean>, Boolean>>()));
+		Assert.assertTrue(positiveModel.train(data, data, new ArrayList<SupervisedModelEvaluation<TestDatum<Boolean>, Boolean>>()));
+		
+		// The positive label's weight vector is the negation of the 
+		// sorted labels' weight vector, up to the solver's tolerance, 
+		// so both give the same posteriors
+		Assert.assertEquals(Arrays.asList(true, false), positiveModel.getVectorLabels());
+		assertPosteriorsAgree(positiveModel, data);
+		
+		Map<TestDatum<Boolean>, Map<Boolean, Double>> posteriors = model.posterior(data);
+		Map<TestDatum<Boolean>, Map<Boolean, Double>> positivePosteriors = positiveModel.posterior(data);
+		for (TestDatum<Boolean> datum : data.getData())
+			Assert.assertEquals(posteriors.get(datum).get(true), positivePosteriors.get(datum).get(true), .05);
+	}
+	
+	@Test
+	public void testLinearOneVsRest() {
+		DataTools dataTools = makeDataTools();
+		String contextStr = "value maxThreads=\"2\";\n";
+		contextStr +=       "value randomSeed=SetRandomSeed(seed=\"6\");\n";
+		contextStr +=       "data trainData = Ternary(storage=\"BSONMemory\", collection=\"TrainDocuments\");\n";
+		contextStr +=       makeFeaturesString();
+		contextStr +=       "model svm=LibSVM(svmType=\"C_SVC\", loss=\"LOGISTIC\", C=\"1\") {\n";
+		contextStr +=       "array validLabels=(\"THIRD\", \"FIRST\", \"SECOND\");\n";
+		contextStr +=       "};\n";
+		
+		DatumContext<TestDatum<TernaryLabel>, TernaryLabel> context = DatumContext.run(TestDatum.getTernaryTools(dataTools), contextStr);
+		DataFeatureMatrix<TestDatum<TernaryLabel>, TernaryLabel> data = context.getMatchDataFeatures(Obj.curlyBracedValue("trainMatrix"));
+		SupervisedModel<TestDatum<TernaryLabel>, TernaryLabel> model = context.getMatchModel(Obj.curlyBracedValue("svm"));
+		Assert.assertTrue(model.train(data, data, new ArrayList<SupervisedModelEvaluation<TestDatum<TernaryLabel>, TernaryLabel>>()));
+		
+		// With more than two labels, there is a weight vector for each
+		// label against the rest
+		Assert.assertEquals(Arrays.asList(TernaryLabel.FIRST, TernaryLabel.SECOND, TernaryLabel.THIRD), model.getVectorLabels());
+		Assert.assertTrue(model.toParse().toString().contains("weights_2"));
+		assertPosteriorsAgree(model, data);
+		assertLinearRoundTrip(model, data);
+	}
+	
+	@Test
+	public void testLinearHingePosterior() {
+		DatumContext<TestDatum<Boolean>, Boolean> context = makeBinaryContext(
+				"model svm=LibSVM(svmType=\"C_SVC\", loss=\"HINGE\", C=\"1\") {\n" +
+				"array validLabels=(\"true\", \"false\");\n" +
+				"};\n");
+		
+		DataFeatureMatrix<TestDatum<Boolean>, Boolean> data = context.getMatchDataFeatures(Obj.curlyBracedValue("trainMatrix"));
+		SupervisedModel<TestDatum<Boolean>, Boolean> model = context.getMatchModel(Obj.curlyBracedValue("svm"));
+		Assert.assertTrue(model.train(data, data, new ArrayList<SupervisedModelEvaluation<TestDatum<Boolean>, Boolean>>()));
+		
+		// Only the LOGISTIC loss gives posteriors
+		Assert.assertNotNull(model.classify(data));
+		Assert.assertFalse(model.posteriorVector(new SparseVectorBuilder().compact(), new double[2]));
+		try {
+			model.posterior(data);
+			Assert.fail();
+		} catch (UnsupportedOperationException e) {
+			
+		}
+	}
+	
+	/**
+	 * Checks that the posteriors are distributions over the vector 
+	 * labels, and that each datum is classified as a label with the 
+	 * largest posterior
+	 */
+	private static <L> void assertPosteriorsAgree(SupervisedModel<TestDatum<L>, L> model, DataFeatureMatrix<TestDatum<L>, L> data) {
+		Map<TestDatum<L>, L> classifications = model.classify(data);
+		Map<TestDatum<L>, Map<L, Double>> posteriors = model.posterior(data);
+		Assert.assertEquals(data.getData().size(), classifications.size());
+		Assert.assertEquals(data.getData().size(), posteriors.size());
+		for (TestDatum<L> datum : data.getData()) {
+			Map<L, Double> posterior = posteriors.get(datum);
+			Assert.assertEquals(model.getVectorLabels().size(), posterior.size());
+			
+			double sum = 0.0;
+			double max = 0.0;
+			for (Double p : posterior.values()) {
+				Assert.assertTrue(p >= 0.0 && p <= 1.0);
+				sum += p;
+				max = Math.max(max, p);
+			}
+			
+			Assert.assertEquals(1.0, sum, 1e-9);
+			Assert.assertEquals(max, posterior.get(classifications.get(datum)), 1e-9);
+		}
+	}
+	
+	/**
+	 * Checks that the linear weights are serialized through toParse 
+	 * and deserialized through fromParse by cloning the model
+	 */
+	private static <L> void assertLinearRoundTrip(SupervisedModel<TestDatum<L>, L> model, DataFeatureMatrix<TestDatum<L>, L> data) {
+		String parse = model.toParse().toString();
+		Assert.assertTrue(parse.contains("featureCount"));
+		Assert.assertFalse(parse.contains("classifier"));
+		
+		SupervisedModel<TestDatum<L>, L> deserialized = model.clone();
+		Assert.assertNotNull(deserialized);
+		Assert.assertEquals(parse, deserialized.toParse().toString());
+		Assert.assertEquals(model.getVectorLabels(), deserialized.getVectorLabels());
+		Assert.assertEquals(model.classify(data), deserialized.classify(data));
+		
+		Map<TestDatum<L>, Map<L, Double>> posteriors = model.posterior(data);
+		Map<TestDatum<L>, Map<L, Double>> deserializedPosteriors = deserialized.posterior(data);
+		for (TestDatum<L> datum : data.getData())
+			for (L label : model.getVectorLabels())
+				Assert.assertEquals(posteriors.get(datum).get(label), deserializedPosteriors.get(datum).get(label), 1e-12);
+	}
+	
+	private static DatumContext<TestDatum<Boolean>, Boolean> makeBinaryContext(String modelStr) {
+		String contextStr = "value maxThreads=\"2\";\n";
+		contextStr +=       "value randomSeed=SetRandomSeed(seed=\"6\");\n";
+		contextStr +=       "data trainData = Test(storage=\"BSONMemory\", collection=\"TrainDocuments\");\n";
+		contextStr +=       makeFeaturesString();
+		contextStr +=       modelStr;
+		
+		return DatumContext.run(TestDatum.getBooleanTools(makeDataTools()), contextStr);
+	}
+	
+	private static String makeFeaturesString() {
+		String featuresStr = "ts_fn doc1=NGramDocument(n=\"1\", noSentence=\"false\");\n";
+		featuresStr +=       "ts_str_fn strDef=String(cleanFn=\"DefaultCleanFn\");\n";
+		featuresStr +=       "feature fdoc1=TokenSpanFnDataVocab(scale=\"INDICATOR\", minFeatureOccurrence=\"2\", tokenExtractor=\"TokenSpan\", fn=(${strDef} o ${doc1}));\n";
+		featuresStr +=       "feature_set f = FeatureSet(features=(${fdoc1}), initData=(${trainData}));\n";
+		featuresStr +=       "data_features trainMatrix = DataFeatureMatrix(data=${trainData}, features=${f});\n";
+		return featuresStr;
+	}
+	
+	private static DataTools makeDataTools() {
+		return new DataTools(new OutputWriter(),
+				new Properties(new StringReader(
+						"debug_dir=\n" +
+						"storage_fs_bson_testBson=/test/bson\n" +
+						"storage_fs_str_testStr=/test/str"
+						)));
+	}
+}
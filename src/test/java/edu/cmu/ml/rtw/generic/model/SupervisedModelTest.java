@@ -0,0 +1,122 @@
+package edu.cmu.ml.rtw.generic.model;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.cmu.ml.rtw.generic.data.DataTools;
+import edu.cmu.ml.rtw.generic.data.annotation.DataSet;
+import edu.cmu.ml.rtw.generic.data.annotation.DatumContext;
+import edu.cmu.ml.rtw.generic.data.annotation.TestDatum;
+import edu.cmu.ml.rtw.generic.data.feature.DataFeatureMatrix;
+import edu.cmu.ml.rtw.generic.model.evaluation.metric.SupervisedModelEvaluation;
+import edu.cmu.ml.rtw.generic.parse.Obj;
+import edu.cmu.ml.rtw.generic.task.classify.MethodClassification;
+import edu.cmu.ml.rtw.generic.util.OutputWriter;
+import edu.cmu.ml.rtw.generic.util.Pair;
+import edu.cmu.ml.rtw.generic.util.Properties;
+
+public class SupervisedModelTest {
+	@Test
+	public void testSVMSerialization() {
+		DatumContext<TestDatum<Boolean>, Boolean> context = makeBinaryContext(
+				"model svm=SVM(l2=\"0.00001\") {\n" +
+				"array validLabels=(\"true\", \"false\");\n" +
+				"value trainingIterations=\"5\";\n" +
+				"};\n");
+
+		DataFeatureMatrix<TestDatum<Boolean>, Boolean> data = context.getMatchDataFeatures(Obj.curlyBracedValue("trainMatrix"));
+		SupervisedModel<TestDatum<Boolean>, Boolean> model = context.getMatchModel(Obj.curlyBracedValue("svm"));
+		Assert.assertTrue(model.train(data, data, new ArrayList<SupervisedModelEvaluation<TestDatum<Boolean>, Boolean>>()));
+
+		// Cloning serializes the trained weights through toParse and
+		// deserializes them through fromParse
+		SupervisedModel<TestDatum<Boolean>, Boolean> deserialized = model.clone();
+		Assert.assertNotNull(deserialized);
+		Assert.assertEquals(model.toParse().toString(), deserialized.toParse().toString());
+		Assert.assertEquals(model.classify(data), deserialized.classify(data));
+	}
+
+	@Test
+	public void testSVMVectorScoring() {
+		DatumContext<TestDatum<Boolean>, Boolean> context = makeBinaryContext(
+				"model svm=SVM(l2=\"0.00001\") {\n" +
+				"array validLabels=(\"true\", \"false\");\n" +
+				"value trainingIterations=\"5\";\n" +
+				"};\n");
+
+		DataFeatureMatrix<TestDatum<Boolean>, Boolean> data = context.getMatchDataFeatures(Obj.curlyBracedValue("trainMatrix"));
+		SupervisedModelSVM<TestDatum<Boolean>, Boolean> model = (SupervisedModelSVM<TestDatum<Boolean>, Boolean>)context.getMatchModel(Obj.curlyBracedValue("svm"));
+		Assert.assertTrue(model.train(data, data, new ArrayList<SupervisedModelEvaluation<TestDatum<Boolean>, Boolean>>()));
+
+		// The vector scores should match the per-label scores computed 
+		// from the matrix's vectors
+		Map<TestDatum<Boolean>, Boolean> classifications = model.classifyVectors(data);
+		Map<TestDatum<Boolean>, Map<Boolean, Double>> posteriors = model.posteriorVectors(data).toPosteriorMap();
+		Assert.assertEquals(data.getData().size(), classifications.size());
+		Assert.assertEquals(data.getData().size(), posteriors.size());
+		for (TestDatum<Boolean> datum : data.getData()) {
+			Assert.assertEquals(model.argMaxScoreLabel(data, datum, false), classifications.get(datum));
+			
+			Map<Boolean, Double> posterior = model.posteriorForDatum(data, datum);
+			for (Boolean label : posterior.keySet())
+				Assert.assertEquals(posterior.get(label), posteriors.get(datum).get(label), 1e-12);
+		}
+	}
+
+	@Test
+	public void testSingleDatumScoring() {
+		DatumContext<TestDatum<Boolean>, Boolean> context = makeBinaryContext(
+				"model svm=SVM(l2=\"0.00001\") {\n" +
+				"array validLabels=(\"true\", \"false\");\n" +
+				"value trainingIterations=\"5\";\n" +
+				"};\n" +
+				"evaluation modelF1=F(filterLabel=\"true\", Beta=\"1\");\n" +
+				"classify_method svmMethod=SupervisedModel(model=${svm}, data=${trainMatrix}, trainEvaluation=${modelF1});\n");
+
+		DataSet<TestDatum<Boolean>, Boolean> data = context.getMatchDataSet(Obj.curlyBracedValue("trainData"));
+		MethodClassification<TestDatum<Boolean>, Boolean> method = context.getMatchClassifyMethod(Obj.curlyBracedValue("svmMethod"));
+		Assert.assertTrue(method.init(data));
+
+		// The single datum methods score through the model's vector API,
+		// and should agree with the data set methods
+		Map<TestDatum<Boolean>, Boolean> classifications = method.classify(data);
+		Map<TestDatum<Boolean>, Pair<Boolean, Double>> scoredClassifications = method.classifyWithScore(data);
+		Map<TestDatum<Boolean>, Double> trueScores = method.score(data, true);
+		Map<TestDatum<Boolean>, Double> falseScores = method.score(data, false);
+		for (TestDatum<Boolean> datum : data) {
+			Assert.assertEquals(classifications.get(datum), method.classify(datum));
+
+			Pair<Boolean, Double> scoredClassification = method.classifyWithScore(datum);
+			Assert.assertEquals(scoredClassifications.get(datum).getFirst(), scoredClassification.getFirst());
+			Assert.assertEquals(scoredClassifications.get(datum).getSecond(), scoredClassification.getSecond(), 1e-9);
+
+			Assert.assertEquals(trueScores.get(datum), method.score(datum, true), 1e-9);
+			Assert.assertEquals(falseScores.get(datum), method.score(datum, false), 1e-9);
+		}
+	}
+
+	private static DatumContext<TestDatum<Boolean>, Boolean> makeBinaryContext(String modelStr) {
+		DataTools dataTools = new DataTools(new OutputWriter(),
+				new Properties(new StringReader(
+						"debug_dir=\n" +
+						"storage_fs_bson_testBson=/test/bson\n" +
+						"storage_fs_str_testStr=/test/str"
+						)));
+
+		String contextStr = "value maxThreads=\"2\";\n";
+		contextStr +=       "value randomSeed=SetRandomSeed(seed=\"6\");\n";
+		contextStr +=       "data trainData = Test(storage=\"BSONMemory\", collection=\"TrainDocuments\");\n";
+		contextStr +=       "ts_fn doc1=NGramDocument(n=\"1\", noSentence=\"false\");\n";
+		contextStr +=       "ts_str_fn strDef=String(cleanFn=\"DefaultCleanFn\");\n";
+		contextStr +=       "feature fdoc1=TokenSpanFnDataVocab(scale=\"INDICATOR\", minFeatureOccurrence=\"2\", tokenExtractor=\"TokenSpan\", fn=(${strDef} o ${doc1}));\n";
+		contextStr +=       "feature_set f = FeatureSet(features=(${fdoc1}), initData=(${trainData}));\n";
+		contextStr +=       "data_features trainMatrix = DataFeatureMatrix(data=${trainData}, features=${f});\n";
+		contextStr +=       modelStr;
+
+		return DatumContext.run(TestDatum.getBooleanTools(dataTools), contextStr);
+	}
+}
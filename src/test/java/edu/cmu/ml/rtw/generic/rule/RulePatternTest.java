@@ -0,0 +1,148 @@
+package edu.cmu.ml.rtw.generic.rule;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.cmu.ml.rtw.generic.parse.AssignmentList;
+import edu.cmu.ml.rtw.generic.parse.CtxParsableFunction;
+import edu.cmu.ml.rtw.generic.parse.Obj;
+
+public class RulePatternTest {
+	@Test
+	public void testReferences() {
+		Rule rule = makeRule("(And(c1=E(a=[x], b=[y]), c2=E(a=${y}, b=[z]))) -> (P(a=${x}, b=${z}))");
+		List<Obj> outputs = rule.applyToParses(makeParses("E(a=1, b=2)", "E(a=2, b=3)", "E(a=3, b=4)"));
+		assertOutputs(outputs, "P(a=\"1\", b=\"3\")", "P(a=\"2\", b=\"4\")");
+	}
+	
+	@Test
+	public void testOrUnion() {
+		// Or matches the union of the matches of its arguments
+		// in argument order
+		Rule rule = makeRule("(Or(c1=A(x=[x]), c2=B(x=[x]))) -> (C(x=${x}))");
+		List<Obj> outputs = rule.applyToParses(makeParses("A(x=1)", "B(x=2)", "A(x=3)"));
+		assertOutputs(outputs, "C(x=\"1\")", "C(x=\"3\")", "C(x=\"2\")");
+		
+		Rule nestedRule = makeRule("(And(c1=A(x=[x]), c2=Or(c1=B(x=${x}), c2=D(x=${x})))) -> (C(x=${x}))");
+		outputs = nestedRule.applyToParses(makeParses("A(x=1)", "A(x=2)", "A(x=3)", "B(x=1)", "D(x=1)", "D(x=3)"));
+		assertOutputs(outputs, "C(x=\"1\")", "C(x=\"1\")", "C(x=\"3\")");
+		
+		Assert.assertEquals(0, rule.applyToParses(makeParses("D(x=1)")).size());
+	}
+	
+	@Test
+	public void testNotEquals() {
+		Rule rule = makeRule("(And(c1=E(a=[x], b=[y]), c2=Not(c1=Equals(${x}, ${y})))) -> (P(a=${x}, b=${y}))");
+		List<Obj> outputs = rule.applyToParses(makeParses("E(a=1, b=1)", "E(a=1, b=2)", "E(a=3, b=3)"));
+		assertOutputs(outputs, "P(a=\"1\", b=\"2\")");
+	}
+	
+	@Test
+	public void testParsableSources() {
+		List<TestFunction> sources = new ArrayList<TestFunction>();
+		sources.add(new TestFunction("1", "2"));
+		sources.add(new TestFunction("2", "3"));
+		sources.add(new TestFunction("3", "4"));
+		
+		// Named parameters are matched without converting the sources
+		Rule namedRule = makeRule("(And(c1=E(a=[x], b=[y]), c2=E(a=${y}, b=[z]))) -> (P(a=${x}, b=${z}))");
+		assertOutputs(namedRule.apply(sources), "P(a=\"1\", b=\"3\")", "P(a=\"2\", b=\"4\")");
+		for (TestFunction source : sources)
+			Assert.assertEquals(0, source.toParseCount);
+		
+		// Positional parameters are matched against each source's 
+		// parse, which is only computed once
+		Rule positionalRule = makeRule("(And(c1=E([x], [y]), c2=E(${y}, [z]))) -> (P(a=${x}, b=${z}))");
+		assertOutputs(positionalRule.apply(sources), "P(a=\"1\", b=\"3\")", "P(a=\"2\", b=\"4\")");
+		for (TestFunction source : sources)
+			Assert.assertEquals(1, source.toParseCount);
+	}
+	
+	private static class TestFunction extends CtxParsableFunction {
+		private String[] parameterNames = { "a", "b" };
+		private Obj a;
+		private Obj b;
+		private int toParseCount;
+		
+		public TestFunction(String a, String b) {
+			this.a = Obj.stringValue(a);
+			this.b = Obj.stringValue(b);
+		}
+		
+		@Override
+		public Obj toParse() {
+			this.toParseCount++;
+			return super.toParse();
+		}
+		
+		@Override
+		public String[] getParameterNames() {
+			return this.parameterNames;
+		}
+
+		@Override
+		public Obj getParameterValue(String parameter) {
+			if (parameter.equals("a"))
+				return this.a;
+			else if (parameter.equals("b"))
+				return this.b;
+			return null;
+		}
+
+		@Override
+		public boolean setParameterValue(String parameter, Obj parameterValue) {
+			if (parameter.equals("a"))
+				this.a = parameterValue;
+			else if (parameter.equals("b"))
+				this.b = parameterValue;
+			else
+				return false;
+			return true;
+		}
+
+		@Override
+		protected boolean fromParseInternal(AssignmentList internalAssignments) {
+			return true;
+		}
+
+		@Override
+		protected AssignmentList toParseInternal() {
+			return null;
+		}
+
+		@Override
+		public String getGenericName() {
+			return "E";
+		}
+	}
+	
+	private Rule makeRule(String ruleStr) {
+		AssignmentList assignments = new AssignmentList();
+		Assert.assertTrue(assignments.fromString("rule r = " + ruleStr + ";"));
+		Rule rule = new Rule();
+		Assert.assertTrue(rule.fromParse(assignments.get(0).getValue()));
+		return rule;
+	}
+	
+	private List<Obj> makeParses(String... sourceStrs) {
+		StringBuilder str = new StringBuilder();
+		for (int i = 0; i < sourceStrs.length; i++)
+			str.append("source s" + i + " = " + sourceStrs[i] + ";\n");
+		
+		AssignmentList assignments = new AssignmentList();
+		Assert.assertTrue(assignments.fromString(str.toString()));
+		List<Obj> parses = new ArrayList<Obj>();
+		for (int i = 0; i < assignments.size(); i++)
+			parses.add(assignments.get(i).getValue());
+		return parses;
+	}
+	
+	private void assertOutputs(List<Obj> outputs, String... expected) {
+		Assert.assertEquals(expected.length, outputs.size());
+		for (int i = 0; i < expected.length; i++)
+			Assert.assertEquals(expected[i], outputs.get(i).toString());
+	}
+}
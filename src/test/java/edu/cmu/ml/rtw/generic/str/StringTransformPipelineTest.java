@@ -0,0 +1,91 @@
+package edu.cmu.ml.rtw.generic.str;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.cmu.ml.rtw.generic.util.StringUtil;
+
+public class StringTransformPipelineTest {
+	@Test
+	public void testClean() {
+		Assert.assertEquals("the fox jumped", StringUtil.clean("  The fox -quickly /jumped\\ jumped! "));
+		Assert.assertEquals("ab cd", StringUtil.clean("A.B\t!\tC'D"));
+		Assert.assertEquals("$", StringUtil.clean(" $ "));
+		Assert.assertEquals("", StringUtil.clean("$$"));
+		Assert.assertEquals("", StringUtil.clean(""));
+	}
+
+	@Test
+	public void testFusedChains() {
+		StringTransform[] transforms = {
+			new StringTransformRemoveLongTokens(),
+			new StringTransformRemoveSymbols(),
+			new StringTransformReplaceNumbers(),
+			new StringTransformSpaceToUnderscore(),
+			new StringTransformStem(),
+			new StringTransformToLowerCase(),
+			new StringTransformTrim(),
+			new StringTransformUnderscoreToSpace()
+		};
+
+		String chars = "aAzZ09_ \t\n\u0001$-/.,!";
+		Random r = new Random(1);
+		for (int i = 0; i < 10000; i++) {
+			StringBuilder str = new StringBuilder();
+			int length = r.nextInt(40);
+			for (int j = 0; j < length; j++) {
+				if (r.nextInt(20) == 0)
+					str.append("abcdefghijklmnopqrstuvwxyzabcdefgh");
+				else
+					str.append(chars.charAt(r.nextInt(chars.length())));
+			}
+
+			List<StringTransform> chain = new ArrayList<StringTransform>();
+			int chainLength = 1 + r.nextInt(4);
+			for (int j = 0; j < chainLength; j++)
+				chain.add(transforms[r.nextInt(transforms.length)]);
+
+			String expected = str.toString();
+			for (StringTransform transform : chain)
+				expected = transform.transform(expected);
+
+			Assert.assertEquals(chain.toString(), expected, StringTransformPipeline.compile("chain", chain).transform(str.toString()));
+		}
+	}
+
+	@Test
+	public void testUnfusedTransforms() {
+		StringTransform reverse = new StringTransform() {
+			public String transform(String str) {
+				return new StringBuilder(str).reverse().toString();
+			}
+
+			public String toString() {
+				return "Reverse";
+			}
+		};
+
+		StringTransform pipeline = StringTransformPipeline.compile("chain", Arrays.asList(new StringTransformTrim(), reverse, new StringTransformReplaceNumbers()));
+		Assert.assertEquals("cba[D]", pipeline.transform(" 12abc "));
+		Assert.assertEquals("\u00e9[D]", pipeline.transform(" 1\u00e9 "));
+	}
+
+	@Test
+	public void testSubclassedTransforms() {
+		StringTransform trim = new StringTransformTrim() {
+			public String transform(String str) {
+				return "<" + super.transform(str) + ">";
+			}
+		};
+
+		Assert.assertFalse(StringTransformPipeline.isFusable(trim));
+		Assert.assertSame(trim, StringTransformPipeline.compile(trim));
+		StringTransform pipeline = StringTransformPipeline.compile("chain", Arrays.asList(trim, new StringTransformToLowerCase()));
+		Assert.assertEquals("<ab>", pipeline.transform(" AB "));
+	}
+}
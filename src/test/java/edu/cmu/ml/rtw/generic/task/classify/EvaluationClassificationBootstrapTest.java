@@ -0,0 +1,82 @@
+package edu.cmu.ml.rtw.generic.task.classify;
+
+import java.io.StringReader;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.cmu.ml.rtw.generic.data.DataTools;
+import edu.cmu.ml.rtw.generic.data.annotation.DatumContext;
+import edu.cmu.ml.rtw.generic.data.annotation.TestDatum;
+import edu.cmu.ml.rtw.generic.parse.Obj;
+import edu.cmu.ml.rtw.generic.util.OutputWriter;
+import edu.cmu.ml.rtw.generic.util.Properties;
+
+public class EvaluationClassificationBootstrapTest {
+	@Test
+	public void testIntervals() {
+		DatumContext<TestDatum<Boolean>, Boolean> serialContext = makeContext(1);
+		DatumContext<TestDatum<Boolean>, Boolean> parallelContext = makeContext(4);
+		EvaluationClassificationBootstrap<TestDatum<Boolean>, Boolean> serialBootstrap = new EvaluationClassificationBootstrap<TestDatum<Boolean>, Boolean>(serialContext, 200, 0.95);
+		EvaluationClassificationBootstrap<TestDatum<Boolean>, Boolean> parallelBootstrap = new EvaluationClassificationBootstrap<TestDatum<Boolean>, Boolean>(parallelContext, 200, 0.95);
+		
+		for (String measure : new String[] { "accTrue", "accFalse", "fTrue", "aucTrue" }) {
+			EvaluationClassificationBootstrap.Interval serialInterval = serialBootstrap.computeInterval(getMeasure(serialContext, measure));
+			EvaluationClassificationBootstrap.Interval parallelInterval = parallelBootstrap.computeInterval(getMeasure(parallelContext, measure));
+			Assert.assertNotNull(serialInterval);
+			Assert.assertTrue(serialInterval.getLower() <= serialInterval.getEstimate());
+			Assert.assertTrue(serialInterval.getEstimate() <= serialInterval.getUpper());
+			assertEquals(serialInterval, parallelInterval);
+		}
+	}
+	
+	@Test
+	public void testComparison() {
+		DatumContext<TestDatum<Boolean>, Boolean> serialContext = makeContext(1);
+		DatumContext<TestDatum<Boolean>, Boolean> parallelContext = makeContext(4);
+		EvaluationClassificationBootstrap.Comparison serialComparison = new EvaluationClassificationBootstrap<TestDatum<Boolean>, Boolean>(serialContext, 200, 0.95)
+				.computeComparison(getMeasure(serialContext, "accTrue"), getMeasure(serialContext, "accFalse"));
+		EvaluationClassificationBootstrap.Comparison parallelComparison = new EvaluationClassificationBootstrap<TestDatum<Boolean>, Boolean>(parallelContext, 200, 0.95)
+				.computeComparison(getMeasure(parallelContext, "accTrue"), getMeasure(parallelContext, "accFalse"));
+		
+		Assert.assertNotNull(serialComparison);
+		Assert.assertTrue(serialComparison.getPValue() > 0.0 && serialComparison.getPValue() <= 1.0);
+		Assert.assertTrue(serialComparison.getDifference().getLower() <= serialComparison.getDifference().getEstimate());
+		Assert.assertTrue(serialComparison.getDifference().getEstimate() <= serialComparison.getDifference().getUpper());
+		Assert.assertEquals(serialComparison.getPValue(), parallelComparison.getPValue(), 0.0);
+		assertEquals(serialComparison.getDifference(), parallelComparison.getDifference());
+	}
+	
+	private static void assertEquals(EvaluationClassificationBootstrap.Interval expected, EvaluationClassificationBootstrap.Interval actual) {
+		Assert.assertNotNull(actual);
+		Assert.assertEquals(expected.getEstimate(), actual.getEstimate(), 0.0);
+		Assert.assertEquals(expected.getLower(), actual.getLower(), 0.0);
+		Assert.assertEquals(expected.getUpper(), actual.getUpper(), 0.0);
+	}
+	
+	private static EvaluationClassificationMeasure<TestDatum<Boolean>, Boolean> getMeasure(DatumContext<TestDatum<Boolean>, Boolean> context, String name) {
+		return (EvaluationClassificationMeasure<TestDatum<Boolean>, Boolean>)context.getMatchClassifyEval(Obj.curlyBracedValue(name));
+	}
+	
+	private static DatumContext<TestDatum<Boolean>, Boolean> makeContext(int maxThreads) {
+		DataTools dataTools = new DataTools(new OutputWriter(),
+				new Properties(new StringReader(
+						"debug_dir=\n" +
+						"storage_fs_bson_testBson=/test/bson\n" +
+						"storage_fs_str_testStr=/test/str"
+						)));
+		
+		String contextStr = "value maxThreads=\"" + maxThreads + "\";\n";
+		contextStr +=       "value randomSeed=SetRandomSeed(seed=\"1\");\n";
+		contextStr +=       "data trainData = Test(storage=\"BSONMemory\", collection=\"TrainDocuments\");\n";
+		contextStr +=       "classify_task task=Classification(data=${trainData});\n";
+		contextStr +=       "classify_method trueMethod=Constant(label=\"true\");\n";
+		contextStr +=       "classify_method falseMethod=Constant(label=\"false\");\n";
+		contextStr +=       "classify_eval accTrue=Accuracy(task=${task}, method=${trueMethod});\n";
+		contextStr +=       "classify_eval accFalse=Accuracy(task=${task}, method=${falseMethod});\n";
+		contextStr +=       "classify_eval fTrue=F(task=${task}, method=${trueMethod}, Beta=\"1\", filterLabel=\"true\");\n";
+		contextStr +=       "classify_eval aucTrue=AUC(task=${task}, method=${trueMethod}, filterLabel=\"true\");\n";
+		
+		return DatumContext.run(TestDatum.getBooleanTools(dataTools), contextStr);
+	}
+}
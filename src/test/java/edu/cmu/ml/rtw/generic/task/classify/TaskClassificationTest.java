@@ -0,0 +1,162 @@
+package edu.cmu.ml.rtw.generic.task.classify;
+
+import java.io.StringReader;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.cmu.ml.rtw.generic.data.DataTools;
+import edu.cmu.ml.rtw.generic.data.annotation.DataSet;
+import edu.cmu.ml.rtw.generic.data.annotation.DatumContext;
+import edu.cmu.ml.rtw.generic.data.annotation.TestDatum;
+import edu.cmu.ml.rtw.generic.parse.Obj;
+import edu.cmu.ml.rtw.generic.task.classify.TaskClassification.Stat;
+import edu.cmu.ml.rtw.generic.util.OutputWriter;
+import edu.cmu.ml.rtw.generic.util.Properties;
+
+public class TaskClassificationTest {
+	private static class CountingMethod extends MethodClassificationConstant<TestDatum<Boolean>, Boolean> {
+		private int classifications;
+		private int scorings;
+		
+		public CountingMethod(DatumContext<TestDatum<Boolean>, Boolean> context, String referenceName) {
+			super(context);
+			this.referenceName = referenceName;
+			setParameterValue("label", Obj.stringValue("true"));
+		}
+		
+		@Override
+		public Map<TestDatum<Boolean>, Boolean> classify(DataSet<TestDatum<Boolean>, Boolean> data) {
+			this.classifications++;
+			return super.classify(data);
+		}
+		
+		@Override
+		public Map<TestDatum<Boolean>, Double> score(DataSet<TestDatum<Boolean>, Boolean> data, Boolean label) {
+			this.scorings++;
+			return super.score(data, label);
+		}
+		
+		public void retrain() {
+			incrementVersion();
+		}
+	}
+	
+	private static class UnversionedMethod extends CountingMethod {
+		public UnversionedMethod(DatumContext<TestDatum<Boolean>, Boolean> context, String referenceName) {
+			super(context, referenceName);
+		}
+		
+		@Override
+		public int getVersion() {
+			return UNVERSIONED;
+		}
+	}
+	
+	@Test
+	public void testRecomputeOnParameterChange() {
+		DatumContext<TestDatum<Boolean>, Boolean> context = makeContext();
+		TaskClassification<TestDatum<Boolean>, Boolean> task = makeTask(context);
+		CountingMethod method = new CountingMethod(context, "method");
+		
+		Map<Boolean, Map<Stat, Integer>> stats = task.computeStats(method);
+		Assert.assertSame(stats, task.computeStats(method));
+		Assert.assertEquals(1, method.classifications);
+		
+		method.setParameterValue("label", Obj.stringValue("false"));
+		Map<Boolean, Map<Stat, Integer>> changedStats = task.computeStats(method);
+		Assert.assertEquals(2, method.classifications);
+		Assert.assertFalse(stats.equals(changedStats));
+		Assert.assertSame(changedStats, task.computeStats(method));
+		Assert.assertEquals(2, method.classifications);
+	}
+	
+	@Test
+	public void testRecomputeOnRetrain() {
+		DatumContext<TestDatum<Boolean>, Boolean> context = makeContext();
+		TaskClassification<TestDatum<Boolean>, Boolean> task = makeTask(context);
+		CountingMethod method = new CountingMethod(context, "method");
+		
+		TaskClassification.ScoredData<TestDatum<Boolean>> scores = task.computeScores(method, true);
+		Assert.assertSame(scores, task.computeScores(method, true));
+		task.computeStats(method);
+		Assert.assertEquals(1, method.scorings);
+		Assert.assertEquals(1, method.classifications);
+		
+		method.retrain();
+		Assert.assertNotSame(scores, task.computeScores(method, true));
+		task.computeStats(method);
+		Assert.assertEquals(2, method.scorings);
+		Assert.assertEquals(2, method.classifications);
+	}
+	
+	@Test
+	public void testSameNameMethods() {
+		DatumContext<TestDatum<Boolean>, Boolean> context = makeContext();
+		TaskClassification<TestDatum<Boolean>, Boolean> task = makeTask(context);
+		CountingMethod method1 = new CountingMethod(context, "method");
+		CountingMethod method2 = new CountingMethod(context, "method");
+		
+		// Methods with the same name are equal, but they don't share 
+		// cached predictions
+		task.computeStats(method1);
+		task.computeStats(method2);
+		Assert.assertEquals(1, method1.classifications);
+		Assert.assertEquals(1, method2.classifications);
+	}
+	
+	@Test
+	public void testUnversionedMethods() {
+		DatumContext<TestDatum<Boolean>, Boolean> context = makeContext();
+		TaskClassification<TestDatum<Boolean>, Boolean> task = makeTask(context);
+		CountingMethod method = new UnversionedMethod(context, "method");
+		
+		task.computeStats(method);
+		task.computeStats(method);
+		task.computeScores(method, true);
+		task.computeScores(method, true);
+		Assert.assertEquals(2, method.classifications);
+		Assert.assertEquals(2, method.scorings);
+		
+		MethodClassificationLabelMapping<TestDatum<Boolean>, Boolean> wrapper = new MethodClassificationLabelMapping<TestDatum<Boolean>, Boolean>(context);
+		Assert.assertEquals(MethodClassification.UNVERSIONED, wrapper.getVersion());
+	}
+	
+	@Test
+	public void testWrappedMethodVersion() {
+		DatumContext<TestDatum<Boolean>, Boolean> context = makeContext(
+				"classify_method constant=Constant(label=\"true\");\n");
+		MethodClassification<TestDatum<Boolean>, Boolean> method = context.getMatchClassifyMethod(Obj.curlyBracedValue("constant"));
+		MethodClassificationLabelMapping<TestDatum<Boolean>, Boolean> wrapper = new MethodClassificationLabelMapping<TestDatum<Boolean>, Boolean>(context);
+		Assert.assertTrue(wrapper.setParameterValue("method", Obj.curlyBracedValue("constant")));
+		
+		// The wrapper's version changes with the inner method's version
+		int version = wrapper.getVersion();
+		Assert.assertEquals(version, wrapper.getVersion());
+		Assert.assertTrue(method.setParameterValue("score", Obj.stringValue("0.5")));
+		Assert.assertTrue(version != wrapper.getVersion());
+	}
+	
+	private static TaskClassification<TestDatum<Boolean>, Boolean> makeTask(DatumContext<TestDatum<Boolean>, Boolean> context) {
+		TaskClassification<TestDatum<Boolean>, Boolean> task = new TaskClassification<TestDatum<Boolean>, Boolean>(context);
+		Assert.assertTrue(task.setParameterValue("data", Obj.curlyBracedValue("trainData")));
+		return task;
+	}
+	
+	private static DatumContext<TestDatum<Boolean>, Boolean> makeContext() {
+		return makeContext("");
+	}
+	
+	private static DatumContext<TestDatum<Boolean>, Boolean> makeContext(String contextStr) {
+		DataTools dataTools = new DataTools(new OutputWriter(),
+				new Properties(new StringReader(
+						"debug_dir=\n" +
+						"storage_fs_bson_testBson=/test/bson\n" +
+						"storage_fs_str_testStr=/test/str"
+						)));
+		
+		return DatumContext.run(TestDatum.getBooleanTools(dataTools), 
+				"data trainData = Test(storage=\"BSONMemory\", collection=\"TrainDocuments\");\n" + contextStr);
+	}
+}
@@ -1,5 +1,8 @@
 package edu.cmu.ml.rtw.generic.util;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
 import java.util.SortedMap;
 
 import org.ardverk.collection.PatriciaTrie;
@@ -11,6 +14,58 @@ import org.platanios.learn.math.matrix.SparseVector;
 import org.platanios.learn.math.matrix.Vector;
 
 public class DataStructureTest {
+	@Test
+	public void testHashedVocabulary() {
+		HashedVocabulary vocabulary = new HashedVocabulary(4, 2);
+		Assert.assertEquals(16, vocabulary.size());
+		
+		int hash = vocabulary.hash("cat");
+		Assert.assertEquals(hash, HashedVocabulary.murmur3("cat"));
+		Assert.assertTrue(vocabulary.getIndex(hash) >= 0 && vocabulary.getIndex(hash) < 16);
+		Assert.assertNull(vocabulary.reverseGet(vocabulary.getIndex(hash)));
+		Assert.assertEquals(hash, vocabulary.hashAndSample("cat"));
+		Assert.assertEquals("cat", vocabulary.reverseGet(vocabulary.getIndex(hash)));
+		
+		int[] indices = { 3, 1, 3, 7, 1 };
+		double[] values = { 1.0, 2.0, -1.0, 4.0, 5.0 };
+		int count = HashedVocabulary.merge(indices, values, indices.length);
+		Assert.assertEquals(3, count);
+		Assert.assertEquals(1, indices[0]);
+		Assert.assertEquals(7.0, values[0], .01);
+		Assert.assertEquals(3, indices[1]);
+		Assert.assertEquals(0.0, values[1], .01);
+		Assert.assertEquals(7, indices[2]);
+		Assert.assertEquals(4.0, values[2], .01);
+	}
+	
+	@Test
+	public void testTinyLFUCache() {
+		TinyLFUCache<String> cache = new TinyLFUCache<String>(1000, 0);
+		Random r = new Random(1);
+		for (int i = 0; i < 100000; i++) {
+			long key = (long)Math.floor(Math.exp(r.nextDouble() * Math.log(100000)));
+			String value = cache.get(key);
+			if (value == null)
+				cache.put(key, String.valueOf(key), 1);
+			else
+				Assert.assertEquals(String.valueOf(key), value);
+			Assert.assertTrue(cache.size() <= 1000);
+		}
+		
+		Assert.assertEquals(100000, cache.getHitCount() + cache.getMissCount());
+		Assert.assertTrue(cache.getEvictionCount() > 0);
+		
+		TinyLFUCache<String> weightedCache = new TinyLFUCache<String>(1000, 100);
+		for (int i = 0; i < 1000; i++) {
+			weightedCache.put(i, String.valueOf(i), 1 + i % 5);
+			Assert.assertTrue(weightedCache.getWeight() <= 100);
+		}
+		
+		weightedCache.clear();
+		Assert.assertEquals(0, weightedCache.size());
+		Assert.assertNull(weightedCache.get(1));
+	}
+	
 	@Test
 	public void testTrie() {
 		Trie<String, String> trie = new PatriciaTrie<String, String>(StringKeyAnalyzer.CHAR);
@@ -205,4 +260,156 @@ public class DataStructureTest {
 		Assert.assertEquals(0.0, overwritten.get(18), .01);
 		Assert.assertEquals(0.0, overwritten.get(19), .01);
 	}
+	
+	@Test
+	public void testSparseVectorBuilder() {
+		SparseVectorBuilder builder = new SparseVectorBuilder(2);
+		builder.set(8, 8.0);
+		builder.set(3, 1.0);
+		builder.set(12, 12.0);
+		builder.set(3, 3.0);
+		builder.set(0, 0.5);
+		
+		Vector vector = builder.toVector(20);
+		Assert.assertEquals(0.5, vector.get(0), .01);
+		Assert.assertEquals(3.0, vector.get(3), .01);
+		Assert.assertEquals(8.0, vector.get(8), .01);
+		Assert.assertEquals(12.0, vector.get(12), .01);
+		Assert.assertEquals(0.0, vector.get(4), .01);
+		Assert.assertEquals(4, builder.size());
+		
+		Vector range = builder.toVector(3, 12);
+		Assert.assertEquals(3.0, range.get(0), .01);
+		Assert.assertEquals(8.0, range.get(5), .01);
+		Assert.assertEquals(0.0, range.get(8), .01);
+		
+		SparseVectorBuilder threadBuilder = SparseVectorBuilder.acquire();
+		SparseVectorBuilder nestedBuilder = SparseVectorBuilder.acquire();
+		Assert.assertNotSame(threadBuilder, nestedBuilder);
+		nestedBuilder.release();
+		threadBuilder.release();
+		Assert.assertSame(threadBuilder, SparseVectorBuilder.acquire());
+		threadBuilder.release();
+	}
+	
+	@Test
+	public void testBKTree() {
+		BKTree<String> tree = new BKTree<String>(new BKTree.Metric<String>() {
+			@Override
+			public int distance(String item1, String item2) {
+				return StringUtil.levenshteinDistance(item1, item2);
+			}
+		});
+		
+		BKTree.Objective<String> normalizedDistance = new BKTree.Objective<String>() {
+			@Override
+			public double compute(String query, String item, int distance) {
+				return distance/((double)(query.length() + item.length()));
+			}
+
+			@Override
+			public double lowerBound(String query, int minDistance) {
+				return (minDistance == 0) ? 0.0 : minDistance/((double)(2*query.length() + minDistance));
+			}
+		};
+		
+		Random random = new Random(1);
+		List<String> items = new ArrayList<String>();
+		for (int i = 0; i < 500; i++) {
+			StringBuilder item = new StringBuilder();
+			int length = 1 + random.nextInt(8);
+			for (int j = 0; j < length; j++)
+				item.append((char)('a' + random.nextInt(4)));
+			if (tree.add(item.toString()))
+				items.add(item.toString());
+		}
+		
+		Assert.assertEquals(items.size(), tree.size());
+		
+		for (int i = 0; i < 50; i++) {
+			String query = items.get(random.nextInt(items.size())) + (char)('a' + random.nextInt(4));
+			
+			double min = Double.POSITIVE_INFINITY;
+			int withinTwo = 0;
+			for (String item : items) {
+				int distance = StringUtil.levenshteinDistance(query, item);
+				min = Math.min(min, normalizedDistance.compute(query, item, distance));
+				if (distance <= 2)
+					withinTwo++;
+			}
+			
+			Assert.assertEquals(min, tree.min(query, normalizedDistance).getSecond(), .0000001);
+			Assert.assertEquals(withinTwo, tree.getWithinDistance(query, 2).size());
+		}
+	}
+	
+	@Test
+	public void testWeightStore() {
+		WeightStore dense = WeightStore.make(1000);
+		WeightStore hashed = new WeightStore.Hashed(4);
+		Assert.assertTrue(dense.isConcurrent());
+		Assert.assertFalse(hashed.isConcurrent());
+		
+		Random random = new Random(1);
+		double[] expected = new double[1000];
+		for (int i = 0; i < 5000; i++) {
+			int index = random.nextInt(1000);
+			double delta = random.nextInt(5) - 2;
+			expected[index] += delta;
+			Assert.assertEquals(expected[index], dense.add(index, delta), 0.0);
+			Assert.assertEquals(expected[index], hashed.add(index, delta), 0.0);
+		}
+		
+		int nonZero = 0;
+		for (int i = 0; i < expected.length; i++) {
+			Assert.assertEquals(expected[i], dense.get(i), 0.0);
+			Assert.assertEquals(expected[i], hashed.get(i), 0.0);
+			if (expected[i] != 0)
+				nonZero++;
+		}
+		
+		Assert.assertEquals(nonZero, dense.getNonZeroIndices().length);
+		Assert.assertEquals(nonZero, hashed.getNonZeroIndices().length);
+		
+		WeightStore rounds = WeightStore.makeInt(1000);
+		Assert.assertTrue(rounds.isConcurrent());
+		Assert.assertTrue(rounds.compareAndSet(3, 0, 2));
+		Assert.assertFalse(rounds.compareAndSet(3, 0, 5));
+		Assert.assertEquals(2.0, rounds.get(3), 0.0);
+		Assert.assertEquals(1, rounds.getNonZeroIndices().length);
+	}
+	
+	@Test
+	public void testCounterTableConcurrent() {
+		List<Integer> items = new ArrayList<Integer>();
+		for (int i = 0; i < 2000; i++)
+			items.add(i);
+		
+		CounterTable<String> sequential = new CounterTable<String>();
+		for (Integer item : items)
+			for (int i = 0; i <= item % 7; i++)
+				sequential.incrementCount(String.valueOf(i + item % 13), 2);
+		
+		final CounterTable<String> concurrent = new CounterTable<String>();
+		ThreadMapper<Integer, Boolean> mapper = new ThreadMapper<Integer, Boolean>(new ThreadMapper.Fn<Integer, Boolean>() {
+			@Override
+			public Boolean apply(Integer item) {
+				for (int i = 0; i <= item % 7; i++)
+					concurrent.incrementCount(String.valueOf(i + item % 13), 2);
+				return true;
+			}
+		});
+		
+		// Counting continues across reads
+		mapper.run(items.subList(0, 1000), 4);
+		Assert.assertEquals(19, concurrent.getSize());
+		mapper.run(items.subList(1000, 2000), 4);
+		
+		Assert.assertEquals(sequential.getCounts(), concurrent.getCounts());
+		Assert.assertEquals(sequential.buildIndex(), concurrent.buildIndex());
+		
+		concurrent.removeCountsLessThan(500);
+		sequential.removeCountsLessThan(500);
+		Assert.assertEquals(sequential.getCounts(), concurrent.getCounts());
+	}
 } 
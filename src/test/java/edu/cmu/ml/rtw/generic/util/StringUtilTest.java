@@ -0,0 +1,86 @@
+package edu.cmu.ml.rtw.generic.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.cmu.ml.rtw.generic.str.StringTransform;
+import edu.cmu.ml.rtw.generic.str.StringTransformClean;
+import edu.cmu.ml.rtw.generic.str.StringTransformPipeline;
+import edu.cmu.ml.rtw.generic.str.StringTransformRemoveLongTokens;
+import edu.cmu.ml.rtw.generic.str.StringTransformRemoveSymbols;
+import edu.cmu.ml.rtw.generic.str.StringTransformReplaceNumbers;
+import edu.cmu.ml.rtw.generic.str.StringTransformSpaceToUnderscore;
+import edu.cmu.ml.rtw.generic.str.StringTransformStem;
+import edu.cmu.ml.rtw.generic.str.StringTransformToLowerCase;
+import edu.cmu.ml.rtw.generic.str.StringTransformTrim;
+import edu.cmu.ml.rtw.generic.str.StringTransformUnderscoreToSpace;
+
+public class StringUtilTest {
+	private static final String CHARS = "aAzZ09_ \t\n\u000b\f\r\u001c\u0001\u007f$&+@-/\\.,!'";
+	
+	@Test
+	public void testClean() {
+		Random r = new Random(1);
+		for (int i = 0; i < 20000; i++) {
+			String str = makeString(r);
+			Assert.assertEquals(str, StringUtil.cleanRegex(str), StringUtil.clean(str));
+		}
+	}
+	
+	@Test
+	public void testFusedCleanChains() {
+		StringTransform clean = new StringTransformClean();
+		StringTransform[] transforms = {
+			clean,
+			new StringTransformRemoveLongTokens(),
+			new StringTransformRemoveSymbols(),
+			new StringTransformReplaceNumbers(),
+			new StringTransformSpaceToUnderscore(),
+			new StringTransformStem(),
+			new StringTransformToLowerCase(),
+			new StringTransformTrim(),
+			new StringTransformUnderscoreToSpace()
+		};
+		
+		Random r = new Random(1);
+		for (int i = 0; i < 10000; i++) {
+			String str = makeString(r);
+			
+			List<StringTransform> chain = new ArrayList<StringTransform>();
+			chain.add(clean);
+			int chainLength = r.nextInt(4);
+			for (int j = 0; j < chainLength; j++)
+				chain.add(r.nextInt(chain.size() + 1), transforms[r.nextInt(transforms.length)]);
+			
+			// The expected output cleans with the regular expressions
+			String expected = str;
+			for (StringTransform transform : chain)
+				expected = (transform == clean) ? StringUtil.cleanRegex(expected) : transform.transform(expected);
+			
+			Assert.assertEquals(chain.toString(), expected, StringTransformPipeline.compile("chain", chain).transform(str));
+		}
+	}
+	
+	private static String makeString(Random r) {
+		StringBuilder str = new StringBuilder();
+		int length = r.nextInt(40);
+		for (int j = 0; j < length; j++) {
+			int k = r.nextInt(20);
+			if (k == 0)
+				str.append("abcdefghijklmnopqrstuvwxyzabcdefgh");
+			else if (k == 1)
+				str.append(" running ");
+			else
+				str.append(CHARS.charAt(r.nextInt(CHARS.length())));
+		}
+		
+		// Whole strings that clean keeps as they are
+		if (r.nextInt(20) == 0)
+			return " " + "$&+@".charAt(r.nextInt(4)) + " ";
+		return str.toString();
+	}
+}
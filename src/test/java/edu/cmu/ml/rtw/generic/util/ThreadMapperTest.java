@@ -0,0 +1,145 @@
+package edu.cmu.ml.rtw.generic.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ThreadMapperTest {
+	@Test
+	public void testMaxThreads() {
+		final AtomicInteger running = new AtomicInteger(0);
+		final AtomicInteger maxRunning = new AtomicInteger(0);
+		ThreadMapper<Integer, Integer> mapper = new ThreadMapper<Integer, Integer>(new ThreadMapper.Fn<Integer, Integer>() {
+			@Override
+			public Integer apply(Integer item) {
+				int current = running.incrementAndGet();
+				int max = maxRunning.get();
+				while (current > max && !maxRunning.compareAndSet(max, current))
+					max = maxRunning.get();
+
+				try {
+					Thread.sleep(1);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+
+				running.decrementAndGet();
+				return item*2;
+			}
+		});
+
+		List<Integer> items = makeItems(200);
+		for (int maxThreads = 1; maxThreads <= 3; maxThreads++) {
+			maxRunning.set(0);
+			List<Integer> results = mapper.run(items, maxThreads);
+			Assert.assertEquals(items.size(), results.size());
+			for (int i = 0; i < items.size(); i++)
+				Assert.assertEquals(items.get(i)*2, results.get(i).intValue());
+			Assert.assertTrue(maxRunning.get() <= maxThreads);
+		}
+	}
+
+	@Test
+	public void testNested() {
+		final ThreadMapper<Integer, Integer> inner = new ThreadMapper<Integer, Integer>(new ThreadMapper.Fn<Integer, Integer>() {
+			@Override
+			public Integer apply(Integer item) {
+				return item + 1;
+			}
+		});
+
+		ThreadMapper<Integer, Integer> outer = new ThreadMapper<Integer, Integer>(new ThreadMapper.Fn<Integer, Integer>() {
+			@Override
+			public Integer apply(Integer item) {
+				int sum = 0;
+				for (Integer value : inner.run(makeItems(item), 4))
+					sum += value;
+				return sum;
+			}
+		});
+
+		List<Integer> items = makeItems(100);
+		List<Integer> results = outer.run(items, 4);
+		for (int i = 0; i < items.size(); i++) {
+			int n = items.get(i);
+			Assert.assertEquals(n*(n + 1)/2, results.get(i).intValue());
+		}
+	}
+
+	@Test
+	public void testNestedWaitsDontRunOtherItems() {
+		// The outer item that each thread is processing, and the number of
+		// items that ran on top of an unrelated outer item's stack
+		final ThreadLocal<Integer> currentOuter = new ThreadLocal<Integer>();
+		final AtomicInteger interleaved = new AtomicInteger(0);
+		
+		// Each inner item is the outer item whose call it belongs to
+		final ThreadMapper<Integer, Integer> inner = new ThreadMapper<Integer, Integer>(new ThreadMapper.Fn<Integer, Integer>() {
+			@Override
+			public Integer apply(Integer item) {
+				Integer outerItem = currentOuter.get();
+				if (outerItem != null && !outerItem.equals(item))
+					interleaved.incrementAndGet();
+				
+				try {
+					Thread.sleep(1);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return item;
+			}
+		});
+
+		ThreadMapper<Integer, Integer> outer = new ThreadMapper<Integer, Integer>(new ThreadMapper.Fn<Integer, Integer>() {
+			@Override
+			public Integer apply(Integer item) {
+				if (currentOuter.get() != null)
+					interleaved.incrementAndGet();
+				
+				currentOuter.set(item);
+				try {
+					List<Integer> innerItems = new ArrayList<Integer>();
+					for (int i = 0; i < 8; i++)
+						innerItems.add(item);
+					return inner.run(innerItems, 4).size();
+				} finally {
+					currentOuter.remove();
+				}
+			}
+		});
+
+		List<Integer> results = outer.run(makeItems(64), 4);
+		for (Integer result : results)
+			Assert.assertEquals(8, result.intValue());
+		Assert.assertEquals(0, interleaved.get());
+	}
+
+	@Test
+	public void testException() {
+		ThreadMapper<Integer, Integer> mapper = new ThreadMapper<Integer, Integer>(new ThreadMapper.Fn<Integer, Integer>() {
+			@Override
+			public Integer apply(Integer item) {
+				if (item == 50)
+					throw new IllegalStateException();
+				return item;
+			}
+		});
+
+		try {
+			mapper.run(makeItems(100), 4);
+			Assert.fail();
+		} catch (IllegalStateException e) {
+
+		}
+	}
+
+	private static List<Integer> makeItems(int count) {
+		List<Integer> items = new ArrayList<Integer>();
+		for (int i = 0; i < count; i++)
+			items.add(i);
+		return items;
+	}
+}